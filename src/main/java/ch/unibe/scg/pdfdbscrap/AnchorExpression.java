@@ -0,0 +1,162 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Simple anchor expression. The subset of XPath expressions that select an
+ * HTML anchor by a single attribute, and thus can be evaluated on a stream of
+ * start tags, without a DOM (or on the anchors of a DOM, without XPath):
+ *
+ * <ul>
+ * <li>{@code //a[@name='value']}</li>
+ * <li>{@code //a[contains(@name, 'value')]}</li>
+ * <li>{@code //a[starts-with(@name, 'value')]}</li>
+ * </ul>
+ */
+public class AnchorExpression {
+
+	private final static String VALUE = "(?:'([^']*)'|\"([^\"]*)\")";
+	private final static Pattern EQUALS = Pattern.compile(
+			"^//a\\[\\s*@([\\w:-]+)\\s*=\\s*" + VALUE + "\\s*\\]$"
+	);
+	private final static Pattern FUNCTION = Pattern.compile(
+			"^//a\\[\\s*(contains|starts-with)\\(\\s*@([\\w:-]+)\\s*,\\s*" + VALUE + "\\s*\\)\\s*\\]$"
+	);
+
+	/**
+	 * Comparison operators.
+	 */
+	public enum Operator {
+
+		/**
+		 * The attribute value equals the given value.
+		 */
+		EQUALS() {
+					@Override
+					public boolean matches(String attribute, String value) {
+						return attribute.equals(value);
+					}
+				},
+		/**
+		 * The attribute value contains the given value.
+		 */
+		CONTAINS() {
+					@Override
+					public boolean matches(String attribute, String value) {
+						return attribute.contains(value);
+					}
+				},
+		/**
+		 * The attribute value starts with the given value.
+		 */
+		STARTS_WITH() {
+					@Override
+					public boolean matches(String attribute, String value) {
+						return attribute.startsWith(value);
+					}
+				};
+
+		/**
+		 * Compares an attribute value.
+		 *
+		 * @param attribute the attribute value.
+		 * @param value the value to compare to.
+		 * @return {@code true} if the attribute value matches, {@code false}
+		 * otherwise.
+		 */
+		abstract public boolean matches(String attribute, String value);
+
+	}
+
+	/**
+	 * The XPath expression.
+	 */
+	public final String xpath;
+
+	/**
+	 * The lower case name of the attribute.
+	 */
+	public final String attribute;
+
+	/**
+	 * The comparison operator.
+	 */
+	public final Operator operator;
+
+	/**
+	 * The value to compare to.
+	 */
+	public final String value;
+
+	private AnchorExpression(String xpath, String attribute, Operator operator, String value) {
+		this.xpath = xpath;
+		this.attribute = attribute.toLowerCase(Locale.ROOT);
+		this.operator = operator;
+		this.value = value;
+	}
+
+	/**
+	 * Parses an XPath expression.
+	 *
+	 * @param xpath the XPath expression.
+	 * @return the anchor expression, or {@code null} if the XPath expression
+	 * isn't a simple anchor expression.
+	 */
+	public static AnchorExpression parse(String xpath) {
+		final String x = xpath.trim();
+		Matcher m = EQUALS.matcher(x);
+		if (m.matches()) {
+			return new AnchorExpression(xpath, m.group(1), Operator.EQUALS, getValue(m, 2));
+		}
+		m = FUNCTION.matcher(x);
+		if (m.matches()) {
+			return new AnchorExpression(
+					xpath,
+					m.group(2),
+					m.group(1).equals("contains") ? Operator.CONTAINS : Operator.STARTS_WITH,
+					getValue(m, 3)
+			);
+		}
+		return null;
+	}
+
+	private static String getValue(Matcher m, int group) {
+		final String single = m.group(group);
+		return (single == null) ? m.group(group + 1) : single;
+	}
+
+	/**
+	 * Evaluates the expression on the current start tag of a tokenizer.
+	 *
+	 * @param tokenizer the HTML tokenizer.
+	 * @return {@code true} if the current start tag is a matching anchor,
+	 * {@code false} otherwise.
+	 */
+	public boolean matches(HtmlTokenizer tokenizer) {
+		if (!"a".equals(tokenizer.getTagName())) {
+			return false;
+		}
+		final String v = tokenizer.getAttribute(this.attribute);
+		return v != null && this.operator.matches(v, this.value);
+	}
+
+	/**
+	 * Evaluates the expression on an anchor.
+	 *
+	 * @param anchor the HTML anchor.
+	 * @return {@code true} if the anchor matches, {@code false} otherwise.
+	 */
+	public boolean matches(HtmlAnchor anchor) {
+		return anchor.hasAttribute(this.attribute)
+				&& this.operator.matches(anchor.getAttribute(this.attribute), this.value);
+	}
+
+	@Override
+	public String toString() {
+		return this.xpath;
+	}
+
+}
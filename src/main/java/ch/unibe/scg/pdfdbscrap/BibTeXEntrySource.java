@@ -0,0 +1,298 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Locale;
+import org.jbibtex.BibTeXDatabase;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.BibTeXParser;
+import org.jbibtex.BibTeXString;
+import org.jbibtex.Key;
+import org.jbibtex.ParseException;
+import org.jbibtex.TokenMgrException;
+
+/**
+ * Streaming BibTeX entry source. Reads a BibTeX file one {@code @entry} at a
+ * time, instead of parsing (and holding) the whole BibTeX database at once.
+ * Thus, the time to the first entry, and the memory footprint are independent
+ * of the size of the BibTeX file.
+ *
+ * <p>
+ * {@code @string} definitions are collected along the way, s.t. later entries
+ * may still refer to them. {@code @comment} and {@code @preamble} objects are
+ * ignored, and cross references are not resolved. Unlike a whole
+ * {@code BibTeXDatabase}, entries with duplicate keys are not merged, but
+ * returned (and counted) as separate entries.
+ * </p>
+ */
+public class BibTeXEntrySource implements AutoCloseable {
+
+	private final Reader reader;
+	private final BibTeXParser parser;
+	private final StringBuilder chunk;
+	private int numEntries;
+	private String objectType;
+
+	/**
+	 * Creates a new streaming BibTeX entry source.
+	 *
+	 * @param file the BibTeX file.
+	 * @throws IOException
+	 */
+	public BibTeXEntrySource(File file) throws IOException {
+		this(new FileReader(file));
+	}
+
+	/**
+	 * Creates a new streaming BibTeX entry source.
+	 *
+	 * @param reader the reader to read the BibTeX file from.
+	 * @throws IOException
+	 */
+	public BibTeXEntrySource(Reader reader) throws IOException {
+		this.reader = (reader instanceof BufferedReader) ? reader : new BufferedReader(reader);
+		try {
+			this.parser = new BibTeXParser() {
+				@Override
+				public void checkCrossReferenceResolution(Key key, BibTeXEntry entry) {
+					// cross references can't be resolved one entry at a time
+				}
+			};
+		} catch (ParseException | TokenMgrException ex) {
+			throw new IOException("failed to create BibTeX parser", ex);
+		}
+		this.chunk = new StringBuilder();
+		this.numEntries = 0;
+	}
+
+	/**
+	 * Returns the number of BibTeX entries read (or skipped) so far.
+	 *
+	 * @return the number of BibTeX entries read (or skipped) so far.
+	 */
+	public int getNumEntries() {
+		return this.numEntries;
+	}
+
+	/**
+	 * Reads and parses the next BibTeX entry. BibTeX entries that fail to
+	 * parse are reported, counted and skipped.
+	 *
+	 * @return the next BibTeX entry, or {@code null} if there are no more
+	 * entries.
+	 * @throws IOException
+	 */
+	public BibTeXEntry next() throws IOException {
+		while (nextEntryChunk()) {
+			final BibTeXEntry e = parse(this.chunk.toString());
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a BibTeX entry (e.g. as read by {@code nextObject}), with the
+	 * {@code @string} definitions read so far. BibTeX entries that fail to
+	 * parse are reported.
+	 *
+	 * @param text the raw text of the BibTeX entry.
+	 * @return the BibTeX entry, or {@code null} if it failed to parse.
+	 */
+	public BibTeXEntry parse(String text) {
+		try {
+			final BibTeXDatabase database = this.parser.parse(new StringReader(text));
+			for (BibTeXEntry e : database.getEntries().values()) {
+				return e;
+			}
+		} catch (ParseException | TokenMgrException | IllegalArgumentException ex) {
+			printError(ex, String.format(
+					"WARNING: failed to parse BibTeX entry %d:\n%s",
+					this.numEntries,
+					text
+			));
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next top-level BibTeX object (an entry, or a {@code @string},
+	 * {@code @preamble}, or {@code @comment} object) without parsing it.
+	 * {@code @string} definitions are still registered with the parser, and
+	 * entries are counted.
+	 *
+	 * @return the raw text of the object, or {@code null} if there are no more
+	 * objects.
+	 * @throws IOException
+	 */
+	public String nextObject() throws IOException {
+		this.objectType = nextChunk();
+		if (this.objectType == null) {
+			return null;
+		}
+		if (isEntryType(this.objectType)) {
+			this.numEntries++;
+		} else if (this.objectType.equals("string")) {
+			registerStrings(this.chunk.toString());
+		}
+		return this.chunk.toString();
+	}
+
+	/**
+	 * Returns the type of the last object read by {@code nextObject}.
+	 *
+	 * @return the lower case type of the object (e.g. "article", or
+	 * "string"), or {@code null}.
+	 */
+	public String getObjectType() {
+		return this.objectType;
+	}
+
+	/**
+	 * Checks whether the last object read by {@code nextObject} is a BibTeX
+	 * entry.
+	 *
+	 * @return {@code true} if it's a BibTeX entry, {@code false} otherwise.
+	 */
+	public boolean isEntry() {
+		return this.objectType != null && isEntryType(this.objectType);
+	}
+
+	/**
+	 * Returns the key of a BibTeX entry (e.g. as read by {@code nextObject}),
+	 * without parsing it.
+	 *
+	 * @param text the raw text of the BibTeX entry.
+	 * @return the BibTeX key, or an empty string.
+	 */
+	public static String getKey(String text) {
+		int start = 0;
+		final int n = text.length();
+		while (start < n && text.charAt(start) != '{' && text.charAt(start) != '(') {
+			start++;
+		}
+		int end = ++start;
+		while (end < n && text.charAt(end) != ',' && text.charAt(end) != '}' && text.charAt(end) != ')') {
+			end++;
+		}
+		return (end < n) ? text.substring(start, end).trim() : "";
+	}
+
+	/**
+	 * Skips the next BibTeX entry without parsing it.
+	 *
+	 * @return {@code true} if an entry has been skipped, {@code false} if there
+	 * are no more entries.
+	 * @throws IOException
+	 */
+	public boolean skip() throws IOException {
+		return nextEntryChunk();
+	}
+
+	private static boolean isEntryType(String type) {
+		switch (type) {
+			case "string":
+			case "preamble":
+			case "comment":
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Reads up to the next BibTeX entry. {@code @string} definitions on the
+	 * way are registered with the parser.
+	 *
+	 * @return {@code true} if the next entry has been read into the chunk
+	 * buffer, {@code false} if there are no more entries.
+	 * @throws IOException
+	 */
+	private boolean nextEntryChunk() throws IOException {
+		String type;
+		while ((type = nextChunk()) != null) {
+			if (isEntryType(type)) {
+				this.numEntries++;
+				return true;
+			}
+			if (type.equals("string")) {
+				registerStrings(this.chunk.toString());
+			}
+		}
+		return false;
+	}
+
+	private void registerStrings(String text) {
+		try {
+			final BibTeXDatabase database = this.parser.parse(new StringReader(text));
+			for (BibTeXString s : database.getStrings().values()) {
+				this.parser.addMacro(s);
+			}
+		} catch (ParseException | TokenMgrException | IllegalArgumentException ex) {
+			printError(ex, "WARNING: failed to parse BibTeX string:\n" + text);
+		}
+	}
+
+	/**
+	 * Reads the next top-level BibTeX object into the chunk buffer. Anything
+	 * in between objects is ignored (just like BibTeX does).
+	 *
+	 * @return the lower case type of the object (e.g. "article", or
+	 * "string"), or {@code null} if there are no more objects.
+	 * @throws IOException
+	 */
+	private String nextChunk() throws IOException {
+		this.chunk.setLength(0);
+		int c;
+		// skip to the next '@'
+		while ((c = this.reader.read()) >= 0 && c != '@') {
+		}
+		if (c < 0) {
+			return null;
+		}
+		this.chunk.append('@');
+
+		// object type
+		final StringBuilder type = new StringBuilder();
+		while ((c = this.reader.read()) >= 0 && c != '{' && c != '(') {
+			this.chunk.append((char) c);
+			if (!Character.isWhitespace(c)) {
+				type.append((char) c);
+			}
+		}
+		if (c < 0) {
+			return null;
+		}
+		this.chunk.append((char) c);
+		final char close = (c == '{') ? '}' : ')';
+
+		// object body, up to the matching closing delimiter
+		int depth = 0;
+		boolean inQuote = false;
+		while ((c = this.reader.read()) >= 0) {
+			this.chunk.append((char) c);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && depth > 0) {
+				depth--;
+			} else if (c == '"' && depth == 0) {
+				inQuote = !inQuote;
+			} else if (c == close && depth == 0 && !inQuote) {
+				break;
+			}
+		}
+		return type.toString().toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+}
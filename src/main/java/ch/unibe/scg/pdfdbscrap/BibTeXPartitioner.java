@@ -0,0 +1,363 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Streaming BibTeX partitioner. Splits a (merged) BibTeX file into one BibTeX
+ * file per database in a single pass: BibTeX entries are classified as they
+ * are read, and appended right away to the partition files through buffered
+ * writers. Entries are passed through as they are (raw), instead of being
+ * parsed and formatted again; the URL is extracted from the raw text, and
+ * only entries with a non-trivial URL field (e.g. a {@code @string}
+ * reference, or a concatenation) get parsed. {@code @string} and
+ * {@code @preamble} objects are copied to every partition, s.t. entries may
+ * still refer to them.
+ *
+ * <p>
+ * Optionally, entries are classified by multiple threads, in batches, while
+ * the partition files are still written in input order. The number of batches
+ * in flight is bounded, s.t. the memory footprint is independent of the size
+ * of the BibTeX file.
+ * </p>
+ */
+public class BibTeXPartitioner {
+
+	/**
+	 * The number of objects per batch.
+	 */
+	public final static int BATCH_SIZE = 256;
+
+	/**
+	 * The number of entries between progress messages.
+	 */
+	public final static int PROGRESS_INTERVAL = 100000;
+
+	private final static int NUM_DBS = PDFDatabase.values().length;
+
+	private final File inputFile;
+	private final File outputDirectory;
+	private final int numThreads;
+	private final Writer[] writers;
+	private final int[] counts;
+	private final StringBuilder preamble;
+	private int numEntries;
+
+	/**
+	 * Creates a new BibTeX partitioner.
+	 *
+	 * @param inputFile the BibTeX file.
+	 * @param outputDirectory the output directory.
+	 * @param numThreads the number of threads classifying BibTeX entries.
+	 */
+	public BibTeXPartitioner(File inputFile, File outputDirectory, int numThreads) {
+		this.inputFile = inputFile;
+		this.outputDirectory = outputDirectory;
+		this.numThreads = Math.max(1, numThreads);
+		this.writers = new Writer[NUM_DBS];
+		this.counts = new int[NUM_DBS];
+		this.preamble = new StringBuilder();
+	}
+
+	/**
+	 * Returns the partition file of a database.
+	 *
+	 * @param db the database.
+	 * @return the partition file.
+	 */
+	public File getFile(PDFDatabase db) {
+		return new File(
+				this.outputDirectory.getAbsolutePath(),
+				Main.getBibTeXFilename(this.inputFile, db)
+		);
+	}
+
+	/**
+	 * Returns the number of BibTeX entries in the partition of a database.
+	 *
+	 * @param db the database.
+	 * @return the number of BibTeX entries.
+	 */
+	public int getNumEntries(PDFDatabase db) {
+		return this.counts[db.ordinal()];
+	}
+
+	/**
+	 * Returns the total number of partitioned BibTeX entries.
+	 *
+	 * @return the total number of partitioned BibTeX entries.
+	 */
+	public int getNumEntries() {
+		return this.numEntries;
+	}
+
+	/**
+	 * Partitions the BibTeX file.
+	 *
+	 * @throws IOException
+	 */
+	public void partition() throws IOException {
+		final ExecutorService executor = (this.numThreads > 1)
+				? Executors.newFixedThreadPool(this.numThreads)
+				: null;
+		final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+		try (BibTeXEntrySource source = new BibTeXEntrySource(this.inputFile)) {
+			Batch batch = new Batch();
+			String text;
+			while ((text = source.nextObject()) != null) {
+				if (!source.isEntry() && source.getObjectType().equals("comment")) {
+					continue;
+				}
+				batch.add(text, source.isEntry());
+				if (batch.size() < BATCH_SIZE) {
+					continue;
+				}
+				if (executor == null) {
+					batch.call();
+					write(batch, source);
+				} else {
+					batch.future = executor.submit(batch);
+					inFlight.add(batch);
+					if (inFlight.size() > 2 * this.numThreads) {
+						write(inFlight.remove(), source);
+					}
+				}
+				batch = new Batch();
+			}
+			while (!inFlight.isEmpty()) {
+				write(inFlight.remove(), source);
+			}
+			batch.call();
+			write(batch, source);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			close();
+		}
+	}
+
+	private void write(Batch batch, BibTeXEntrySource source) throws IOException {
+		if (batch.future != null) {
+			try {
+				batch.future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while partitioning", ex);
+			} catch (ExecutionException ex) {
+				throw new IOException("failed to classify BibTeX entries", ex.getCause());
+			}
+		}
+		for (int i = 0, n = batch.size(); i < n; i++) {
+			final String text = batch.texts.get(i);
+			if (!batch.entries.get(i)) {
+				// @string, or @preamble: to all partitions, now and later
+				this.preamble.append(text).append(ScrapResults.SEPARATOR);
+				for (Writer writer : this.writers) {
+					if (writer != null) {
+						writer.write(text);
+						writer.write(ScrapResults.SEPARATOR);
+					}
+				}
+				continue;
+			}
+			PDFDatabase db = batch.dbs[i];
+			if (db == null) {
+				final BibTeXEntry e = source.parse(text);
+				db = (e == null) ? PDFDatabase.UNKNOWN : classify(EntryScraper.getURL(e));
+			}
+			final int j = db.ordinal();
+			if (this.writers[j] == null) {
+				this.writers[j] = Main.newFileWriter(getFile(db));
+				this.writers[j].write(this.preamble.toString());
+			} else {
+				this.writers[j].write(ScrapResults.SEPARATOR);
+			}
+			this.writers[j].write(text);
+			this.counts[j]++;
+			this.numEntries++;
+			if (this.numEntries % PROGRESS_INTERVAL == 0) {
+				System.out.println("partitioned BibTeX entries: " + this.numEntries);
+			}
+		}
+	}
+
+	private void close() {
+		for (PDFDatabase db : PDFDatabase.values()) {
+			final Writer writer = this.writers[db.ordinal()];
+			if (writer == null) {
+				continue;
+			}
+			try {
+				writer.close();
+			} catch (IOException ex) {
+				printError(ex, "ERROR: failed to write database to: " + getFile(db));
+			}
+			this.writers[db.ordinal()] = null;
+		}
+	}
+
+	private static PDFDatabase classify(String url) {
+		return url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
+	}
+
+	/**
+	 * Extracts the URL field of a raw BibTeX entry, without parsing it.
+	 *
+	 * @param text the raw text of the BibTeX entry.
+	 * @return the URL, an empty string if there is no URL field, or
+	 * {@code null} if the value of the URL field isn't a plain braced or quoted
+	 * string (e.g. a {@code @string} reference, or a concatenation), or the
+	 * entry is malformed.
+	 */
+	public static String getURL(String text) {
+		final int n = text.length();
+		int i = 0;
+		// skip the type, and the key
+		while (i < n && text.charAt(i) != '{' && text.charAt(i) != '(') {
+			i++;
+		}
+		while (i < n && text.charAt(i) != ',') {
+			i++;
+		}
+		while (i < n) {
+			// field name
+			while (i < n && (text.charAt(i) == ',' || Character.isWhitespace(text.charAt(i)))) {
+				i++;
+			}
+			final int nameStart = i;
+			while (i < n && text.charAt(i) != '=' && !Character.isWhitespace(text.charAt(i))
+					&& text.charAt(i) != '}' && text.charAt(i) != ')') {
+				i++;
+			}
+			final int nameEnd = i;
+			while (i < n && Character.isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			if (i >= n || text.charAt(i) != '=') {
+				// end of the entry (or malformed)
+				return (nameStart == nameEnd && i < n) ? "" : null;
+			}
+			i++;
+			final boolean isURL = (nameEnd - nameStart == 3)
+					&& text.regionMatches(true, nameStart, "url", 0, 3);
+
+			// field value, possibly concatenated
+			int parts = 0;
+			int valueStart = -1;
+			int valueEnd = -1;
+			boolean plain = true;
+			while (true) {
+				while (i < n && Character.isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				if (i >= n) {
+					return null;
+				}
+				final char c = text.charAt(i);
+				if (c == '{' || c == '"') {
+					final int end = skipDelimited(text, i);
+					if (end < 0) {
+						return null;
+					}
+					valueStart = i + 1;
+					valueEnd = end - 1;
+					i = end;
+				} else {
+					plain = false;
+					while (i < n && text.charAt(i) != ',' && text.charAt(i) != '#'
+							&& text.charAt(i) != '}' && text.charAt(i) != ')'
+							&& !Character.isWhitespace(text.charAt(i))) {
+						i++;
+					}
+				}
+				parts++;
+				while (i < n && Character.isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				if (i < n && text.charAt(i) == '#') {
+					i++;
+					continue;
+				}
+				break;
+			}
+			if (isURL) {
+				return (plain && parts == 1) ? text.substring(valueStart, valueEnd) : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Skips a braced, or quoted value.
+	 *
+	 * @param text the raw text.
+	 * @param start the index of the opening brace, or quote.
+	 * @return the index after the closing brace, or quote, or -1 if there is
+	 * none.
+	 */
+	private static int skipDelimited(String text, int start) {
+		final boolean quoted = text.charAt(start) == '"';
+		int depth = 0;
+		for (int i = start + 1, n = text.length(); i < n; i++) {
+			final char c = text.charAt(i);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}') {
+				if (depth == 0) {
+					return quoted ? -1 : i + 1;
+				}
+				depth--;
+			} else if (c == '"' && quoted && depth == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A batch of raw BibTeX objects, classified by a worker.
+	 */
+	private static class Batch implements Callable<Void> {
+
+		private final List<String> texts = new ArrayList<>(BATCH_SIZE);
+		private final List<Boolean> entries = new ArrayList<>(BATCH_SIZE);
+		private PDFDatabase[] dbs;
+		private Future<Void> future;
+
+		private void add(String text, boolean entry) {
+			this.texts.add(text);
+			this.entries.add(entry);
+		}
+
+		private int size() {
+			return this.texts.size();
+		}
+
+		@Override
+		public Void call() {
+			this.dbs = new PDFDatabase[this.texts.size()];
+			for (int i = 0; i < this.dbs.length; i++) {
+				if (this.entries.get(i)) {
+					final String url = getURL(this.texts.get(i));
+					// null: needs to be parsed (in order, with all @strings)
+					this.dbs[i] = (url == null) ? null : classify(url);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,224 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Concurrent scrap(ing) scheduler. BibTeX entries are grouped by their
+ * {@code PDFDatabase}, and each database gets its own queue and a fixed number
+ * of workers. Each worker checks out a pair of web clients (with disabled, and
+ * enabled JavaScript) from the web client pool per entry, and keeps processing
+ * entries of its database until the scheduler is shut down. Workers of a
+ * database are started lazily, once the first entry of that database is
+ * submitted.
+ *
+ * <p>
+ * The number of BibTeX entries in flight (queued, or being scraped) is
+ * bounded globally, and {@code submit} blocks while the limit is reached, s.t.
+ * the number of BibTeX entries in memory doesn't grow with the size of the
+ * (streamed) BibTeX file. The queues of the databases aren't bounded by
+ * themselves, thus a slow database doesn't stall the submission of the
+ * entries of the other databases, unless its entries take up the whole limit.
+ * </p>
+ */
+public class ConcurrentScheduler {
+
+	/**
+	 * Default max. number of BibTeX entries in flight, over all databases.
+	 */
+	public final static int DEFAULT_MAX_IN_FLIGHT = 256;
+
+	private final static Task POISON_PILL = new Task(null, -1);
+
+	private final EntryScraper scraper;
+	private final WebClientPool pool;
+	private final int numWorkers;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final Map<PDFDatabase, BlockingQueue<Task>> queues;
+	private final List<Thread> workers;
+
+	/**
+	 * Creates a new concurrent scrap(ing) scheduler.
+	 *
+	 * @param scraper the BibTeX entry scraper.
+	 * @param pool the web client pool.
+	 * @param numWorkers the number of workers per database.
+	 */
+	public ConcurrentScheduler(EntryScraper scraper, WebClientPool pool, int numWorkers) {
+		this(scraper, pool, numWorkers, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Creates a new concurrent scrap(ing) scheduler.
+	 *
+	 * @param scraper the BibTeX entry scraper.
+	 * @param pool the web client pool.
+	 * @param numWorkers the number of workers per database.
+	 * @param maxInFlight the max. number of BibTeX entries in flight, over
+	 * all databases.
+	 */
+	public ConcurrentScheduler(EntryScraper scraper, WebClientPool pool, int numWorkers, int maxInFlight) {
+		this.scraper = scraper;
+		this.pool = pool;
+		this.numWorkers = Math.max(1, numWorkers);
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.inFlight = new Semaphore(this.maxInFlight);
+		this.queues = new EnumMap<>(PDFDatabase.class);
+		this.workers = new ArrayList<>();
+	}
+
+	/**
+	 * Returns the number of workers per database.
+	 *
+	 * @return the number of workers per database.
+	 */
+	public int getNumWorkers() {
+		return this.numWorkers;
+	}
+
+	/**
+	 * Returns the max. number of BibTeX entries in flight.
+	 *
+	 * @return the max. number of BibTeX entries in flight, over all
+	 * databases.
+	 */
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	/**
+	 * Submits a BibTeX entry to be scraped. Blocks while the max. number of
+	 * BibTeX entries is in flight.
+	 *
+	 * @param e the BibTeX entry.
+	 * @param num the entry number (incl. offset, used for ID generation).
+	 */
+	public void submit(BibTeXEntry e, int num) {
+		final String url = EntryScraper.getURL(e);
+		final PDFDatabase db = url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
+		try {
+			this.inFlight.acquire();
+			getQueue(db).add(new Task(e, num));
+		} catch (InterruptedException ex) {
+			printError(ex, "WARNING: interrupted while submitting entry number: " + num);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized BlockingQueue<Task> getQueue(PDFDatabase db) {
+		BlockingQueue<Task> queue = this.queues.get(db);
+		if (queue == null) {
+			queue = new LinkedBlockingQueue<>();
+			this.queues.put(db, queue);
+			System.out.println(String.format(
+					"starting %d worker(s) for database: %s",
+					this.numWorkers,
+					db.name()
+			));
+			for (int i = 0; i < this.numWorkers; i++) {
+				final Thread worker = new Thread(
+						new Worker(queue),
+						String.format("%s-worker-%d", db.name(), i + 1)
+				);
+				this.workers.add(worker);
+				worker.start();
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * Shuts down the scheduler, and waits for all submitted BibTeX entries to
+	 * be processed.
+	 */
+	public void awaitCompletion() {
+		final List<BlockingQueue<Task>> queues;
+		final List<Thread> threads;
+		synchronized (this) {
+			queues = new ArrayList<>(this.queues.values());
+			threads = new ArrayList<>(this.workers);
+		}
+		try {
+			for (BlockingQueue<Task> queue : queues) {
+				for (int i = 0; i < this.numWorkers; i++) {
+					queue.put(POISON_PILL);
+				}
+			}
+			for (Thread worker : threads) {
+				worker.join();
+			}
+		} catch (InterruptedException ex) {
+			printError(ex, "WARNING: interrupted while waiting for the workers");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A scrap(ing) task.
+	 */
+	private static class Task {
+
+		private final BibTeXEntry entry;
+		private final int num;
+
+		private Task(BibTeXEntry entry, int num) {
+			this.entry = entry;
+			this.num = num;
+		}
+
+	}
+
+	/**
+	 * A worker of a database.
+	 */
+	private class Worker implements Runnable {
+
+		private final BlockingQueue<Task> queue;
+
+		private Worker(BlockingQueue<Task> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Task task = queue.take();
+					if (task == POISON_PILL) {
+						break;
+					}
+					final WebClientPool.ClientPair pair = pool.acquire();
+					try {
+						scraper.scrap(task.entry, task.num, pair.client, pair.jsclient);
+					} catch (RuntimeException ex) {
+						printError(ex, "ERROR: failed to process entry number: " + task.num);
+						fail(task);
+					} finally {
+						pool.release(pair);
+						inFlight.release();
+					}
+				}
+			} catch (InterruptedException ex) {
+				printError(ex, "WARNING: interrupted: " + Thread.currentThread().getName());
+			}
+		}
+
+		private void fail(Task task) {
+			try {
+				scraper.finish(scraper.fail(task.entry, task.num));
+			} catch (RuntimeException ex) {
+				printError(ex, "ERROR: failed to finish entry number: " + task.num);
+			}
+		}
+
+	}
+
+}
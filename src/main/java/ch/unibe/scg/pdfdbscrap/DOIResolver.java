@@ -0,0 +1,225 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DOI resolver. The DOI system only ever redirects to the web page of the
+ * publisher, yet DOI URLs used to be scraped with the (mixed) scrap(ing)
+ * configurations of all publishers through full page loads. Instead, the
+ * redirects are followed with HEAD requests (no body, let alone a rendered
+ * page), up to the first URL of a known database, s.t. the BibTeX entry gets
+ * reclassified, and scraped with the right scrap(ing) configurations right
+ * away.
+ *
+ * <p>
+ * The mappings of DOI prefixes (the registrant, e.g. {@code 10.1145}) to
+ * databases are cached. If a publisher puts the DOI suffix into its URLs
+ * (e.g. {@code https://dl.acm.org/doi/10.1145/<suffix>}), the URL template
+ * is learned as well; once it predicted the URL of another DOI of the same
+ * prefix correctly, DOIs of that prefix are rewritten without any request.
+ * Prefixes that don't lead to a known database aren't followed again either,
+ * once a few DOIs in a row got redirected to the same unknown host (a single
+ * DOI might just point elsewhere, e.g. to a preprint).
+ * </p>
+ */
+public class DOIResolver {
+
+	/**
+	 * Number of consecutive DOIs of a prefix redirected to the same unknown
+	 * host, before the prefix isn't followed anymore.
+	 */
+	public final static int MAX_MISSES = 3;
+
+	private final HttpConnector connector;
+	private final Map<String, Prefix> prefixes;
+	private final AtomicInteger numRequests;
+	private final AtomicInteger numRewrites;
+
+	/**
+	 * Creates a new DOI resolver.
+	 *
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 */
+	public DOIResolver(HostRateLimiter limiter) {
+		this.connector = new HttpConnector(limiter);
+		this.prefixes = new ConcurrentHashMap<>();
+		this.numRequests = new AtomicInteger();
+		this.numRewrites = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the DOI of a DOI URL.
+	 *
+	 * @param url the DOI URL (e.g. {@code http://dx.doi.org/10.1145/42}).
+	 * @return the DOI (e.g. {@code 10.1145/42}), or {@code null} if the URL
+	 * doesn't contain a DOI.
+	 */
+	public static String getDOI(String url) {
+		final int i = url.indexOf("/10.");
+		if (i < 0) {
+			return null;
+		}
+		final String doi = url.substring(i + 1);
+		final int n = doi.indexOf('/');
+		return (n < 4 || n == doi.length() - 1) ? null : doi;
+	}
+
+	/**
+	 * Returns the prefix (registrant) of a DOI.
+	 *
+	 * @param doi the DOI (e.g. {@code 10.1145/42}).
+	 * @return the prefix (e.g. {@code 10.1145}).
+	 */
+	public static String getPrefix(String doi) {
+		return doi.substring(0, doi.indexOf('/'));
+	}
+
+	/**
+	 * Resolves a DOI URL to the URL of the web page of the publisher.
+	 *
+	 * @param client the web client (to take cookies, user agent, timeout and
+	 * proxy from).
+	 * @param url the DOI URL.
+	 * @return the URL of the web page of a known database, or the given URL
+	 * if it doesn't lead to one.
+	 * @throws IOException
+	 */
+	public String resolve(WebClient client, String url) throws IOException {
+		final String doi = getDOI(url);
+		if (doi == null) {
+			return url;
+		}
+		final String prefix = getPrefix(doi);
+		final String suffix = doi.substring(prefix.length() + 1);
+		final Prefix cached = this.prefixes.get(prefix);
+		if (cached != null) {
+			if (cached.isRewritable()) {
+				this.numRewrites.incrementAndGet();
+				final String target = cached.rewrite(suffix);
+				System.out.println(String.format("  DOI %s -> %s (%s)", doi, cached.db, target));
+				return target;
+			}
+			if (!isKnown(cached.db) && cached.misses >= MAX_MISSES) {
+				return url;
+			}
+		}
+
+		final URL target;
+		try {
+			this.numRequests.incrementAndGet();
+			target = this.connector.follow(
+					client,
+					new URL(url),
+					(URL u) -> isKnown(PDFDatabase.getPDFDatabase(u.toString()))
+			);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while resolving: " + url);
+		}
+		final String location = target.toString();
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(location);
+		if (!isKnown(db)) {
+			if (!location.equals(url)) {
+				// redirected elsewhere; no need to follow this prefix again, if
+				// its DOIs keep getting redirected there
+				final String host = target.getHost();
+				final int misses = (cached != null && !isKnown(cached.db) && host.equals(cached.head))
+						? cached.misses + 1
+						: 1;
+				this.prefixes.put(prefix, new Prefix(db, host, null, false, misses));
+			}
+			return url;
+		}
+		learn(prefix, suffix, db, location, cached);
+		System.out.println(String.format("  DOI %s -> %s (%s)", doi, db, location));
+		return location;
+	}
+
+	private void learn(String prefix, String suffix, PDFDatabase db, String location, Prefix cached) {
+		final int i = location.indexOf(suffix);
+		final boolean unique = (i >= 0) && (location.indexOf(suffix, i + 1) < 0);
+		final String head = unique ? location.substring(0, i) : null;
+		final String tail = unique ? location.substring(i + suffix.length()) : null;
+		if (cached != null && cached.db.equals(db) && unique
+				&& head.equals(cached.head) && tail.equals(cached.tail)) {
+			// the URL template predicted the URL correctly
+			this.prefixes.put(prefix, new Prefix(db, head, tail, true, 0));
+			return;
+		}
+		this.prefixes.put(prefix, new Prefix(db, head, tail, false, 0));
+	}
+
+	private static boolean isKnown(PDFDatabase db) {
+		return !PDFDatabase.DOI.equals(db) && !PDFDatabase.UNKNOWN.equals(db);
+	}
+
+	/**
+	 * Returns the cached mappings of DOI prefixes to databases.
+	 *
+	 * @return the cached mappings, sorted by DOI prefix.
+	 */
+	public Map<String, PDFDatabase> getPrefixes() {
+		final Map<String, PDFDatabase> map = new TreeMap<>();
+		for (Map.Entry<String, Prefix> e : this.prefixes.entrySet()) {
+			map.put(e.getKey(), e.getValue().db);
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the number of DOI URLs resolved by following the redirects.
+	 *
+	 * @return the number of followed DOI URLs.
+	 */
+	public int getNumRequests() {
+		return this.numRequests.get();
+	}
+
+	/**
+	 * Returns the number of DOI URLs rewritten by a learned URL template,
+	 * without any request.
+	 *
+	 * @return the number of rewritten DOI URLs.
+	 */
+	public int getNumRewrites() {
+		return this.numRewrites.get();
+	}
+
+	/**
+	 * The cached mapping of a DOI prefix. The head of a prefix that doesn't
+	 * lead to a known database is the unknown host it got redirected to.
+	 */
+	private static class Prefix {
+
+		private final PDFDatabase db;
+		private final String head;
+		private final String tail;
+		private final boolean confirmed;
+		private final int misses;
+
+		private Prefix(PDFDatabase db, String head, String tail, boolean confirmed, int misses) {
+			this.db = db;
+			this.head = head;
+			this.tail = tail;
+			this.confirmed = confirmed;
+			this.misses = misses;
+		}
+
+		private boolean isRewritable() {
+			return this.confirmed && isKnown(this.db);
+		}
+
+		private String rewrite(String suffix) {
+			return this.head + suffix + this.tail;
+		}
+
+	}
+
+}
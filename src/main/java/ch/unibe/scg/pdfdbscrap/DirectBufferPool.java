@@ -0,0 +1,88 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed size pool of direct byte buffers. Callers block until a buffer is
+ * available, hence the memory used for buffering stays bounded no matter how
+ * many downloads run at the same time.
+ */
+public class DirectBufferPool {
+
+	/**
+	 * Default number of buffers.
+	 */
+	public final static int DEFAULT_NUM_BUFFERS = 16;
+
+	/**
+	 * Default size of a buffer in bytes.
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final BlockingQueue<ByteBuffer> buffers;
+	private final int bufferSize;
+
+	/**
+	 * Creates a new direct buffer pool with default settings.
+	 */
+	public DirectBufferPool() {
+		this(DEFAULT_NUM_BUFFERS, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new direct buffer pool. All buffers are allocated right away.
+	 *
+	 * @param numBuffers the number of buffers.
+	 * @param bufferSize the size of a buffer in bytes.
+	 */
+	public DirectBufferPool(int numBuffers, int bufferSize) {
+		this.buffers = new ArrayBlockingQueue<>(numBuffers);
+		this.bufferSize = bufferSize;
+		for (int i = 0; i < numBuffers; i++) {
+			this.buffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * Returns the size of a buffer.
+	 *
+	 * @return the size of a buffer in bytes.
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Returns the number of available buffers.
+	 *
+	 * @return the number of available buffers.
+	 */
+	public int getNumAvailable() {
+		return this.buffers.size();
+	}
+
+	/**
+	 * Takes a buffer from the pool. Blocks until a buffer is available.
+	 *
+	 * @return a cleared buffer.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public ByteBuffer acquire() throws InterruptedException {
+		final ByteBuffer buffer = this.buffers.take();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool.
+	 *
+	 * @param buffer the buffer taken from this pool.
+	 */
+	public void release(ByteBuffer buffer) {
+		buffer.clear();
+		this.buffers.offer(buffer);
+	}
+
+}
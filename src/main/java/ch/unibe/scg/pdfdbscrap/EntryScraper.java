@@ -0,0 +1,662 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import static ch.unibe.scg.pdfdbscrap.Main.putResult;
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * BibTeX entry scraper. Processes a single BibTeX entry: locates the URL to
+ * the PDF file, downloads the PDF file, and puts the result. A scraper holds no
+ * web clients of its own, hence the same scraper can be used by multiple
+ * workers, each with its own pair of web clients.
+ */
+public class EntryScraper {
+
+	private final ScrapMode scrapMode;
+	private final List<String> xpathExpressions;
+	private final IDCreator idCreator;
+	private final File outputDirectory;
+	private final ScrapResults results;
+	private final PDFDownloader downloader;
+	private final int numRetries;
+	private final int retryTimeoutInSeconds;
+	private volatile int numTotal;
+	private volatile JobJournal journal;
+	private volatile Map<Integer, JobJournal.Record> resumeRecords;
+	private volatile ResolutionCache cache;
+	private volatile StaticResolver staticResolver;
+	private volatile OutputLayout layout;
+	private volatile HedgedResolver hedgedResolver;
+	private volatile DOIResolver doiResolver;
+
+	/**
+	 * Creates a new BibTeX entry scraper.
+	 *
+	 * @param scrapMode the scrap(ing) mode.
+	 * @param xpathExpressions the XPath expressions (only used if the
+	 * scrap(ing) mode requires them).
+	 * @param idCreator the ID method.
+	 * @param outputDirectory the output directory.
+	 * @param results the scrap(ing) results.
+	 * @param downloader the PDF file downloader.
+	 * @param numRetries the number of attempts to fetch the PDF file.
+	 * @param retryTimeoutInSeconds the timeout between attempts in seconds.
+	 */
+	public EntryScraper(ScrapMode scrapMode, List<String> xpathExpressions, IDCreator idCreator, File outputDirectory, ScrapResults results, PDFDownloader downloader, int numRetries, int retryTimeoutInSeconds) {
+		this.scrapMode = scrapMode;
+		this.xpathExpressions = scrapMode.requiresXPathExpression()
+				? xpathExpressions
+				: Collections.EMPTY_LIST;
+		this.idCreator = idCreator;
+		this.outputDirectory = outputDirectory;
+		this.results = results;
+		this.downloader = downloader;
+		this.numRetries = numRetries;
+		this.retryTimeoutInSeconds = retryTimeoutInSeconds;
+		this.numTotal = -1;
+		this.journal = null;
+		this.resumeRecords = Collections.EMPTY_MAP;
+		this.cache = null;
+		this.staticResolver = null;
+		this.layout = OutputLayout.FLAT;
+		this.hedgedResolver = null;
+		this.doiResolver = null;
+	}
+
+	/**
+	 * Sets the total number (incl. offset) of BibTeX entries. Only used for
+	 * progress messages.
+	 *
+	 * @param numTotal the total number of BibTeX entries, or {@code -1} if
+	 * unknown.
+	 */
+	public void setNumTotal(int numTotal) {
+		this.numTotal = numTotal;
+	}
+
+	/**
+	 * Returns the scrap(ing) results.
+	 *
+	 * @return the scrap(ing) results.
+	 */
+	public ScrapResults getResults() {
+		return this.results;
+	}
+
+	/**
+	 * Returns the URL of a BibTeX entry.
+	 *
+	 * @param entry the BibTeX entry.
+	 * @return the URL of the BibTeX entry, or an empty string.
+	 */
+	public static String getURL(BibTeXEntry entry) {
+		final org.jbibtex.Value urlValue = entry.getField(BibTeXEntry.KEY_URL);
+		return (urlValue == null) ? "" : urlValue.toUserString();
+	}
+
+	/**
+	 * Sets the job journal to record the outcome of each BibTeX entry.
+	 *
+	 * @param journal the job journal, or {@code null}.
+	 */
+	public void setJournal(JobJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Sets the layout of the files in the status directories.
+	 *
+	 * @param layout the output layout.
+	 */
+	public void setLayout(OutputLayout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * Returns the layout of the files in the status directories.
+	 *
+	 * @return the output layout.
+	 */
+	public OutputLayout getLayout() {
+		return this.layout;
+	}
+
+	/**
+	 * Sets the journal records of a previous run to be resumed. BibTeX entries
+	 * that have been completed already (i.e. with a non-retryable status) are
+	 * skipped, yet still put into the results. Records are matched by entry
+	 * number, and only apply if the BibTeX key still matches.
+	 *
+	 * @param records the journal records by entry number.
+	 */
+	public void setResumeRecords(Map<Integer, JobJournal.Record> records) {
+		this.resumeRecords = records;
+	}
+
+	/**
+	 * Sets the resolution cache. Web pages that have been resolved already are
+	 * not fetched again, unless the cached URL to the PDF file turns out to be
+	 * invalid.
+	 *
+	 * @param cache the resolution cache, or {@code null}.
+	 */
+	public void setResolutionCache(ResolutionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the static resolution engine. Web pages of databases with static
+	 * anchors to the PDF file are resolved without HtmlUnit first, and only on
+	 * a miss with HtmlUnit.
+	 *
+	 * @param staticResolver the static resolution engine, or {@code null}.
+	 */
+	public void setStaticResolver(StaticResolver staticResolver) {
+		this.staticResolver = staticResolver;
+	}
+
+	/**
+	 * Sets the hedged resolver. In {@code AUTO} mode, the next scrap(ing) mode
+	 * of a database starts concurrently if the previous one takes too long.
+	 *
+	 * @param hedgedResolver the hedged resolver, or {@code null}.
+	 */
+	public void setHedgedResolver(HedgedResolver hedgedResolver) {
+		this.hedgedResolver = hedgedResolver;
+	}
+
+	/**
+	 * Sets the DOI resolver. DOI URLs are resolved to the web page of the
+	 * publisher by their redirects (without loading any page), and the BibTeX
+	 * entry is reclassified by that URL before a scrap(ing) mode is picked.
+	 *
+	 * @param doiResolver the DOI resolver, or {@code null}.
+	 */
+	public void setDOIResolver(DOIResolver doiResolver) {
+		this.doiResolver = doiResolver;
+	}
+
+	/**
+	 * Scraps a BibTeX entry. Runs all phases (resolve, download, and finish)
+	 * in the calling thread.
+	 *
+	 * @param e the BibTeX entry.
+	 * @param num the entry number (incl. offset, used for ID generation).
+	 * @param client the web client with disabled JavaScript.
+	 * @param jsclient the web client with enabled JavaScript.
+	 * @return the scrap(ing) status.
+	 */
+	public ScrapStatus scrap(BibTeXEntry e, int num, WebClient client, WebClient jsclient) {
+		final Job job = resolve(e, num, client, jsclient);
+		if (!job.isDone()) {
+			download(job, client, jsclient);
+		}
+		return finish(job);
+	}
+
+	/**
+	 * First phase: resolves the URL to the PDF file of a BibTeX entry (or takes
+	 * it from the resolution cache).
+	 *
+	 * @param e the BibTeX entry.
+	 * @param num the entry number (incl. offset, used for ID generation).
+	 * @param client the web client with disabled JavaScript.
+	 * @param jsclient the web client with enabled JavaScript.
+	 * @return the job, which is done already if the BibTeX entry has been
+	 * skipped, or failed to resolve.
+	 */
+	public Job resolve(BibTeXEntry e, int num, WebClient client, WebClient jsclient) {
+		final org.jbibtex.Key keyValue = e.getKey();
+		if (keyValue == null) {
+			return new Job(e, num, "", IDCreator.ENTRY_NUMBER.getID(num, "", e), "")
+					.done(ScrapStatus.FAILURE_NO_BIBTEX_KEY);
+		}
+		final String key = keyValue.toString();
+
+		final JobJournal.Record record = this.resumeRecords.get(num);
+		final JobJournal.Record previous = (record != null && record.key.equals(key)) ? record : null;
+		if (previous != null && !previous.status.isRetryable()) {
+			System.out.println(String.format(
+					"skipping entry %s: %s (%s)",
+					getProgress(num),
+					key,
+					previous.status.name()
+			));
+			final Job job = new Job(e, num, key, previous.identifier, getURL(e));
+			job.skipped = true;
+			return job.done(previous.status);
+		}
+
+		System.out.println(String.format(
+				"processing entry %s: %s",
+				getProgress(num),
+				key
+		));
+
+		final String identifier = idCreator.getID(num, key, e);
+		if (previous != null) {
+			removeStaleResult(previous);
+		}
+
+		final Job job = new Job(e, num, key, identifier, getURL(e));
+		if (job.url.isEmpty()) {
+			return job.done(ScrapStatus.FAILURE_NO_BIBTEX_URL);
+		}
+
+		final Resolution cached = (this.cache == null) ? null : this.cache.get(job.url);
+		if (cached != null) {
+			System.out.println("  cached URL to PDF file: " + cached);
+			job.resolution = cached;
+			job.cached = true;
+		} else {
+			resolveURLToPDF(job, client, jsclient);
+		}
+		return job;
+	}
+
+	private void resolveURLToPDF(Job job, WebClient client, WebClient jsclient) {
+		// attempt to extract the link to the PDF from the web page
+		System.out.println("  fetching URL to PDF file from: " + job.url + "...");
+		final long resolveStart = System.nanoTime();
+		job.resolution = Resolution.NONE;
+		try {
+			job.resolution = resolve(reclassify(job, client), client, jsclient);
+		} catch (FailingHttpStatusCodeException ex) {
+			printError(ex, "WARNING: failing HTTP status code");
+			job.resolveMillis += getMillisSince(resolveStart);
+			job.done(ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE);
+			return;
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to fetch URL to PDF file from: " + job.url);
+			job.resolveMillis += getMillisSince(resolveStart);
+			job.done(ScrapStatus.FAILURE_IO_INPUTSTREAM);
+			return;
+		} catch (RuntimeException ex) {
+			printError(ex, "WARNING: failed to fetch URL to PDF file from: " + job.url);
+		}
+		job.resolveMillis += getMillisSince(resolveStart);
+
+		if (job.resolution.isEmpty()) {
+			job.done(ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND);
+			return;
+		}
+		if (this.cache != null) {
+			this.cache.put(job.url, job.resolution);
+		}
+	}
+
+	/**
+	 * Resolves a DOI URL to the web page of the publisher (once per job), and
+	 * reclassifies the BibTeX entry by it.
+	 *
+	 * @param job the job.
+	 * @param client the web client with disabled JavaScript.
+	 * @return the URL of the web page to resolve the URL to the PDF file from.
+	 */
+	private String reclassify(Job job, WebClient client) {
+		if (job.page != null) {
+			return job.page;
+		}
+		job.page = job.url;
+		final DOIResolver dr = this.doiResolver;
+		if (dr == null || !PDFDatabase.DOI.equals(job.db)) {
+			return job.page;
+		}
+		final long start = System.nanoTime();
+		try {
+			job.page = dr.resolve(client, job.url);
+			job.db = PDFDatabase.getPDFDatabase(job.page);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to follow the DOI redirects of: " + job.url);
+		} finally {
+			ScrapMetrics.getInstance().record(ScrapMetrics.Stage.DOI_REDIRECT, PDFDatabase.DOI, null, start);
+		}
+		return job.page;
+	}
+
+	/**
+	 * Second phase: downloads the PDF file of a resolved BibTeX entry. A
+	 * cached URL to the PDF file that turns out to be invalid gets resolved
+	 * once more.
+	 *
+	 * @param job the job (as returned by {@code resolve}, and not done yet).
+	 * @param client the web client with disabled JavaScript (ideally the same
+	 * one that resolved the URL to the PDF file, or one that got its cookies
+	 * restored).
+	 * @param jsclient the web client with enabled JavaScript.
+	 */
+	public void download(Job job, WebClient client, WebClient jsclient) {
+		while (true) {
+			final long downloadStart = System.nanoTime();
+			final ScrapStatus ret = download(job.db, job.identifier, job.resolution.urlToPDF, client);
+			job.downloadMillis += getMillisSince(downloadStart);
+			job.downloaded = true;
+			ScrapMetrics.getInstance().record(ScrapMetrics.Stage.DOWNLOAD, job.db, job.resolution.mode, downloadStart);
+
+			if (isInvalidResolution(ret)) {
+				if (this.cache != null) {
+					this.cache.invalidate(job.url);
+				}
+				if (job.cached) {
+					// the cached URL might be outdated; resolve once more
+					System.out.println("  invalidated cached URL to PDF file: " + job.resolution.urlToPDF);
+					ScrapMetrics.getInstance().addRetry(ScrapMetrics.Retry.CACHE, job.db);
+					job.cached = false;
+					resolveURLToPDF(job, client, jsclient);
+					if (job.isDone()) {
+						return;
+					}
+					continue;
+				}
+			}
+			job.done(ret);
+			return;
+		}
+	}
+
+	/**
+	 * Last phase: puts the result (BibTeX file, scrap(ing) results, and job
+	 * journal).
+	 *
+	 * @param job the job (done).
+	 * @return the scrap(ing) status.
+	 */
+	public ScrapStatus finish(Job job) {
+		if (job.skipped) {
+			results.put(job.status, job.entry);
+			return job.status;
+		}
+		finish(
+				job.status,
+				job.entry, job.num, job.key, job.identifier, job.url,
+				(job.resolution == null) ? "" : job.resolution.urlToPDF,
+				job.resolveMillis, job.downloadMillis
+		);
+		if (job.downloaded) {
+			System.out.print("\n");
+		}
+		return job.status;
+	}
+
+	/**
+	 * Fails a BibTeX entry that couldn't be scraped due to an unexpected
+	 * (runtime) exception, s.t. it still gets finished. The status is a
+	 * retryable one, hence the BibTeX entry gets processed again if the job
+	 * gets resumed.
+	 *
+	 * @param e the BibTeX entry.
+	 * @param num the entry number (incl. offset, used for ID generation).
+	 * @return the job (done).
+	 */
+	public Job fail(BibTeXEntry e, int num) {
+		final org.jbibtex.Key keyValue = e.getKey();
+		if (keyValue == null) {
+			return new Job(e, num, "", IDCreator.ENTRY_NUMBER.getID(num, "", e), "")
+					.done(ScrapStatus.FAILURE_NO_BIBTEX_KEY);
+		}
+		final String key = keyValue.toString();
+		return fail(new Job(e, num, key, idCreator.getID(num, key, e), getURL(e)));
+	}
+
+	/**
+	 * Fails a job that couldn't be completed due to an unexpected (runtime)
+	 * exception, s.t. it still gets finished.
+	 *
+	 * @param job the job.
+	 * @return the job (done, with a retryable status).
+	 * @see #fail(BibTeXEntry, int)
+	 */
+	public Job fail(Job job) {
+		job.skipped = false;
+		return job.done(ScrapStatus.FAILURE_IO_INPUTSTREAM);
+	}
+
+	/**
+	 * Resolves the URL to the PDF file from a web page. Tries the static
+	 * resolution engine first, if enabled for the database, and the scrap(ing)
+	 * mode evaluates anchor expressions.
+	 *
+	 * @param url the URL of the web page.
+	 * @param client the web client with disabled JavaScript.
+	 * @param jsclient the web client with enabled JavaScript.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
+	 * @throws IOException
+	 */
+	private Resolution resolve(String url, WebClient client, WebClient jsclient) throws IOException {
+		final StaticResolver sr = this.staticResolver;
+		if (sr != null) {
+			final List<String> anchorExpressions = getAnchorExpressions(url);
+			if (!anchorExpressions.isEmpty() && sr.isEnabled(PDFDatabase.getPDFDatabase(url))) {
+				final long start = System.nanoTime();
+				final Resolution resolution;
+				try {
+					resolution = sr.resolve(client, url, anchorExpressions);
+				} finally {
+					ScrapMetrics.getInstance().record(
+							ScrapMetrics.Stage.STATIC_RESOLVE,
+							PDFDatabase.getPDFDatabase(url),
+							ScrapMode.XPATH_ANCHOR,
+							start
+					);
+				}
+				if (!resolution.isEmpty()) {
+					return resolution;
+				}
+				System.out.println("  ...no static anchor match, falling back to HtmlUnit");
+			}
+		}
+		final HedgedResolver hr = this.hedgedResolver;
+		if (hr != null && ScrapMode.AUTO.equals(scrapMode)) {
+			return hr.resolve(url, client, jsclient);
+		}
+		return ScrapMode.fetchURLToPDFWithRetry(scrapMode, client, jsclient, url, xpathExpressions);
+	}
+
+	private List<String> getAnchorExpressions(String url) {
+		switch (scrapMode) {
+			case AUTO:
+				final List<String> xpath = PDFDatabase.getPDFDatabase(url)
+						.getScrapConfigurations()
+						.get(ScrapMode.XPATH_ANCHOR);
+				return (xpath == null) ? Collections.EMPTY_LIST : xpath;
+			case XPATH_ANCHOR:
+				return xpathExpressions;
+			default:
+				return Collections.EMPTY_LIST;
+		}
+	}
+
+	private static boolean isInvalidResolution(ScrapStatus status) {
+		return ScrapStatus.FAILURE_INVALID_URL_TO_PDF.equals(status)
+				|| ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE.equals(status);
+	}
+
+	/**
+	 * Downloads the PDF file, and retries in case of a failing HTTP status
+	 * code.
+	 *
+	 * @param db the database of the BibTeX entry.
+	 * @param identifier the identifier (used for the filename).
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param client the web client.
+	 * @return the scrap(ing) status.
+	 */
+	private ScrapStatus download(PDFDatabase db, String identifier, String urlToPDF, WebClient client) {
+		System.out.println("  fetching PDF file from: " + urlToPDF + "...");
+		ScrapStatus ret = ScrapStatus.FAILURE_INVALID_URL_TO_PDF;
+		int t = 0;
+		while (t < numRetries) {
+			if (t > 0) {
+				try {
+					TimeUnit.SECONDS.sleep(retryTimeoutInSeconds);
+				} catch (InterruptedException ex) {
+					printError(ex);
+				}
+				System.out.println(String.format(
+						"  retrying (%d/%d) to fetch PDF file from: %s",
+						t + 1, numRetries,
+						urlToPDF
+				));
+				ScrapMetrics.getInstance().addRetry(ScrapMetrics.Retry.DOWNLOAD, db);
+			}
+			t++;
+			final File out = layout.getFile(outputDirectory, ScrapStatus.SUCCESS, identifier, ".pdf");
+			ret = downloader.download(client, urlToPDF, out);
+			if (!ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE.equals(ret)) {
+				break;
+			}
+			if (t < numRetries) {
+				printError("...trying again in about " + retryTimeoutInSeconds + " seconds.");
+			} else {
+				printError("...giving up.");
+			}
+		}
+		return ret;
+	}
+
+	private String getProgress(int num) {
+		final int total = this.numTotal;
+		return (total < 0) ? String.format("%d", num) : String.format("%d/%d", num, total);
+	}
+
+	private static long getMillisSince(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	private ScrapStatus finish(ScrapStatus status, BibTeXEntry e, int num, String key, String identifier, String url, String urlToPDF, long resolveMillis, long downloadMillis) {
+		putResult(status, e, results, layout.getFile(outputDirectory, status, identifier, ".bib"));
+		if (this.journal != null) {
+			this.journal.append(new JobJournal.Record(
+					key,
+					num,
+					identifier,
+					status,
+					url,
+					urlToPDF,
+					resolveMillis,
+					downloadMillis,
+					System.currentTimeMillis()
+			));
+		}
+		return status;
+	}
+
+	/**
+	 * Removes the BibTeX file of a previous run, s.t. a BibTeX entry doesn't
+	 * end up in multiple status directories.
+	 *
+	 * @param previous the journal record of the previous run.
+	 */
+	private void removeStaleResult(JobJournal.Record previous) {
+		final File bib = layout.getFile(outputDirectory, previous.status, previous.identifier, ".bib");
+		if (bib.exists() && !bib.delete()) {
+			printError("WARNING: failed to remove stale BibTeX file: " + bib);
+		}
+	}
+
+	/**
+	 * A scrap(ing) job. The state of a BibTeX entry passed from one phase to
+	 * the next, possibly from one thread to another.
+	 */
+	public static class Job {
+
+		private final BibTeXEntry entry;
+		private final int num;
+		private final String key;
+		private final String identifier;
+		private final String url;
+		private String page;
+		private PDFDatabase db;
+		private Resolution resolution;
+		private boolean cached;
+		private boolean skipped;
+		private boolean downloaded;
+		private long resolveMillis;
+		private long downloadMillis;
+		private ScrapStatus status;
+		private List<Cookie> cookies;
+
+		private Job(BibTeXEntry entry, int num, String key, String identifier, String url) {
+			this.entry = entry;
+			this.num = num;
+			this.key = key;
+			this.identifier = identifier;
+			this.url = url;
+			this.db = PDFDatabase.getPDFDatabase(url);
+		}
+
+		private Job done(ScrapStatus status) {
+			this.status = status;
+			return this;
+		}
+
+		/**
+		 * Keeps (a copy of) the cookies of the pair of web clients that
+		 * resolved the job, s.t. the pair can be returned to the pool, and the
+		 * PDF file be downloaded with another one.
+		 *
+		 * @param pair the pair of web clients that resolved the job.
+		 */
+		public void keepCookies(WebClientPool.ClientPair pair) {
+			this.cookies = new ArrayList<>(pair.client.getCookieManager().getCookies());
+			this.cookies.addAll(pair.jsclient.getCookieManager().getCookies());
+		}
+
+		/**
+		 * Restores the kept cookies (if any) to a pair of web clients.
+		 *
+		 * @param pair the pair of web clients to download the PDF file with.
+		 */
+		public void restoreCookies(WebClientPool.ClientPair pair) {
+			if (this.cookies == null) {
+				return;
+			}
+			for (Cookie cookie : this.cookies) {
+				pair.client.getCookieManager().addCookie(cookie);
+				pair.jsclient.getCookieManager().addCookie(cookie);
+			}
+			this.cookies = null;
+		}
+
+		/**
+		 * Returns the entry number.
+		 *
+		 * @return the entry number (incl. offset).
+		 */
+		public int getNum() {
+			return this.num;
+		}
+
+		/**
+		 * Checks whether the job is done, i.e. ready to be finished.
+		 *
+		 * @return {@code true} if the job is done, {@code false} if the PDF
+		 * file is yet to be downloaded.
+		 */
+		public boolean isDone() {
+			return this.status != null;
+		}
+
+		/**
+		 * Returns the scrap(ing) status.
+		 *
+		 * @return the scrap(ing) status, or {@code null} if not done yet.
+		 */
+		public ScrapStatus getStatus() {
+			return this.status;
+		}
+
+	}
+
+}
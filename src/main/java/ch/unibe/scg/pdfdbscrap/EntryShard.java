@@ -0,0 +1,122 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BibTeX entry shard. Assigns BibTeX entries to one of n shards by a stable
+ * hash of their BibTeX key, s.t. n processes (e.g. on n machines) each take a
+ * disjoint, and balanced subset of the same BibTeX file, without any
+ * coordination. Working with shard indices starting from 1 to n. BibTeX
+ * entries keep their number (1 to N) in the whole BibTeX file, s.t. the
+ * numbering of the ID method doesn't depend on the shard.
+ */
+public class EntryShard {
+
+	private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private final static long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * The shard to process (1 to n).
+	 */
+	public final int index;
+
+	/**
+	 * The number of shards.
+	 */
+	public final int count;
+
+	/**
+	 * Creates a new entry shard that contains all BibTeX entries.
+	 */
+	public EntryShard() {
+		this(1, 1);
+	}
+
+	/**
+	 * Creates a new entry shard.
+	 *
+	 * @param index the shard to process (1 to n).
+	 * @param count the number of shards (n).
+	 * @throws IllegalArgumentException if the shard isn't within 1 to n.
+	 */
+	public EntryShard(int index, int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException(String.format(
+					"invalid shard: %d/%d",
+					index,
+					count
+			));
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses an entry shard.
+	 *
+	 * @param value the entry shard string (pattern: "index/count", e.g. "2/4").
+	 * @return the entry shard.
+	 * @throws IllegalArgumentException in case of an invalid entry shard.
+	 */
+	public static EntryShard parse(String value) {
+		final int n = value.indexOf('/');
+		if (n < 0) {
+			throw new IllegalArgumentException("expected <index>/<count>: " + value);
+		}
+		return new EntryShard(
+				Integer.parseInt(value.substring(0, n).trim()),
+				Integer.parseInt(value.substring(n + 1).trim())
+		);
+	}
+
+	/**
+	 * Checks whether this shard contains all BibTeX entries.
+	 *
+	 * @return {@code true} if there is just one shard, {@code false}
+	 * otherwise.
+	 */
+	public boolean isAll() {
+		return this.count == 1;
+	}
+
+	/**
+	 * Checks whether a BibTeX entry belongs to this shard.
+	 *
+	 * @param key the BibTeX key, or an empty string.
+	 * @param num the number of the BibTeX entry (1 to N). Used to assign
+	 * BibTeX entries without a key.
+	 * @return {@code true} if the BibTeX entry belongs to this shard,
+	 * {@code false} otherwise.
+	 */
+	public boolean contains(String key, int num) {
+		if (this.count == 1) {
+			return true;
+		}
+		final long i = key.isEmpty()
+				? num - 1
+				: hash(key) >>> 1;
+		return (i % this.count) == (this.index - 1);
+	}
+
+	/**
+	 * Returns the stable hash of a BibTeX key (64-bit FNV-1a of its UTF-8
+	 * bytes). Independent of the JVM, and of the platform.
+	 *
+	 * @param key the BibTeX key.
+	 * @return the hash of the BibTeX key.
+	 */
+	public static long hash(String key) {
+		long h = FNV_OFFSET_BASIS;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h ^= (b & 0xff);
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d", this.index, this.count);
+	}
+
+}
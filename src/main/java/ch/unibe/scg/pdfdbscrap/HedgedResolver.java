@@ -0,0 +1,259 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedged resolution of the URL to the PDF file in {@code AUTO} mode. Instead
+ * of trying the scrap(ing) modes of a database strictly one after the other,
+ * the next scrap(ing) mode starts concurrently once the previous one hasn't
+ * resolved the URL to the PDF file within some delay (or right away, once it
+ * failed). The first resolution wins, and the other attempts get cancelled.
+ * Thus a slow, failing scrap(ing) mode (e.g. with a retry with JavaScript
+ * enabled) no longer delays the one that works.
+ *
+ * <p>
+ * Each attempt checks out its own pair of web clients from the pool, s.t. the
+ * pair of the BibTeX entry is never used by two threads at once. The cookies of
+ * the winning pair are copied to the web client of the BibTeX entry, which
+ * goes on to download the PDF file. Cancelled attempts are interrupted, their
+ * background JavaScript jobs get removed, and they aren't recorded in the
+ * strategy statistics.
+ * </p>
+ */
+public class HedgedResolver implements AutoCloseable {
+
+	private final WebClientPool pool;
+	private final long delayMillis;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a new hedged resolver.
+	 *
+	 * @param pool the web client pool.
+	 * @param delayMillis the delay in milliseconds after which the next
+	 * scrap(ing) mode starts concurrently.
+	 */
+	public HedgedResolver(WebClientPool pool, long delayMillis) {
+		this.pool = pool;
+		this.delayMillis = Math.max(0, delayMillis);
+		final AtomicInteger numThreads = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool((Runnable r) -> {
+			final Thread t = new Thread(r, String.format("hedge-%d", numThreads.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns the delay after which the next scrap(ing) mode starts
+	 * concurrently.
+	 *
+	 * @return the delay in milliseconds.
+	 */
+	public long getDelayMillis() {
+		return this.delayMillis;
+	}
+
+	/**
+	 * Resolves the URL to the PDF file from a web page, trying the scrap(ing)
+	 * modes of the database in order of their expected time to success (see
+	 * {@code StrategyStats}).
+	 *
+	 * @param url the URL of the web page.
+	 * @param client the web client with disabled JavaScript (of the BibTeX
+	 * entry; receives the cookies of the winning attempt).
+	 * @param jsclient the web client with enabled JavaScript (of the BibTeX
+	 * entry).
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
+	 * @throws IOException
+	 */
+	public Resolution resolve(String url, WebClient client, WebClient jsclient) throws IOException {
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(url);
+		final List<ScrapMode> modes = StrategyStats.getInstance().orderModes(
+				db,
+				db.getScrapConfigurations().keySet()
+		);
+		if (modes.size() < 2) {
+			// nothing to hedge
+			return ScrapMode.fetchURLToPDFWithRetry(ScrapMode.AUTO, client, jsclient, url, Collections.EMPTY_LIST);
+		}
+		return resolve(url, modes, client);
+	}
+
+	/**
+	 * Resolves the URL to the PDF file from a web page, trying the given
+	 * scrap(ing) modes in the given order.
+	 *
+	 * @param url the URL of the web page.
+	 * @param modes the scrap(ing) modes (of the database).
+	 * @param client the web client with disabled JavaScript (of the BibTeX
+	 * entry; receives the cookies of the winning attempt).
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
+	 * @throws IOException
+	 */
+	public Resolution resolve(String url, List<ScrapMode> modes, WebClient client) throws IOException {
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(url);
+		final Map<ScrapMode, List<String>> configs = db.getScrapConfigurations();
+		final ScrapMetrics metrics = ScrapMetrics.getInstance();
+		System.out.println(String.format(
+				"  auto. database detection: %s (modes=%s, hedged after %dms)",
+				db,
+				modes,
+				this.delayMillis
+		));
+		final long start = System.nanoTime();
+		final CompletionService<Resolution> completion = new ExecutorCompletionService<>(this.executor);
+		final List<Attempt> attempts = new ArrayList<>();
+		Exception failure = null;
+		try {
+			int numPending = 0;
+			long nextStart = 0;
+			while (true) {
+				final long now = System.nanoTime();
+				if (attempts.size() < modes.size() && (numPending == 0 || now >= nextStart)) {
+					if (numPending > 0) {
+						System.out.println("  ...hedging with " + modes.get(attempts.size()));
+						metrics.addRetry(ScrapMetrics.Retry.HEDGE, db);
+					}
+					final Attempt attempt = new Attempt(url, modes.get(attempts.size()), configs, client);
+					attempt.future = completion.submit(attempt);
+					attempts.add(attempt);
+					numPending++;
+					nextStart = now + TimeUnit.MILLISECONDS.toNanos(this.delayMillis);
+					continue;
+				}
+				if (numPending == 0) {
+					break;
+				}
+				final Future<Resolution> done = (attempts.size() < modes.size())
+						? completion.poll(Math.max(0, nextStart - now), TimeUnit.NANOSECONDS)
+						: completion.take();
+				if (done == null) {
+					continue;
+				}
+				numPending--;
+				try {
+					final Resolution resolution = done.get();
+					if (!resolution.isEmpty()) {
+						return resolution;
+					}
+				} catch (ExecutionException ex) {
+					if (failure == null) {
+						failure = (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return Resolution.NONE;
+		} finally {
+			for (Attempt attempt : attempts) {
+				attempt.cancel();
+			}
+			metrics.record(ScrapMetrics.Stage.RESOLVE, db, ScrapMode.AUTO, start);
+		}
+		// no resolution: report the first failure, if any
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		return Resolution.NONE;
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * An attempt of a scrap(ing) mode, on its own pair of web clients.
+	 */
+	private class Attempt implements Callable<Resolution> {
+
+		private final String url;
+		private final ScrapMode mode;
+		private final Map<ScrapMode, List<String>> configs;
+		private final WebClient client;
+		private volatile Future<Resolution> future;
+		private volatile WebClientPool.ClientPair pair;
+		private volatile boolean cancelled;
+
+		private Attempt(String url, ScrapMode mode, Map<ScrapMode, List<String>> configs, WebClient client) {
+			this.url = url;
+			this.mode = mode;
+			this.configs = configs;
+			this.client = client;
+		}
+
+		@Override
+		public Resolution call() throws IOException {
+			if (this.cancelled) {
+				return Resolution.NONE;
+			}
+			final PDFDatabase db = PDFDatabase.getPDFDatabase(this.url);
+			final StrategyStats stats = StrategyStats.getInstance();
+			final WebClientPool.ClientPair p = pool.acquire();
+			this.pair = p;
+			try {
+				if (this.cancelled) {
+					return Resolution.NONE;
+				}
+				final Resolution resolution = ScrapMode.fetchURLToPDFWithRetry(
+						this.mode,
+						p.client,
+						p.jsclient,
+						this.url,
+						stats.orderExpressions(db, this.mode, this.configs.get(this.mode)),
+						stats.isJavaScriptRetryWorthIt(db, this.mode)
+				);
+				if (!resolution.isEmpty() && !this.cancelled) {
+					copyCookies(p.client, this.client);
+					copyCookies(p.jsclient, this.client);
+				}
+				return resolution;
+			} finally {
+				this.pair = null;
+				pool.release(p);
+			}
+		}
+
+		private void cancel() {
+			this.cancelled = true;
+			final Future<Resolution> f = this.future;
+			if (f != null && !f.isDone()) {
+				f.cancel(true);
+				final WebClientPool.ClientPair p = this.pair;
+				if (p != null) {
+					JavaScriptProfile.stopJobs(p.jsclient);
+				}
+			}
+		}
+
+	}
+
+	private static void copyCookies(WebClient from, WebClient to) {
+		for (Cookie cookie : from.getCookieManager().getCookies()) {
+			to.getCookieManager().addCookie(cookie);
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host rate limiter. Each host gets its own token bucket, configured by the
+ * {@code PDFDatabase} the host belongs to. The rate of a host is cut in half
+ * whenever a request gets answered with {@code 403 Forbidden}, or
+ * {@code 429 Too Many Requests}, and then slowly recovers with each successful
+ * request (additive increase, multiplicative decrease).
+ */
+public class HostRateLimiter {
+
+	/**
+	 * The minimum rate in requests per second a host can be slowed down to.
+	 */
+	public final static double MIN_RATE = 1.0 / 60.0;
+
+	/**
+	 * The fraction of the configured rate that is regained per successful
+	 * request.
+	 */
+	public final static double RECOVERY_FRACTION = 0.05;
+
+	private final Map<PDFDatabase, Double> rates;
+	private final Map<PDFDatabase, Integer> bursts;
+	private final Map<String, Bucket> buckets;
+
+	/**
+	 * Creates a new per-host rate limiter with the default rates of the
+	 * databases.
+	 */
+	public HostRateLimiter() {
+		this.rates = new EnumMap<>(PDFDatabase.class);
+		this.bursts = new EnumMap<>(PDFDatabase.class);
+		this.buckets = new HashMap<>();
+		for (PDFDatabase db : PDFDatabase.values()) {
+			this.rates.put(db, db.getRequestRate());
+			this.bursts.put(db, db.getRequestBurst());
+		}
+	}
+
+	/**
+	 * Creates a new per-host rate limiter.
+	 *
+	 * @param config the rate configuration. A comma (or semicolon) separated
+	 * list of {@code [<database>=]<rate>[:<burst>]} items, where the rate is
+	 * given in requests per second. Items without a database apply to all
+	 * databases. A rate of zero (or less) disables rate limiting.
+	 */
+	public HostRateLimiter(String config) {
+		this();
+		for (String item : config.split("[,;]")) {
+			item = item.trim();
+			if (item.isEmpty()) {
+				continue;
+			}
+			final int eq = item.indexOf('=');
+			final String dbName = (eq < 0) ? "" : item.substring(0, eq).trim();
+			final String value = item.substring(eq + 1).trim();
+			final int colon = value.indexOf(':');
+			final double rate = Double.parseDouble((colon < 0) ? value : value.substring(0, colon));
+			final Integer burst = (colon < 0) ? null : Integer.parseInt(value.substring(colon + 1));
+			for (PDFDatabase db : PDFDatabase.values()) {
+				if (dbName.isEmpty() || db.name().equalsIgnoreCase(dbName)) {
+					this.rates.put(db, rate);
+					if (burst != null) {
+						this.bursts.put(db, burst);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the configured rate of a database.
+	 *
+	 * @param db the database.
+	 * @return the configured rate in requests per second (zero or less if not
+	 * limited).
+	 */
+	public double getRate(PDFDatabase db) {
+		return this.rates.get(db);
+	}
+
+	/**
+	 * Returns the configured burst of a database.
+	 *
+	 * @param db the database.
+	 * @return the configured burst (max. number of requests at once).
+	 */
+	public int getBurst(PDFDatabase db) {
+		return this.bursts.get(db);
+	}
+
+	/**
+	 * Blocks until a request to the given URL is allowed.
+	 *
+	 * @param url the URL of the request.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void acquire(URL url) throws InterruptedException {
+		final Bucket bucket = getBucket(url);
+		if (bucket == null) {
+			return;
+		}
+		long wait;
+		while ((wait = bucket.reserve(System.nanoTime())) > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * Updates the rate of the host of a request, given the HTTP status code of
+	 * its response.
+	 *
+	 * @param url the URL of the request.
+	 * @param statusCode the HTTP status code of the response.
+	 * @param retryAfterSeconds the value of the Retry-After header in seconds,
+	 * or a negative value if not available.
+	 */
+	public void update(URL url, int statusCode, long retryAfterSeconds) {
+		final Bucket bucket = getBucket(url);
+		if (bucket == null) {
+			return;
+		}
+		if (statusCode == 403 || statusCode == 429) {
+			final double rate = bucket.slowDown(System.nanoTime(), retryAfterSeconds);
+			System.out.println(String.format(
+					"  HTTP status code %d, slowing down requests to %s: %.3f requests/s",
+					statusCode,
+					getHost(url),
+					rate
+			));
+		} else if (statusCode < 400) {
+			bucket.recover();
+		}
+	}
+
+	/**
+	 * Returns the current rate of a host.
+	 *
+	 * @param url some URL of the host.
+	 * @return the current rate of the host in requests per second, or zero if
+	 * not limited.
+	 */
+	public double getCurrentRate(URL url) {
+		final Bucket bucket = getBucket(url);
+		return (bucket == null) ? 0 : bucket.getRate();
+	}
+
+	private static String getHost(URL url) {
+		final String host = url.getHost();
+		return (host == null) ? "" : host.toLowerCase(Locale.ROOT);
+	}
+
+	private synchronized Bucket getBucket(URL url) {
+		final String host = getHost(url);
+		if (this.buckets.containsKey(host)) {
+			return this.buckets.get(host);
+		}
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(url.toString());
+		final double rate = this.rates.get(db);
+		final Bucket bucket = (rate > 0)
+				? new Bucket(rate, Math.max(1, this.bursts.get(db)))
+				: null;
+		this.buckets.put(host, bucket);
+		return bucket;
+	}
+
+	/**
+	 * Adaptive token bucket.
+	 */
+	private static class Bucket {
+
+		private final double maxRate;
+		private final double burst;
+		private double rate;
+		private double tokens;
+		private long last;
+		private long blockedUntil;
+
+		private Bucket(double maxRate, int burst) {
+			this.maxRate = maxRate;
+			this.burst = burst;
+			this.rate = maxRate;
+			this.tokens = burst;
+			this.last = System.nanoTime();
+			this.blockedUntil = this.last;
+		}
+
+		private synchronized double getRate() {
+			return this.rate;
+		}
+
+		private void refill(long now) {
+			final double elapsed = (now - this.last) / 1e9;
+			if (elapsed > 0) {
+				this.tokens = Math.min(this.burst, this.tokens + elapsed * this.rate);
+				this.last = now;
+			}
+		}
+
+		/**
+		 * Takes a token if available.
+		 *
+		 * @param now the current time in nanoseconds.
+		 * @return zero if a token has been taken, otherwise the time to wait
+		 * in nanoseconds before trying again.
+		 */
+		private synchronized long reserve(long now) {
+			if (now < this.blockedUntil) {
+				return this.blockedUntil - now;
+			}
+			refill(now);
+			if (this.tokens >= 1) {
+				this.tokens -= 1;
+				return 0;
+			}
+			return Math.max(1, (long) ((1 - this.tokens) / this.rate * 1e9));
+		}
+
+		private synchronized double slowDown(long now, long retryAfterSeconds) {
+			this.rate = Math.max(MIN_RATE, this.rate * 0.5);
+			this.tokens = 0;
+			this.last = now;
+			final long pause = (retryAfterSeconds > 0)
+					? TimeUnit.SECONDS.toNanos(retryAfterSeconds)
+					: (long) (1e9 / this.rate);
+			this.blockedUntil = Math.max(this.blockedUntil, now + pause);
+			return this.rate;
+		}
+
+		private synchronized void recover() {
+			this.rate = Math.min(this.maxRate, this.rate + this.maxRate * RECOVERY_FRACTION);
+		}
+
+	}
+
+}
@@ -0,0 +1,338 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming HTML tokenizer. Reads an HTML document one start tag at a time,
+ * without building a DOM (let alone running any JavaScript). Text, end tags,
+ * comments, and the content of {@code script} and {@code style} elements are
+ * skipped. This is by no means a conforming HTML parser, but good enough to
+ * find an anchor in static HTML.
+ */
+public class HtmlTokenizer {
+
+	private final Reader reader;
+	private final StringBuilder sb;
+	private final Map<String, String> attributes;
+	private int pushback;
+	private String tagName;
+	private String rawText;
+
+	/**
+	 * Creates a new HTML tokenizer.
+	 *
+	 * @param reader the (preferably buffered) reader to read the HTML document
+	 * from.
+	 */
+	public HtmlTokenizer(Reader reader) {
+		this.reader = reader;
+		this.sb = new StringBuilder();
+		this.attributes = new LinkedHashMap<>();
+		this.pushback = -2;
+		this.tagName = null;
+		this.rawText = null;
+	}
+
+	/**
+	 * Advances to the next start tag.
+	 *
+	 * @return {@code true} if there is a next start tag, {@code false} if the
+	 * end of the document has been reached.
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if (this.rawText != null) {
+			skipRawText(this.rawText);
+			this.rawText = null;
+		}
+		this.tagName = null;
+		this.attributes.clear();
+		int c;
+		while ((c = read()) >= 0) {
+			if (c != '<') {
+				continue;
+			}
+			c = read();
+			if (c == '!') {
+				skipMarkupDeclaration();
+			} else if (c == '?' || c == '/') {
+				skipUntil('>');
+			} else if (isLetter(c)) {
+				final boolean selfClosing = readTag(c);
+				if (!selfClosing && isRawTextElement(this.tagName)) {
+					this.rawText = this.tagName;
+				}
+				return true;
+			} else {
+				unread(c);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the lower case name of the current start tag.
+	 *
+	 * @return the name of the current start tag, or {@code null}.
+	 */
+	public String getTagName() {
+		return this.tagName;
+	}
+
+	/**
+	 * Returns an attribute of the current start tag. Character references in
+	 * attribute values are decoded.
+	 *
+	 * @param name the lower case name of the attribute.
+	 * @return the value of the attribute, or {@code null} if not defined.
+	 */
+	public String getAttribute(String name) {
+		return this.attributes.get(name);
+	}
+
+	/**
+	 * Returns all attributes of the current start tag.
+	 *
+	 * @return the attributes by their lower case names.
+	 */
+	public Map<String, String> getAttributes() {
+		return this.attributes;
+	}
+
+	private static boolean isRawTextElement(String name) {
+		return name.equals("script") || name.equals("style");
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private int read() throws IOException {
+		if (this.pushback != -2) {
+			final int c = this.pushback;
+			this.pushback = -2;
+			return c;
+		}
+		return this.reader.read();
+	}
+
+	private void unread(int c) {
+		this.pushback = c;
+	}
+
+	private int skipWhitespace() throws IOException {
+		int c;
+		while ((c = read()) >= 0 && isWhitespace(c)) {
+		}
+		return c;
+	}
+
+	private void skipUntil(char end) throws IOException {
+		int c;
+		while ((c = read()) >= 0 && c != end) {
+		}
+	}
+
+	private void skipMarkupDeclaration() throws IOException {
+		final int c = read();
+		if (c == '-') {
+			final int d = read();
+			if (d == '-') {
+				// comment: skip up to "-->"
+				int dashes = 0;
+				int e;
+				while ((e = read()) >= 0) {
+					if (e == '>' && dashes >= 2) {
+						return;
+					}
+					dashes = (e == '-') ? dashes + 1 : 0;
+				}
+				return;
+			}
+			unread(d);
+		} else {
+			unread(c);
+		}
+		skipUntil('>');
+	}
+
+	/**
+	 * Skips the content of a raw text element up to (and including) its end
+	 * tag.
+	 *
+	 * @param name the lower case name of the raw text element.
+	 * @throws IOException
+	 */
+	private void skipRawText(String name) throws IOException {
+		int c;
+		while ((c = read()) >= 0) {
+			if (c != '<') {
+				continue;
+			}
+			c = read();
+			if (c != '/') {
+				unread(c);
+				continue;
+			}
+			int i = 0;
+			while (i < name.length() && (c = read()) >= 0 && Character.toLowerCase((char) c) == name.charAt(i)) {
+				i++;
+			}
+			if (i < name.length()) {
+				unread(c);
+				continue;
+			}
+			c = read();
+			if (c == '>') {
+				return;
+			}
+			if (isWhitespace(c) || c == '/') {
+				skipUntil('>');
+				return;
+			}
+			unread(c);
+		}
+	}
+
+	/**
+	 * Reads a start tag.
+	 *
+	 * @param first the first character of the tag name.
+	 * @return {@code true} if the tag is self-closing, {@code false}
+	 * otherwise.
+	 * @throws IOException
+	 */
+	private boolean readTag(int first) throws IOException {
+		this.sb.setLength(0);
+		this.sb.append((char) first);
+		int c;
+		while ((c = read()) >= 0 && !isWhitespace(c) && c != '/' && c != '>') {
+			this.sb.append((char) c);
+		}
+		this.tagName = this.sb.toString().toLowerCase(Locale.ROOT);
+		boolean selfClosing = false;
+		while (c >= 0 && c != '>') {
+			if (isWhitespace(c)) {
+				c = skipWhitespace();
+				continue;
+			}
+			if (c == '/') {
+				selfClosing = true;
+				c = read();
+				continue;
+			}
+			selfClosing = false;
+
+			// attribute name
+			this.sb.setLength(0);
+			this.sb.append((char) c);
+			while ((c = read()) >= 0 && !isWhitespace(c) && c != '=' && c != '/' && c != '>') {
+				this.sb.append((char) c);
+			}
+			final String name = this.sb.toString().toLowerCase(Locale.ROOT);
+			if (isWhitespace(c)) {
+				c = skipWhitespace();
+			}
+			if (c != '=') {
+				putAttribute(name, "");
+				continue;
+			}
+
+			// attribute value
+			c = skipWhitespace();
+			this.sb.setLength(0);
+			if (c == '"' || c == '\'') {
+				final int quote = c;
+				while ((c = read()) >= 0 && c != quote) {
+					this.sb.append((char) c);
+				}
+				c = read();
+			} else {
+				while (c >= 0 && !isWhitespace(c) && c != '>') {
+					this.sb.append((char) c);
+					c = read();
+				}
+			}
+			putAttribute(name, decode(this.sb));
+		}
+		return selfClosing;
+	}
+
+	private void putAttribute(String name, String value) {
+		// the first one wins, just like in a browser
+		if (!this.attributes.containsKey(name)) {
+			this.attributes.put(name, value);
+		}
+	}
+
+	/**
+	 * Decodes (the most common) character references.
+	 *
+	 * @param value the raw value.
+	 * @return the decoded value.
+	 */
+	public static String decode(CharSequence value) {
+		final String s = value.toString();
+		if (s.indexOf('&') < 0) {
+			return s;
+		}
+		final StringBuilder out = new StringBuilder(s.length());
+		int i = 0;
+		while (i < s.length()) {
+			final char c = s.charAt(i);
+			final int end = (c == '&') ? s.indexOf(';', i) : -1;
+			if (end < 0 || end - i > 10) {
+				out.append(c);
+				i++;
+				continue;
+			}
+			final String ref = s.substring(i + 1, end);
+			final String decoded = decodeReference(ref);
+			if (decoded == null) {
+				out.append(c);
+				i++;
+				continue;
+			}
+			out.append(decoded);
+			i = end + 1;
+		}
+		return out.toString();
+	}
+
+	private static String decodeReference(String ref) {
+		switch (ref) {
+			case "amp":
+				return "&";
+			case "lt":
+				return "<";
+			case "gt":
+				return ">";
+			case "quot":
+				return "\"";
+			case "apos":
+				return "'";
+			case "nbsp":
+				return " ";
+		}
+		if (ref.length() < 2 || ref.charAt(0) != '#') {
+			return null;
+		}
+		try {
+			final int codePoint = (ref.charAt(1) == 'x' || ref.charAt(1) == 'X')
+					? Integer.parseInt(ref.substring(2), 16)
+					: Integer.parseInt(ref.substring(1));
+			return new String(Character.toChars(codePoint));
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.ProxyConfig;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Plain HTTP connector. Opens connections outside of HtmlUnit, yet with the
+ * cookies, user agent, timeout and proxy of a web client, following redirects
+ * by hand, s.t. every request passes the per-host rate limiter, and cookies
+ * set along the way end up in the web client again.
+ */
+public class HttpConnector {
+
+	/**
+	 * Max. number of redirects to follow.
+	 */
+	public final static int MAX_REDIRECTS = 10;
+
+	private final HostRateLimiter limiter;
+
+	/**
+	 * Creates a new HTTP connector.
+	 *
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 */
+	public HttpConnector(HostRateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Checks whether a content type denotes an HTML page.
+	 *
+	 * @param contentType the content type, or {@code null}.
+	 * @return {@code true} if the content type denotes an HTML page,
+	 * {@code false} otherwise.
+	 */
+	public static boolean isHtml(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		final String type = contentType.toLowerCase(Locale.ROOT);
+		return type.startsWith("text/html") || type.startsWith("application/xhtml");
+	}
+
+	/**
+	 * Opens a connection, following redirects.
+	 *
+	 * @param client the web client (to take cookies, user agent, timeout and
+	 * proxy from).
+	 * @param url the URL.
+	 * @param accept the value of the Accept header.
+	 * @return the connection to the final URL, with the response headers
+	 * already read.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public HttpURLConnection connect(WebClient client, URL url, String accept) throws IOException, InterruptedException {
+		for (int i = 0; i <= MAX_REDIRECTS; i++) {
+			final HttpURLConnection connection = open(client, url, "GET", accept);
+			final String location = connection.getHeaderField("Location");
+			if (isRedirect(connection.getResponseCode()) && location != null) {
+				connection.disconnect();
+				url = new URL(url, location);
+				continue;
+			}
+			return connection;
+		}
+		throw new IOException("too many redirects: " + url);
+	}
+
+	/**
+	 * Follows redirects with HEAD requests, without ever fetching a body.
+	 *
+	 * @param client the web client (to take cookies, user agent, timeout and
+	 * proxy from).
+	 * @param url the URL.
+	 * @param done the predicate to stop at a redirection target, without
+	 * requesting it.
+	 * @return the first redirection target accepted by the predicate, or the
+	 * final URL.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public URL follow(WebClient client, URL url, Predicate<URL> done) throws IOException, InterruptedException {
+		for (int i = 0; i <= MAX_REDIRECTS; i++) {
+			final HttpURLConnection connection = open(client, url, "HEAD", "*/*");
+			final String location = connection.getHeaderField("Location");
+			final boolean redirect = isRedirect(connection.getResponseCode()) && location != null;
+			connection.disconnect();
+			if (!redirect) {
+				return url;
+			}
+			url = new URL(url, location);
+			if (done.test(url)) {
+				return url;
+			}
+		}
+		throw new IOException("too many redirects: " + url);
+	}
+
+	/**
+	 * Opens a connection, without following redirects.
+	 *
+	 * @param client the web client.
+	 * @param url the URL.
+	 * @param method the request method.
+	 * @param accept the value of the Accept header.
+	 * @return the connection, with the response headers already read.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private HttpURLConnection open(WebClient client, URL url, String method, String accept) throws IOException, InterruptedException {
+		if (this.limiter != null) {
+			this.limiter.acquire(url);
+		}
+		final int timeout = client.getOptions().getTimeout();
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection(getProxy(client));
+		connection.setInstanceFollowRedirects(false);
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		connection.setRequestProperty("User-Agent", client.getBrowserVersion().getUserAgent());
+		connection.setRequestProperty("Accept", accept);
+		final String cookies = getCookieHeader(client, url);
+		if (!cookies.isEmpty()) {
+			connection.setRequestProperty("Cookie", cookies);
+		}
+
+		final int code = connection.getResponseCode();
+		if (this.limiter != null) {
+			this.limiter.update(
+					url,
+					code,
+					RateLimitedWebConnection.getRetryAfter(connection.getHeaderField("Retry-After"))
+			);
+		}
+		storeCookies(client, url, connection);
+		return connection;
+	}
+
+	private static boolean isRedirect(int code) {
+		return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+	}
+
+	private static Proxy getProxy(WebClient client) {
+		final ProxyConfig config = client.getOptions().getProxyConfig();
+		if (config == null || config.getProxyHost() == null) {
+			return Proxy.NO_PROXY;
+		}
+		return new Proxy(
+				config.isSocksProxy() ? Proxy.Type.SOCKS : Proxy.Type.HTTP,
+				new InetSocketAddress(config.getProxyHost(), config.getProxyPort())
+		);
+	}
+
+	private static String getCookieHeader(WebClient client, URL url) {
+		final String host = url.getHost().toLowerCase(Locale.ROOT);
+		final String path = url.getPath().isEmpty() ? "/" : url.getPath();
+		final boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+		final Date now = new Date();
+		final StringBuilder sb = new StringBuilder();
+		for (Cookie cookie : client.getCookieManager().getCookies()) {
+			if (cookie.isSecure() && !secure) {
+				continue;
+			}
+			if (cookie.getExpires() != null && cookie.getExpires().before(now)) {
+				continue;
+			}
+			if (!isDomainMatch(host, cookie.getDomain())) {
+				continue;
+			}
+			if (cookie.getPath() != null && !path.startsWith(cookie.getPath())) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append("; ");
+			}
+			sb.append(cookie.getName()).append('=').append(cookie.getValue());
+		}
+		return sb.toString();
+	}
+
+	private static boolean isDomainMatch(String host, String domain) {
+		if (domain == null) {
+			return false;
+		}
+		String d = domain.toLowerCase(Locale.ROOT);
+		if (d.startsWith(".")) {
+			d = d.substring(1);
+		}
+		return host.equals(d) || host.endsWith("." + d);
+	}
+
+	private static void storeCookies(WebClient client, URL url, HttpURLConnection connection) {
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+				storeCookies(client, url, header.getValue());
+			}
+		}
+	}
+
+	private static void storeCookies(WebClient client, URL url, List<String> values) {
+		for (String value : values) {
+			try {
+				for (HttpCookie c : HttpCookie.parse(value)) {
+					final Date expires = (c.getMaxAge() < 0)
+							? null
+							: new Date(System.currentTimeMillis() + c.getMaxAge() * 1000);
+					client.getCookieManager().addCookie(new Cookie(
+							(c.getDomain() == null) ? url.getHost() : c.getDomain(),
+							c.getName(),
+							c.getValue(),
+							(c.getPath() == null) ? "/" : c.getPath(),
+							expires,
+							c.getSecure()
+					));
+				}
+			} catch (IllegalArgumentException ex) {
+				// ignore malformed cookies
+			}
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebWindow;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+/**
+ * JavaScript execution profile. Puts a budget on the JavaScript of the web
+ * client with enabled JavaScript: a timeout per script, a cap on the time spent
+ * waiting for background jobs (timers, XHR, ...) after a page has been loaded,
+ * an optional early stop as soon as the target (a frame, or an anchor) shows
+ * up, and the teardown of all background jobs once we're done with a BibTeX
+ * entry. HtmlUnit defaults let background jobs run forever, and don't wait for
+ * them at all.
+ */
+public class JavaScriptProfile {
+
+	/**
+	 * Default timeout per script in milliseconds.
+	 */
+	public final static long DEFAULT_SCRIPT_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Default max. time to wait for background jobs in milliseconds.
+	 */
+	public final static long DEFAULT_BACKGROUND_WAIT_MILLIS = 3000;
+
+	/**
+	 * The interval to check for the target while waiting for background jobs.
+	 */
+	public final static long POLL_MILLIS = 100;
+
+	/**
+	 * The default JavaScript execution profile.
+	 */
+	public final static JavaScriptProfile DEFAULT = new JavaScriptProfile(
+			DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+			DEFAULT_BACKGROUND_WAIT_MILLIS,
+			true
+	);
+
+	private final static Map<WebClient, JavaScriptProfile> PROFILES = Collections.synchronizedMap(
+			new WeakHashMap<WebClient, JavaScriptProfile>()
+	);
+
+	private final long scriptTimeoutMillis;
+	private final long backgroundWaitMillis;
+	private final boolean earlyStop;
+
+	/**
+	 * Creates a new JavaScript execution profile.
+	 *
+	 * @param scriptTimeoutMillis the timeout per script in milliseconds, or 0
+	 * for no timeout.
+	 * @param backgroundWaitMillis the max. time to wait for background jobs
+	 * after a page has been loaded in milliseconds.
+	 * @param earlyStop {@code true} to stop waiting as soon as the target shows
+	 * up, {@code false} to wait for all background jobs (or the max. time).
+	 */
+	public JavaScriptProfile(long scriptTimeoutMillis, long backgroundWaitMillis, boolean earlyStop) {
+		this.scriptTimeoutMillis = Math.max(0, scriptTimeoutMillis);
+		this.backgroundWaitMillis = Math.max(0, backgroundWaitMillis);
+		this.earlyStop = earlyStop;
+	}
+
+	/**
+	 * Parses a JavaScript execution profile.
+	 *
+	 * @param config a comma separated list of {@code timeout=<ms>},
+	 * {@code wait=<ms>}, and {@code stop=<true|false>} items. Missing items
+	 * take the default values.
+	 * @return the JavaScript execution profile.
+	 * @throws IllegalArgumentException in case of an invalid item.
+	 */
+	public static JavaScriptProfile parse(String config) {
+		long timeout = DEFAULT_SCRIPT_TIMEOUT_MILLIS;
+		long wait = DEFAULT_BACKGROUND_WAIT_MILLIS;
+		boolean stop = true;
+		for (String item : config.split(",")) {
+			item = item.trim();
+			if (item.isEmpty()) {
+				continue;
+			}
+			final int eq = item.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("expected <key>=<value>: " + item);
+			}
+			final String key = item.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+			final String value = item.substring(eq + 1).trim();
+			switch (key) {
+				case "timeout":
+					timeout = Long.parseLong(value);
+					break;
+				case "wait":
+					wait = Long.parseLong(value);
+					break;
+				case "stop":
+					stop = Boolean.parseBoolean(value);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown key: " + key);
+			}
+		}
+		return new JavaScriptProfile(timeout, wait, stop);
+	}
+
+	/**
+	 * Returns the timeout per script.
+	 *
+	 * @return the timeout per script in milliseconds, or 0 for no timeout.
+	 */
+	public long getScriptTimeoutMillis() {
+		return this.scriptTimeoutMillis;
+	}
+
+	/**
+	 * Returns the max. time to wait for background jobs.
+	 *
+	 * @return the max. time to wait for background jobs in milliseconds.
+	 */
+	public long getBackgroundWaitMillis() {
+		return this.backgroundWaitMillis;
+	}
+
+	/**
+	 * Checks whether waiting for background jobs stops as soon as the target
+	 * shows up.
+	 *
+	 * @return {@code true} if waiting stops early, {@code false} otherwise.
+	 */
+	public boolean isEarlyStop() {
+		return this.earlyStop;
+	}
+
+	/**
+	 * Applies the profile to a web client.
+	 *
+	 * @param client the web client.
+	 */
+	public void apply(WebClient client) {
+		client.setJavaScriptTimeout(this.scriptTimeoutMillis);
+		PROFILES.put(client, this);
+	}
+
+	/**
+	 * Returns the profile of a web client.
+	 *
+	 * @param client the web client.
+	 * @return the profile applied to the web client, or the default profile.
+	 */
+	public static JavaScriptProfile get(WebClient client) {
+		final JavaScriptProfile profile = PROFILES.get(client);
+		return (profile == null) ? DEFAULT : profile;
+	}
+
+	/**
+	 * Waits for the background jobs of a page, up to the max. time, or until
+	 * the target shows up (if early stop is enabled). Returns right away if
+	 * JavaScript is disabled, without testing for the target (nothing to wait
+	 * for, and the caller looks for it anyways).
+	 *
+	 * @param page the (freshly loaded) page.
+	 * @param target the target.
+	 * @return {@code true} if the target showed up, {@code false} otherwise,
+	 * or if JavaScript is disabled.
+	 */
+	public boolean await(HtmlPage page, Predicate<HtmlPage> target) {
+		final WebClient client = page.getWebClient();
+		if (!client.getOptions().isJavaScriptEnabled()) {
+			return false;
+		}
+		final long deadline = System.currentTimeMillis() + this.backgroundWaitMillis;
+		while (true) {
+			if (this.earlyStop && target.test(page)) {
+				return true;
+			}
+			final long left = deadline - System.currentTimeMillis();
+			if (left <= 0) {
+				break;
+			}
+			final int numJobs = client.waitForBackgroundJavaScript(
+					this.earlyStop ? Math.min(POLL_MILLIS, left) : left
+			);
+			if (numJobs == 0) {
+				break;
+			}
+		}
+		return target.test(page);
+	}
+
+	/**
+	 * Removes all background jobs of all windows (incl. frames) of a web
+	 * client.
+	 *
+	 * @param client the web client.
+	 */
+	public static void stopJobs(WebClient client) {
+		for (WebWindow window : new ArrayList<>(client.getWebWindows())) {
+			window.getJobManager().removeAllJobs();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"timeout=%d,wait=%d,stop=%b",
+				this.scriptTimeoutMillis,
+				this.backgroundWaitMillis,
+				this.earlyStop
+		);
+	}
+
+}
@@ -0,0 +1,304 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only job journal. Records the outcome of each processed BibTeX entry
+ * as a tab separated line. Records are flushed (and synced to disk) in
+ * batches, s.t. a crashed (or banned) run can be resumed without having to
+ * read through the log by hand. If an entry has been recorded multiple times,
+ * the last record wins. A last line cut short by a crash gets terminated
+ * once the journal is opened again, s.t. new records don't get appended to
+ * it.
+ */
+public class JobJournal implements AutoCloseable {
+
+	/**
+	 * Default number of records per batch.
+	 */
+	public final static int DEFAULT_BATCH_SIZE = 32;
+
+	/**
+	 * Default max. delay in milliseconds before a batch gets flushed.
+	 */
+	public final static long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+	private final File file;
+	private final FileOutputStream fos;
+	private final Writer writer;
+	private final int batchSize;
+	private final long maxDelayMillis;
+	private int numPending;
+	private long lastFlush;
+
+	/**
+	 * Opens a job journal with default batch settings.
+	 *
+	 * @param file the journal file. Records get appended if the file already
+	 * exists.
+	 * @throws IOException
+	 */
+	public JobJournal(File file) throws IOException {
+		this(file, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Opens a job journal.
+	 *
+	 * @param file the journal file. Records get appended if the file already
+	 * exists.
+	 * @param batchSize the number of records per batch.
+	 * @param maxDelayMillis the max. delay in milliseconds before a batch gets
+	 * flushed.
+	 * @throws IOException
+	 */
+	public JobJournal(File file, int batchSize, long maxDelayMillis) throws IOException {
+		this.file = file;
+		final boolean isTorn = isTorn(file);
+		this.fos = new FileOutputStream(file, true);
+		this.writer = new BufferedWriter(new OutputStreamWriter(this.fos, StandardCharsets.UTF_8));
+		this.batchSize = Math.max(1, batchSize);
+		this.maxDelayMillis = maxDelayMillis;
+		this.numPending = 0;
+		this.lastFlush = System.currentTimeMillis();
+		if (isTorn) {
+			this.writer.write('\n');
+			flush();
+		}
+	}
+
+	private static boolean isTorn(File file) throws IOException {
+		if (!file.exists() || file.length() == 0) {
+			return false;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(raf.length() - 1);
+			return raf.read() != '\n';
+		}
+	}
+
+	/**
+	 * Returns the journal file.
+	 *
+	 * @return the journal file.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Appends a record to the journal.
+	 *
+	 * @param record the record.
+	 */
+	public synchronized void append(Record record) {
+		try {
+			this.writer.write(record.toLine());
+			this.writer.write('\n');
+			this.numPending++;
+			final long now = System.currentTimeMillis();
+			if (this.numPending >= this.batchSize || (now - this.lastFlush) >= this.maxDelayMillis) {
+				flush();
+			}
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to write to journal: " + this.file);
+		}
+	}
+
+	/**
+	 * Flushes all pending records, and syncs them to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		this.writer.flush();
+		this.fos.getChannel().force(false);
+		this.numPending = 0;
+		this.lastFlush = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		this.writer.close();
+	}
+
+	/**
+	 * Reads a journal file. Malformed lines (e.g. a last line cut short by a
+	 * crash) are skipped.
+	 *
+	 * @param file the journal file.
+	 * @return the last record of each BibTeX entry by entry number (BibTeX
+	 * keys aren't unique, e.g. in merged exports), in order of first
+	 * appearance. Empty if the file doesn't exist.
+	 * @throws IOException
+	 */
+	public static Map<Integer, Record> read(File file) throws IOException {
+		final Map<Integer, Record> records = new LinkedHashMap<>();
+		if (!file.exists()) {
+			return records;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file),
+				StandardCharsets.UTF_8
+		))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final Record record = Record.fromLine(line);
+				if (record != null) {
+					records.put(record.num, record);
+				}
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the journal filename for a BibTeX file.
+	 *
+	 * @param file the BibTeX file.
+	 * @return the journal filename.
+	 */
+	public static String getJournalFilename(File file) {
+		final String filename = file.getName();
+		final int n = filename.lastIndexOf('.');
+		return ((n < 0) ? filename : filename.substring(0, n)) + "-journal.tsv";
+	}
+
+	/**
+	 * A journal record.
+	 */
+	public static class Record {
+
+		private final static int NUM_FIELDS = 9;
+
+		/**
+		 * The BibTeX key.
+		 */
+		public final String key;
+
+		/**
+		 * The entry number (incl. offset).
+		 */
+		public final int num;
+
+		/**
+		 * The identifier (used for filenames).
+		 */
+		public final String identifier;
+
+		/**
+		 * The scrap(ing) status.
+		 */
+		public final ScrapStatus status;
+
+		/**
+		 * The URL of the BibTeX entry.
+		 */
+		public final String url;
+
+		/**
+		 * The resolved URL to the PDF file, or an empty string.
+		 */
+		public final String urlToPDF;
+
+		/**
+		 * The time spent to resolve the URL to the PDF file in milliseconds.
+		 */
+		public final long resolveMillis;
+
+		/**
+		 * The time spent to download the PDF file in milliseconds.
+		 */
+		public final long downloadMillis;
+
+		/**
+		 * The time the record was created in milliseconds since the epoch.
+		 */
+		public final long timestamp;
+
+		/**
+		 * Creates a new journal record.
+		 *
+		 * @param key the BibTeX key.
+		 * @param num the entry number (incl. offset).
+		 * @param identifier the identifier (used for filenames).
+		 * @param status the scrap(ing) status.
+		 * @param url the URL of the BibTeX entry.
+		 * @param urlToPDF the resolved URL to the PDF file.
+		 * @param resolveMillis the time spent to resolve the URL to the PDF
+		 * file in milliseconds.
+		 * @param downloadMillis the time spent to download the PDF file in
+		 * milliseconds.
+		 * @param timestamp the time the record was created in milliseconds
+		 * since the epoch.
+		 */
+		public Record(String key, int num, String identifier, ScrapStatus status, String url, String urlToPDF, long resolveMillis, long downloadMillis, long timestamp) {
+			this.key = key;
+			this.num = num;
+			this.identifier = identifier;
+			this.status = status;
+			this.url = url;
+			this.urlToPDF = urlToPDF;
+			this.resolveMillis = resolveMillis;
+			this.downloadMillis = downloadMillis;
+			this.timestamp = timestamp;
+		}
+
+		private static String escape(String value) {
+			return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+		}
+
+		private String toLine() {
+			return String.format(
+					"%s\t%d\t%s\t%s\t%s\t%s\t%d\t%d\t%d",
+					escape(key),
+					num,
+					escape(identifier),
+					status.name(),
+					escape(url),
+					escape(urlToPDF),
+					resolveMillis,
+					downloadMillis,
+					timestamp
+			);
+		}
+
+		private static Record fromLine(String line) {
+			final String[] fields = line.split("\t", -1);
+			if (fields.length != NUM_FIELDS) {
+				return null;
+			}
+			try {
+				return new Record(
+						fields[0],
+						Integer.parseInt(fields[1]),
+						fields[2],
+						ScrapStatus.valueOf(fields[3]),
+						fields[4],
+						fields[5],
+						Long.parseLong(fields[6]),
+						Long.parseLong(fields[7]),
+						Long.parseLong(fields[8])
+				);
+			} catch (IllegalArgumentException ex) {
+				return null;
+			}
+		}
+
+	}
+
+}
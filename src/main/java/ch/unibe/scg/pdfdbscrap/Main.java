@@ -1,37 +1,32 @@
 package ch.unibe.scg.pdfdbscrap;
 
 import com.gargoylesoftware.htmlunit.BrowserVersion;
-import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
-import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.PluginConfiguration;
-import com.gargoylesoftware.htmlunit.UnexpectedPage;
 import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.WebClientOptions;
-import com.gargoylesoftware.htmlunit.WebResponse;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.jbibtex.BibTeXDatabase;
 import org.jbibtex.BibTeXEntry;
 import org.jbibtex.BibTeXFormatter;
-import org.jbibtex.BibTeXParser;
-import org.jbibtex.ParseException;
-import org.jbibtex.TokenMgrException;
 
 /**
  * PDF database Scrap(er).
@@ -42,6 +37,7 @@ public class Main {
 	public final static IDCreator DEFAULT_IDCREATOR = IDCreator.NUMBER_AND_KEY;
 	public final static String DEFAULT_XPATH_SPLIT_STRING = ";";
 	public final static Browser DEFAULT_BROWSER = Browser.CHROME;
+	public final static OutputLayout DEFAULT_LAYOUT = OutputLayout.FLAT;
 
 	/**
 	 * Main method.
@@ -61,6 +57,11 @@ public class Main {
 				"<integer>[-<integer>] (e.g start to end: \"10-25\", or just a start-offset: \"15\")",
 				"r", "range"
 		);
+		final CommandLineArguments.Argument shardArg = cla.add(
+				"The shard (1 to n) of BibTeX entries to process, s.t. n processes (e.g. on n machines, each with its own output directory) split the same BibTeX file into disjoint, balanced subsets without any coordination. BibTeX entries are assigned by a stable hash of their BibTeX key, and keep their number (used by the ID method). Combines with --range.",
+				"<integer>/<integer> (index/count; e.g. \"2/4\")",
+				"d", "shard"
+		);
 		final CommandLineArguments.Argument outArg = cla.add(
 				"The output directory.",
 				"<file>",
@@ -85,6 +86,11 @@ public class Main {
 				"<string> (" + getValueList(IDCreator.class) + "; DEFAULT=" + DEFAULT_IDCREATOR.name() + ")",
 				"i", "id"
 		);
+		final CommandLineArguments.Argument layoutArg = cla.add(
+				"The layout of the files in the status directories. HASHED fans the files out into 256 subdirectories (by a hash of the ID), s.t. directories stay small regardless of the number of BibTeX entries. Keep the layout when resuming a run; --merge output directories with different layouts.",
+				"<string> (" + getValueList(OutputLayout.class) + "; DEFAULT=" + DEFAULT_LAYOUT.name() + ")",
+				"v", "layout"
+		);
 		final CommandLineArguments.Argument numArg = cla.add(
 				"The starting number/offset (just used by the ID method).",
 				"<integer>",
@@ -94,11 +100,86 @@ public class Main {
 				"<string> (" + getValueList(Browser.class) + "; DEFAULT=" + DEFAULT_BROWSER.name() + ")",
 				"b", "browser"
 		);
+		final CommandLineArguments.Argument workersArg = cla.add(
+				"Scraps concurrently with the given number of workers per database; each with its own pair of web clients. Up to " + ConcurrentScheduler.DEFAULT_MAX_IN_FLIGHT + " BibTeX entries (over all databases) are in flight; reading the BibTeX file pauses while they are. With --partition: the number of threads classifying BibTeX entries.",
+				"<integer> (DEFAULT: sequential processing)",
+				"w", "workers"
+		);
+		final CommandLineArguments.Argument pipelineArg = cla.add(
+				"Pipelines the scrap(ing): the given number of resolvers (resolving URLs to PDF files) hand entries over to the given number of downloaders (downloading PDF files), and a writer puts the results; connected by bounded queues. Can't be combined with --workers.",
+				"<integer>[:<integer>] (resolvers[:downloaders]; e.g. \"2:4\"; DEFAULT: sequential processing)",
+				"k", "pipeline"
+		);
+		final CommandLineArguments.Argument hedgeArg = cla.add(
+				"Hedges the AUTO scrap(ing) mode: if a scrap(ing) mode of the database hasn't resolved the URL to the PDF file after the given delay (in milliseconds), the next one starts concurrently, on a separate pair of web clients. The first resolution wins, and the others get cancelled.",
+				"<integer> (DEFAULT: no hedging)",
+				"h", "hedge"
+		);
+		final CommandLineArguments.Argument recycleArg = cla.add(
+				"Recycles a pair of web clients after the given number of loaded pages, or once the retained memory exceeds " + Math.round(WebClientPool.DEFAULT_MAX_RETAINED_FRACTION * 100) + "% of the max. heap size. A value of 0 only recycles on memory pressure.",
+				"<integer> (DEFAULT=" + WebClientPool.DEFAULT_MAX_PAGES + ")",
+				"l", "recycle"
+		);
+		final CommandLineArguments.Argument staticArg = cla.add(
+				"The databases whose web pages are resolved from static HTML first (without HtmlUnit), falling back to HtmlUnit on a miss. Only works with simple anchor expressions (e.g. \"//a[@id='pdfLink']\", or \"//a[contains(@class, 'pdf')]\").",
+				"<string> (database names, comma separated, or NONE; DEFAULT=" + getStaticDatabases() + ")",
+				"a", "static"
+		);
+		final CommandLineArguments.Argument rateArg = cla.add(
+				"The max. request rate per host (in requests per second), and optionally the burst, for all or specific databases. Slows down automatically on HTTP status code 403 or 429. A rate of 0 disables rate limiting.",
+				"<string> ([<database>=]<double>[:<integer>], comma separated; e.g. \"ACM=0.5:2,IEEE=2\"; DEFAULT=" + getDefaultRates() + ")",
+				"t", "rate"
+		);
+		final CommandLineArguments.Argument proxyArg = cla.add(
+				"The HTTP proxy to connect through (web pages and PDF files).",
+				"<host>:<port> (e.g. \"127.0.0.1:8080\")",
+				"y", "proxy"
+		);
+		final CommandLineArguments.Argument javaScriptArg = cla.add(
+				"The JavaScript execution profile (of the retries with JavaScript enabled): the timeout per script, the max. time to wait for background jobs after a page has been loaded, and whether to stop waiting as soon as the target (a frame, or an anchor) shows up. Background jobs are removed after each BibTeX entry.",
+				"<string> (timeout=<ms>,wait=<ms>,stop=<boolean>; DEFAULT=" + JavaScriptProfile.DEFAULT + ")",
+				"j", "javascript"
+		);
+		final CommandLineArguments.Argument unfilteredArg = cla.add(
+				"Disables the request filter. By default, requests for subresources of web pages we never need to find the PDF file (images, stylesheets, fonts, analytics, ads, and scripts of third-party hosts) are answered with an empty response, without being fetched. See the request rules (" + RequestFilter.DEFAULT_RULES + ").",
+				"",
+				"q", "unfiltered"
+		);
+		final CommandLineArguments.Argument keepDOIArg = cla.add(
+				"Disables the DOI resolution. By default, DOI URLs are resolved to the web page of the publisher by following their redirects with HEAD requests (without loading any page), and the BibTeX entries are reclassified by that URL, s.t. the right scrap(ing) mode is picked right away. DOI prefixes are mapped to databases (and URL templates, if any) on the fly.",
+				"",
+				"keep-doi"
+		);
+		final CommandLineArguments.Argument resumeArg = cla.add(
+				"Resumes a previous run from the job journal in the output directory. Completed BibTeX entries are skipped (yet still written to the status BibTeX databases); failed ones due to a failing HTTP status code, or IO errors are processed again.",
+				"",
+				"e", "resume"
+		);
+		final CommandLineArguments.Argument cacheArg = cla.add(
+				"The time to live (in hours) of resolved URLs to PDF files in the resolution cache in the output directory. Cached web pages aren't fetched again on re-runs. A time to live of 0 disables the cache.",
+				"<integer> (DEFAULT=" + ResolutionCache.DEFAULT_TTL_HOURS + ")",
+				"c", "cache"
+		);
+		final CommandLineArguments.Argument metricsArg = cla.add(
+				"The interval (in seconds) to export metrics (latency histograms per stage, database and scrap(ing) mode; bytes, retries, and scrap(ing) status counts) to a Prometheus text file in the output directory. A JSON summary is written at the end. An interval of 0 disables the export.",
+				"<integer> (DEFAULT=" + ScrapMetrics.DEFAULT_INTERVAL_SECONDS + ")",
+				"g", "metrics"
+		);
 		final CommandLineArguments.Argument partitionArg = cla.add(
-				"Partitions the given BibTeX file into multiple BibTeX files; one for each known/unkown database.",
+				"Partitions the given BibTeX file into multiple BibTeX files; one for each known/unkown database. Streams the BibTeX entries (as they are) right into the partitions in a single pass, with constant memory.",
 				"",
 				"p", "partition"
 		);
+		final CommandLineArguments.Argument mergeArg = cla.add(
+				"Merges the given output directories (e.g. of the shards of the given BibTeX file) into the output directory. Duplicate BibTeX entries are resolved by the best scrap(ing) status (the later output directory wins ties). Files are hard linked (no extra disk space), and the status BibTeX databases, the job journal, and the PDF file store are rewritten. The output directory has to be empty.",
+				"<file>[,<file>...] (output directories, comma separated)",
+				"z", "merge"
+		);
+		final CommandLineArguments.Argument lookupArg = cla.add(
+				"Looks up the files of a BibTeX entry, by its BibTeX key, or ID, in the index of the given BibTeX file in the output directory (written at the end of each run, or merge).",
+				"<string> (BibTeX key, or ID)",
+				"L", "lookup"
+		);
 		final CommandLineArguments.Argument usageArg = cla.add(
 				"Print the usage of this program.",
 				"",
@@ -119,8 +200,23 @@ public class Main {
 
 		final EntryRange entryRange = rangeArg.isEmpty() ? new EntryRange() : new EntryRange(rangeArg.getString());
 		System.out.println("range to process: " + entryRange);
+		EntryShard entryShard = new EntryShard();
+		if (!shardArg.isEmpty()) {
+			try {
+				entryShard = EntryShard.parse(shardArg.getString());
+			} catch (IllegalArgumentException ex) {
+				printError(ex, "ERROR: invalid shard: " + shardArg.getString());
+				kthxbai();
+			}
+			System.out.println("shard to process: " + entryShard);
+		}
 
 		final File outputDirectory = new File(outArg.getString());
+		if (!lookupArg.isEmpty()) {
+			System.out.print("\n");
+			lookupEntry(inputFile, outputDirectory, lookupArg.getString());
+			kthxbai();
+		}
 		if (!outputDirectory.exists()) {
 			System.out.println("creating output directory: " + outputDirectory);
 			outputDirectory.mkdirs();
@@ -130,7 +226,32 @@ public class Main {
 
 		if (partitionArg.isSet()) {
 			System.out.print("\n");
-			partitionFileByDatabase(inputFile, outputDirectory);
+			final int numThreads = workersArg.isEmpty() ? 1 : workersArg.getInteger();
+			partitionFileByDatabase(inputFile, outputDirectory, numThreads);
+			kthxbai();
+		}
+
+		final OutputLayout layout;
+		switch (layoutArg.getString().toUpperCase()) {
+			case "FLAT":
+				layout = OutputLayout.FLAT;
+				break;
+			case "HASHED":
+				layout = OutputLayout.HASHED;
+				break;
+			default:
+				layout = DEFAULT_LAYOUT;
+				break;
+		}
+		System.out.println("output layout: " + layout.name());
+
+		if (!mergeArg.isEmpty()) {
+			System.out.print("\n");
+			final List<File> sourceDirectories = new ArrayList<>();
+			for (String dir : mergeArg.getString().split(",")) {
+				sourceDirectories.add(new File(dir.trim()));
+			}
+			mergeOutputDirectories(inputFile, sourceDirectories, outputDirectory, layout);
 			kthxbai();
 		}
 
@@ -175,6 +296,28 @@ public class Main {
 			xpathExpressions = Collections.EMPTY_LIST;
 		}
 
+		// compile all XPath expressions up front, s.t. broken ones get reported
+		// now, rather than with each and every BibTeX entry
+		final Set<String> allXPathExpressions = new LinkedHashSet<>(xpathExpressions);
+		for (PDFDatabase db : PDFDatabase.values()) {
+			for (List<String> xpath : db.getScrapConfigurations().values()) {
+				allXPathExpressions.addAll(xpath);
+			}
+		}
+		boolean invalidXPath = false;
+		for (String xpath : allXPathExpressions) {
+			try {
+				XPathCache.compile(xpath);
+			} catch (IllegalArgumentException ex) {
+				printError(ex, "ERROR: invalid XPath expression: " + xpath);
+				invalidXPath = true;
+			}
+		}
+		if (invalidXPath) {
+			kthxbai();
+		}
+		System.out.println("compiled xpath expressions: " + XPathCache.size());
+
 		final IDCreator idCreator;
 		switch (idArg.getString().toUpperCase()) {
 			case "ENTRY_NUMBER":
@@ -219,180 +362,425 @@ public class Main {
 				browser = DEFAULT_BROWSER;
 		}
 
+		HostRateLimiter rateLimiter = null;
+		try {
+			rateLimiter = rateArg.isEmpty() ? new HostRateLimiter() : new HostRateLimiter(rateArg.getString());
+		} catch (NumberFormatException ex) {
+			printError(ex, "ERROR: invalid rate: " + rateArg.getString());
+			kthxbai();
+		}
+		for (PDFDatabase db : PDFDatabase.values()) {
+			System.out.println(String.format(
+					"request rate %s: %.3f requests/s (burst=%d)",
+					db.name(),
+					rateLimiter.getRate(db),
+					rateLimiter.getBurst(db)
+			));
+		}
+		String proxyHost = null;
+		int proxyPort = 0;
+		if (!proxyArg.isEmpty()) {
+			final String proxy = proxyArg.getString();
+			final int n = proxy.lastIndexOf(':');
+			try {
+				proxyHost = proxy.substring(0, n);
+				proxyPort = Integer.parseInt(proxy.substring(n + 1));
+			} catch (IndexOutOfBoundsException | NumberFormatException ex) {
+				printError(ex, "ERROR: invalid proxy: " + proxy);
+				kthxbai();
+			}
+			System.out.println("proxy: " + proxyHost + ":" + proxyPort);
+		}
+		JavaScriptProfile javaScriptProfile = JavaScriptProfile.DEFAULT;
+		try {
+			if (!javaScriptArg.isEmpty()) {
+				javaScriptProfile = JavaScriptProfile.parse(javaScriptArg.getString());
+			}
+		} catch (IllegalArgumentException ex) {
+			printError(ex, "ERROR: invalid JavaScript execution profile: " + javaScriptArg.getString());
+			kthxbai();
+		}
+		System.out.println("javascript profile: " + javaScriptProfile);
+		final RequestFilter.Rules requestRules = unfilteredArg.isSet() ? null : RequestFilter.Rules.getDefault();
+		System.out.println("request filter: " + ((requestRules == null)
+				? "disabled"
+				: requestRules.getNumRules() + " rules"));
+		final WebClientFactory clientFactory = new WebClientFactory(browser, rateLimiter, proxyHost, proxyPort, javaScriptProfile, requestRules);
+		final long hedgeDelay = hedgeArg.isEmpty() ? -1 : hedgeArg.getInteger();
+		if (hedgeArg.isSet()) {
+			if (hedgeDelay < 0) {
+				printError("ERROR: the hedging delay must be a non-negative integer.");
+				kthxbai();
+			}
+			System.out.println(String.format(
+					"hedging: after %dms%s",
+					hedgeDelay,
+					ScrapMode.AUTO.equals(scrapMode) ? "" : " (AUTO mode only; disabled)"
+			));
+		}
+		final int maxPages = recycleArg.isEmpty() ? WebClientPool.DEFAULT_MAX_PAGES : recycleArg.getInteger();
+		System.out.println("max. pages per web client pair: " + maxPages);
+
 		// TODO: also make an option for this?
 		final int numRetries = 3;
 		final int retryTimeoutInSeconds = 5;
 
-		// store the BibTeX entries by scrap(ing) status
-		final List<List<BibTeXEntry>> results = new ArrayList<>();
-		final int numScrapStatus = ScrapStatus.values().length;
-		for (int i = 0; i < numScrapStatus; i++) {
-			results.add(new ArrayList<>());
+		final int numWorkers = workersArg.isEmpty() ? 0 : workersArg.getInteger();
+		if (workersArg.isSet()) {
+			if (numWorkers < 1) {
+				printError("ERROR: the number of workers must be a positive integer.");
+				kthxbai();
+			}
+			System.out.println("workers per database: " + numWorkers);
+		}
+
+		int numResolvers = 0;
+		int numDownloaders = 0;
+		if (!pipelineArg.isEmpty()) {
+			if (workersArg.isSet()) {
+				printError("ERROR: the options --pipeline and --workers can't be combined.");
+				kthxbai();
+			}
+			final String[] pipeline = pipelineArg.getString().split(":");
+			try {
+				numResolvers = Integer.parseInt(pipeline[0].trim());
+				numDownloaders = (pipeline.length > 1) ? Integer.parseInt(pipeline[1].trim()) : numResolvers;
+			} catch (NumberFormatException ex) {
+				printError(ex, "ERROR: invalid pipeline: " + pipelineArg.getString());
+				kthxbai();
+			}
+			if (numResolvers < 1 || numDownloaders < 1) {
+				printError("ERROR: the number of resolvers and downloaders must be positive integers.");
+				kthxbai();
+			}
+			System.out.println(String.format(
+					"pipeline: %d resolver(s), %d downloader(s)",
+					numResolvers,
+					numDownloaders
+			));
 		}
+
+		// stream the BibTeX entries into one BibTeX database per scrap(ing)
+		// status
+		final ScrapResults results = new ScrapResults(inputFile, outputDirectory);
+		final int numScrapStatus = ScrapStatus.values().length;
 		int numBibTeXEntries = -1;
 
+		Set<PDFDatabase> staticDatabases = null;
+		try {
+			staticDatabases = staticArg.isEmpty()
+					? StaticResolver.getDefaultDatabases()
+					: StaticResolver.parseDatabases(staticArg.getString());
+		} catch (IllegalArgumentException ex) {
+			printError(ex, "ERROR: invalid database: " + staticArg.getString());
+			kthxbai();
+		}
+		System.out.println("static resolution: " + (staticDatabases.isEmpty() ? "NONE" : staticDatabases));
+
+		final File storeDirectory = new File(
+				outputDirectory.getAbsolutePath(),
+				PDFStore.DEFAULT_DIRECTORY_NAME
+		);
+		PDFStore store = null;
+		try {
+			store = new PDFStore(storeDirectory);
+			System.out.println(String.format(
+					"PDF file store (%d blobs): %s",
+					store.getNumBlobs(),
+					storeDirectory
+			));
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to open the PDF file store: " + storeDirectory);
+		}
+
+		final EntryScraper scraper = new EntryScraper(
+				scrapMode,
+				xpathExpressions,
+				idCreator,
+				outputDirectory,
+				results,
+				new PDFDownloader(rateLimiter, new DirectBufferPool(), store),
+				numRetries,
+				retryTimeoutInSeconds
+		);
+
+		final File journalFile = new File(
+				outputDirectory.getAbsolutePath(),
+				JobJournal.getJournalFilename(inputFile)
+		);
+		if (resumeArg.isSet()) {
+			try {
+				final Map<Integer, JobJournal.Record> records = JobJournal.read(journalFile);
+				System.out.println(String.format(
+						"resuming from job journal (%d records): %s",
+						records.size(),
+						journalFile
+				));
+				scraper.setResumeRecords(records);
+			} catch (IOException ex) {
+				printError(ex, "ERROR: failed to read the job journal: " + journalFile);
+				kthxbai();
+			}
+		}
+		JobJournal journal = null;
+		try {
+			journal = new JobJournal(journalFile);
+			System.out.println("job journal: " + journalFile);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to open the job journal: " + journalFile);
+		}
+		scraper.setJournal(journal);
+		scraper.setLayout(layout);
+		if (!staticDatabases.isEmpty()) {
+			scraper.setStaticResolver(new StaticResolver(rateLimiter, staticDatabases));
+		}
+		final DOIResolver doiResolver = keepDOIArg.isSet() ? null : new DOIResolver(rateLimiter);
+		System.out.println("DOI resolution: " + ((doiResolver == null) ? "disabled" : "HEAD requests"));
+		scraper.setDOIResolver(doiResolver);
+
+		final int cacheTTL = cacheArg.isEmpty() ? ResolutionCache.DEFAULT_TTL_HOURS : cacheArg.getInteger();
+		final File cacheFile = new File(
+				outputDirectory.getAbsolutePath(),
+				ResolutionCache.DEFAULT_FILENAME
+		);
+		ResolutionCache cache = null;
+		if (cacheTTL > 0) {
+			try {
+				cache = new ResolutionCache(
+						cacheFile,
+						TimeUnit.HOURS.toMillis(cacheTTL),
+						ResolutionCache.DEFAULT_MAX_ENTRIES
+				);
+				System.out.println(String.format(
+						"resolution cache (%d entries, ttl=%dh): %s",
+						cache.size(),
+						cacheTTL,
+						cacheFile
+				));
+			} catch (IOException ex) {
+				printError(ex, "WARNING: failed to open the resolution cache: " + cacheFile);
+			}
+		}
+		scraper.setResolutionCache(cache);
+
+		final StrategyStats strategyStats = StrategyStats.getInstance();
+		final File strategyStatsFile = new File(
+				outputDirectory.getAbsolutePath(),
+				StrategyStats.DEFAULT_FILENAME
+		);
+		try {
+			strategyStats.load(strategyStatsFile);
+			System.out.println("strategy statistics: " + strategyStatsFile);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to load the strategy statistics: " + strategyStatsFile);
+		}
+
+		final int metricsInterval = metricsArg.isEmpty() ? ScrapMetrics.DEFAULT_INTERVAL_SECONDS : metricsArg.getInteger();
+		final ScrapMetrics metrics = ScrapMetrics.getInstance();
+		final File metricsFile = new File(
+				outputDirectory.getAbsolutePath(),
+				ScrapMetrics.DEFAULT_PROMETHEUS_FILENAME
+		);
+		final File metricsSummaryFile = new File(
+				outputDirectory.getAbsolutePath(),
+				ScrapMetrics.DEFAULT_JSON_FILENAME
+		);
+		ScheduledExecutorService metricsExporter = null;
+		if (metricsInterval > 0) {
+			metricsExporter = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+				final Thread t = new Thread(r, "metrics-exporter");
+				t.setDaemon(true);
+				return t;
+			});
+			metricsExporter.scheduleWithFixedDelay(
+					() -> exportMetrics(metrics, metricsFile, false),
+					metricsInterval,
+					metricsInterval,
+					TimeUnit.SECONDS
+			);
+			System.out.println(String.format(
+					"metrics (every %ds): %s",
+					metricsInterval,
+					metricsFile
+			));
+		}
+
 		System.out.print("\n");
 		System.out.println("starting up headless web client(s)...");
 		// ...but turn of all those warning messages in case we have to enable JavaScript
 		java.util.logging.Logger.getLogger("com.gargoylesoftware").setLevel(java.util.logging.Level.OFF);
 
 		// there seems to be a problem with disabling JavaScript, and turning it
-		// back on again occasionally... fuck it! Two web clients it is!
-		final WebClient client = new WebClient(browser.getVersion());
-		client.getOptions().setCssEnabled(false);
-		client.getOptions().setJavaScriptEnabled(false);
-		final WebClient jsclient = new WebClient(browser.getVersion());
-		jsclient.getOptions().setCssEnabled(false);
-		helloWebClient(client, jsclient);
-
-		try (FileReader reader = new FileReader(inputFile)) {
-			final BibTeXParser bibtexParser = new BibTeXParser();
-			final BibTeXDatabase database = bibtexParser.parse(reader);
-			numBibTeXEntries = database.getEntries().size();
-			final Map<org.jbibtex.Key, BibTeXEntry> entryMap = database.getEntries();
-			final int minmax = Math.min(numBibTeXEntries, entryRange.end);
+		// back on again occasionally... fuck it! Two web clients it is! Pairs of
+		// them, checked out from a pool per entry.
+		final WebClientPool pool = new WebClientPool(
+				clientFactory,
+				Math.max(1, Math.max(numWorkers, numResolvers)),
+				maxPages,
+				(long) (Runtime.getRuntime().maxMemory() * WebClientPool.DEFAULT_MAX_RETAINED_FRACTION)
+		);
+		final WebClientPool.ClientPair hello = pool.acquire();
+		helloWebClient(hello.client, hello.jsclient);
+		pool.release(hello);
+		final HedgedResolver hedgedResolver = (hedgeDelay >= 0 && ScrapMode.AUTO.equals(scrapMode))
+				? new HedgedResolver(pool, hedgeDelay)
+				: null;
+		scraper.setHedgedResolver(hedgedResolver);
+		final ConcurrentScheduler scheduler = (numWorkers > 0)
+				? new ConcurrentScheduler(scraper, pool, numWorkers)
+				: null;
+		final ScrapPipeline pipeline = (numResolvers > 0)
+				? new ScrapPipeline(scraper, pool, numResolvers, numDownloaders, ScrapPipeline.DEFAULT_QUEUE_CAPACITY)
+				: null;
+
+		try (BibTeXEntrySource source = new BibTeXEntrySource(inputFile)) {
 			final int numOffset = startingNum - 1;
-			final int numTotalOffset = minmax + numOffset;
+			if (entryRange.end < Integer.MAX_VALUE) {
+				scraper.setNumTotal(entryRange.end + numOffset);
+			}
 			System.out.println(String.format(
-					"processing %d (out of %d) BibTeX entries...",
-					(minmax - entryRange.start + 1),
-					numBibTeXEntries
+					"processing BibTeX entries %s...",
+					entryRange
 			));
-			int n = 0;
-			int num = numOffset;
-			for (BibTeXEntry e : entryMap.values()) {
-				n++; // 1..n (used for range filtering)
-				num++; // offset + 1..n (used for ID generation)
-
-				// check entry range/processing bounds
-				if (n < entryRange.start) {
-					continue; // skip
-				}
-				if (n > entryRange.end) {
-					break; // we're done here
-				}
-
-				final org.jbibtex.Key keyValue = e.getKey();
-				final String key;
-				if (keyValue != null) {
-					key = keyValue.toString();
-				} else {
-					putResult(
-							ScrapStatus.FAILURE_NO_BIBTEX_KEY,
-							IDCreator.ENTRY_NUMBER.getID(num, "", e),
-							e, results, outputDirectory
-					);
-					continue;
-				}
 
-				System.out.println(String.format(
-						"processing entry %d/%d: %s",
-						num,
-						numTotalOffset,
-						key
-				));
-
-				final String identifier = idCreator.getID(num, key, e);
+			// skip up to the start of the range without parsing
+			while (source.getNumEntries() < (entryRange.start - 1) && source.skip()) {
+			}
 
-				final org.jbibtex.Value urlValue = e.getField(BibTeXEntry.KEY_URL);
-				final String url;
-				if (urlValue != null) {
-					url = urlValue.toUserString();
-				} else {
-					putResult(ScrapStatus.FAILURE_NO_BIBTEX_URL, identifier, e, results, outputDirectory);
+			numBibTeXEntries = 0;
+			String text;
+			while (source.getNumEntries() < entryRange.end && (text = source.nextObject()) != null) {
+				if (!source.isEntry()) {
 					continue;
 				}
-
-				// attempt to extract the link to the PDF from the web page
-				System.out.println("  fetching URL to PDF file from: " + url + "...");
-				final String urlToPDF;
-				if (scrapMode.requiresXPathExpression()) {
-					urlToPDF = ScrapMode.fetchURLToPDFWithRetry(scrapMode, client, jsclient, url, xpathExpressions);
-				} else {
-					urlToPDF = ScrapMode.fetchURLToPDFWithRetry(scrapMode, client, jsclient, url, Collections.EMPTY_LIST);
+				final int n = source.getNumEntries(); // 1..n (used for range filtering)
+				final int num = n + numOffset; // offset + 1..n (used for ID generation)
+				// entries of other shards aren't even parsed
+				if (!entryShard.contains(BibTeXEntrySource.getKey(text), n)) {
+					continue;
 				}
-
-				if (urlToPDF.isEmpty()) {
-					putResult(ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND, identifier, e, results, outputDirectory);
+				final BibTeXEntry e = source.parse(text);
+				if (e == null) {
 					continue;
 				}
+				numBibTeXEntries++;
 
-				// fetch PDF file
-				System.out.println("  fetching PDF file from: " + urlToPDF + "...");
-				ScrapStatus ret = ScrapStatus.FAILURE_INVALID_URL_TO_PDF;
-				int t = 0;
-				while (t < numRetries) {
-					if (t > 0) {
-						try {
-							TimeUnit.SECONDS.sleep(retryTimeoutInSeconds);
-						} catch (InterruptedException ex) {
-							printError(ex);
-						}
-						System.out.println(String.format(
-								"  retrying (%d/%d) to fetch PDF file from: %s",
-								t + 1, numRetries,
-								urlToPDF
-						));
-					}
-					t++;
+				if (scheduler != null) {
+					scheduler.submit(e, num);
+				} else if (pipeline != null) {
+					pipeline.submit(e, num);
+				} else {
+					final WebClientPool.ClientPair pair = pool.acquire();
 					try {
-						final Page p = client.getPage(urlToPDF);
-						if (p.isHtmlPage()) {
-							putResult(ScrapStatus.FAILURE_INVALID_URL_TO_PDF, identifier, e, results, outputDirectory);
-							break; // no need to retry
-						}
-						final UnexpectedPage pdfPage = (UnexpectedPage) p;
-						final WebResponse response = pdfPage.getWebResponse();
-						final File successDirectory = ScrapStatus.SUCCESS.getStatusDirectory(outputDirectory);
-						final File out = new File(
-								successDirectory.getAbsolutePath(),
-								identifier + ".pdf"
-						);
-						ret = writeWebResponseToFile(response, out);
-						break;
-					} catch (FailingHttpStatusCodeException ex) {
-						ret = ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE;
-						printError(ex, "WARNING: failing HTTP status code");
-						if (t < numRetries) {
-							printError("...trying again in about " + retryTimeoutInSeconds + " seconds.");
-						} else {
-							printError("...giving up.");
-						}
+						scraper.scrap(e, num, pair.client, pair.jsclient);
+					} finally {
+						pool.release(pair);
 					}
 				}
+			}
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to read the BibTeX file: " + inputFile);
+		}
+
+		if (scheduler != null) {
+			scheduler.awaitCompletion();
+		}
+		if (pipeline != null) {
+			pipeline.awaitCompletion();
+		}
+
+		if (hedgedResolver != null) {
+			hedgedResolver.close();
+		}
+		if (doiResolver != null && (doiResolver.getNumRequests() + doiResolver.getNumRewrites()) > 0) {
+			System.out.println(String.format(
+					"DOI resolution: %d followed, %d rewritten, prefixes=%s",
+					doiResolver.getNumRequests(),
+					doiResolver.getNumRewrites(),
+					doiResolver.getPrefixes()
+			));
+		}
+		System.out.println(String.format(
+				"web client pairs: %d created, %d recycled",
+				pool.getNumCreated(),
+				pool.getNumRecycled()
+		));
+		pool.close();
 
-				putResult(ret, identifier, e, results, outputDirectory);
-				System.out.print("\n");
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				printError(ex, "WARNING: failed to close the job journal: " + journalFile);
+			}
+			final File indexFile = new File(
+					outputDirectory.getAbsolutePath(),
+					OutputIndex.getIndexFilename(inputFile)
+			);
+			try {
+				System.out.println(String.format(
+						"indexed %d BibTeX entries: %s",
+						OutputIndex.write(indexFile, JobJournal.read(journalFile).values(), layout),
+						indexFile
+				));
+			} catch (IOException ex) {
+				printError(ex, "WARNING: failed to write the index: " + indexFile);
+			}
+		}
+		if (cache != null) {
+			try {
+				cache.close();
+			} catch (IOException ex) {
+				printError(ex, "WARNING: failed to close the resolution cache: " + cacheFile);
+			}
+		}
+		try {
+			strategyStats.save(strategyStatsFile);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to save the strategy statistics: " + strategyStatsFile);
+		}
+		if (store != null) {
+			try {
+				store.close();
+			} catch (IOException ex) {
+				printError(ex, "WARNING: failed to close the PDF file store: " + storeDirectory);
 			}
-		} catch (IOException | ParseException | TokenMgrException ex) {
-			printError(ex, "ERROR: failed to parse the BibTeX file: " + inputFile);
 		}
 
-		client.close();
-		jsclient.close();
+		if (metricsExporter != null) {
+			metricsExporter.shutdownNow();
+			exportMetrics(metrics, metricsFile, false);
+			System.out.println("writing metrics summary to: " + metricsSummaryFile + "...");
+			exportMetrics(metrics, metricsSummaryFile, true);
+		}
 
 		System.out.print("\n");
 
-		final List<BibTeXEntry> successEntries = results.get(ScrapStatus.SUCCESS.ordinal());
-		final int numSuccessEntries = successEntries.size();
+		results.close();
+		final int numSuccessEntries = results.size(ScrapStatus.SUCCESS);
 		System.out.println("number of successfully processed BibTeX entries: " + numSuccessEntries);
 		final int numUnprocessedEntries = numBibTeXEntries - numSuccessEntries;
 		System.out.println("number of unprocessed BibTeX entries: " + numUnprocessedEntries);
-
-		// write success BibTeX database
-		if (numSuccessEntries > 0) {
-			writeBibTexEntries(ScrapStatus.SUCCESS, successEntries, inputFile, outputDirectory);
+		if (store != null) {
+			System.out.println(String.format(
+					"number of stored PDF files: %d (%d unique)",
+					store.getNumFiles(),
+					store.getNumBlobs()
+			));
 		}
 
 		int numFailedEntries = 0;
 		for (int i = 0; i < numScrapStatus; i++) {
 			final ScrapStatus status = ScrapStatus.values()[i];
-			final List<BibTeXEntry> entries = results.get(i);
-			final int n = entries.size();
+			final int n = results.size(status);
 
-			// write failure BibTeX databases
 			if (n > 0) {
-				writeBibTexEntries(status, entries, inputFile, outputDirectory);
+				System.out.println(String.format(
+						"%s BibTeX database (%d entries): %s",
+						status.name(),
+						n,
+						results.getFile(status)
+				));
 			}
 
 			if (n > 0 && !ScrapStatus.SUCCESS.equals(status)) {
@@ -446,6 +834,42 @@ public class Main {
 		return sb.toString();
 	}
 
+	public static String getDefaultRates() {
+		final StringBuilder sb = new StringBuilder();
+		for (PDFDatabase db : PDFDatabase.values()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(String.format(
+					java.util.Locale.ROOT,
+					"%s=%s:%d",
+					db.name(),
+					db.getRequestRate(),
+					db.getRequestBurst()
+			));
+		}
+		return sb.toString();
+	}
+
+	public static String getStaticDatabases() {
+		final StringBuilder sb = new StringBuilder();
+		for (PDFDatabase db : StaticResolver.getDefaultDatabases()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(db.name());
+		}
+		return sb.toString();
+	}
+
+	public static void exportMetrics(ScrapMetrics metrics, File file, boolean json) {
+		try {
+			metrics.export(file, json);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to export metrics to: " + file);
+		}
+	}
+
 	public static String getBibTeXFilename(File file, ScrapStatus status) {
 		final String filename = file.getName();
 		final int n = filename.lastIndexOf('.');
@@ -458,19 +882,22 @@ public class Main {
 		return filename.substring(0, n) + "-" + db.name() + ".bib";
 	}
 
-	public static void putResult(ScrapStatus status, String identifier, BibTeXEntry entry, List<List<BibTeXEntry>> results, File outputDirectory) {
+	public static ScrapStatus putResult(ScrapStatus status, BibTeXEntry entry, ScrapResults results, File bibout) {
+		final long start = System.nanoTime();
+		final String url = EntryScraper.getURL(entry);
+		final PDFDatabase db = url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
 		System.out.println("  " + status.name());
 		System.out.print("\n");
-		results.get(status.ordinal()).add(entry);
 
-		// write BibTeX file
-		final File statusDirectory = status.getStatusDirectory(outputDirectory);
-		final File bibout = new File(
-				statusDirectory.getAbsolutePath(),
-				identifier + ".bib"
-		);
+		// format once, for the BibTeX file and the BibTeX database
+		final String bibtex = formatBibTeXEntry(entry);
 		System.out.println("  writing BibTeX file to: " + bibout + "...");
-		writeBibTeXEntry(entry, bibout);
+		writeBibTeXString(bibtex, bibout);
+		results.put(status, bibtex);
+		final ScrapMetrics metrics = ScrapMetrics.getInstance();
+		metrics.record(ScrapMetrics.Stage.PUT_RESULT, db, null, start);
+		metrics.addStatus(db, status);
+		return status;
 	}
 
 	public static Writer newFileWriter(File file) throws UnsupportedEncodingException, FileNotFoundException {
@@ -481,22 +908,34 @@ public class Main {
 	}
 
 	public static void writeBibTeXEntry(BibTeXEntry entry, File file) {
-		writeBibTeXEntries(Arrays.asList(entry), file);
+		writeBibTeXString(formatBibTeXEntry(entry), file);
 	}
 
-	public static void writeBibTexEntries(ScrapStatus status, List<BibTeXEntry> entries, File file, File directory) {
-		final String filename = getBibTeXFilename(file, status);
-		final File dbfile = new File(
-				directory.getAbsolutePath(),
-				filename
-		);
-		System.out.println(String.format(
-				"writing %s BibTeX database (%d entries) to: %s...",
-				status.name(),
-				entries.size(),
-				dbfile
-		));
-		writeBibTeXEntries(entries, dbfile);
+	/**
+	 * Formats a BibTeX entry, the same way as in a BibTeX database.
+	 *
+	 * @param entry the BibTeX entry.
+	 * @return the formatted BibTeX entry.
+	 */
+	public static String formatBibTeXEntry(BibTeXEntry entry) {
+		final BibTeXDatabase database = new BibTeXDatabase();
+		database.addObject(entry);
+		final StringWriter writer = new StringWriter();
+		try {
+			new BibTeXFormatter().format(database, writer);
+		} catch (IOException ex) {
+			// a string writer doesn't throw
+			throw new IllegalStateException(ex);
+		}
+		return writer.toString();
+	}
+
+	public static void writeBibTeXString(String bibtex, File file) {
+		try (Writer writer = newFileWriter(file)) {
+			writer.write(bibtex);
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to write database to: " + file);
+		}
 	}
 
 	public static void writeBibTeXEntries(List<BibTeXEntry> entries, File file) {
@@ -518,25 +957,18 @@ public class Main {
 		}
 	}
 
-	public static ScrapStatus writeWebResponseToFile(WebResponse response, File out) {
-		try (InputStream is = response.getContentAsStream()) {
-			try (OutputStream os = new FileOutputStream(out)) {
-				byte[] bytes = new byte[4096];
-				int read;
-				while ((read = is.read(bytes)) >= 0) {
-					os.write(bytes, 0, read);
-				}
-				return ScrapStatus.SUCCESS;
-			} catch (IOException ex) {
-				System.err.println("ERROR: failed to write to output stream");
-				ex.printStackTrace(System.err);
-				return ScrapStatus.FAILURE_IO_OUTPUTSTREAM;
-			}
-		} catch (IOException ex) {
-			System.err.println("ERROR: failed to read from input stream");
-			ex.printStackTrace(System.err);
-			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
-		}
+	/**
+	 * Creates a new headless web client.
+	 *
+	 * @param browser the browser (version) of the headless web client.
+	 * @param javaScript whether to enable JavaScript, or not.
+	 * @return a new web client.
+	 */
+	public static WebClient newWebClient(Browser browser, boolean javaScript) {
+		final WebClient client = new WebClient(browser.getVersion());
+		client.getOptions().setCssEnabled(false);
+		client.getOptions().setJavaScriptEnabled(javaScript);
+		return client;
 	}
 
 	public static void helloWebClient(WebClient client, WebClient jsclient) {
@@ -601,59 +1033,91 @@ public class Main {
 		System.out.print("\n");
 	}
 
-	public static void partitionFileByDatabase(File inputFile, File outputDirectory) {
-		try (FileReader reader = new FileReader(inputFile)) {
-			final BibTeXParser bibtexParser = new BibTeXParser();
-			final BibTeXDatabase database = bibtexParser.parse(reader);
-			final int n = database.getEntries().size();
-			final Map<org.jbibtex.Key, BibTeXEntry> entryMap = database.getEntries();
-
-			final int m = PDFDatabase.values().length;
-			final BibTeXDatabase[] partitions = new BibTeXDatabase[m];
-			for (int i = 0; i < m; i++) {
-				partitions[i] = new BibTeXDatabase();
+	public static void partitionFileByDatabase(File inputFile, File outputDirectory, int numThreads) {
+		final BibTeXPartitioner partitioner = new BibTeXPartitioner(inputFile, outputDirectory, numThreads);
+		final long start = System.currentTimeMillis();
+		try {
+			partitioner.partition();
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to partition the BibTeX file: " + inputFile);
+		}
+		System.out.println(String.format(
+				"partitioned %d BibTeX entries in %.3f s (%d thread(s))\n",
+				partitioner.getNumEntries(),
+				(System.currentTimeMillis() - start) / 1e3,
+				Math.max(1, numThreads)
+		));
+		for (PDFDatabase db : PDFDatabase.values()) {
+			final int n = partitioner.getNumEntries(db);
+			if (n > 0) {
+				System.out.println(String.format(
+						"%s-partition with %d BibTeX entries:\n  %s",
+						db.name(),
+						n,
+						partitioner.getFile(db)
+				));
 			}
+		}
+	}
 
-			int i = 0;
-			for (BibTeXEntry e : entryMap.values()) {
-				i++;
-				final org.jbibtex.Key keyValue = e.getKey();
-				final String key = (keyValue == null) ? "" : keyValue.toString();
-				System.out.print(String.format(
-						"processing entry %-32s (%d/%d): ",
-						(key.length() > 32) ? key.substring(0, 32) : key,
-						i,
+	public static void mergeOutputDirectories(File inputFile, List<File> sourceDirectories, File outputDirectory, OutputLayout layout) {
+		final OutputMerger merger = new OutputMerger(inputFile, sourceDirectories, outputDirectory, layout);
+		final long start = System.currentTimeMillis();
+		try {
+			merger.merge();
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to merge the output directories: " + sourceDirectories);
+			return;
+		}
+		System.out.println(String.format(
+				"merged %d BibTeX entries from %d output directories in %.3f s (%d duplicates, %d files linked, %d copied, %d blobs)\n",
+				merger.getNumEntries(),
+				sourceDirectories.size(),
+				(System.currentTimeMillis() - start) / 1e3,
+				merger.getNumDuplicates(),
+				merger.getNumLinks(),
+				merger.getNumCopies(),
+				merger.getNumBlobs()
+		));
+		for (ScrapStatus status : ScrapStatus.values()) {
+			final int n = merger.getNumEntries(status);
+			if (n > 0) {
+				System.out.println(String.format(
+						"%s: %d BibTeX entries",
+						status.name(),
 						n
 				));
-				final org.jbibtex.Value urlValue = e.getField(BibTeXEntry.KEY_URL);
-				final String url = (urlValue == null) ? "" : urlValue.toUserString();
-				final PDFDatabase db = url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
-				System.out.print(String.format(" %s\n", db.name()));
-				partitions[db.ordinal()].addObject(e);
 			}
-			System.out.print("\n");
+		}
+	}
 
-			for (int j = 0; j < m; j++) {
-				final BibTeXDatabase partition = partitions[j];
-				final PDFDatabase db = PDFDatabase.values()[j];
-				if (!partition.getEntries().isEmpty()) {
-					final String filename = getBibTeXFilename(inputFile, db);
-					final File file = new File(
-							outputDirectory.getAbsolutePath(),
-							filename
-					);
-					System.out.println(String.format(
-							"writing %s-partition with %d BibTeX entries to:\n  %s...",
-							db.name(),
-							partition.getEntries().size(),
-							file
-					));
-					writeBibTeXDatabase(partition, file);
+	public static void lookupEntry(File inputFile, File outputDirectory, String term) {
+		final File indexFile = new File(
+				outputDirectory.getAbsolutePath(),
+				OutputIndex.getIndexFilename(inputFile)
+		);
+		if (!indexFile.exists()) {
+			printError("ERROR: index does not exist: " + indexFile);
+			return;
+		}
+		final List<String> paths;
+		try {
+			paths = OutputIndex.lookup(indexFile, term);
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to read the index: " + indexFile);
+			return;
+		}
+		if (paths.isEmpty()) {
+			System.out.println("not found: " + term);
+			return;
+		}
+		for (String path : paths) {
+			for (String extension : Arrays.asList(".bib", ".pdf")) {
+				final File file = new File(outputDirectory, path + extension);
+				if (file.exists()) {
+					System.out.println(file);
 				}
 			}
-
-		} catch (IOException | ParseException | TokenMgrException ex) {
-			printError(ex, "ERROR: failed to parse the BibTeX file: " + inputFile);
 		}
 	}
 
@@ -0,0 +1,157 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Output index. A sorted, tab separated file in the output directory that maps
+ * the BibTeX keys, and the identifiers of the BibTeX entries to the path of
+ * their files (relative to the output directory, without extension; e.g.
+ * {@code SUCCESS/3f/12_Doe2017}). Written from the job journal at the end of
+ * a run (or a merge), and looked up by a binary search on the file, s.t. a
+ * lookup only reads a few lines, and never lists a (status) directory.
+ */
+public class OutputIndex {
+
+	/**
+	 * Returns the index filename for a BibTeX file.
+	 *
+	 * @param file the BibTeX file.
+	 * @return the index filename.
+	 */
+	public static String getIndexFilename(File file) {
+		final String filename = file.getName();
+		final int n = filename.lastIndexOf('.');
+		return ((n < 0) ? filename : filename.substring(0, n)) + "-index.tsv";
+	}
+
+	/**
+	 * Writes an index.
+	 *
+	 * @param file the index file. Replaced atomically.
+	 * @param records the journal records (the last one of each BibTeX key).
+	 * @param layout the output layout.
+	 * @return the number of indexed BibTeX entries.
+	 * @throws IOException
+	 */
+	public static int write(File file, Collection<JobJournal.Record> records, OutputLayout layout) throws IOException {
+		final List<String> lines = new ArrayList<>(records.size() * 2);
+		for (JobJournal.Record record : records) {
+			final String path = layout.getRelativePath(record.status, record.identifier);
+			lines.add(escape(record.key) + "\t" + path);
+			if (!record.identifier.equals(record.key)) {
+				lines.add(escape(record.identifier) + "\t" + path);
+			}
+		}
+		Collections.sort(lines, (String a, String b) -> {
+			final int c = getTerm(a).compareTo(getTerm(b));
+			return (c != 0) ? c : a.compareTo(b);
+		});
+		final File tmp = new File(file.getAbsolutePath() + PDFDownloader.PARTIAL_SUFFIX);
+		try (Writer writer = Main.newFileWriter(tmp)) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		PDFDownloader.commit(tmp.toPath(), file.toPath());
+		return records.size();
+	}
+
+	/**
+	 * Looks up a BibTeX key, or identifier.
+	 *
+	 * @param file the index file.
+	 * @param term the BibTeX key, or identifier.
+	 * @return the paths (relative to the output directory, without extension)
+	 * of the matching BibTeX entries. Empty if there are none.
+	 * @throws IOException
+	 */
+	public static List<String> lookup(File file, String term) throws IOException {
+		final String target = escape(term);
+		final List<String> paths = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			// the smallest position p, s.t. the first line starting at or
+			// after p isn't smaller than the target
+			long lo = 0;
+			long hi = raf.length();
+			while (lo < hi) {
+				final long mid = (lo + hi) >>> 1;
+				final String line = readLineAt(raf, mid);
+				if (line == null || getTerm(line).compareTo(target) >= 0) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			String line = readLineAt(raf, lo);
+			while (line != null && getTerm(line).equals(target)) {
+				paths.add(line.substring(line.indexOf('\t') + 1));
+				line = readLine(raf);
+			}
+		}
+		return paths;
+	}
+
+	private static String getTerm(String line) {
+		final int n = line.indexOf('\t');
+		return (n < 0) ? line : line.substring(0, n);
+	}
+
+	private static String escape(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Reads the first line starting at, or after a position.
+	 *
+	 * @param raf the file.
+	 * @param pos the position.
+	 * @return the line, or {@code null} if there is none.
+	 * @throws IOException
+	 */
+	private static String readLineAt(RandomAccessFile raf, long pos) throws IOException {
+		if (pos == 0) {
+			raf.seek(0);
+		} else {
+			// skip the rest of the line before
+			raf.seek(pos - 1);
+			if (readLine(raf) == null) {
+				return null;
+			}
+		}
+		return readLine(raf);
+	}
+
+	private static String readLine(RandomAccessFile raf) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		final byte[] buffer = new byte[256];
+		while (true) {
+			final long pos = raf.getFilePointer();
+			final int n = raf.read(buffer);
+			if (n < 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer[i] == '\n') {
+					bytes.write(buffer, 0, i);
+					raf.seek(pos + i + 1);
+					return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+				}
+			}
+			bytes.write(buffer, 0, n);
+		}
+		return (bytes.size() == 0)
+				? null
+				: new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
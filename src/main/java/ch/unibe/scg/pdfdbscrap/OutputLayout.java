@@ -0,0 +1,77 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+
+/**
+ * Layout of the (BibTeX, and PDF) files of the BibTeX entries in the status
+ * directories.
+ */
+public enum OutputLayout {
+
+	/**
+	 * All files right in the status directory (e.g.
+	 * {@code SUCCESS/12_Doe2017.pdf}).
+	 */
+	FLAT,
+	/**
+	 * Files fanned out into 256 subdirectories of the status directory, by a
+	 * hash of their identifier (e.g. {@code SUCCESS/3f/12_Doe2017.pdf}), s.t.
+	 * directories stay small (and fast to list, sync, and back up) regardless
+	 * of the number of BibTeX entries.
+	 */
+	HASHED;
+
+	/**
+	 * Returns the subdirectory (relative to the status directory) of a BibTeX
+	 * entry.
+	 *
+	 * @param identifier the identifier of the BibTeX entry.
+	 * @return the subdirectory, or an empty string if the files are right in
+	 * the status directory.
+	 */
+	public String getSubdirectory(String identifier) {
+		if (FLAT.equals(this)) {
+			return "";
+		}
+		final long hash = EntryShard.hash(identifier);
+		return String.format("%02x", (int) (hash >>> 56));
+	}
+
+	/**
+	 * Returns the path of the files of a BibTeX entry (without extension),
+	 * relative to the output directory, using '/' as separator.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @param identifier the identifier of the BibTeX entry.
+	 * @return the relative path (e.g. {@code SUCCESS/3f/12_Doe2017}).
+	 */
+	public String getRelativePath(ScrapStatus status, String identifier) {
+		final String subdirectory = getSubdirectory(identifier);
+		return subdirectory.isEmpty()
+				? status.name() + "/" + identifier
+				: status.name() + "/" + subdirectory + "/" + identifier;
+	}
+
+	/**
+	 * Returns a file of a BibTeX entry. The directory is created if it doesn't
+	 * exist yet.
+	 *
+	 * @param outputDirectory the output directory.
+	 * @param status the scrap(ing) status.
+	 * @param identifier the identifier of the BibTeX entry.
+	 * @param extension the file extension (e.g. ".pdf").
+	 * @return the file.
+	 */
+	public File getFile(File outputDirectory, ScrapStatus status, String identifier, String extension) {
+		final String subdirectory = getSubdirectory(identifier);
+		File dir = status.getStatusDirectory(outputDirectory);
+		if (!subdirectory.isEmpty()) {
+			dir = new File(dir, subdirectory);
+			if (!dir.exists()) {
+				dir.mkdirs();
+			}
+		}
+		return new File(dir.getAbsolutePath(), identifier + extension);
+	}
+
+}
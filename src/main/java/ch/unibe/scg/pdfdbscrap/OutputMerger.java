@@ -0,0 +1,351 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Output directory merger. Merges the output directories of multiple runs
+ * (e.g. the shards of a BibTeX file, or a run and its re-run) into a single
+ * output directory. The BibTeX entries are identified by their identifier
+ * (the filename of their BibTeX file in the status directories); duplicates
+ * are resolved by the best scrap(ing) status (see
+ * {@link ScrapStatus#isBetterThan(ScrapStatus)}), and on a tie the later
+ * output directory wins.
+ *
+ * <p>
+ * Only the status directories are listed to pick the BibTeX entries. The
+ * BibTeX (and PDF) files of the picked entries are hard linked into the merged
+ * output directory (or copied, if the file system doesn't support hard links,
+ * e.g. across file systems), s.t. the merge takes no extra disk space, and the
+ * merged output directories are left intact. The status BibTeX databases are
+ * then rewritten from the BibTeX files in a single streaming pass, ordered by
+ * the number of the BibTeX entries, and the job journals, and the PDF file
+ * stores (see {@link PDFStore}) are merged, s.t. the merged output directory
+ * can be resumed, and indexed. The merged output directory has to be empty
+ * (or not exist yet), s.t. no stale files of an earlier merge are left over.
+ * </p>
+ *
+ * <p>
+ * The output directories to merge may have any {@link OutputLayout}; the
+ * merged output directory gets the given one.
+ * </p>
+ */
+public class OutputMerger {
+
+	private final File inputFile;
+	private final List<File> sourceDirectories;
+	private final File outputDirectory;
+	private final OutputLayout layout;
+	private final Map<String, Pick> picks;
+	private final int[] counts;
+	private int numDuplicates;
+	private int numLinks;
+	private int numCopies;
+	private int numBlobs;
+
+	/**
+	 * Creates a new output directory merger.
+	 *
+	 * @param inputFile the BibTeX file (used for the filenames of the BibTeX
+	 * databases, and the job journals).
+	 * @param sourceDirectories the output directories to merge.
+	 * @param outputDirectory the merged output directory.
+	 */
+	public OutputMerger(File inputFile, List<File> sourceDirectories, File outputDirectory) {
+		this(inputFile, sourceDirectories, outputDirectory, OutputLayout.FLAT);
+	}
+
+	/**
+	 * Creates a new output directory merger.
+	 *
+	 * @param inputFile the BibTeX file (used for the filenames of the BibTeX
+	 * databases, the job journals, and the index).
+	 * @param sourceDirectories the output directories to merge.
+	 * @param outputDirectory the merged output directory.
+	 * @param layout the output layout of the merged output directory.
+	 */
+	public OutputMerger(File inputFile, List<File> sourceDirectories, File outputDirectory, OutputLayout layout) {
+		this.inputFile = inputFile;
+		this.sourceDirectories = sourceDirectories;
+		this.outputDirectory = outputDirectory;
+		this.layout = layout;
+		this.picks = new HashMap<>();
+		this.counts = new int[ScrapStatus.values().length];
+	}
+
+	/**
+	 * Returns the number of merged BibTeX entries with the given scrap(ing)
+	 * status.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @return the number of merged BibTeX entries.
+	 */
+	public int getNumEntries(ScrapStatus status) {
+		return this.counts[status.ordinal()];
+	}
+
+	/**
+	 * Returns the total number of merged BibTeX entries.
+	 *
+	 * @return the total number of merged BibTeX entries.
+	 */
+	public int getNumEntries() {
+		return this.picks.size();
+	}
+
+	/**
+	 * Returns the number of dropped duplicates.
+	 *
+	 * @return the number of dropped duplicates.
+	 */
+	public int getNumDuplicates() {
+		return this.numDuplicates;
+	}
+
+	/**
+	 * Returns the number of hard linked files.
+	 *
+	 * @return the number of hard linked files.
+	 */
+	public int getNumLinks() {
+		return this.numLinks;
+	}
+
+	/**
+	 * Returns the number of copied files (where hard links weren't supported).
+	 *
+	 * @return the number of copied files.
+	 */
+	public int getNumCopies() {
+		return this.numCopies;
+	}
+
+	/**
+	 * Returns the number of merged blobs of the PDF file stores.
+	 *
+	 * @return the number of merged blobs.
+	 */
+	public int getNumBlobs() {
+		return this.numBlobs;
+	}
+
+	/**
+	 * Merges the output directories.
+	 *
+	 * @throws IOException
+	 */
+	public void merge() throws IOException {
+		final File target = this.outputDirectory.getCanonicalFile();
+		for (File dir : this.sourceDirectories) {
+			if (!dir.isDirectory()) {
+				throw new IOException("not an output directory: " + dir);
+			}
+			if (dir.getCanonicalFile().equals(target)) {
+				throw new IOException("can't merge an output directory into itself: " + dir);
+			}
+		}
+		final String[] existing = target.list();
+		if (existing != null && existing.length > 0) {
+			throw new IOException("merged output directory is not empty: " + target);
+		}
+
+		// pick the best BibTeX entries by listing the status directories
+		for (int i = 0; i < this.sourceDirectories.size(); i++) {
+			for (ScrapStatus status : ScrapStatus.values()) {
+				final File dir = new File(this.sourceDirectories.get(i), status.name());
+				final String[] files = dir.list();
+				if (files == null) {
+					continue;
+				}
+				for (String file : files) {
+					if (file.endsWith(".bib")) {
+						pick(new File(dir, file), i, status);
+					} else if (file.indexOf('.') < 0) {
+						// subdirectory of the hashed layout
+						final File subdir = new File(dir, file);
+						final String[] subfiles = subdir.list();
+						if (subfiles != null) {
+							for (String subfile : subfiles) {
+								if (subfile.endsWith(".bib")) {
+									pick(new File(subdir, subfile), i, status);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// link the BibTeX, and PDF files
+		final List<String> identifiers = new ArrayList<>(this.picks.keySet());
+		Collections.sort(identifiers, IDENTIFIER_ORDER);
+		for (String identifier : identifiers) {
+			final Pick pick = this.picks.get(identifier);
+			link(pick.bib, getFile(pick.status, identifier, ".bib"));
+			if (ScrapStatus.SUCCESS.equals(pick.status)) {
+				final File pdf = new File(pick.bib.getParentFile(), identifier + ".pdf");
+				if (pdf.exists()) {
+					link(pdf, getFile(pick.status, identifier, ".pdf"));
+				}
+			}
+			this.counts[pick.status.ordinal()]++;
+		}
+
+		// rewrite the status BibTeX databases in a single pass
+		try (ScrapResults results = new ScrapResults(this.inputFile, this.outputDirectory)) {
+			for (String identifier : identifiers) {
+				final Pick pick = this.picks.get(identifier);
+				final File bib = getFile(pick.status, identifier, ".bib");
+				results.put(pick.status, new String(
+						Files.readAllBytes(bib.toPath()),
+						StandardCharsets.UTF_8
+				));
+			}
+		}
+
+		mergeJournals();
+		mergeStores();
+	}
+
+	private File getFile(ScrapStatus status, String identifier, String extension) {
+		return this.layout.getFile(this.outputDirectory, status, identifier, extension);
+	}
+
+	private void pick(File bib, int directory, ScrapStatus status) {
+		final String filename = bib.getName();
+		final String identifier = filename.substring(0, filename.length() - 4);
+		final Pick previous = this.picks.get(identifier);
+		if (previous != null) {
+			this.numDuplicates++;
+			if (previous.status.isBetterThan(status)) {
+				return;
+			}
+		}
+		this.picks.put(identifier, new Pick(bib, directory, status));
+	}
+
+	private void link(File source, File target) throws IOException {
+		final Path tmp = target.toPath().resolveSibling(target.getName() + PDFDownloader.PARTIAL_SUFFIX);
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createLink(tmp, source.toPath());
+			this.numLinks++;
+		} catch (IOException | UnsupportedOperationException ex) {
+			Files.copy(source.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+			this.numCopies++;
+		}
+		PDFDownloader.commit(tmp, target.toPath());
+	}
+
+	private void mergeJournals() {
+		final String filename = JobJournal.getJournalFilename(this.inputFile);
+		final File file = new File(this.outputDirectory, filename);
+		final File tmp = new File(file.getAbsolutePath() + PDFDownloader.PARTIAL_SUFFIX);
+		final List<JobJournal.Record> records = new ArrayList<>();
+		try {
+			try (JobJournal journal = new JobJournal(tmp)) {
+				for (int i = 0; i < this.sourceDirectories.size(); i++) {
+					final File source = new File(this.sourceDirectories.get(i), filename);
+					for (JobJournal.Record record : JobJournal.read(source).values()) {
+						// only the records of the picked BibTeX entries
+						final Pick pick = this.picks.get(record.identifier);
+						if (pick != null && pick.directory == i && pick.status.equals(record.status)) {
+							journal.append(record);
+							records.add(record);
+						}
+					}
+				}
+			}
+			PDFDownloader.commit(tmp.toPath(), file.toPath());
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to merge the job journals to: " + file);
+			return;
+		}
+		final File index = new File(this.outputDirectory, OutputIndex.getIndexFilename(this.inputFile));
+		try {
+			OutputIndex.write(index, records, this.layout);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to write the index: " + index);
+		}
+	}
+
+	private void mergeStores() throws IOException {
+		final List<Set<String>> identifiers = new ArrayList<>();
+		boolean hasStore = false;
+		for (File dir : this.sourceDirectories) {
+			identifiers.add(new HashSet<>());
+			hasStore |= new File(dir, PDFStore.DEFAULT_DIRECTORY_NAME).isDirectory();
+		}
+		if (!hasStore) {
+			return;
+		}
+		// only the blobs of the picked PDF files
+		for (Map.Entry<String, Pick> e : this.picks.entrySet()) {
+			if (ScrapStatus.SUCCESS.equals(e.getValue().status)) {
+				identifiers.get(e.getValue().directory).add(e.getKey());
+			}
+		}
+		try (PDFStore store = new PDFStore(new File(this.outputDirectory, PDFStore.DEFAULT_DIRECTORY_NAME))) {
+			for (int i = 0; i < this.sourceDirectories.size(); i++) {
+				this.numBlobs += store.merge(
+						new File(this.sourceDirectories.get(i), PDFStore.DEFAULT_DIRECTORY_NAME),
+						identifiers.get(i)
+				);
+			}
+		}
+	}
+
+	/**
+	 * Orders identifiers by their leading entry number (if any), and then
+	 * lexicographically.
+	 */
+	private final static Comparator<String> IDENTIFIER_ORDER = (String a, String b) -> {
+		final long na = getNumber(a);
+		final long nb = getNumber(b);
+		if (na != nb) {
+			return (na < nb) ? -1 : 1;
+		}
+		return a.compareTo(b);
+	};
+
+	private static long getNumber(String identifier) {
+		long n = 0;
+		int i = 0;
+		while (i < identifier.length() && i < 18 && Character.isDigit(identifier.charAt(i))) {
+			n = n * 10 + (identifier.charAt(i) - '0');
+			i++;
+		}
+		return (i == 0) ? Long.MAX_VALUE : n;
+	}
+
+	/**
+	 * The picked output directory, and status of a BibTeX entry.
+	 */
+	private static class Pick {
+
+		private final File bib;
+		private final int directory;
+		private final ScrapStatus status;
+
+		private Pick(File bib, int directory, ScrapStatus status) {
+			this.bib = bib;
+			this.directory = directory;
+			this.status = status;
+		}
+
+	}
+
+}
@@ -2,7 +2,7 @@ package ch.unibe.scg.pdfdbscrap;
 
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -18,13 +18,23 @@ public enum PDFDatabase {
 	 */
 	ACM() {
 				@Override
-				public boolean isDatabaseByURL(String url) {
-					return (url.contains("doi.acm.org") || url.contains("dl.acm.org"));
+				public Map<ScrapMode, List<String>> getScrapConfigurations() {
+					return ACM_CONFIG;
 				}
 
 				@Override
-				public Map<ScrapMode, List<String>> getScrapConfigurations() {
-					return ACM_CONFIG;
+				public boolean hasStaticAnchors() {
+					return true;
+				}
+
+				@Override
+				public double getRequestRate() {
+					return 1.0;
+				}
+
+				@Override
+				public int getRequestBurst() {
+					return 4;
 				}
 			},
 	/**
@@ -34,11 +44,6 @@ public enum PDFDatabase {
 	 * @see <a href="http://dx.doi.org/">http://dx.doi.org/</a>
 	 */
 	DOI() {
-				@Override
-				public boolean isDatabaseByURL(String url) {
-					return url.contains("dx.doi.org");
-				}
-
 				@Override
 				public Map<ScrapMode, List<String>> getScrapConfigurations() {
 					return DOI_CONFIG;
@@ -51,11 +56,6 @@ public enum PDFDatabase {
 	 * <a href="http://ieeexplore.ieee.org/">http://ieeexplore.ieee.org/</a>
 	 */
 	IEEE() {
-				@Override
-				public boolean isDatabaseByURL(String url) {
-					return url.contains("ieeexplore.ieee.org");
-				}
-
 				@Override
 				public Map<ScrapMode, List<String>> getScrapConfigurations() {
 					return IEEE_CONFIG;
@@ -69,13 +69,13 @@ public enum PDFDatabase {
 	 */
 	SCIENCEDIRECT() {
 				@Override
-				public boolean isDatabaseByURL(String url) {
-					return url.contains("www.sciencedirect.com");
+				public Map<ScrapMode, List<String>> getScrapConfigurations() {
+					return SCIENCEDIRECT_CONFIG;
 				}
 
 				@Override
-				public Map<ScrapMode, List<String>> getScrapConfigurations() {
-					return SCIENCEDIRECT_CONFIG;
+				public boolean hasStaticAnchors() {
+					return true;
 				}
 			},
 	/**
@@ -83,22 +83,17 @@ public enum PDFDatabase {
 	 * rocketship underpants don’t help." -- Bill Watterson, Calvin & Hobbes.
 	 */
 	UNKNOWN() {
-				@Override
-				public boolean isDatabaseByURL(String url) {
-					return false;
-				}
-
 				@Override
 				public Map<ScrapMode, List<String>> getScrapConfigurations() {
 					return UNKNOWN_CONFIG;
 				}
 			};
 
-	private final static Map<ScrapMode, List<String>> ACM_CONFIG = new HashMap<>();
-	private final static Map<ScrapMode, List<String>> IEEE_CONFIG = new HashMap<>();
-	private final static Map<ScrapMode, List<String>> DOI_CONFIG = new HashMap<>();
-	private final static Map<ScrapMode, List<String>> SCIENCEDIRECT_CONFIG = new HashMap<>();
-	private final static Map<ScrapMode, List<String>> UNKNOWN_CONFIG = new HashMap<>();
+	private final static Map<ScrapMode, List<String>> ACM_CONFIG = new LinkedHashMap<>();
+	private final static Map<ScrapMode, List<String>> IEEE_CONFIG = new LinkedHashMap<>();
+	private final static Map<ScrapMode, List<String>> DOI_CONFIG = new LinkedHashMap<>();
+	private final static Map<ScrapMode, List<String>> SCIENCEDIRECT_CONFIG = new LinkedHashMap<>();
+	private final static Map<ScrapMode, List<String>> UNKNOWN_CONFIG = new LinkedHashMap<>();
 
 	static {
 		ACM_CONFIG.put(
@@ -132,31 +127,65 @@ public enum PDFDatabase {
 	 * @return {@code true} if the URL points to this database, {@code false}
 	 * otherwise.
 	 */
-	abstract public boolean isDatabaseByURL(String url);
+	public boolean isDatabaseByURL(String url) {
+		return getPDFDatabase(url) == this;
+	}
 
 	/**
 	 * Returns the scrap(ing) configurations. Ideally only one scrap(ing)
 	 * configuration is needed, but feel free to define more as fallback
-	 * scrap(ing) modes, in case the previous one didn't work.
+	 * scrap(ing) modes, in case the previous one didn't work. The configured
+	 * order is only the initial order; the {@code AUTO} scrap(ing) mode
+	 * reorders by past performance (see {@code StrategyStats}).
 	 *
 	 * @return the scrap(ing) configurations, which is a map of scrap(ing) modes
 	 * associated with a list of XPath expressions.
 	 */
 	abstract public Map<ScrapMode, List<String>> getScrapConfigurations();
 
+	/**
+	 * Checks whether the anchor to the PDF file is present in the static HTML
+	 * of the web pages of this database, s.t. the URL to the PDF file can be
+	 * resolved without HtmlUnit (let alone JavaScript).
+	 *
+	 * @return {@code true} if the anchor to the PDF file is present in the
+	 * static HTML, {@code false} otherwise.
+	 */
+	public boolean hasStaticAnchors() {
+		return false;
+	}
+
+	/**
+	 * Returns the default request rate for hosts of this database. The ACM DL
+	 * in particular likes to ban us after a couple hundred downloads in
+	 * succession.
+	 *
+	 * @return the default request rate in requests per second.
+	 */
+	public double getRequestRate() {
+		return 2.0;
+	}
+
+	/**
+	 * Returns the default request burst for hosts of this database.
+	 *
+	 * @return the default request burst, i.e. the max. number of requests
+	 * allowed at once.
+	 */
+	public int getRequestBurst() {
+		return 8;
+	}
+
 	/**
 	 * Attempts to return a known PDF database, given the URL of a BibTeX entry.
+	 * The URL is classified by its host, according to the default rule table
+	 * of the {@code URLClassifier}.
 	 *
 	 * @param url the URL of a BibTeX entry.
 	 * @return the known PDF database, or {@code UNKNOWN}.
 	 */
 	public static PDFDatabase getPDFDatabase(String url) {
-		for (PDFDatabase db : values()) {
-			if (db.isDatabaseByURL(url)) {
-				return db;
-			}
-		}
-		return UNKNOWN;
+		return URLClassifier.getDefault().classify(url);
 	}
 
 }
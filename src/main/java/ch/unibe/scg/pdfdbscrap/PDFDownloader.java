@@ -0,0 +1,273 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import com.gargoylesoftware.htmlunit.WebClient;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Streaming PDF file downloader. Unlike fetching the PDF file with the web
+ * client (which buffers the whole response body first), the response body is
+ * streamed straight into a temporary file next to the final one, through
+ * pooled direct buffers. Once complete, the temporary file is atomically
+ * renamed to its final name, s.t. partial files never show up under a final
+ * name.
+ *
+ * <p>
+ * Cookies, user agent, timeout and proxy are taken from the given web client,
+ * and every request (including redirects) passes the per-host rate limiter.
+ * </p>
+ *
+ * <p>
+ * With a PDF file store, the PDF file is hashed while streaming and put into
+ * the store, and PDF files whose URL is known to the store already aren't
+ * downloaded again at all.
+ * </p>
+ */
+public class PDFDownloader {
+
+	/**
+	 * Suffix of temporary (partial) files.
+	 */
+	public final static String PARTIAL_SUFFIX = ".part";
+
+	private final static String ACCEPT = "application/pdf,*/*";
+
+	private final HttpConnector connector;
+	private final DirectBufferPool pool;
+	private final PDFStore store;
+
+	/**
+	 * Creates a new PDF file downloader without a PDF file store.
+	 *
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param pool the direct buffer pool.
+	 */
+	public PDFDownloader(HostRateLimiter limiter, DirectBufferPool pool) {
+		this(limiter, pool, null);
+	}
+
+	/**
+	 * Creates a new PDF file downloader.
+	 *
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param pool the direct buffer pool.
+	 * @param store the PDF file store, or {@code null}.
+	 */
+	public PDFDownloader(HostRateLimiter limiter, DirectBufferPool pool, PDFStore store) {
+		this.connector = new HttpConnector(limiter);
+		this.pool = pool;
+		this.store = store;
+	}
+
+	/**
+	 * Returns the PDF file store.
+	 *
+	 * @return the PDF file store, or {@code null}.
+	 */
+	public PDFStore getStore() {
+		return this.store;
+	}
+
+	/**
+	 * Downloads a PDF file.
+	 *
+	 * @param client the web client (to take cookies, user agent, timeout and
+	 * proxy from).
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param out the output file.
+	 * @return {@code SUCCESS}, or the scrap(ing) status of the failure. Only a
+	 * {@code FAILURE_FAILING_HTTP_STATUS_CODE} is worth another try.
+	 */
+	public ScrapStatus download(WebClient client, String urlToPDF, File out) {
+		if (this.store != null) {
+			final String hash = this.store.getHash(urlToPDF);
+			if (hash != null) {
+				try {
+					this.store.link(hash, urlToPDF, out);
+					System.out.println("  PDF file already stored: " + hash);
+					return ScrapStatus.SUCCESS;
+				} catch (IOException ex) {
+					printError(ex, "WARNING: failed to link stored PDF file: " + hash);
+				}
+			}
+		}
+
+		final HttpURLConnection connection;
+		try {
+			connection = this.connector.connect(client, new URL(urlToPDF), ACCEPT);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			printError(ex, "ERROR: interrupted while fetching: " + urlToPDF);
+			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to read from input stream");
+			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+		}
+
+		try {
+			final int code = connection.getResponseCode();
+			if (code >= 400) {
+				printError(String.format(
+						"WARNING: failing HTTP status code: %d %s (%s)",
+						code,
+						connection.getResponseMessage(),
+						connection.getURL()
+				));
+				return ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE;
+			}
+			if (HttpConnector.isHtml(connection.getContentType())) {
+				return ScrapStatus.FAILURE_INVALID_URL_TO_PDF;
+			}
+			final long start = System.nanoTime();
+			try {
+				return writeResponseToFile(connection, urlToPDF, out);
+			} finally {
+				ScrapMetrics.getInstance().record(
+						ScrapMetrics.Stage.WRITE,
+						PDFDatabase.getPDFDatabase(urlToPDF),
+						null,
+						start
+				);
+			}
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to read from input stream");
+			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Streams the response body into a temporary file, and renames it to the
+	 * output file (or puts it into the PDF file store) once complete.
+	 *
+	 * @param connection the connection.
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param out the output file.
+	 * @return the scrap(ing) status.
+	 */
+	private ScrapStatus writeResponseToFile(HttpURLConnection connection, String urlToPDF, File out) {
+		final Path target = out.toPath();
+		final Path partial;
+		try {
+			partial = (this.store == null)
+					? target.resolveSibling(out.getName() + PARTIAL_SUFFIX)
+					: this.store.newPartialFile();
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to write to output stream");
+			return ScrapStatus.FAILURE_IO_OUTPUTSTREAM;
+		}
+		final MessageDigest digest = (this.store == null) ? null : PDFStore.newDigest();
+		final long contentLength = connection.getContentLengthLong();
+		ByteBuffer buffer = null;
+		boolean writing = false;
+		boolean complete = false;
+		try (InputStream is = connection.getInputStream();
+				ReadableByteChannel in = Channels.newChannel(is);
+				FileChannel os = FileChannel.open(
+						partial,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING
+				)) {
+			buffer = this.pool.acquire();
+			long total = 0;
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				total += read;
+				buffer.flip();
+				if (digest != null) {
+					digest.update(buffer.duplicate());
+				}
+				writing = true;
+				while (buffer.hasRemaining()) {
+					os.write(buffer);
+				}
+				writing = false;
+				buffer.clear();
+			}
+			if (contentLength >= 0 && total != contentLength) {
+				ScrapMetrics.getInstance().addBytes(PDFDatabase.getPDFDatabase(urlToPDF), total);
+				printError(String.format(
+						"ERROR: truncated response body: %d of %d bytes",
+						total,
+						contentLength
+				));
+				return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+			}
+			ScrapMetrics.getInstance().addBytes(PDFDatabase.getPDFDatabase(urlToPDF), total);
+			writing = true;
+			os.force(false);
+			complete = true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			printError(ex, "ERROR: interrupted while waiting for a buffer");
+			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+		} catch (IOException ex) {
+			if (writing) {
+				printError(ex, "ERROR: failed to write to output stream");
+				return ScrapStatus.FAILURE_IO_OUTPUTSTREAM;
+			}
+			printError(ex, "ERROR: failed to read from input stream");
+			return ScrapStatus.FAILURE_IO_INPUTSTREAM;
+		} finally {
+			if (buffer != null) {
+				this.pool.release(buffer);
+			}
+			if (!complete) {
+				deletePartial(partial);
+			}
+		}
+
+		try {
+			if (this.store == null) {
+				commit(partial, target);
+			} else {
+				this.store.put(partial, PDFStore.toHex(digest.digest()), urlToPDF, out);
+			}
+			return ScrapStatus.SUCCESS;
+		} catch (IOException ex) {
+			printError(ex, "ERROR: failed to write to output stream");
+			deletePartial(partial);
+			return ScrapStatus.FAILURE_IO_OUTPUTSTREAM;
+		}
+	}
+
+	/**
+	 * Atomically renames a (complete) temporary file to its final name.
+	 *
+	 * @param partial the temporary file.
+	 * @param target the final file.
+	 * @throws IOException
+	 */
+	public static void commit(Path partial, Path target) throws IOException {
+		try {
+			Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void deletePartial(Path partial) {
+		try {
+			Files.deleteIfExists(partial);
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to delete partial file: " + partial);
+		}
+	}
+
+}
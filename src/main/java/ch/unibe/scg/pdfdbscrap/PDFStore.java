@@ -0,0 +1,364 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed PDF file store. PDF files are stored once by their
+ * SHA-256 hash (the blobs), and the named PDF files in the {@code SUCCESS}
+ * directory are hard links to these blobs (or copies, if the file system
+ * doesn't support hard links). Thus, the same paper reached through different
+ * BibTeX entries (e.g. a DOI and an ACM URL) takes up disk space only once.
+ *
+ * <p>
+ * The index (a tab separated file in the store directory) records the blob of
+ * each stored PDF file, together with its URL, s.t. later runs can skip the
+ * download of a URL whose blob is known already.
+ * </p>
+ */
+public class PDFStore implements AutoCloseable {
+
+	/**
+	 * Default store directory name (in the output directory).
+	 */
+	public final static String DEFAULT_DIRECTORY_NAME = "blobs";
+
+	/**
+	 * The hash algorithm.
+	 */
+	public final static String HASH_ALGORITHM = "SHA-256";
+
+	/**
+	 * The index filename (in the store directory).
+	 */
+	public final static String INDEX_FILENAME = "index.tsv";
+
+	private final static int NUM_FIELDS = 5;
+
+	private final File directory;
+	private final File tmpDirectory;
+	private final File indexFile;
+	private final Map<String, String> hashByURL;
+	private final Map<String, Set<String>> identifiersByHash;
+	private final Writer index;
+
+	/**
+	 * Opens a PDF file store.
+	 *
+	 * @param directory the store directory. Created if it doesn't exist yet,
+	 * otherwise the index is loaded.
+	 * @throws IOException
+	 */
+	public PDFStore(File directory) throws IOException {
+		this.directory = directory;
+		this.tmpDirectory = new File(directory, "tmp");
+		Files.createDirectories(this.tmpDirectory.toPath());
+		this.indexFile = new File(directory, INDEX_FILENAME);
+		this.hashByURL = new HashMap<>();
+		this.identifiersByHash = new HashMap<>();
+		load();
+		this.index = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(this.indexFile, true),
+				StandardCharsets.UTF_8
+		));
+	}
+
+	/**
+	 * Returns the store directory.
+	 *
+	 * @return the store directory.
+	 */
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Returns a new message digest to hash PDF files with.
+	 *
+	 * @return a new message digest.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Returns the lower case hex string of a hash.
+	 *
+	 * @param hash the hash.
+	 * @return the hex string.
+	 */
+	public static String toHex(byte[] hash) {
+		final StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a new temporary file to download a PDF file into. The temporary
+	 * file is on the same file system as the blobs.
+	 *
+	 * @return a new temporary file.
+	 * @throws IOException
+	 */
+	public Path newPartialFile() throws IOException {
+		return Files.createTempFile(
+				this.tmpDirectory.toPath(),
+				"download-",
+				PDFDownloader.PARTIAL_SUFFIX
+		);
+	}
+
+	/**
+	 * Returns the blob file of a hash.
+	 *
+	 * @param hash the hash.
+	 * @return the blob file (which might not exist).
+	 */
+	public File getBlob(String hash) {
+		return new File(
+				new File(this.directory, hash.substring(0, 2)),
+				hash + ".pdf"
+		);
+	}
+
+	/**
+	 * Returns the hash of the PDF file that has been downloaded from a URL
+	 * before.
+	 *
+	 * @param urlToPDF the URL to the PDF file.
+	 * @return the hash, or {@code null} if unknown (or the blob is gone).
+	 */
+	public synchronized String getHash(String urlToPDF) {
+		final String hash = this.hashByURL.get(urlToPDF);
+		if (hash == null || !getBlob(hash).exists()) {
+			return null;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the identifiers of all (named) PDF files sharing a blob.
+	 *
+	 * @param hash the hash.
+	 * @return the identifiers.
+	 */
+	public synchronized Set<String> getIdentifiers(String hash) {
+		final Set<String> identifiers = this.identifiersByHash.get(hash);
+		return (identifiers == null)
+				? Collections.EMPTY_SET
+				: new LinkedHashSet<>(identifiers);
+	}
+
+	/**
+	 * Returns the number of blobs.
+	 *
+	 * @return the number of blobs.
+	 */
+	public synchronized int getNumBlobs() {
+		return this.identifiersByHash.size();
+	}
+
+	/**
+	 * Returns the number of (named) PDF files.
+	 *
+	 * @return the number of (named) PDF files.
+	 */
+	public synchronized int getNumFiles() {
+		int n = 0;
+		for (Set<String> identifiers : this.identifiersByHash.values()) {
+			n += identifiers.size();
+		}
+		return n;
+	}
+
+	/**
+	 * Puts a downloaded PDF file into the store, and links the named PDF file
+	 * to its blob. The temporary file is moved (or deleted if the blob exists
+	 * already).
+	 *
+	 * @param partial the (complete) temporary file.
+	 * @param hash the hash of the PDF file.
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param out the named PDF file.
+	 * @throws IOException
+	 */
+	public void put(Path partial, String hash, String urlToPDF, File out) throws IOException {
+		final File blob = getBlob(hash);
+		if (blob.exists()) {
+			Files.deleteIfExists(partial);
+		} else {
+			Files.createDirectories(blob.getParentFile().toPath());
+			PDFDownloader.commit(partial, blob.toPath());
+		}
+		link(hash, urlToPDF, out);
+	}
+
+	/**
+	 * Links a named PDF file to a blob. Falls back to a copy of the blob if
+	 * the file system doesn't support hard links. An existing named PDF file
+	 * gets replaced atomically.
+	 *
+	 * @param hash the hash of the PDF file.
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param out the named PDF file.
+	 * @throws IOException
+	 */
+	public void link(String hash, String urlToPDF, File out) throws IOException {
+		final Path blob = getBlob(hash).toPath();
+		final Path target = out.toPath();
+		final Path tmp = target.resolveSibling(out.getName() + PDFDownloader.PARTIAL_SUFFIX);
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createLink(tmp, blob);
+		} catch (IOException | UnsupportedOperationException ex) {
+			Files.copy(blob, tmp, StandardCopyOption.REPLACE_EXISTING);
+		}
+		PDFDownloader.commit(tmp, target);
+		record(hash, blob.toFile().length(), getIdentifier(out), urlToPDF);
+	}
+
+	/**
+	 * Merges (part of) another store into this one (e.g. the store of an
+	 * output directory to be merged). The blobs of the given identifiers are
+	 * hard linked into this store (or copied, if the file system doesn't
+	 * support hard links), and recorded in the index. The other store is left
+	 * intact.
+	 *
+	 * @param source the store directory to merge.
+	 * @param identifiers the identifiers of the (named) PDF files to merge.
+	 * @return the number of merged blobs that weren't in this store yet.
+	 * @throws IOException
+	 */
+	public int merge(File source, Set<String> identifiers) throws IOException {
+		final File sourceIndex = new File(source, INDEX_FILENAME);
+		if (!sourceIndex.exists()) {
+			return 0;
+		}
+		int n = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(sourceIndex),
+				StandardCharsets.UTF_8
+		))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t", -1);
+				if (fields.length != NUM_FIELDS || fields[0].length() < 2 || !identifiers.contains(fields[2])) {
+					continue;
+				}
+				final String hash = fields[0];
+				final File from = new File(new File(source, hash.substring(0, 2)), hash + ".pdf");
+				final File blob = getBlob(hash);
+				if (!from.exists()) {
+					continue;
+				}
+				if (!blob.exists()) {
+					Files.createDirectories(blob.getParentFile().toPath());
+					final Path tmp = newPartialFile();
+					Files.deleteIfExists(tmp);
+					try {
+						Files.createLink(tmp, from.toPath());
+					} catch (IOException | UnsupportedOperationException ex) {
+						Files.copy(from.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+					}
+					PDFDownloader.commit(tmp, blob.toPath());
+					n++;
+				}
+				record(hash, blob.length(), fields[2], fields[3]);
+			}
+		}
+		return n;
+	}
+
+	private static String getIdentifier(File out) {
+		final String filename = out.getName();
+		final int n = filename.lastIndexOf('.');
+		return (n < 0) ? filename : filename.substring(0, n);
+	}
+
+	private synchronized void record(String hash, long size, String identifier, String urlToPDF) {
+		final boolean isNewURL = !hash.equals(this.hashByURL.put(urlToPDF, hash));
+		final boolean isNewIdentifier = add(hash, identifier);
+		if (!isNewURL && !isNewIdentifier) {
+			return;
+		}
+		try {
+			this.index.write(String.format(
+					"%s\t%d\t%s\t%s\t%d\n",
+					hash,
+					size,
+					escape(identifier),
+					escape(urlToPDF),
+					System.currentTimeMillis()
+			));
+			this.index.flush();
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to write to the PDF store index: " + this.indexFile);
+		}
+	}
+
+	private boolean add(String hash, String identifier) {
+		Set<String> identifiers = this.identifiersByHash.get(hash);
+		if (identifiers == null) {
+			identifiers = new LinkedHashSet<>();
+			this.identifiersByHash.put(hash, identifiers);
+		}
+		return identifiers.add(identifier);
+	}
+
+	private static String escape(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private void load() throws IOException {
+		if (!this.indexFile.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.indexFile),
+				StandardCharsets.UTF_8
+		))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t", -1);
+				if (fields.length != NUM_FIELDS || fields[0].length() < 2) {
+					continue;
+				}
+				this.hashByURL.put(fields[3], fields[0]);
+				add(fields[0], fields[2]);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.index.close();
+	}
+
+}
@@ -0,0 +1,66 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Rate limited web connection. Wraps the web connection of a web client, s.t.
+ * every single request (landing pages, frames, PDF files, ...) passes the
+ * per-host rate limiter first.
+ */
+public class RateLimitedWebConnection extends WebConnectionWrapper {
+
+	private final HostRateLimiter limiter;
+
+	/**
+	 * Creates a new rate limited web connection, and installs it on the given
+	 * web client.
+	 *
+	 * @param client the web client.
+	 * @param limiter the per-host rate limiter.
+	 */
+	public RateLimitedWebConnection(WebClient client, HostRateLimiter limiter) {
+		super(client);
+		this.limiter = limiter;
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		try {
+			this.limiter.acquire(request.getUrl());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for: " + request.getUrl());
+		}
+		final WebResponse response = super.getResponse(request);
+		this.limiter.update(
+				request.getUrl(),
+				response.getStatusCode(),
+				getRetryAfter(response.getResponseHeaderValue("Retry-After"))
+		);
+		return response;
+	}
+
+	/**
+	 * Parses the value of a Retry-After header. Only the delay-seconds form is
+	 * supported.
+	 *
+	 * @param value the value of the Retry-After header, or {@code null}.
+	 * @return the number of seconds to wait, or {@code -1}.
+	 */
+	public static long getRetryAfter(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+}
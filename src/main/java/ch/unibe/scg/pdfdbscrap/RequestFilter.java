@@ -0,0 +1,419 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request filter. Wraps the web connection of a web client, s.t. requests for
+ * subresources of a web page we never need to find the PDF file (images,
+ * analytics, ads, tracking beacons, scripts of unrelated third-party
+ * hosts,...) are answered right away with an empty response, instead of
+ * being fetched. Installed on top of the rate limited web connection, blocked
+ * requests don't count against the request rate of a host either.
+ *
+ * <p>
+ * The rules are read from a tab separated rule table, see
+ * {@code request-rules.tsv} for the format and the default rules. Blocked
+ * requests, and the bytes of all fetched ones are counted in the metrics.
+ * </p>
+ */
+public class RequestFilter extends WebConnectionWrapper {
+
+	/**
+	 * The resource name of the default rule table.
+	 */
+	public final static String DEFAULT_RULES = "request-rules.tsv";
+
+	/**
+	 * Kinds of requests.
+	 */
+	public enum Kind {
+
+		/**
+		 * A web page, or frame.
+		 */
+		DOCUMENT("text/html"),
+		/**
+		 * A script.
+		 */
+		SCRIPT("application/javascript"),
+		/**
+		 * A stylesheet.
+		 */
+		STYLESHEET("text/css"),
+		/**
+		 * An image.
+		 */
+		IMAGE("image/gif"),
+		/**
+		 * A (web) font.
+		 */
+		FONT("application/octet-stream"),
+		/**
+		 * Audio, or video.
+		 */
+		MEDIA("application/octet-stream"),
+		/**
+		 * Anything else (XHR, beacons, ...).
+		 */
+		OTHER("text/plain");
+
+		private final String contentType;
+
+		private Kind(String contentType) {
+			this.contentType = contentType;
+		}
+
+		/**
+		 * Returns the content type of an empty response.
+		 *
+		 * @return the content type.
+		 */
+		public String getContentType() {
+			return this.contentType;
+		}
+
+		/**
+		 * Returns the lower case name used for rules and exported metrics.
+		 *
+		 * @return the lower case name.
+		 */
+		public String getLabel() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+	}
+
+	private final static Map<String, Kind> EXTENSIONS = new HashMap<>();
+
+	static {
+		for (String ext : new String[]{"htm", "html", "jsp", "pdf"}) {
+			EXTENSIONS.put(ext, Kind.DOCUMENT);
+		}
+		EXTENSIONS.put("js", Kind.SCRIPT);
+		EXTENSIONS.put("css", Kind.STYLESHEET);
+		for (String ext : new String[]{"bmp", "gif", "ico", "jpeg", "jpg", "png", "svg", "webp"}) {
+			EXTENSIONS.put(ext, Kind.IMAGE);
+		}
+		for (String ext : new String[]{"eot", "otf", "ttf", "woff", "woff2"}) {
+			EXTENSIONS.put(ext, Kind.FONT);
+		}
+		for (String ext : new String[]{"mp3", "mp4", "ogg", "webm"}) {
+			EXTENSIONS.put(ext, Kind.MEDIA);
+		}
+	}
+
+	private final Rules rules;
+	private final BrowserVersion browser;
+	private final AtomicLong numBlocked;
+
+	/**
+	 * Creates a new request filter, and installs it on the given web client.
+	 *
+	 * @param client the web client.
+	 * @param rules the request filter rules.
+	 */
+	public RequestFilter(WebClient client, Rules rules) {
+		super(client);
+		this.rules = rules;
+		this.browser = client.getBrowserVersion();
+		this.numBlocked = new AtomicLong();
+	}
+
+	/**
+	 * Returns the number of blocked requests.
+	 *
+	 * @return the number of blocked requests.
+	 */
+	public long getNumBlocked() {
+		return this.numBlocked.get();
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		final URL url = request.getUrl();
+		final String referer = request.getAdditionalHeaders().get("Referer");
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(
+				(referer == null) ? url.toExternalForm() : referer
+		);
+		if (referer != null) {
+			final Kind kind = getKind(url, request.getAdditionalHeaders().get("Accept"), this.browser);
+			if (this.rules.isBlocked(db, url.getHost(), URLClassifier.getHost(referer), kind)) {
+				this.numBlocked.incrementAndGet();
+				ScrapMetrics.getInstance().addBlocked(db, kind);
+				return newEmptyResponse(request, kind);
+			}
+		}
+		final WebResponse response = super.getResponse(request);
+		ScrapMetrics.getInstance().addWebBytes(db, Math.max(0, response.getContentLength()));
+		return response;
+	}
+
+	private static WebResponse newEmptyResponse(WebRequest request, Kind kind) {
+		final List<NameValuePair> headers = new ArrayList<>();
+		headers.add(new NameValuePair("Content-Type", kind.getContentType()));
+		headers.add(new NameValuePair("Content-Length", "0"));
+		return new WebResponse(
+				new WebResponseData(new byte[0], 200, "OK", headers),
+				request,
+				0
+		);
+	}
+
+	/**
+	 * Returns the kind of a request, by the extension of the path of its URL,
+	 * or else its Accept header.
+	 *
+	 * @param url the URL.
+	 * @param accept the Accept header, or {@code null}.
+	 * @param browser the browser (version) of the web client.
+	 * @return the kind of the request.
+	 */
+	public static Kind getKind(URL url, String accept, BrowserVersion browser) {
+		final String path = url.getPath();
+		final int dot = path.lastIndexOf('.');
+		if (dot > path.lastIndexOf('/')) {
+			final Kind kind = EXTENSIONS.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+			if (kind != null) {
+				return kind;
+			}
+		}
+		if (accept == null || accept.startsWith("text/html") || accept.equals(browser.getHtmlAcceptHeader())) {
+			return Kind.DOCUMENT;
+		}
+		if (accept.startsWith("image/") || accept.equals(browser.getImgAcceptHeader())) {
+			return Kind.IMAGE;
+		}
+		if (accept.startsWith("text/css") || accept.equals(browser.getCssAcceptHeader())) {
+			return Kind.STYLESHEET;
+		}
+		if (accept.equals(browser.getScriptAcceptHeader())) {
+			return Kind.SCRIPT;
+		}
+		return Kind.OTHER;
+	}
+
+	/**
+	 * Returns the site of a host, approximated by its last two labels (e.g.
+	 * {@code ieee.org} for {@code ieeexplore.ieee.org}). IP addresses are
+	 * their own site.
+	 *
+	 * @param host the lower case host.
+	 * @return the site of the host.
+	 */
+	public static String getSite(String host) {
+		if (host.isEmpty() || host.indexOf(':') >= 0 || Character.isDigit(host.charAt(host.length() - 1))) {
+			return host;
+		}
+		final int last = host.lastIndexOf('.');
+		if (last <= 0) {
+			return host;
+		}
+		final int n = host.lastIndexOf('.', last - 1);
+		return (n < 0) ? host : host.substring(n + 1);
+	}
+
+	/**
+	 * Request filter rules.
+	 */
+	public static class Rules {
+
+		private final static String ANY_DATABASE = "*";
+		private final static String THIRD_PARTY = "third-party";
+		private final static int NUM_DBS = PDFDatabase.values().length;
+
+		private final Scope[] scopes;
+		private int numRules;
+
+		/**
+		 * Creates new request filter rules.
+		 *
+		 * @param reader the reader of the rule table. Not closed.
+		 * @throws IOException in case of a malformed rule.
+		 */
+		public Rules(Reader reader) throws IOException {
+			this.scopes = new Scope[NUM_DBS + 1];
+			for (int i = 0; i < this.scopes.length; i++) {
+				this.scopes[i] = new Scope();
+			}
+
+			final BufferedReader br = (reader instanceof BufferedReader)
+					? (BufferedReader) reader
+					: new BufferedReader(reader);
+			String line;
+			int num = 0;
+			while ((line = br.readLine()) != null) {
+				num++;
+				final String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+					continue;
+				}
+				try {
+					addRule(line.split("\t"));
+				} catch (IllegalArgumentException ex) {
+					throw new IOException(String.format(
+							"malformed request rule on line %d: %s",
+							num,
+							line
+					), ex);
+				}
+			}
+		}
+
+		private void addRule(String[] fields) {
+			if (fields.length != 3) {
+				throw new IllegalArgumentException("expected: <database> <action> <value>");
+			}
+			final String database = fields[0].trim();
+			final Scope scope = ANY_DATABASE.equals(database)
+					? this.scopes[NUM_DBS]
+					: this.scopes[PDFDatabase.valueOf(database.toUpperCase(Locale.ROOT)).ordinal()];
+			final String action = fields[1].trim().toLowerCase(Locale.ROOT);
+			final String value = fields[2].trim().toLowerCase(Locale.ROOT);
+			if (value.isEmpty()) {
+				throw new IllegalArgumentException("empty value");
+			}
+			switch (action) {
+				case "allow":
+					scope.allowed.add(value);
+					break;
+				case "deny":
+					scope.denied.add(value);
+					break;
+				case "block":
+					if (THIRD_PARTY.equals(value)) {
+						scope.thirdParty = true;
+					} else {
+						scope.kinds.add(Kind.valueOf(value.toUpperCase(Locale.ROOT)));
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("unknown action: " + action);
+			}
+			this.numRules++;
+		}
+
+		/**
+		 * Returns the default request filter rules.
+		 *
+		 * @return the default request filter rules.
+		 */
+		public static Rules getDefault() {
+			return DefaultHolder.INSTANCE;
+		}
+
+		/**
+		 * Returns the number of rules.
+		 *
+		 * @return the number of rules.
+		 */
+		public int getNumRules() {
+			return this.numRules;
+		}
+
+		/**
+		 * Checks whether a request gets blocked.
+		 *
+		 * @param db the database of the referring web page.
+		 * @param host the host of the request.
+		 * @param refererHost the host of the referring web page.
+		 * @param kind the kind of the request.
+		 * @return {@code true} if the request gets blocked, {@code false}
+		 * otherwise.
+		 */
+		public boolean isBlocked(PDFDatabase db, String host, String refererHost, Kind kind) {
+			host = host.toLowerCase(Locale.ROOT);
+			final Scope any = this.scopes[NUM_DBS];
+			final Scope scope = this.scopes[db.ordinal()];
+			if (matches(any.denied, host) || matches(scope.denied, host)) {
+				return true;
+			}
+			if (matches(any.allowed, host) || matches(scope.allowed, host)) {
+				return false;
+			}
+			if (any.kinds.contains(kind) || scope.kinds.contains(kind)) {
+				return true;
+			}
+			return (any.thirdParty || scope.thirdParty)
+					&& !kind.equals(Kind.DOCUMENT)
+					&& isThirdParty(db, host, refererHost.toLowerCase(Locale.ROOT));
+		}
+
+		private static boolean isThirdParty(PDFDatabase db, String host, String refererHost) {
+			if (getSite(host).equals(getSite(refererHost))) {
+				return false;
+			}
+			return db.equals(PDFDatabase.UNKNOWN)
+					|| !db.equals(URLClassifier.getDefault().classify(host));
+		}
+
+		private static boolean matches(Set<String> hosts, String host) {
+			if (hosts.isEmpty()) {
+				return false;
+			}
+			int i = 0;
+			while (true) {
+				if (hosts.contains((i == 0) ? host : host.substring(i))) {
+					return true;
+				}
+				final int n = host.indexOf('.', i);
+				if (n < 0) {
+					return false;
+				}
+				i = n + 1;
+			}
+		}
+
+		/**
+		 * Rules of a database, or of all databases.
+		 */
+		private static class Scope {
+
+			private final Set<String> allowed = new HashSet<>();
+			private final Set<String> denied = new HashSet<>();
+			private final Set<Kind> kinds = EnumSet.noneOf(Kind.class);
+			private boolean thirdParty;
+
+		}
+
+		private static class DefaultHolder {
+
+			private final static Rules INSTANCE = load();
+
+			private static Rules load() {
+				try (InputStream in = RequestFilter.class.getResourceAsStream(DEFAULT_RULES)) {
+					if (in == null) {
+						throw new IllegalStateException("missing request rule table: " + DEFAULT_RULES);
+					}
+					return new Rules(new InputStreamReader(in, StandardCharsets.UTF_8));
+				} catch (IOException ex) {
+					throw new IllegalStateException("failed to read request rule table: " + DEFAULT_RULES, ex);
+				}
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package ch.unibe.scg.pdfdbscrap;
+
+/**
+ * Resolution of a web page to the URL of the PDF file. Keeps track of the
+ * scrap(ing) mode and XPath expression that did the trick.
+ */
+public class Resolution {
+
+	/**
+	 * Failed resolution.
+	 */
+	public final static Resolution NONE = new Resolution("", null, "");
+
+	/**
+	 * The URL to the PDF file, or an empty string.
+	 */
+	public final String urlToPDF;
+
+	/**
+	 * The scrap(ing) mode that resolved the URL to the PDF file, or
+	 * {@code null}.
+	 */
+	public final ScrapMode mode;
+
+	/**
+	 * The XPath expression that resolved the URL to the PDF file, or an empty
+	 * string.
+	 */
+	public final String xpath;
+
+	/**
+	 * Creates a new resolution.
+	 *
+	 * @param urlToPDF the URL to the PDF file.
+	 * @param mode the scrap(ing) mode.
+	 * @param xpath the XPath expression, or an empty string.
+	 */
+	public Resolution(String urlToPDF, ScrapMode mode, String xpath) {
+		this.urlToPDF = urlToPDF;
+		this.mode = mode;
+		this.xpath = xpath;
+	}
+
+	/**
+	 * Checks whether the resolution failed.
+	 *
+	 * @return {@code true} if no URL to the PDF file has been found,
+	 * {@code false} otherwise.
+	 */
+	public boolean isEmpty() {
+		return this.urlToPDF.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s (%s%s)",
+				urlToPDF,
+				(mode == null) ? "?" : mode.name(),
+				xpath.isEmpty() ? "" : ", " + xpath
+		);
+	}
+
+}
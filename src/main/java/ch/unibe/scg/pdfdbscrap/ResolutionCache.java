@@ -0,0 +1,267 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent resolution cache. Maps the URL of a BibTeX entry (i.e. the web
+ * page) to the resolved URL to the PDF file, s.t. re-runs (or retries) can go
+ * straight to the download of the PDF file, instead of fetching and parsing
+ * the web page (possibly with JavaScript) all over again.
+ *
+ * <p>
+ * Resolutions expire after some time to live, and the least recently used ones
+ * get evicted once the cache is full. New resolutions and invalidations are
+ * appended to the cache file (last line wins), which gets compacted on close.
+ * </p>
+ */
+public class ResolutionCache implements AutoCloseable {
+
+	/**
+	 * Default time to live in hours.
+	 */
+	public final static int DEFAULT_TTL_HOURS = 7 * 24;
+
+	/**
+	 * Default max. number of cached resolutions.
+	 */
+	public final static int DEFAULT_MAX_ENTRIES = 100000;
+
+	/**
+	 * Default cache filename (in the output directory).
+	 */
+	public final static String DEFAULT_FILENAME = "resolution-cache.tsv";
+
+	private final static int NUM_FIELDS = 5;
+
+	private final File file;
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final LinkedHashMap<String, Entry> entries;
+	private final Writer writer;
+
+	/**
+	 * Opens a resolution cache with default settings.
+	 *
+	 * @param file the cache file. Loaded if it exists already.
+	 * @throws IOException
+	 */
+	public ResolutionCache(File file) throws IOException {
+		this(file, TimeUnit.HOURS.toMillis(DEFAULT_TTL_HOURS), DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Opens a resolution cache.
+	 *
+	 * @param file the cache file. Loaded if it exists already.
+	 * @param ttlMillis the time to live of a resolution in milliseconds.
+	 * @param maxEntries the max. number of cached resolutions.
+	 * @throws IOException
+	 */
+	public ResolutionCache(File file, long ttlMillis, int maxEntries) throws IOException {
+		this.file = file;
+		this.ttlMillis = ttlMillis;
+		this.maxEntries = Math.max(1, maxEntries);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > ResolutionCache.this.maxEntries;
+			}
+		};
+		load();
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file, true),
+				StandardCharsets.UTF_8
+		));
+	}
+
+	/**
+	 * Returns the cache file.
+	 *
+	 * @return the cache file.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Returns the number of cached resolutions.
+	 *
+	 * @return the number of cached resolutions (incl. expired ones that
+	 * haven't been looked up yet).
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Looks up the resolution of a web page.
+	 *
+	 * @param url the URL of the web page.
+	 * @return the cached resolution, or {@code null} if there is none, or it
+	 * has expired.
+	 */
+	public synchronized Resolution get(String url) {
+		final Entry entry = this.entries.get(url);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry, System.currentTimeMillis())) {
+			this.entries.remove(url);
+			return null;
+		}
+		return entry.resolution;
+	}
+
+	/**
+	 * Puts the resolution of a web page into the cache. Failed resolutions are
+	 * ignored.
+	 *
+	 * @param url the URL of the web page.
+	 * @param resolution the resolution.
+	 */
+	public synchronized void put(String url, Resolution resolution) {
+		if (resolution.isEmpty()) {
+			return;
+		}
+		final Entry entry = new Entry(resolution, System.currentTimeMillis());
+		this.entries.put(url, entry);
+		append(url, entry);
+	}
+
+	/**
+	 * Invalidates the resolution of a web page, e.g. because the resolved URL
+	 * didn't lead to a PDF file (anymore).
+	 *
+	 * @param url the URL of the web page.
+	 */
+	public synchronized void invalidate(String url) {
+		if (this.entries.remove(url) != null) {
+			append(url, new Entry(Resolution.NONE, System.currentTimeMillis()));
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return (now - entry.timestamp) > this.ttlMillis;
+	}
+
+	private void append(String url, Entry entry) {
+		try {
+			this.writer.write(toLine(url, entry));
+			this.writer.write('\n');
+			this.writer.flush();
+		} catch (IOException ex) {
+			printError(ex, "WARNING: failed to write to resolution cache: " + this.file);
+		}
+	}
+
+	private void load() throws IOException {
+		if (!this.file.exists()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.file),
+				StandardCharsets.UTF_8
+		))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t", -1);
+				if (fields.length != NUM_FIELDS) {
+					continue;
+				}
+				final Entry entry = fromFields(fields);
+				if (entry == null || entry.resolution.isEmpty() || isExpired(entry, now)) {
+					this.entries.remove(fields[0]);
+				} else {
+					this.entries.put(fields[0], entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the cache file with the current (non-expired) resolutions only.
+	 *
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+		final File tmp = new File(this.file.getAbsolutePath() + PDFDownloader.PARTIAL_SUFFIX);
+		final long now = System.currentTimeMillis();
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmp),
+				StandardCharsets.UTF_8
+		))) {
+			for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+				if (isExpired(e.getValue(), now)) {
+					continue;
+				}
+				w.write(toLine(e.getKey(), e.getValue()));
+				w.write('\n');
+			}
+		}
+		PDFDownloader.commit(tmp.toPath(), this.file.toPath());
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.writer.close();
+		compact();
+	}
+
+	private static String escape(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private static String toLine(String url, Entry entry) {
+		final Resolution r = entry.resolution;
+		return String.format(
+				"%s\t%s\t%s\t%s\t%d",
+				escape(url),
+				escape(r.urlToPDF),
+				(r.mode == null) ? "" : r.mode.name(),
+				escape(r.xpath),
+				entry.timestamp
+		);
+	}
+
+	private static Entry fromFields(String[] fields) {
+		try {
+			final ScrapMode mode = fields[2].isEmpty() ? null : ScrapMode.valueOf(fields[2]);
+			return new Entry(
+					new Resolution(fields[1], mode, fields[3]),
+					Long.parseLong(fields[4])
+			);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * A cached resolution.
+	 */
+	private static class Entry {
+
+		private final Resolution resolution;
+		private final long timestamp;
+
+		private Entry(Resolution resolution, long timestamp) {
+			this.resolution = resolution;
+			this.timestamp = timestamp;
+		}
+
+	}
+
+}
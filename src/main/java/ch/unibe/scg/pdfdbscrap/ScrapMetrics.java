@@ -0,0 +1,683 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Scrap(ing) metrics. Latency histograms per stage, database and scrap(ing)
+ * mode, as well as bytes, retries and scrap(ing) status counts per database.
+ * Recording is lock-free and allocation-free (except for the first
+ * observation of a histogram), s.t. the stages can be instrumented
+ * unconditionally. Metrics are exported to a Prometheus text file, and a JSON
+ * summary.
+ *
+ * <p>
+ * The database is the one of the URL at hand: the URL of the BibTeX entry,
+ * except for the {@code WRITE} stage and bytes, which are counted by the URL to
+ * the PDF file (e.g. a DOI redirecting to ACM).
+ */
+public class ScrapMetrics {
+
+	/**
+	 * Default filename of the Prometheus text file.
+	 */
+	public final static String DEFAULT_PROMETHEUS_FILENAME = "metrics.prom";
+
+	/**
+	 * Default filename of the JSON summary.
+	 */
+	public final static String DEFAULT_JSON_FILENAME = "metrics.json";
+
+	/**
+	 * Default export interval in seconds.
+	 */
+	public final static int DEFAULT_INTERVAL_SECONDS = 15;
+
+	/**
+	 * Upper bounds of the histogram buckets in seconds.
+	 */
+	public final static double[] BUCKETS = {
+		0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 60, 120
+	};
+
+	private final static long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+	static {
+		for (int i = 0; i < BUCKETS.length; i++) {
+			BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+		}
+	}
+
+	/**
+	 * Instrumented stages.
+	 */
+	public enum Stage {
+
+		/**
+		 * Resolution of the URL to the PDF file by a scrap(ing) mode: fetching
+		 * the web page and evaluating XPath expressions (first attempt, without
+		 * JavaScript). The {@code AUTO} mode includes the nested modes.
+		 */
+		RESOLVE,
+		/**
+		 * Retry of a scrap(ing) mode with JavaScript enabled.
+		 */
+		JS_RETRY,
+		/**
+		 * Resolution of the URL to the PDF file from static HTML.
+		 */
+		STATIC_RESOLVE,
+		/**
+		 * Following the redirects of a DOI URL (HEAD requests only).
+		 */
+		DOI_REDIRECT,
+		/**
+		 * The PDF fetch loop, incl. retries.
+		 */
+		DOWNLOAD,
+		/**
+		 * Streaming a PDF file to disk (incl. sync and rename).
+		 */
+		WRITE,
+		/**
+		 * Putting the result: writing the BibTeX file.
+		 */
+		PUT_RESULT;
+
+		/**
+		 * Returns the lower case name used for exported metrics.
+		 *
+		 * @return the lower case name.
+		 */
+		public String getLabel() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+	}
+
+	/**
+	 * Kinds of retries.
+	 */
+	public enum Retry {
+
+		/**
+		 * Another attempt to fetch the PDF file.
+		 */
+		DOWNLOAD,
+		/**
+		 * Another attempt of a scrap(ing) mode with JavaScript enabled.
+		 */
+		JAVASCRIPT,
+		/**
+		 * Another resolution after an invalid cached URL to the PDF file.
+		 */
+		CACHE,
+		/**
+		 * A hedged attempt of the next scrap(ing) mode, started while the
+		 * previous one is still running.
+		 */
+		HEDGE;
+
+		/**
+		 * Returns the lower case name used for exported metrics.
+		 *
+		 * @return the lower case name.
+		 */
+		public String getLabel() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+	}
+
+	/**
+	 * Latency histogram.
+	 */
+	public static class Histogram {
+
+		/**
+		 * The stage.
+		 */
+		public final Stage stage;
+
+		/**
+		 * The database.
+		 */
+		public final PDFDatabase db;
+
+		/**
+		 * The scrap(ing) mode, or {@code null}.
+		 */
+		public final ScrapMode mode;
+
+		private final AtomicLongArray counts;
+		private final AtomicLong sumNanos;
+		private final AtomicLong maxNanos;
+
+		private Histogram(Stage stage, PDFDatabase db, ScrapMode mode) {
+			this.stage = stage;
+			this.db = db;
+			this.mode = mode;
+			this.counts = new AtomicLongArray(BUCKETS.length + 1);
+			this.sumNanos = new AtomicLong();
+			this.maxNanos = new AtomicLong();
+		}
+
+		private void record(long nanos) {
+			int i = 0;
+			while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+				i++;
+			}
+			this.counts.incrementAndGet(i);
+			this.sumNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = this.maxNanos.get()) && !this.maxNanos.compareAndSet(max, nanos)) {
+			}
+		}
+
+		/**
+		 * Returns the number of observations.
+		 *
+		 * @return the number of observations.
+		 */
+		public long getCount() {
+			long n = 0;
+			for (int i = 0; i < this.counts.length(); i++) {
+				n += this.counts.get(i);
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the cumulative number of observations up to a bucket.
+		 *
+		 * @param bucket the index of the bucket ({@code BUCKETS.length} for
+		 * +Inf).
+		 * @return the number of observations less than or equal to the upper
+		 * bound of the bucket.
+		 */
+		public long getCumulativeCount(int bucket) {
+			long n = 0;
+			for (int i = 0; i <= bucket; i++) {
+				n += this.counts.get(i);
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the sum of all observations.
+		 *
+		 * @return the sum of all observations in seconds.
+		 */
+		public double getSum() {
+			return this.sumNanos.get() / 1e9;
+		}
+
+		/**
+		 * Returns the largest observation.
+		 *
+		 * @return the largest observation in seconds.
+		 */
+		public double getMax() {
+			return this.maxNanos.get() / 1e9;
+		}
+
+		/**
+		 * Estimates a quantile by the upper bound of the bucket it falls into
+		 * (or the largest observation, if that's less).
+		 *
+		 * @param q the quantile (0 to 1).
+		 * @return the estimated quantile in seconds.
+		 */
+		public double getQuantile(double q) {
+			final long n = getCount();
+			if (n == 0) {
+				return 0;
+			}
+			final long rank = (long) Math.ceil(q * n);
+			long c = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				c += this.counts.get(i);
+				if (c >= rank) {
+					return Math.min(BUCKETS[i], getMax());
+				}
+			}
+			return getMax();
+		}
+
+	}
+
+	private final static int NUM_DBS = PDFDatabase.values().length;
+	private final static int NUM_MODES = ScrapMode.values().length + 1;
+	private final static int NUM_STATUS = ScrapStatus.values().length;
+	private final static int NUM_RETRIES = Retry.values().length;
+	private final static int NUM_KINDS = RequestFilter.Kind.values().length;
+	private final static ScrapMetrics INSTANCE = new ScrapMetrics();
+
+	private final long startMillis;
+	private final AtomicReferenceArray<Histogram> histograms;
+	private final AtomicLongArray bytes;
+	private final AtomicLongArray retries;
+	private final AtomicLongArray statuses;
+	private final AtomicLongArray blocked;
+	private final AtomicLongArray webBytes;
+
+	/**
+	 * Creates new (empty) scrap(ing) metrics.
+	 */
+	public ScrapMetrics() {
+		this.startMillis = System.currentTimeMillis();
+		this.histograms = new AtomicReferenceArray<>(Stage.values().length * NUM_DBS * NUM_MODES);
+		this.bytes = new AtomicLongArray(NUM_DBS);
+		this.retries = new AtomicLongArray(NUM_RETRIES * NUM_DBS);
+		this.statuses = new AtomicLongArray(NUM_STATUS * NUM_DBS);
+		this.blocked = new AtomicLongArray(NUM_KINDS * NUM_DBS);
+		this.webBytes = new AtomicLongArray(NUM_DBS);
+	}
+
+	/**
+	 * Returns the metrics of this process, as recorded by the instrumented
+	 * stages.
+	 *
+	 * @return the metrics of this process.
+	 */
+	public static ScrapMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	private static int index(Stage stage, PDFDatabase db, ScrapMode mode) {
+		final int m = (mode == null) ? 0 : mode.ordinal() + 1;
+		return (stage.ordinal() * NUM_DBS + db.ordinal()) * NUM_MODES + m;
+	}
+
+	/**
+	 * Records the latency of a stage.
+	 *
+	 * @param stage the stage.
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode, or {@code null}.
+	 * @param startNanos the start of the stage (as given by
+	 * {@code System.nanoTime()}).
+	 */
+	public void record(Stage stage, PDFDatabase db, ScrapMode mode, long startNanos) {
+		final long nanos = System.nanoTime() - startNanos;
+		final int i = index(stage, db, mode);
+		Histogram h = this.histograms.get(i);
+		if (h == null) {
+			this.histograms.compareAndSet(i, null, new Histogram(stage, db, mode));
+			h = this.histograms.get(i);
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * Returns a latency histogram.
+	 *
+	 * @param stage the stage.
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode, or {@code null}.
+	 * @return the latency histogram, or {@code null} if nothing has been
+	 * recorded yet.
+	 */
+	public Histogram getHistogram(Stage stage, PDFDatabase db, ScrapMode mode) {
+		return this.histograms.get(index(stage, db, mode));
+	}
+
+	/**
+	 * Adds downloaded bytes.
+	 *
+	 * @param db the database.
+	 * @param n the number of bytes.
+	 */
+	public void addBytes(PDFDatabase db, long n) {
+		this.bytes.addAndGet(db.ordinal(), n);
+	}
+
+	/**
+	 * Returns the number of downloaded bytes.
+	 *
+	 * @param db the database.
+	 * @return the number of downloaded bytes.
+	 */
+	public long getBytes(PDFDatabase db) {
+		return this.bytes.get(db.ordinal());
+	}
+
+	/**
+	 * Counts a retry.
+	 *
+	 * @param retry the kind of retry.
+	 * @param db the database.
+	 */
+	public void addRetry(Retry retry, PDFDatabase db) {
+		this.retries.incrementAndGet(retry.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Returns the number of retries.
+	 *
+	 * @param retry the kind of retry.
+	 * @param db the database.
+	 * @return the number of retries.
+	 */
+	public long getRetries(Retry retry, PDFDatabase db) {
+		return this.retries.get(retry.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Counts a request blocked by the request filter.
+	 *
+	 * @param db the database of the referring web page.
+	 * @param kind the kind of the request.
+	 */
+	public void addBlocked(PDFDatabase db, RequestFilter.Kind kind) {
+		this.blocked.incrementAndGet(kind.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Returns the number of requests blocked by the request filter.
+	 *
+	 * @param db the database of the referring web page.
+	 * @param kind the kind of the request.
+	 * @return the number of blocked requests.
+	 */
+	public long getBlocked(PDFDatabase db, RequestFilter.Kind kind) {
+		return this.blocked.get(kind.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Adds bytes fetched by the web clients (web pages, frames, and
+	 * subresources that passed the request filter).
+	 *
+	 * @param db the database.
+	 * @param n the number of bytes.
+	 */
+	public void addWebBytes(PDFDatabase db, long n) {
+		this.webBytes.addAndGet(db.ordinal(), n);
+	}
+
+	/**
+	 * Returns the number of bytes fetched by the web clients.
+	 *
+	 * @param db the database.
+	 * @return the number of bytes fetched by the web clients.
+	 */
+	public long getWebBytes(PDFDatabase db) {
+		return this.webBytes.get(db.ordinal());
+	}
+
+	/**
+	 * Counts a processed BibTeX entry.
+	 *
+	 * @param db the database.
+	 * @param status the scrap(ing) status.
+	 */
+	public void addStatus(PDFDatabase db, ScrapStatus status) {
+		this.statuses.incrementAndGet(status.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Returns the number of processed BibTeX entries with a scrap(ing)
+	 * status.
+	 *
+	 * @param db the database.
+	 * @param status the scrap(ing) status.
+	 * @return the number of processed BibTeX entries.
+	 */
+	public long getNumStatus(PDFDatabase db, ScrapStatus status) {
+		return this.statuses.get(status.ordinal() * NUM_DBS + db.ordinal());
+	}
+
+	/**
+	 * Returns the total number of processed BibTeX entries.
+	 *
+	 * @return the total number of processed BibTeX entries.
+	 */
+	public long getNumEntries() {
+		long n = 0;
+		for (int i = 0; i < this.statuses.length(); i++) {
+			n += this.statuses.get(i);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the time since these metrics have been created.
+	 *
+	 * @return the elapsed time in seconds.
+	 */
+	public double getElapsedSeconds() {
+		return (System.currentTimeMillis() - this.startMillis) / 1e3;
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format.
+	 *
+	 * @param writer the writer.
+	 * @throws IOException
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		writer.write("# HELP pdfdbscrap_stage_seconds Latency of scrap(ing) stages.\n");
+		writer.write("# TYPE pdfdbscrap_stage_seconds histogram\n");
+		for (int i = 0; i < this.histograms.length(); i++) {
+			final Histogram h = this.histograms.get(i);
+			if (h == null) {
+				continue;
+			}
+			final String labels = getLabels(h);
+			for (int b = 0; b <= BUCKETS.length; b++) {
+				writer.write(String.format(
+						"pdfdbscrap_stage_seconds_bucket{%s,le=\"%s\"} %d\n",
+						labels,
+						(b < BUCKETS.length) ? format(BUCKETS[b]) : "+Inf",
+						h.getCumulativeCount(b)
+				));
+			}
+			writer.write(String.format("pdfdbscrap_stage_seconds_sum{%s} %s\n", labels, format(h.getSum())));
+			writer.write(String.format("pdfdbscrap_stage_seconds_count{%s} %d\n", labels, h.getCount()));
+		}
+
+		writer.write("# HELP pdfdbscrap_bytes_total Downloaded bytes of PDF files.\n");
+		writer.write("# TYPE pdfdbscrap_bytes_total counter\n");
+		for (PDFDatabase db : PDFDatabase.values()) {
+			writer.write(String.format(
+					"pdfdbscrap_bytes_total{database=\"%s\"} %d\n",
+					db.name(),
+					getBytes(db)
+			));
+		}
+
+		writer.write("# HELP pdfdbscrap_web_bytes_total Fetched bytes of web pages, frames, and subresources.\n");
+		writer.write("# TYPE pdfdbscrap_web_bytes_total counter\n");
+		for (PDFDatabase db : PDFDatabase.values()) {
+			writer.write(String.format(
+					"pdfdbscrap_web_bytes_total{database=\"%s\"} %d\n",
+					db.name(),
+					getWebBytes(db)
+			));
+		}
+
+		writer.write("# HELP pdfdbscrap_blocked_requests_total Requests blocked by the request filter.\n");
+		writer.write("# TYPE pdfdbscrap_blocked_requests_total counter\n");
+		for (RequestFilter.Kind kind : RequestFilter.Kind.values()) {
+			for (PDFDatabase db : PDFDatabase.values()) {
+				final long n = getBlocked(db, kind);
+				if (n > 0) {
+					writer.write(String.format(
+							"pdfdbscrap_blocked_requests_total{database=\"%s\",kind=\"%s\"} %d\n",
+							db.name(),
+							kind.getLabel(),
+							n
+					));
+				}
+			}
+		}
+
+		writer.write("# HELP pdfdbscrap_retries_total Retries.\n");
+		writer.write("# TYPE pdfdbscrap_retries_total counter\n");
+		for (Retry retry : Retry.values()) {
+			for (PDFDatabase db : PDFDatabase.values()) {
+				writer.write(String.format(
+						"pdfdbscrap_retries_total{database=\"%s\",kind=\"%s\"} %d\n",
+						db.name(),
+						retry.getLabel(),
+						getRetries(retry, db)
+				));
+			}
+		}
+
+		writer.write("# HELP pdfdbscrap_entries_total Processed BibTeX entries by scrap(ing) status.\n");
+		writer.write("# TYPE pdfdbscrap_entries_total counter\n");
+		for (ScrapStatus status : ScrapStatus.values()) {
+			for (PDFDatabase db : PDFDatabase.values()) {
+				final long n = getNumStatus(db, status);
+				if (n > 0) {
+					writer.write(String.format(
+							"pdfdbscrap_entries_total{database=\"%s\",status=\"%s\"} %d\n",
+							db.name(),
+							status.name(),
+							n
+					));
+				}
+			}
+		}
+
+		writer.write("# HELP pdfdbscrap_uptime_seconds Time since the start of the run.\n");
+		writer.write("# TYPE pdfdbscrap_uptime_seconds gauge\n");
+		writer.write("pdfdbscrap_uptime_seconds " + format(getElapsedSeconds()) + "\n");
+	}
+
+	private static String getLabels(Histogram h) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("stage=\"").append(h.stage.getLabel()).append('"');
+		sb.append(",database=\"").append(h.db.name()).append('"');
+		if (h.mode != null) {
+			sb.append(",mode=\"").append(h.mode.name()).append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a JSON summary of the metrics.
+	 *
+	 * @param writer the writer.
+	 * @throws IOException
+	 */
+	public void writeJSON(Writer writer) throws IOException {
+		final double elapsed = getElapsedSeconds();
+		final long numEntries = getNumEntries();
+		long totalBytes = 0;
+		for (PDFDatabase db : PDFDatabase.values()) {
+			totalBytes += getBytes(db);
+		}
+		writer.write("{\n");
+		writer.write("  \"elapsedSeconds\": " + format(elapsed) + ",\n");
+		writer.write("  \"entries\": " + numEntries + ",\n");
+		writer.write("  \"entriesPerMinute\": " + format((elapsed > 0) ? numEntries * 60 / elapsed : 0) + ",\n");
+		writer.write("  \"bytes\": " + totalBytes + ",\n");
+		writer.write("  \"databases\": {");
+		boolean firstDb = true;
+		for (PDFDatabase db : PDFDatabase.values()) {
+			writer.write(firstDb ? "\n" : ",\n");
+			firstDb = false;
+			writer.write("    \"" + db.name() + "\": {\n");
+			writer.write("      \"bytes\": " + getBytes(db) + ",\n");
+			writer.write("      \"webBytes\": " + getWebBytes(db) + ",\n");
+
+			writer.write("      \"blocked\": {");
+			boolean firstKind = true;
+			for (RequestFilter.Kind kind : RequestFilter.Kind.values()) {
+				final long n = getBlocked(db, kind);
+				if (n > 0) {
+					writer.write(String.format("%s\"%s\": %d", firstKind ? "" : ", ", kind.getLabel(), n));
+					firstKind = false;
+				}
+			}
+			writer.write("},\n");
+
+			writer.write("      \"retries\": {");
+			for (int i = 0; i < NUM_RETRIES; i++) {
+				final Retry retry = Retry.values()[i];
+				writer.write(String.format(
+						"%s\"%s\": %d",
+						(i > 0) ? ", " : "",
+						retry.getLabel(),
+						getRetries(retry, db)
+				));
+			}
+			writer.write("},\n");
+
+			writer.write("      \"statuses\": {");
+			boolean first = true;
+			for (ScrapStatus status : ScrapStatus.values()) {
+				final long n = getNumStatus(db, status);
+				if (n > 0) {
+					writer.write(String.format("%s\"%s\": %d", first ? "" : ", ", status.name(), n));
+					first = false;
+				}
+			}
+			writer.write("},\n");
+
+			writer.write("      \"stages\": [");
+			first = true;
+			for (Stage stage : Stage.values()) {
+				for (int m = 0; m < NUM_MODES; m++) {
+					final ScrapMode mode = (m == 0) ? null : ScrapMode.values()[m - 1];
+					final Histogram h = getHistogram(stage, db, mode);
+					if (h == null) {
+						continue;
+					}
+					final long n = h.getCount();
+					writer.write(first ? "\n" : ",\n");
+					first = false;
+					writer.write(String.format(
+							"        {\"stage\": \"%s\", \"mode\": %s, \"count\": %d, \"sumSeconds\": %s, \"meanSeconds\": %s, \"p50Seconds\": %s, \"p90Seconds\": %s, \"p99Seconds\": %s, \"maxSeconds\": %s}",
+							stage.getLabel(),
+							(mode == null) ? "null" : "\"" + mode.name() + "\"",
+							n,
+							format(h.getSum()),
+							format((n > 0) ? h.getSum() / n : 0),
+							format(h.getQuantile(0.5)),
+							format(h.getQuantile(0.9)),
+							format(h.getQuantile(0.99)),
+							format(h.getMax())
+					));
+				}
+			}
+			writer.write(first ? "]\n" : "\n      ]\n");
+			writer.write("    }");
+		}
+		writer.write("\n  }\n");
+		writer.write("}\n");
+	}
+
+	/**
+	 * Writes the metrics to a file. The file is replaced atomically, s.t. a
+	 * scraper (e.g. the Prometheus node exporter) never reads a partial file.
+	 *
+	 * @param file the file.
+	 * @param json whether to write the JSON summary, or the Prometheus text
+	 * format.
+	 * @throws IOException
+	 */
+	public void export(File file, boolean json) throws IOException {
+		final File tmp = new File(file.getAbsolutePath() + PDFDownloader.PARTIAL_SUFFIX);
+		try (Writer writer = Main.newFileWriter(tmp)) {
+			if (json) {
+				writeJSON(writer);
+			} else {
+				writePrometheus(writer);
+			}
+		}
+		PDFDownloader.commit(tmp.toPath(), file.toPath());
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.6f", value);
+	}
+
+}
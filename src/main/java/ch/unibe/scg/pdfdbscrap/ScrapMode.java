@@ -9,6 +9,7 @@ import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Scrap(ing) mode. Various scrap(ing) strategies that just might work for one
@@ -18,28 +19,33 @@ public enum ScrapMode {
 
 	/**
 	 * Automatic detection. The appropritate PDFDatabase (and thus the
-	 * scrap(ing) strategy) is deteced based on the BibTeX URL field.
+	 * scrap(ing) strategy) is deteced based on the BibTeX URL field. The
+	 * scrap(ing) modes of the database are tried in order of their expected
+	 * time to success (see {@code StrategyStats}), and retries with JavaScript
+	 * enabled are skipped if they never paid off.
 	 */
 	AUTO() {
 				@Override
-				public String fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
+				public Resolution fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
 					final PDFDatabase db = PDFDatabase.getPDFDatabase(url);
 					final Map<ScrapMode, List<String>> configs = db.getScrapConfigurations();
+					final StrategyStats stats = StrategyStats.getInstance();
+					final List<ScrapMode> modes = stats.orderModes(db, configs.keySet());
 					System.out.println(String.format(
-									"  auto. database detection: %s (modes=%d)",
+									"  auto. database detection: %s (modes=%s)",
 									db,
-									configs.size()
+									modes
 							));
-					for (Map.Entry<ScrapMode, List<String>> e : configs.entrySet()) {
-						final ScrapMode mode = e.getKey();
-						final List<String> xpath = e.getValue();
-						final String urlToPDF = fetchURLToPDFWithRetry(mode, client, jsclient, url, xpath);
-						if (urlToPDF.isEmpty()) {
+					for (ScrapMode mode : modes) {
+						final List<String> xpath = stats.orderExpressions(db, mode, configs.get(mode));
+						final boolean retryWithJavaScript = stats.isJavaScriptRetryWorthIt(db, mode);
+						final Resolution resolution = fetchURLToPDFWithRetry(mode, client, jsclient, url, xpath, retryWithJavaScript);
+						if (resolution.isEmpty()) {
 							continue;
 						}
-						return urlToPDF;
+						return resolution;
 					}
-					return "";
+					return Resolution.NONE;
 				}
 			},
 	/**
@@ -54,23 +60,28 @@ public enum ScrapMode {
 				}
 
 				@Override
-				public String fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
+				public Resolution fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
 					final HtmlPage page = client.getPage(url);
 					System.out.println(String.format(
 									"  %s fetching page: %s...",
 									name(),
 									url
 							));
+					JavaScriptProfile.get(client).await(page, (HtmlPage p) -> hasAnchor(p, xpathExpressions));
 					for (String xpath : xpathExpressions) {
 						System.out.println("  ...try XPath expression: " + xpath);
-						final HtmlAnchor anchor = (HtmlAnchor) page.getFirstByXPath(xpath);
+						final HtmlAnchor anchor = XPathCache.getFirstByXPath(page, xpath);
 						if (anchor == null) {
 							continue;
 						}
-						return page.getFullyQualifiedUrl(anchor.getHrefAttribute()).toString();
+						return new Resolution(
+								page.getFullyQualifiedUrl(anchor.getHrefAttribute()).toString(),
+								this,
+								xpath
+						);
 					}
 
-					return "";
+					return Resolution.NONE;
 				}
 			},
 	/**
@@ -82,22 +93,27 @@ public enum ScrapMode {
 	 */
 	FRAME_SRC() {
 				@Override
-				public String fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
+				public Resolution fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
+					final JavaScriptProfile profile = JavaScriptProfile.get(client);
 					HtmlPage page = client.getPage(url);
+					profile.await(page, (HtmlPage p) -> hasAnchor(p, xpathExpressions) || hasPDFFrame(p));
+					String redirection = "";
 
 					// optional redirect first
 					for (String xpath : xpathExpressions) {
 						System.out.println("  ...checking anchor redirection, XPath: " + xpath);
-						final HtmlAnchor a = (HtmlAnchor) page.getFirstByXPath(xpath);
+						final HtmlAnchor a = XPathCache.getFirstByXPath(page, xpath);
 						if (a != null) {
 							final String next = page.getFullyQualifiedUrl(a.getHrefAttribute()).toString();
 							final Page p = client.getPage(next);
 							if (p.isHtmlPage()) {
 								System.out.println("  XPath anchor redirection to: " + next);
 								page = (HtmlPage) p;
+								profile.await(page, ScrapMode::hasPDFFrame);
+								redirection = xpath;
 							} else {
 								System.out.println("  XPath anchor return: " + next);
-								return next;
+								return new Resolution(next, this, xpath);
 							}
 						}
 					}
@@ -115,10 +131,10 @@ public enum ScrapMode {
 						final String src = frameElement.getSrcAttribute();
 						System.out.println(String.format("  ...checking frame %d/%d: ", i, n, src));
 						if (isPDFSrcAttribute(src)) {
-							return src;
+							return new Resolution(src, this, redirection);
 						}
 					}
-					return "";
+					return Resolution.NONE;
 				}
 
 				@Override
@@ -131,6 +147,24 @@ public enum ScrapMode {
 		return src.toLowerCase().contains(".pdf");
 	}
 
+	private static boolean hasPDFFrame(HtmlPage page) {
+		for (FrameWindow frame : page.getFrames()) {
+			if (isPDFSrcAttribute(frame.getFrameElement().getSrcAttribute())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasAnchor(HtmlPage page, List<String> xpathExpressions) {
+		for (String xpath : xpathExpressions) {
+			if (XPathCache.getFirstByXPath(page, xpath) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Check whether this scrap(ing) mode requires a custom XPath expression, if
 	 * explicitly requested by the user. XPath expressions will be supplied if
@@ -163,10 +197,11 @@ public enum ScrapMode {
 	 * be invoked).
 	 * @param url the URL of the web page.
 	 * @param xpathExpressions the XPath expressions (optional).
-	 * @return the URL to the PDF file, or an empty string.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
 	 * @throws IOException
 	 */
-	abstract public String fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException;
+	abstract public Resolution fetchURLToPDF(WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException;
 
 	/**
 	 * Attempts to fetch the URL to the PDF file from a web page, and retries
@@ -177,21 +212,84 @@ public enum ScrapMode {
 	 * @param jsclient the web client with enabled JavaScript.
 	 * @param url the URL of the web page.
 	 * @param xpathExpressions the XPath expressions (optional).
-	 * @return the URL to the PDF file, or an empty string.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
 	 * @throws IOException
 	 */
-	public static String fetchURLToPDFWithRetry(ScrapMode mode, WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
-		final String urlToPDF = mode.fetchURLToPDF(client, jsclient, url, xpathExpressions);
-		if (!urlToPDF.isEmpty()) {
-			return urlToPDF;
-		}
-		if (mode.retryWithJavaScript()) {
+	public static Resolution fetchURLToPDFWithRetry(ScrapMode mode, WebClient client, WebClient jsclient, String url, List<String> xpathExpressions) throws IOException {
+		return fetchURLToPDFWithRetry(mode, client, jsclient, url, xpathExpressions, true);
+	}
+
+	/**
+	 * Attempts to fetch the URL to the PDF file from a web page, and retries
+	 * with JavaScript enabled in case of failure (if the scrap(ing) mode
+	 * encourages it, and we're allowed to). The outcome is recorded in the
+	 * strategy statistics.
+	 *
+	 * @param mode the scrap(ing) mode.
+	 * @param client the web client with disabled JavaScript.
+	 * @param jsclient the web client with enabled JavaScript.
+	 * @param url the URL of the web page.
+	 * @param xpathExpressions the XPath expressions (optional).
+	 * @param retryWithJavaScript {@code false} to never retry with JavaScript
+	 * enabled.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
+	 * @throws IOException
+	 */
+	public static Resolution fetchURLToPDFWithRetry(ScrapMode mode, WebClient client, WebClient jsclient, String url, List<String> xpathExpressions, boolean retryWithJavaScript) throws IOException {
+		final ScrapMetrics metrics = ScrapMetrics.getInstance();
+		final StrategyStats stats = StrategyStats.getInstance();
+		final PDFDatabase db = PDFDatabase.getPDFDatabase(url);
+		final long start = System.nanoTime();
+		// recorded in any case (incl. an exception thrown by the mode), s.t. a
+		// failing mode doesn't keep getting tried first
+		Resolution outcome = Resolution.NONE;
+		try {
+			final Resolution resolution;
+			try {
+				resolution = mode.fetchURLToPDF(client, jsclient, url, xpathExpressions);
+			} finally {
+				metrics.record(ScrapMetrics.Stage.RESOLVE, db, mode, start);
+			}
+			if (!resolution.isEmpty()) {
+				outcome = resolution;
+				return resolution;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return Resolution.NONE;
+			}
+			if (!mode.retryWithJavaScript()) {
+				return Resolution.NONE;
+			}
+			if (!retryWithJavaScript) {
+				System.out.println("  ...skipping retry with JavaScript enabled (never paid off)");
+				return Resolution.NONE;
+			}
 			System.out.println("  retrying with JavaScript enabled...");
-			final String jsUrlToPDF = mode.fetchURLToPDF(jsclient, jsclient, url, xpathExpressions);
+			metrics.addRetry(ScrapMetrics.Retry.JAVASCRIPT, db);
+			final long jsStart = System.nanoTime();
+			final Resolution jsResolution;
+			try {
+				jsResolution = mode.fetchURLToPDF(jsclient, jsclient, url, xpathExpressions);
+			} finally {
+				// no background jobs running while downloading the PDF file
+				JavaScriptProfile.stopJobs(jsclient);
+				metrics.record(ScrapMetrics.Stage.JS_RETRY, db, mode, jsStart);
+			}
 			System.out.println("  ...JavaScript disabled");
-			return jsUrlToPDF;
+			if (Thread.currentThread().isInterrupted() && jsResolution.isEmpty()) {
+				return Resolution.NONE;
+			}
+			stats.recordJavaScriptRetry(db, mode, !jsResolution.isEmpty());
+			outcome = jsResolution;
+			return jsResolution;
+		} finally {
+			// cancelled (e.g. a hedged attempt lost): not a failure of the mode
+			if (!outcome.isEmpty() || !Thread.currentThread().isInterrupted()) {
+				stats.record(db, mode, outcome, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
 		}
-		return "";
 	}
 
 }
@@ -0,0 +1,281 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Scrap(ing) pipeline. Splits the processing of BibTeX entries into three
+ * stages, connected by bounded queues:
+ *
+ * <ol>
+ * <li>resolvers: resolve the URL to the PDF file,</li>
+ * <li>downloaders: download the PDF file, and</li>
+ * <li>a writer: puts the result (BibTeX file, and job journal).</li>
+ * </ol>
+ *
+ * Thus entry N+1 gets resolved while entry N downloads, and the hosts of the
+ * web pages and of the PDF files are busy at the same time. Resolvers and
+ * downloaders check out a pair of web clients from the pool per entry. A
+ * resolver keeps the cookies of its pair in the job, and returns the pair to
+ * the pool right away; the downloader restores them to its own pair, s.t. the
+ * PDF file is fetched with the same cookies, while queued jobs don't hold on
+ * to any web clients. Full queues block the previous stage, all the way up to
+ * {@code submit}, which keeps the number of entries in flight bounded.
+ */
+public class ScrapPipeline {
+
+	/**
+	 * Default capacity of the queues.
+	 */
+	public final static int DEFAULT_QUEUE_CAPACITY = 16;
+
+	private final static Task POISON_PILL = new Task(null, -1);
+	private final static Download POISON_DOWNLOAD = new Download(null);
+
+	private final EntryScraper scraper;
+	private final WebClientPool pool;
+	private final BlockingQueue<Task> resolveQueue;
+	private final BlockingQueue<Download> downloadQueue;
+	private final BlockingQueue<Download> writeQueue;
+	private final List<Thread> resolvers;
+	private final List<Thread> downloaders;
+	private final Thread writer;
+
+	/**
+	 * Creates and starts a new scrap(ing) pipeline.
+	 *
+	 * @param scraper the BibTeX entry scraper.
+	 * @param pool the web client pool.
+	 * @param numResolvers the number of resolvers.
+	 * @param numDownloaders the number of downloaders.
+	 * @param queueCapacity the capacity of the queues.
+	 */
+	public ScrapPipeline(EntryScraper scraper, WebClientPool pool, int numResolvers, int numDownloaders, int queueCapacity) {
+		this.scraper = scraper;
+		this.pool = pool;
+		this.resolveQueue = new ArrayBlockingQueue<>(queueCapacity);
+		this.downloadQueue = new ArrayBlockingQueue<>(queueCapacity);
+		this.writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+		this.resolvers = new ArrayList<>();
+		this.downloaders = new ArrayList<>();
+
+		System.out.println(String.format(
+				"starting pipeline: %d resolver(s), %d downloader(s), queue capacity: %d",
+				numResolvers,
+				numDownloaders,
+				queueCapacity
+		));
+		for (int i = 0; i < Math.max(1, numResolvers); i++) {
+			final Thread t = new Thread(new Resolver(), String.format("resolver-%d", i + 1));
+			this.resolvers.add(t);
+			t.start();
+		}
+		for (int i = 0; i < Math.max(1, numDownloaders); i++) {
+			final Thread t = new Thread(new Downloader(), String.format("downloader-%d", i + 1));
+			this.downloaders.add(t);
+			t.start();
+		}
+		this.writer = new Thread(new Writer(), "writer");
+		this.writer.start();
+	}
+
+	/**
+	 * Returns the number of resolvers.
+	 *
+	 * @return the number of resolvers.
+	 */
+	public int getNumResolvers() {
+		return this.resolvers.size();
+	}
+
+	/**
+	 * Returns the number of downloaders.
+	 *
+	 * @return the number of downloaders.
+	 */
+	public int getNumDownloaders() {
+		return this.downloaders.size();
+	}
+
+	/**
+	 * Submits a BibTeX entry to be scraped. Blocks while the pipeline is full.
+	 *
+	 * @param e the BibTeX entry.
+	 * @param num the entry number (incl. offset, used for ID generation).
+	 */
+	public void submit(BibTeXEntry e, int num) {
+		try {
+			this.resolveQueue.put(new Task(e, num));
+		} catch (InterruptedException ex) {
+			printError(ex, "WARNING: interrupted while submitting entry number: " + num);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Shuts down the pipeline, and waits for all submitted BibTeX entries to be
+	 * processed. Stages are drained one after the other.
+	 */
+	public void awaitCompletion() {
+		try {
+			for (int i = 0; i < this.resolvers.size(); i++) {
+				this.resolveQueue.put(POISON_PILL);
+			}
+			join(this.resolvers);
+			for (int i = 0; i < this.downloaders.size(); i++) {
+				this.downloadQueue.put(POISON_DOWNLOAD);
+			}
+			join(this.downloaders);
+			this.writeQueue.put(POISON_DOWNLOAD);
+			this.writer.join();
+		} catch (InterruptedException ex) {
+			printError(ex, "WARNING: interrupted while waiting for the pipeline");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void join(List<Thread> threads) throws InterruptedException {
+		for (Thread t : threads) {
+			t.join();
+		}
+	}
+
+	/**
+	 * A scrap(ing) task.
+	 */
+	private static class Task {
+
+		private final BibTeXEntry entry;
+		private final int num;
+
+		private Task(BibTeXEntry entry, int num) {
+			this.entry = entry;
+			this.num = num;
+		}
+
+	}
+
+	/**
+	 * A resolved job.
+	 */
+	private static class Download {
+
+		private final EntryScraper.Job job;
+
+		private Download(EntryScraper.Job job) {
+			this.job = job;
+		}
+
+	}
+
+	/**
+	 * First stage: resolves URLs to PDF files.
+	 */
+	private class Resolver implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Task task = resolveQueue.take();
+					if (task == POISON_PILL) {
+						break;
+					}
+					final WebClientPool.ClientPair pair = pool.acquire();
+					EntryScraper.Job job;
+					try {
+						job = scraper.resolve(task.entry, task.num, pair.client, pair.jsclient);
+						if (!job.isDone()) {
+							job.keepCookies(pair);
+						}
+					} catch (RuntimeException ex) {
+						printError(ex, "ERROR: failed to process entry number: " + task.num);
+						job = scraper.fail(task.entry, task.num);
+					} finally {
+						pool.release(pair);
+					}
+					if (job.isDone()) {
+						writeQueue.put(new Download(job));
+					} else {
+						downloadQueue.put(new Download(job));
+					}
+				}
+			} catch (InterruptedException ex) {
+				printError(ex, "WARNING: interrupted: " + Thread.currentThread().getName());
+			}
+		}
+
+	}
+
+	/**
+	 * Second stage: downloads PDF files.
+	 */
+	private class Downloader implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Download download = downloadQueue.take();
+					if (download == POISON_DOWNLOAD) {
+						break;
+					}
+					final WebClientPool.ClientPair pair = pool.acquire();
+					try {
+						download.job.restoreCookies(pair);
+						scraper.download(download.job, pair.client, pair.jsclient);
+					} catch (RuntimeException ex) {
+						printError(ex, "ERROR: failed to process entry number: " + download.job.getNum());
+						scraper.fail(download.job);
+					} finally {
+						pool.release(pair);
+					}
+					writeQueue.put(download);
+				}
+			} catch (InterruptedException ex) {
+				printError(ex, "WARNING: interrupted: " + Thread.currentThread().getName());
+			}
+		}
+
+	}
+
+	/**
+	 * Last stage: puts the results.
+	 */
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Download download = writeQueue.take();
+					if (download == POISON_DOWNLOAD) {
+						break;
+					}
+					try {
+						scraper.finish(download.job);
+					} catch (RuntimeException ex) {
+						printError(ex, "ERROR: failed to process entry number: " + download.job.getNum());
+						fail(download.job);
+					}
+				}
+			} catch (InterruptedException ex) {
+				printError(ex, "WARNING: interrupted: " + Thread.currentThread().getName());
+			}
+		}
+
+		private void fail(EntryScraper.Job job) {
+			try {
+				scraper.finish(scraper.fail(job));
+			} catch (RuntimeException ex) {
+				printError(ex, "ERROR: failed to finish entry number: " + job.getNum());
+			}
+		}
+
+	}
+
+}
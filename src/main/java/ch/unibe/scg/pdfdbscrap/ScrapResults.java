@@ -0,0 +1,134 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Scrap(ing) results. Streams the processed BibTeX entries into one BibTeX
+ * database per scrap(ing) status (e.g. {@code <input>-SUCCESS.bib}), opened
+ * once on the first entry with that status, and appended to (and flushed) as
+ * entries finish. Only the number of entries is kept in memory, and the BibTeX
+ * databases are valid even if the process gets killed mid-run. Safe to be
+ * shared among multiple workers.
+ */
+public class ScrapResults implements AutoCloseable {
+
+	/**
+	 * The separator of formatted BibTeX entries (as written by the BibTeX
+	 * formatter).
+	 */
+	public final static String SEPARATOR = "\n\n";
+
+	private final File inputFile;
+	private final File outputDirectory;
+	private final Writer[] writers;
+	private final boolean[] failed;
+	private final int[] counts;
+
+	/**
+	 * Creates a new scrap(ing) result store.
+	 *
+	 * @param inputFile the BibTeX file (used for the filenames of the BibTeX
+	 * databases).
+	 * @param outputDirectory the output directory.
+	 */
+	public ScrapResults(File inputFile, File outputDirectory) {
+		final int numScrapStatus = ScrapStatus.values().length;
+		this.inputFile = inputFile;
+		this.outputDirectory = outputDirectory;
+		this.writers = new Writer[numScrapStatus];
+		this.failed = new boolean[numScrapStatus];
+		this.counts = new int[numScrapStatus];
+	}
+
+	/**
+	 * Returns the BibTeX database of a scrap(ing) status.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @return the BibTeX database file.
+	 */
+	public File getFile(ScrapStatus status) {
+		return new File(
+				this.outputDirectory.getAbsolutePath(),
+				Main.getBibTeXFilename(this.inputFile, status)
+		);
+	}
+
+	/**
+	 * Puts a processed BibTeX entry.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @param entry the BibTeX entry.
+	 */
+	public void put(ScrapStatus status, BibTeXEntry entry) {
+		put(status, Main.formatBibTeXEntry(entry));
+	}
+
+	/**
+	 * Puts a processed, and already formatted BibTeX entry.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @param bibtex the formatted BibTeX entry.
+	 */
+	public synchronized void put(ScrapStatus status, String bibtex) {
+		final int i = status.ordinal();
+		final boolean first = (this.counts[i] == 0);
+		this.counts[i]++;
+		if (this.failed[i]) {
+			return;
+		}
+		final File file = getFile(status);
+		try {
+			if (this.writers[i] == null) {
+				System.out.println(String.format(
+						"  writing %s BibTeX database to: %s...",
+						status.name(),
+						file
+				));
+				this.writers[i] = Main.newFileWriter(file);
+			}
+			final Writer writer = this.writers[i];
+			if (!first) {
+				writer.write(SEPARATOR);
+			}
+			writer.write(bibtex);
+			writer.flush();
+		} catch (IOException ex) {
+			this.failed[i] = true;
+			printError(ex, "ERROR: failed to write database to: " + file);
+		}
+	}
+
+	/**
+	 * Returns the number of BibTeX entries with the given scrap(ing) status.
+	 *
+	 * @param status the scrap(ing) status.
+	 * @return the number of BibTeX entries with the given status.
+	 */
+	public synchronized int size(ScrapStatus status) {
+		return this.counts[status.ordinal()];
+	}
+
+	/**
+	 * Closes all BibTeX databases.
+	 */
+	@Override
+	public synchronized void close() {
+		for (ScrapStatus status : ScrapStatus.values()) {
+			final int i = status.ordinal();
+			if (this.writers[i] == null) {
+				continue;
+			}
+			try {
+				this.writers[i].close();
+			} catch (IOException ex) {
+				printError(ex, "ERROR: failed to write database to: " + getFile(status));
+			}
+			this.writers[i] = null;
+		}
+	}
+
+}
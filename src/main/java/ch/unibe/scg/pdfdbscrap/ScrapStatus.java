@@ -43,6 +43,37 @@ public enum ScrapStatus {
 	 */
 	SUCCESS;
 
+	/**
+	 * Checks whether this status is (likely) due to a transient failure, s.t.
+	 * the BibTeX entry should be processed again if a job gets resumed.
+	 *
+	 * @return {@code true} if the BibTeX entry should be processed again,
+	 * {@code false} otherwise.
+	 */
+	public boolean isRetryable() {
+		switch (this) {
+			case FAILURE_FAILING_HTTP_STATUS_CODE:
+			case FAILURE_IO_INPUTSTREAM:
+			case FAILURE_IO_OUTPUTSTREAM:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Checks whether this status is better than another one. The statuses are
+	 * ordered by how far a BibTeX entry got (the failures in order of the
+	 * scrap(ing) steps), with {@code SUCCESS} being the best.
+	 *
+	 * @param other the other status.
+	 * @return {@code true} if this status is better than the other one,
+	 * {@code false} otherwise.
+	 */
+	public boolean isBetterThan(ScrapStatus other) {
+		return ordinal() > other.ordinal();
+	}
+
 	/**
 	 * Returns the status output directory. The directory is created if it
 	 * doesn't exist yet.
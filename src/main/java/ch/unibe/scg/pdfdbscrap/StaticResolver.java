@@ -0,0 +1,238 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import com.gargoylesoftware.htmlunit.WebClient;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Static resolution engine. Resolves the URL to the PDF file of databases
+ * whose anchor to the PDF file is present in the static HTML of the web page,
+ * by streaming the web page through a plain HTTP connection and an HTML
+ * tokenizer, instead of building a full {@code HtmlPage} with HtmlUnit. Only
+ * simple anchor expressions (see {@code AnchorExpression}) are evaluated; the
+ * caller is supposed to fall back to HtmlUnit on a miss.
+ */
+public class StaticResolver {
+
+	private final HttpConnector connector;
+	private final Set<PDFDatabase> databases;
+
+	/**
+	 * Creates a new static resolution engine.
+	 *
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param databases the databases to resolve statically.
+	 */
+	public StaticResolver(HostRateLimiter limiter, Set<PDFDatabase> databases) {
+		this.connector = new HttpConnector(limiter);
+		this.databases = EnumSet.noneOf(PDFDatabase.class);
+		this.databases.addAll(databases);
+	}
+
+	/**
+	 * Returns the databases that are resolved statically by default.
+	 *
+	 * @return the databases with static anchors to the PDF file.
+	 */
+	public static Set<PDFDatabase> getDefaultDatabases() {
+		final Set<PDFDatabase> set = EnumSet.noneOf(PDFDatabase.class);
+		for (PDFDatabase db : PDFDatabase.values()) {
+			if (db.hasStaticAnchors()) {
+				set.add(db);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Parses a comma separated list of databases.
+	 *
+	 * @param value the list of databases, or "NONE".
+	 * @return the databases.
+	 * @throws IllegalArgumentException if a database is unknown.
+	 */
+	public static Set<PDFDatabase> parseDatabases(String value) {
+		final Set<PDFDatabase> set = EnumSet.noneOf(PDFDatabase.class);
+		for (String name : value.split("[,;]")) {
+			final String n = name.trim().toUpperCase(Locale.ROOT);
+			if (n.isEmpty() || n.equals("NONE")) {
+				continue;
+			}
+			set.add(PDFDatabase.valueOf(n));
+		}
+		return set;
+	}
+
+	/**
+	 * Checks whether a database is resolved statically.
+	 *
+	 * @param db the database.
+	 * @return {@code true} if the database is resolved statically,
+	 * {@code false} otherwise.
+	 */
+	public boolean isEnabled(PDFDatabase db) {
+		return this.databases.contains(db);
+	}
+
+	/**
+	 * Returns the databases that are resolved statically.
+	 *
+	 * @return the databases that are resolved statically.
+	 */
+	public Set<PDFDatabase> getDatabases() {
+		return EnumSet.copyOf(this.databases);
+	}
+
+	/**
+	 * Attempts to resolve the URL to the PDF file from a web page. The first
+	 * XPath expression with a matching anchor wins (just like with the
+	 * {@code XPATH_ANCHOR} scrap(ing) mode).
+	 *
+	 * @param client the web client (to take cookies, user agent, timeout and
+	 * proxy from).
+	 * @param url the URL of the web page.
+	 * @param xpathExpressions the XPath expressions. Expressions other than
+	 * simple anchor expressions are ignored.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE} if the static HTML didn't do it.
+	 * @throws IOException
+	 */
+	public Resolution resolve(WebClient client, String url, List<String> xpathExpressions) throws IOException {
+		final List<AnchorExpression> expressions = new ArrayList<>();
+		for (String xpath : xpathExpressions) {
+			final AnchorExpression expression = XPathCache.compile(xpath).getAnchorExpression();
+			if (expression != null) {
+				expressions.add(expression);
+			}
+		}
+		if (expressions.isEmpty()) {
+			return Resolution.NONE;
+		}
+
+		System.out.println("  static resolution, fetching page: " + url + "...");
+		final HttpURLConnection connection;
+		try {
+			connection = this.connector.connect(
+					client,
+					new URL(url),
+					client.getBrowserVersion().getHtmlAcceptHeader()
+			);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while fetching: " + url);
+		}
+		try {
+			final int code = connection.getResponseCode();
+			if (code >= 400) {
+				printError(String.format(
+						"WARNING: failing HTTP status code: %d %s (%s)",
+						code,
+						connection.getResponseMessage(),
+						connection.getURL()
+				));
+				return Resolution.NONE;
+			}
+			final String contentType = connection.getContentType();
+			if (!HttpConnector.isHtml(contentType)) {
+				return Resolution.NONE;
+			}
+			try (Reader reader = new BufferedReader(new InputStreamReader(
+					connection.getInputStream(),
+					getCharset(contentType)
+			))) {
+				return resolve(new HtmlTokenizer(reader), connection.getURL(), expressions);
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Evaluates anchor expressions on an HTML document.
+	 *
+	 * @param tokenizer the HTML tokenizer.
+	 * @param base the URL of the HTML document.
+	 * @param expressions the anchor expressions in order of preference.
+	 * @return the resolution of the URL to the PDF file, or
+	 * {@code Resolution.NONE}.
+	 * @throws IOException
+	 */
+	public static Resolution resolve(HtmlTokenizer tokenizer, URL base, List<AnchorExpression> expressions) throws IOException {
+		final int n = expressions.size();
+		final String[] hrefs = new String[n];
+		URL baseURL = base;
+		int best = n;
+		while (best > 0 && tokenizer.next()) {
+			final String href = tokenizer.getAttribute("href");
+			if (href == null) {
+				continue;
+			}
+			if ("base".equals(tokenizer.getTagName())) {
+				final URL u = toURL(baseURL, href);
+				if (u != null) {
+					baseURL = u;
+				}
+				continue;
+			}
+			for (int i = 0; i < best; i++) {
+				if (expressions.get(i).matches(tokenizer)) {
+					final URL u = toURL(baseURL, href);
+					if (u != null) {
+						hrefs[i] = u.toString();
+						best = i;
+					}
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (hrefs[i] != null) {
+				System.out.println("  ...static anchor match, XPath: " + expressions.get(i));
+				return new Resolution(hrefs[i], ScrapMode.XPATH_ANCHOR, expressions.get(i).xpath);
+			}
+		}
+		return Resolution.NONE;
+	}
+
+	private static URL toURL(URL base, String href) {
+		try {
+			return new URL(base, href.trim());
+		} catch (MalformedURLException ex) {
+			return null;
+		}
+	}
+
+	private static Charset getCharset(String contentType) {
+		final int i = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+		if (i >= 0) {
+			String name = contentType.substring(i + 8).trim();
+			final int end = name.indexOf(';');
+			if (end >= 0) {
+				name = name.substring(0, end).trim();
+			}
+			name = name.replace("\"", "").replace("'", "");
+			try {
+				return Charset.forName(name);
+			} catch (IllegalArgumentException ex) {
+				// fall through
+			}
+		}
+		// good enough for URLs, and never fails to decode
+		return StandardCharsets.ISO_8859_1;
+	}
+
+}
@@ -0,0 +1,353 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Strategy statistics. Records, per database, how often each scrap(ing) mode
+ * has been tried, how often (and how fast) it resolved the URL to the PDF file,
+ * whether retries with JavaScript enabled ever paid off, and which XPath
+ * expressions matched. The {@code AUTO} scrap(ing) mode uses these to try the
+ * historically fastest successful strategy first, and to skip retries with
+ * JavaScript enabled that never worked (yet still probes them once in a while,
+ * in case the web pages changed).
+ *
+ * <p>
+ * Statistics are persisted across runs in a tab separated file in the output
+ * directory.
+ * </p>
+ */
+public class StrategyStats {
+
+	/**
+	 * Default statistics filename (in the output directory).
+	 */
+	public final static String DEFAULT_FILENAME = "strategy-stats.tsv";
+
+	/**
+	 * The min. number of retries with JavaScript enabled, before an unsuccessful
+	 * retry gets skipped.
+	 */
+	public final static int MIN_JAVASCRIPT_RETRIES = 5;
+
+	/**
+	 * Every how many skipped retries with JavaScript enabled the retry gets
+	 * probed anyway.
+	 */
+	public final static int JAVASCRIPT_PROBE_INTERVAL = 20;
+
+	private final static String MODE_RECORD = "mode";
+	private final static String XPATH_RECORD = "xpath";
+	private final static int NUM_MODE_FIELDS = 8;
+	private final static int NUM_XPATH_FIELDS = 5;
+
+	private final static StrategyStats INSTANCE = new StrategyStats();
+
+	private final Map<String, ModeStats> modes;
+	private final Map<String, Long> xpaths;
+
+	/**
+	 * Creates new (empty) strategy statistics.
+	 */
+	public StrategyStats() {
+		this.modes = new TreeMap<>();
+		this.xpaths = new TreeMap<>();
+	}
+
+	/**
+	 * Returns the process-wide strategy statistics.
+	 *
+	 * @return the strategy statistics.
+	 */
+	public static StrategyStats getInstance() {
+		return INSTANCE;
+	}
+
+	private static String getKey(PDFDatabase db, ScrapMode mode) {
+		return db.name() + "\t" + mode.name();
+	}
+
+	private static String getKey(PDFDatabase db, ScrapMode mode, String xpath) {
+		return getKey(db, mode) + "\t" + xpath;
+	}
+
+	private ModeStats getModeStats(PDFDatabase db, ScrapMode mode) {
+		final String key = getKey(db, mode);
+		ModeStats stats = this.modes.get(key);
+		if (stats == null) {
+			stats = new ModeStats();
+			this.modes.put(key, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Records an attempt to resolve the URL to the PDF file.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @param resolution the resolution (empty if unsuccessful).
+	 * @param millis the time spent in milliseconds (incl. the retry with
+	 * JavaScript enabled, if any).
+	 */
+	public synchronized void record(PDFDatabase db, ScrapMode mode, Resolution resolution, long millis) {
+		final ModeStats stats = getModeStats(db, mode);
+		stats.attempts++;
+		stats.millis += millis;
+		if (!resolution.isEmpty()) {
+			stats.successes++;
+			if (!resolution.xpath.isEmpty()) {
+				final String key = getKey(db, mode, resolution.xpath);
+				final Long n = this.xpaths.get(key);
+				this.xpaths.put(key, (n == null) ? 1 : n + 1);
+			}
+		}
+	}
+
+	/**
+	 * Records a retry with JavaScript enabled.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @param success {@code true} if the retry resolved the URL to the PDF
+	 * file, {@code false} otherwise.
+	 */
+	public synchronized void recordJavaScriptRetry(PDFDatabase db, ScrapMode mode, boolean success) {
+		final ModeStats stats = getModeStats(db, mode);
+		stats.jsAttempts++;
+		if (success) {
+			stats.jsSuccesses++;
+		}
+	}
+
+	/**
+	 * Returns the number of recorded attempts.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @return the number of recorded attempts.
+	 */
+	public synchronized long getAttempts(PDFDatabase db, ScrapMode mode) {
+		final ModeStats stats = this.modes.get(getKey(db, mode));
+		return (stats == null) ? 0 : stats.attempts;
+	}
+
+	/**
+	 * Returns the number of recorded successful attempts.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @return the number of recorded successful attempts.
+	 */
+	public synchronized long getSuccesses(PDFDatabase db, ScrapMode mode) {
+		final ModeStats stats = this.modes.get(getKey(db, mode));
+		return (stats == null) ? 0 : stats.successes;
+	}
+
+	/**
+	 * Returns the expected time to resolve the URL to the PDF file, that is the
+	 * mean time of an attempt divided by the (smoothed) success rate. Modes
+	 * that haven't been tried yet get zero, s.t. they get tried (at least once).
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @return the expected time in milliseconds.
+	 */
+	public synchronized double getExpectedMillis(PDFDatabase db, ScrapMode mode) {
+		final ModeStats stats = this.modes.get(getKey(db, mode));
+		if (stats == null || stats.attempts == 0) {
+			return 0;
+		}
+		final double mean = (double) Math.max(1, stats.millis) / stats.attempts;
+		final double rate = (stats.successes + 1.0) / (stats.attempts + 2.0);
+		return mean / rate;
+	}
+
+	/**
+	 * Checks whether a retry with JavaScript enabled is worth it, i.e. it has
+	 * been successful before, or hasn't been tried often enough to tell. An
+	 * unsuccessful retry is still probed every
+	 * {@link #JAVASCRIPT_PROBE_INTERVAL} calls, s.t. a few bad web pages (e.g.
+	 * a captcha) don't disable the retry for good; hence call this once per
+	 * attempt.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @return {@code true} if the retry should be attempted, {@code false}
+	 * otherwise.
+	 */
+	public synchronized boolean isJavaScriptRetryWorthIt(PDFDatabase db, ScrapMode mode) {
+		final ModeStats stats = this.modes.get(getKey(db, mode));
+		if (stats == null
+				|| stats.jsSuccesses > 0
+				|| stats.jsAttempts < MIN_JAVASCRIPT_RETRIES) {
+			return true;
+		}
+		stats.jsSkips++;
+		return stats.jsSkips % JAVASCRIPT_PROBE_INTERVAL == 0;
+	}
+
+	/**
+	 * Orders scrap(ing) modes by their expected time to resolve the URL to the
+	 * PDF file (fastest first). Ties keep the given order.
+	 *
+	 * @param db the database.
+	 * @param modes the scrap(ing) modes in configured order.
+	 * @return the ordered scrap(ing) modes.
+	 */
+	public synchronized List<ScrapMode> orderModes(final PDFDatabase db, Collection<ScrapMode> modes) {
+		final List<ScrapMode> list = new ArrayList<>(modes);
+		final Map<ScrapMode, Double> expected = new HashMap<>();
+		for (ScrapMode mode : list) {
+			expected.put(mode, getExpectedMillis(db, mode));
+		}
+		Collections.sort(list, new Comparator<ScrapMode>() {
+			@Override
+			public int compare(ScrapMode a, ScrapMode b) {
+				return Double.compare(expected.get(a), expected.get(b));
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Orders XPath expressions by the number of times they matched (most
+	 * successful first). Ties keep the given order.
+	 *
+	 * @param db the database.
+	 * @param mode the scrap(ing) mode.
+	 * @param xpathExpressions the XPath expressions in configured order.
+	 * @return the ordered XPath expressions.
+	 */
+	public synchronized List<String> orderExpressions(PDFDatabase db, ScrapMode mode, List<String> xpathExpressions) {
+		if (xpathExpressions.size() < 2) {
+			return xpathExpressions;
+		}
+		final List<String> list = new ArrayList<>(xpathExpressions);
+		final Map<String, Long> matches = new HashMap<>();
+		for (String xpath : list) {
+			final Long n = this.xpaths.get(getKey(db, mode, xpath));
+			matches.put(xpath, (n == null) ? 0 : n);
+		}
+		Collections.sort(list, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(matches.get(b), matches.get(a));
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Loads (and adds) statistics from a file.
+	 *
+	 * @param file the statistics file. Ignored if it doesn't exist.
+	 * @throws IOException
+	 */
+	public synchronized void load(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file),
+				StandardCharsets.UTF_8
+		))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				try {
+					parseLine(line.split("\t", -1));
+				} catch (IllegalArgumentException ex) {
+					// malformed, or unknown database/mode: skip
+				}
+			}
+		}
+	}
+
+	private void parseLine(String[] fields) {
+		if (fields.length == NUM_MODE_FIELDS && MODE_RECORD.equals(fields[0])) {
+			final ModeStats stats = getModeStats(
+					PDFDatabase.valueOf(fields[1]),
+					ScrapMode.valueOf(fields[2])
+			);
+			stats.attempts += Long.parseLong(fields[3]);
+			stats.successes += Long.parseLong(fields[4]);
+			stats.millis += Long.parseLong(fields[5]);
+			stats.jsAttempts += Long.parseLong(fields[6]);
+			stats.jsSuccesses += Long.parseLong(fields[7]);
+		} else if (fields.length == NUM_XPATH_FIELDS && XPATH_RECORD.equals(fields[0])) {
+			final String key = getKey(
+					PDFDatabase.valueOf(fields[1]),
+					ScrapMode.valueOf(fields[2]),
+					fields[3]
+			);
+			final Long n = this.xpaths.get(key);
+			this.xpaths.put(key, Long.parseLong(fields[4]) + ((n == null) ? 0 : n));
+		}
+	}
+
+	/**
+	 * Saves the statistics to a file (atomically).
+	 *
+	 * @param file the statistics file.
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		final File tmp = new File(file.getAbsolutePath() + PDFDownloader.PARTIAL_SUFFIX);
+		try (Writer writer = Main.newFileWriter(tmp)) {
+			for (Map.Entry<String, ModeStats> e : this.modes.entrySet()) {
+				final ModeStats stats = e.getValue();
+				writer.write(String.format(
+						"%s\t%s\t%d\t%d\t%d\t%d\t%d\n",
+						MODE_RECORD,
+						e.getKey(),
+						stats.attempts,
+						stats.successes,
+						stats.millis,
+						stats.jsAttempts,
+						stats.jsSuccesses
+				));
+			}
+			for (Map.Entry<String, Long> e : this.xpaths.entrySet()) {
+				if (e.getKey().indexOf('\n') >= 0) {
+					continue;
+				}
+				writer.write(String.format(
+						"%s\t%s\t%d\n",
+						XPATH_RECORD,
+						e.getKey(),
+						e.getValue()
+				));
+			}
+		}
+		PDFDownloader.commit(tmp.toPath(), file.toPath());
+	}
+
+	/**
+	 * Statistics of a scrap(ing) mode on a database.
+	 */
+	private static class ModeStats {
+
+		private long attempts;
+		private long successes;
+		private long millis;
+		private long jsAttempts;
+		private long jsSuccesses;
+		// not persisted
+		private long jsSkips;
+
+	}
+
+}
@@ -0,0 +1,436 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * URL classifier. Maps the URL of a BibTeX entry to a {@code PDFDatabase} by
+ * its host, instead of scanning the whole URL for each database in turn. The
+ * bounds of the host are parsed once, and then looked up in hash tables (exact
+ * hosts first, followed by the suffixes and the prefixes of the host, longest
+ * first), s.t. the cost doesn't grow with the number of rules. Lookups hash
+ * the characters of the URL in place, without creating any substrings.
+ *
+ * <p>
+ * The rules are read from a tab separated rule table, see
+ * {@code url-rules.tsv} for the format and the default rules.
+ * </p>
+ */
+public class URLClassifier {
+
+	/**
+	 * The resource name of the default rule table.
+	 */
+	public final static String DEFAULT_RULES = "url-rules.tsv";
+
+	/**
+	 * Rule kinds.
+	 */
+	public enum Kind {
+
+		/**
+		 * The exact host.
+		 */
+		HOST,
+		/**
+		 * The host, and all its subdomains.
+		 */
+		SUFFIX,
+		/**
+		 * Hosts starting with the given host, e.g. rewritten by a proxy.
+		 */
+		PREFIX,
+		/**
+		 * The exact host, and a regex found in the path (incl. query).
+		 */
+		PATH;
+	}
+
+	private final HostTable hosts;
+	private final HostTable suffixes;
+	private final HostTable prefixes;
+	private final Map<String, List<PathRule>> paths;
+	private final BitSet suffixLengths;
+	private final BitSet prefixLengths;
+	private int numRules;
+
+	/**
+	 * Creates a new URL classifier.
+	 *
+	 * @param reader the reader of the rule table. Not closed.
+	 * @throws IOException in case of a malformed rule.
+	 */
+	public URLClassifier(Reader reader) throws IOException {
+		this.hosts = new HostTable(true);
+		this.suffixes = new HostTable(true);
+		this.prefixes = new HostTable(false);
+		this.paths = new HashMap<>();
+		this.suffixLengths = new BitSet();
+		this.prefixLengths = new BitSet();
+
+		final BufferedReader br = (reader instanceof BufferedReader)
+				? (BufferedReader) reader
+				: new BufferedReader(reader);
+		String line;
+		int num = 0;
+		while ((line = br.readLine()) != null) {
+			num++;
+			final String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+				continue;
+			}
+			try {
+				addRule(line.split("\t"));
+			} catch (IllegalArgumentException ex) {
+				throw new IOException(String.format(
+						"malformed URL rule on line %d: %s",
+						num,
+						line
+				), ex);
+			}
+		}
+	}
+
+	private void addRule(String[] fields) {
+		if (fields.length < 3) {
+			throw new IllegalArgumentException("expected: <kind> <host> <database> [<path regex>]");
+		}
+		final Kind kind = Kind.valueOf(fields[0].trim().toUpperCase(Locale.ROOT));
+		final String host = fields[1].trim().toLowerCase(Locale.ROOT);
+		final PDFDatabase db = PDFDatabase.valueOf(fields[2].trim().toUpperCase(Locale.ROOT));
+		if (host.isEmpty()) {
+			throw new IllegalArgumentException("empty host");
+		}
+		switch (kind) {
+			case HOST:
+				this.hosts.put(host, db);
+				break;
+			case SUFFIX:
+				this.suffixes.put(host, db);
+				this.suffixLengths.set(host.length());
+				break;
+			case PREFIX:
+				this.prefixes.put(host, db);
+				this.prefixLengths.set(host.length());
+				break;
+			case PATH:
+				if (fields.length < 4) {
+					throw new IllegalArgumentException("missing path regex");
+				}
+				List<PathRule> rules = this.paths.get(host);
+				if (rules == null) {
+					rules = new ArrayList<>();
+					this.paths.put(host, rules);
+				}
+				try {
+					rules.add(new PathRule(Pattern.compile(fields[3].trim()), db));
+				} catch (PatternSyntaxException ex) {
+					throw new IllegalArgumentException("invalid path regex", ex);
+				}
+				break;
+		}
+		this.numRules++;
+	}
+
+	/**
+	 * Returns the default URL classifier, with the rules of the default rule
+	 * table.
+	 *
+	 * @return the default URL classifier.
+	 */
+	public static URLClassifier getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Returns the number of rules.
+	 *
+	 * @return the number of rules.
+	 */
+	public int getNumRules() {
+		return this.numRules;
+	}
+
+	/**
+	 * Classifies a URL.
+	 *
+	 * @param url the URL of a BibTeX entry.
+	 * @return the known PDF database, or {@code UNKNOWN}.
+	 */
+	public PDFDatabase classify(String url) {
+		final long bounds = getHostBounds(url);
+		final int start = (int) (bounds >>> 32);
+		final int end = (int) bounds;
+		if (start >= end) {
+			return PDFDatabase.UNKNOWN;
+		}
+
+		if (!this.paths.isEmpty()) {
+			final List<PathRule> rules = this.paths.get(url.substring(start, end).toLowerCase(Locale.ROOT));
+			if (rules != null) {
+				final String path = url.substring(getAuthorityEnd(url, end)).trim();
+				for (PathRule rule : rules) {
+					if (rule.pattern.matcher(path).find()) {
+						return rule.db;
+					}
+				}
+			}
+		}
+
+		// host, and parent domains. Hashed from right to left, s.t. the hash
+		// of each candidate is a step on the way to the next longer one. Only
+		// candidates of the length of some rule get looked up.
+		PDFDatabase suffix = null;
+		int h = 0;
+		for (int i = end - 1; i >= start; i--) {
+			h = 31 * h + toLowerCase(url.charAt(i));
+			if (i > start && url.charAt(i - 1) != '.') {
+				continue;
+			}
+			if (i == start) {
+				final PDFDatabase db = this.hosts.get(url, i, end, h);
+				if (db != null) {
+					return db;
+				}
+			}
+			if (this.suffixLengths.get(end - i)) {
+				final PDFDatabase db = this.suffixes.get(url, i, end, h);
+				if (db != null) {
+					suffix = db; // keep going, longest wins
+				}
+			}
+		}
+		if (suffix != null) {
+			return suffix;
+		}
+
+		// leading labels, hashed from left to right
+		PDFDatabase prefix = null;
+		h = 0;
+		for (int i = start; i < end; i++) {
+			final char c = url.charAt(i);
+			if (c == '.' && this.prefixLengths.get(i - start)) {
+				final PDFDatabase db = this.prefixes.get(url, start, i, h);
+				if (db != null) {
+					prefix = db;
+				}
+			}
+			h = 31 * h + toLowerCase(c);
+		}
+		if (prefix != null) {
+			return prefix;
+		}
+
+		return PDFDatabase.UNKNOWN;
+	}
+
+	/**
+	 * Returns the host of a URL. The scheme is optional, and user info and port
+	 * are stripped.
+	 *
+	 * @param url the URL.
+	 * @return the lower case host, or an empty string.
+	 */
+	public static String getHost(String url) {
+		final long bounds = getHostBounds(url);
+		final int start = (int) (bounds >>> 32);
+		final int end = (int) bounds;
+		return (start >= end) ? "" : url.substring(start, end).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the bounds of the host of a URL in a single pass.
+	 *
+	 * @param url the URL.
+	 * @return the start index (upper 32 bits), and the end index (lower 32
+	 * bits) of the host.
+	 */
+	private static long getHostBounds(String url) {
+		int start = getHostStart(url);
+		int colon = -1;
+		int i = start;
+		for (; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			if (c == '/' || c == '?' || c == '#' || c <= ' ') {
+				break;
+			}
+			if (c == '@') {
+				start = i + 1;
+				colon = -1;
+			} else if (c == ':' && colon < 0) {
+				colon = i;
+			}
+		}
+		int end = (colon < 0) ? i : colon;
+		if (end > start && url.charAt(end - 1) == '.') {
+			end--; // fully qualified
+		}
+		return ((long) start << 32) | end;
+	}
+
+	private static int getHostStart(String url) {
+		int start = 0;
+		while (start < url.length() && url.charAt(start) <= ' ') {
+			start++;
+		}
+		// only if there's nothing but a scheme in front of "://"
+		for (int i = start; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			if (c == ':') {
+				return url.startsWith("://", i) ? i + 3 : start;
+			}
+			if (!isSchemeChar(c)) {
+				return start;
+			}
+		}
+		return start;
+	}
+
+	private static int getAuthorityEnd(String url, int start) {
+		for (int i = start; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			if (c == '/' || c == '?' || c == '#' || c <= ' ') {
+				return i;
+			}
+		}
+		return url.length();
+	}
+
+	private static boolean isSchemeChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '+' || c == '-' || c == '.';
+	}
+
+	private static char toLowerCase(char c) {
+		return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Hash table of hosts (open addressing, linear probing), that is queried
+	 * with a range of characters of a URL (ASCII case-insensitive), and its
+	 * hash. Keys are hashed from right to left, or from left to right.
+	 */
+	private static class HostTable {
+
+		private final boolean reverse;
+		private String[] keys = new String[16];
+		private PDFDatabase[] values = new PDFDatabase[16];
+		private int size;
+
+		private HostTable(boolean reverse) {
+			this.reverse = reverse;
+		}
+
+		private int hash(String key) {
+			int h = 0;
+			for (int i = 0; i < key.length(); i++) {
+				h = 31 * h + toLowerCase(key.charAt(this.reverse ? key.length() - 1 - i : i));
+			}
+			return h;
+		}
+
+		private static int index(int h, int mask) {
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private void put(String key, PDFDatabase db) {
+			if (2 * (this.size + 1) > this.keys.length) {
+				final String[] oldKeys = this.keys;
+				final PDFDatabase[] oldValues = this.values;
+				this.keys = new String[oldKeys.length * 2];
+				this.values = new PDFDatabase[oldKeys.length * 2];
+				this.size = 0;
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != null) {
+						put(oldKeys[i], oldValues[i]);
+					}
+				}
+			}
+			final int mask = this.keys.length - 1;
+			int i = index(hash(key), mask);
+			while (this.keys[i] != null && !this.keys[i].equals(key)) {
+				i = (i + 1) & mask;
+			}
+			if (this.keys[i] == null) {
+				this.size++;
+			}
+			this.keys[i] = key;
+			this.values[i] = db;
+		}
+
+		private PDFDatabase get(String s, int from, int to, int h) {
+			if (this.size == 0) {
+				return null;
+			}
+			final int mask = this.keys.length - 1;
+			final int n = to - from;
+			int i = index(h, mask);
+			String key;
+			while ((key = this.keys[i]) != null) {
+				if (key.length() == n && matches(key, s, from)) {
+					return this.values[i];
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		private static boolean matches(String key, String s, int from) {
+			for (int i = 0; i < key.length(); i++) {
+				if (key.charAt(i) != toLowerCase(s.charAt(from + i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * A path rule.
+	 */
+	private static class PathRule {
+
+		private final Pattern pattern;
+		private final PDFDatabase db;
+
+		private PathRule(Pattern pattern, PDFDatabase db) {
+			this.pattern = pattern;
+			this.db = db;
+		}
+
+	}
+
+	/**
+	 * Lazy holder of the default URL classifier.
+	 */
+	private static class DefaultHolder {
+
+		private final static URLClassifier INSTANCE = load();
+
+		private static URLClassifier load() {
+			try (InputStream in = URLClassifier.class.getResourceAsStream(DEFAULT_RULES)) {
+				if (in == null) {
+					throw new IllegalStateException("missing URL rule table: " + DEFAULT_RULES);
+				}
+				return new URLClassifier(new InputStreamReader(in, StandardCharsets.UTF_8));
+			} catch (IOException ex) {
+				throw new IllegalStateException("failed to read URL rule table: " + DEFAULT_RULES, ex);
+			}
+		}
+
+	}
+
+}
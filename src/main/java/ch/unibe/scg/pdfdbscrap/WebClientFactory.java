@@ -0,0 +1,152 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.ProxyConfig;
+import com.gargoylesoftware.htmlunit.WebClient;
+
+/**
+ * Web client factory. Creates pre-configured headless web clients that share
+ * the same browser (version), per-host rate limiter, HTTP proxy, JavaScript
+ * execution profile, and request filter rules.
+ */
+public class WebClientFactory {
+
+	private final Browser browser;
+	private final HostRateLimiter limiter;
+	private final String proxyHost;
+	private final int proxyPort;
+	private final JavaScriptProfile javaScriptProfile;
+	private final RequestFilter.Rules requestRules;
+
+	/**
+	 * Creates a new web client factory.
+	 *
+	 * @param browser the browser (version) of the headless web clients.
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 */
+	public WebClientFactory(Browser browser, HostRateLimiter limiter) {
+		this(browser, limiter, null, 0);
+	}
+
+	/**
+	 * Creates a new web client factory.
+	 *
+	 * @param browser the browser (version) of the headless web clients.
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param proxyHost the host of the HTTP proxy, or {@code null} to connect
+	 * directly.
+	 * @param proxyPort the port of the HTTP proxy.
+	 */
+	public WebClientFactory(Browser browser, HostRateLimiter limiter, String proxyHost, int proxyPort) {
+		this(browser, limiter, proxyHost, proxyPort, JavaScriptProfile.DEFAULT);
+	}
+
+	/**
+	 * Creates a new web client factory.
+	 *
+	 * @param browser the browser (version) of the headless web clients.
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param proxyHost the host of the HTTP proxy, or {@code null} to connect
+	 * directly.
+	 * @param proxyPort the port of the HTTP proxy.
+	 * @param javaScriptProfile the JavaScript execution profile of the web
+	 * clients with enabled JavaScript.
+	 */
+	public WebClientFactory(Browser browser, HostRateLimiter limiter, String proxyHost, int proxyPort, JavaScriptProfile javaScriptProfile) {
+		this(browser, limiter, proxyHost, proxyPort, javaScriptProfile, RequestFilter.Rules.getDefault());
+	}
+
+	/**
+	 * Creates a new web client factory.
+	 *
+	 * @param browser the browser (version) of the headless web clients.
+	 * @param limiter the per-host rate limiter, or {@code null}.
+	 * @param proxyHost the host of the HTTP proxy, or {@code null} to connect
+	 * directly.
+	 * @param proxyPort the port of the HTTP proxy.
+	 * @param javaScriptProfile the JavaScript execution profile of the web
+	 * clients with enabled JavaScript.
+	 * @param requestRules the request filter rules, or {@code null} to not
+	 * filter any requests.
+	 */
+	public WebClientFactory(Browser browser, HostRateLimiter limiter, String proxyHost, int proxyPort, JavaScriptProfile javaScriptProfile, RequestFilter.Rules requestRules) {
+		this.browser = browser;
+		this.limiter = limiter;
+		this.proxyHost = proxyHost;
+		this.proxyPort = proxyPort;
+		this.javaScriptProfile = javaScriptProfile;
+		this.requestRules = requestRules;
+	}
+
+	/**
+	 * Returns the browser (version) of the headless web clients.
+	 *
+	 * @return the browser (version) of the headless web clients.
+	 */
+	public Browser getBrowser() {
+		return this.browser;
+	}
+
+	/**
+	 * Returns the per-host rate limiter.
+	 *
+	 * @return the per-host rate limiter, or {@code null}.
+	 */
+	public HostRateLimiter getRateLimiter() {
+		return this.limiter;
+	}
+
+	/**
+	 * Returns the HTTP proxy.
+	 *
+	 * @return the HTTP proxy ({@code <host>:<port>}), or {@code null} if
+	 * connecting directly.
+	 */
+	public String getProxy() {
+		return (this.proxyHost == null) ? null : this.proxyHost + ":" + this.proxyPort;
+	}
+
+	/**
+	 * Returns the JavaScript execution profile.
+	 *
+	 * @return the JavaScript execution profile.
+	 */
+	public JavaScriptProfile getJavaScriptProfile() {
+		return this.javaScriptProfile;
+	}
+
+	/**
+	 * Returns the request filter rules.
+	 *
+	 * @return the request filter rules, or {@code null} if requests aren't
+	 * filtered.
+	 */
+	public RequestFilter.Rules getRequestRules() {
+		return this.requestRules;
+	}
+
+	/**
+	 * Creates a new headless web client.
+	 *
+	 * @param javaScript whether to enable JavaScript, or not.
+	 * @return a new web client.
+	 */
+	public WebClient newWebClient(boolean javaScript) {
+		final WebClient client = Main.newWebClient(this.browser, javaScript);
+		if (this.proxyHost != null) {
+			// also picked up by the PDF downloader and the static resolver
+			client.getOptions().setProxyConfig(new ProxyConfig(this.proxyHost, this.proxyPort));
+		}
+		if (this.limiter != null) {
+			new RateLimitedWebConnection(client, this.limiter);
+		}
+		if (this.requestRules != null) {
+			// on top of the rate limiter, s.t. blocked requests don't wait
+			new RequestFilter(client, this.requestRules);
+		}
+		if (javaScript) {
+			this.javaScriptProfile.apply(client);
+		}
+		return client;
+	}
+
+}
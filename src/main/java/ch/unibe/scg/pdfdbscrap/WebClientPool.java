@@ -0,0 +1,357 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import static ch.unibe.scg.pdfdbscrap.Main.printError;
+import com.gargoylesoftware.htmlunit.History;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.TopLevelWindow;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebWindow;
+import com.gargoylesoftware.htmlunit.WebWindowEvent;
+import com.gargoylesoftware.htmlunit.WebWindowListener;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of pre-configured web client pairs (with disabled, and enabled
+ * JavaScript), all of the same browser (version). Pairs are checked out per
+ * BibTeX entry, and reset when returned to the pool: pending JavaScript jobs of
+ * all windows (incl. frames) are removed, extra windows are closed, and the
+ * current window is cleared along with its history. A pair gets recycled (i.e.
+ * closed and replaced by a fresh one) after a number of loaded pages, or once
+ * the retained memory (the heap in use after the last garbage collection)
+ * exceeds some threshold, since HtmlUnit tends to hold on to more and more
+ * over long runs. The retained memory is only updated by a garbage collection,
+ * hence at most one pair is recycled due to memory per garbage collection.
+ */
+public class WebClientPool implements AutoCloseable {
+
+	/**
+	 * Default max. number of pages loaded by a pair before it gets recycled.
+	 */
+	public final static int DEFAULT_MAX_PAGES = 200;
+
+	/**
+	 * Default max. retained memory as fraction of the max. heap size before
+	 * pairs get recycled.
+	 */
+	public final static double DEFAULT_MAX_RETAINED_FRACTION = 0.5;
+
+	private final WebClientFactory factory;
+	private final int maxPages;
+	private final long maxRetainedBytes;
+	private final Deque<ClientPair> idle;
+	private int numActive;
+	private int numCreated;
+	private int numRecycled;
+	private long numCollectionsAtRecycle;
+	private boolean closed;
+
+	/**
+	 * Creates a new web client pool with default recycling settings.
+	 *
+	 * @param factory the web client factory.
+	 * @param numPrewarmed the number of pairs to create right away.
+	 */
+	public WebClientPool(WebClientFactory factory, int numPrewarmed) {
+		this(
+				factory,
+				numPrewarmed,
+				DEFAULT_MAX_PAGES,
+				(long) (Runtime.getRuntime().maxMemory() * DEFAULT_MAX_RETAINED_FRACTION)
+		);
+	}
+
+	/**
+	 * Creates a new web client pool.
+	 *
+	 * @param factory the web client factory.
+	 * @param numPrewarmed the number of pairs to create right away.
+	 * @param maxPages the max. number of pages loaded by a pair before it gets
+	 * recycled, or {@code 0} to never recycle a pair based on the number of
+	 * pages.
+	 * @param maxRetainedBytes the max. retained memory in bytes before pairs
+	 * get recycled, or {@code 0} to never recycle a pair based on the retained
+	 * memory.
+	 */
+	public WebClientPool(WebClientFactory factory, int numPrewarmed, int maxPages, long maxRetainedBytes) {
+		this.factory = factory;
+		this.maxPages = maxPages;
+		this.maxRetainedBytes = maxRetainedBytes;
+		this.idle = new ArrayDeque<>();
+		this.numCollectionsAtRecycle = -1;
+		for (int i = 0; i < numPrewarmed; i++) {
+			this.idle.push(newClientPair());
+		}
+	}
+
+	/**
+	 * Returns the browser (version) of the pooled web clients.
+	 *
+	 * @return the browser (version) of the pooled web clients.
+	 */
+	public Browser getBrowser() {
+		return this.factory.getBrowser();
+	}
+
+	/**
+	 * Returns the number of checked out pairs.
+	 *
+	 * @return the number of checked out pairs.
+	 */
+	public synchronized int getNumActive() {
+		return this.numActive;
+	}
+
+	/**
+	 * Returns the number of idle pairs.
+	 *
+	 * @return the number of idle pairs.
+	 */
+	public synchronized int getNumIdle() {
+		return this.idle.size();
+	}
+
+	/**
+	 * Returns the number of pairs created so far.
+	 *
+	 * @return the number of pairs created so far.
+	 */
+	public synchronized int getNumCreated() {
+		return this.numCreated;
+	}
+
+	/**
+	 * Returns the number of pairs recycled so far.
+	 *
+	 * @return the number of pairs recycled so far.
+	 */
+	public synchronized int getNumRecycled() {
+		return this.numRecycled;
+	}
+
+	/**
+	 * Checks out a pair of web clients. An idle pair is reused if available,
+	 * otherwise a new one is created.
+	 *
+	 * @return a pair of web clients.
+	 */
+	public ClientPair acquire() {
+		synchronized (this) {
+			if (this.closed) {
+				throw new IllegalStateException("web client pool is closed");
+			}
+			this.numActive++;
+			final ClientPair pair = this.idle.poll();
+			if (pair != null) {
+				return pair;
+			}
+		}
+		return newClientPair();
+	}
+
+	/**
+	 * Returns a pair of web clients to the pool. The pair gets either reset
+	 * and kept for reuse, or recycled.
+	 *
+	 * @param pair the pair of web clients.
+	 */
+	public void release(ClientPair pair) {
+		final boolean keep = !isExhausted(pair) && reset(pair);
+		synchronized (this) {
+			this.numActive--;
+			if (keep && !this.closed) {
+				this.idle.push(pair);
+				return;
+			}
+			if (!this.closed) {
+				this.numRecycled++;
+			}
+		}
+		pair.close();
+	}
+
+	private boolean isExhausted(ClientPair pair) {
+		if (this.maxPages > 0 && pair.getNumPages() >= this.maxPages) {
+			return true;
+		}
+		return this.maxRetainedBytes > 0 && isMemoryExhausted();
+	}
+
+	private synchronized boolean isMemoryExhausted() {
+		final long n = getNumCollections();
+		if (n <= this.numCollectionsAtRecycle) {
+			// no garbage collection since the last recycled pair; the retained
+			// memory is still the same
+			return false;
+		}
+		if (getRetainedBytes() <= this.maxRetainedBytes) {
+			return false;
+		}
+		this.numCollectionsAtRecycle = n;
+		return true;
+	}
+
+	/**
+	 * Returns the total number of garbage collections so far.
+	 *
+	 * @return the total number of garbage collections.
+	 */
+	public static long getNumCollections() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionCount());
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the retained heap memory, that is the heap memory in use after
+	 * the last garbage collection.
+	 *
+	 * @return the retained heap memory in bytes.
+	 */
+	public static long getRetainedBytes() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) {
+				continue;
+			}
+			final MemoryUsage usage = pool.getCollectionUsage();
+			if (usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+
+	private ClientPair newClientPair() {
+		final ClientPair pair = new ClientPair(
+				this.factory.newWebClient(false),
+				this.factory.newWebClient(true)
+		);
+		synchronized (this) {
+			this.numCreated++;
+		}
+		return pair;
+	}
+
+	private static boolean reset(ClientPair pair) {
+		try {
+			reset(pair.client);
+			reset(pair.jsclient);
+			return true;
+		} catch (IOException | RuntimeException ex) {
+			printError(ex, "WARNING: failed to reset web client, recycling it");
+			return false;
+		}
+	}
+
+	private static void reset(WebClient client) throws IOException {
+		JavaScriptProfile.stopJobs(client);
+		final List<TopLevelWindow> windows = new ArrayList<>(client.getTopLevelWindows());
+		for (int i = windows.size() - 1; i > 0; i--) {
+			windows.get(i).close();
+		}
+		final WebWindow window = client.getCurrentWindow();
+		client.getPage(window, new WebRequest(WebClient.URL_ABOUT_BLANK));
+		final History history = window.getHistory();
+		for (int i = history.getLength(); i > 0; i--) {
+			history.removeCurrent();
+		}
+	}
+
+	@Override
+	public void close() {
+		final List<ClientPair> pairs;
+		synchronized (this) {
+			this.closed = true;
+			pairs = new ArrayList<>(this.idle);
+			this.idle.clear();
+		}
+		for (ClientPair pair : pairs) {
+			pair.close();
+		}
+	}
+
+	/**
+	 * A pair of web clients; one with disabled, the other one with enabled
+	 * JavaScript.
+	 */
+	public static class ClientPair implements AutoCloseable {
+
+		/**
+		 * The web client with disabled JavaScript.
+		 */
+		public final WebClient client;
+
+		/**
+		 * The web client with enabled JavaScript.
+		 */
+		public final WebClient jsclient;
+
+		private final AtomicInteger numPages;
+
+		/**
+		 * Creates a new pair of web clients.
+		 *
+		 * @param client the web client with disabled JavaScript.
+		 * @param jsclient the web client with enabled JavaScript.
+		 */
+		public ClientPair(WebClient client, WebClient jsclient) {
+			this.client = client;
+			this.jsclient = jsclient;
+			this.numPages = new AtomicInteger();
+			final WebWindowListener listener = new WebWindowListener() {
+				@Override
+				public void webWindowOpened(WebWindowEvent event) {
+				}
+
+				@Override
+				public void webWindowContentChanged(WebWindowEvent event) {
+					// top-level navigations only; neither frames, nor the
+					// blank page of a reset
+					final Page page = event.getNewPage();
+					if (event.getWebWindow() instanceof TopLevelWindow
+							&& page != null
+							&& !WebClient.URL_ABOUT_BLANK.toString().equals(page.getUrl().toString())) {
+						numPages.incrementAndGet();
+					}
+				}
+
+				@Override
+				public void webWindowClosed(WebWindowEvent event) {
+				}
+			};
+			client.addWebWindowListener(listener);
+			jsclient.addWebWindowListener(listener);
+		}
+
+		/**
+		 * Returns the number of pages loaded by both web clients (in top-level
+		 * windows, not counting blank pages).
+		 *
+		 * @return the number of pages loaded by both web clients.
+		 */
+		public int getNumPages() {
+			return this.numPages.get();
+		}
+
+		@Override
+		public void close() {
+			this.client.close();
+			this.jsclient.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,145 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Process-wide cache of compiled XPath expressions. Each XPath expression (of
+ * the scrap(ing) configurations, or the {@code --xpath} option) is compiled
+ * once, at startup or on first use, instead of once per BibTeX entry, and
+ * invalid ones are reported before the first BibTeX entry gets processed.
+ *
+ * <p>
+ * HtmlUnit doesn't expose compiled XPath expressions (it reparses the
+ * expression with every call of {@code getFirstByXPath}), so simple anchor
+ * expressions (see {@code AnchorExpression}) are compiled into an anchor
+ * matcher that runs over the anchors of a page, without any XPath machinery.
+ * All other expressions are only validated, and still evaluated by HtmlUnit.
+ * </p>
+ */
+public class XPathCache {
+
+	private final static ConcurrentMap<String, CompiledXPath> CACHE = new ConcurrentHashMap<>();
+	private final static XPathFactory FACTORY = XPathFactory.newInstance();
+
+	private XPathCache() {
+		// static only
+	}
+
+	/**
+	 * Returns the compiled XPath expression, and compiles it first if not
+	 * cached yet.
+	 *
+	 * @param xpath the XPath expression.
+	 * @return the compiled XPath expression.
+	 * @throws IllegalArgumentException if the XPath expression is invalid.
+	 */
+	public static CompiledXPath compile(String xpath) {
+		CompiledXPath compiled = CACHE.get(xpath);
+		if (compiled == null) {
+			validate(xpath);
+			compiled = new CompiledXPath(xpath, AnchorExpression.parse(xpath));
+			final CompiledXPath previous = CACHE.putIfAbsent(xpath, compiled);
+			if (previous != null) {
+				compiled = previous;
+			}
+		}
+		return compiled;
+	}
+
+	private static void validate(String xpath) {
+		try {
+			synchronized (FACTORY) {
+				FACTORY.newXPath().compile(xpath);
+			}
+		} catch (XPathExpressionException ex) {
+			throw new IllegalArgumentException("invalid XPath expression: " + xpath, ex);
+		}
+	}
+
+	/**
+	 * Returns the number of cached XPath expressions.
+	 *
+	 * @return the number of cached XPath expressions.
+	 */
+	public static int size() {
+		return CACHE.size();
+	}
+
+	/**
+	 * Evaluates an XPath expression on a page.
+	 *
+	 * @param <T> the type of the node.
+	 * @param page the page.
+	 * @param xpath the XPath expression.
+	 * @return the first matching node, or {@code null}.
+	 * @throws IllegalArgumentException if the XPath expression is invalid.
+	 */
+	public static <T> T getFirstByXPath(HtmlPage page, String xpath) {
+		return compile(xpath).getFirst(page);
+	}
+
+	/**
+	 * Compiled XPath expression.
+	 */
+	public static class CompiledXPath {
+
+		private final String xpath;
+		private final AnchorExpression anchorExpression;
+
+		private CompiledXPath(String xpath, AnchorExpression anchorExpression) {
+			this.xpath = xpath;
+			this.anchorExpression = anchorExpression;
+		}
+
+		/**
+		 * Returns the XPath expression.
+		 *
+		 * @return the XPath expression.
+		 */
+		public String getXPath() {
+			return this.xpath;
+		}
+
+		/**
+		 * Returns the anchor expression, if this is a simple anchor
+		 * expression.
+		 *
+		 * @return the anchor expression, or {@code null}.
+		 */
+		public AnchorExpression getAnchorExpression() {
+			return this.anchorExpression;
+		}
+
+		/**
+		 * Evaluates the XPath expression on a page.
+		 *
+		 * @param <T> the type of the node.
+		 * @param page the page.
+		 * @return the first matching node, or {@code null}.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T getFirst(HtmlPage page) {
+			if (this.anchorExpression == null) {
+				return page.getFirstByXPath(this.xpath);
+			}
+			for (HtmlAnchor anchor : page.getAnchors()) {
+				if (this.anchorExpression.matches(anchor)) {
+					return (T) anchor;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return this.xpath;
+		}
+
+	}
+
+}
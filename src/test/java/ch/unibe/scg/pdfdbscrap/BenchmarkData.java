@@ -0,0 +1,132 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Synthetic data and fixtures shared by the JMH benchmarks.
+ */
+public class BenchmarkData {
+
+	/**
+	 * Sample URLs of BibTeX entries, covering all databases.
+	 */
+	public final static String[] URLS = {
+		"http://dl.acm.org/citation.cfm?id=3001234",
+		"http://doi.acm.org/10.1145/3001234.3001240",
+		"http://dx.doi.org/10.1109/ICSE.2017.12",
+		"http://ieeexplore.ieee.org/document/7000000/",
+		"http://www.sciencedirect.com/science/article/pii/S0164121216301234",
+		"http://link.springer.com/chapter/10.1007/978-3-319-00000-0_1",
+		"http://www.example.org/papers/paper.pdf",
+		"https://arxiv.org/abs/1701.00001"
+	};
+
+	/**
+	 * Creates a synthetic BibTeX file.
+	 *
+	 * @param numEntries the number of BibTeX entries.
+	 * @return the BibTeX file contents.
+	 */
+	public static String newBibTeX(int numEntries) {
+		final StringBuilder sb = new StringBuilder(numEntries * 600);
+		sb.append("% synthetic BibTeX file\n");
+		sb.append("@string{acm = \"ACM\"}\n");
+		sb.append("@string{ieee = \"IEEE\"}\n\n");
+		for (int i = 0; i < numEntries; i++) {
+			final String url = URLS[i % URLS.length];
+			sb.append(String.format(
+					"@inproceedings{Doe:%d:%s,\n"
+					+ " author = {Doe, Jane and M{\\\"u}ller, Hans and Smith, John},\n"
+					+ " title = {On the {S}crap(ing) of Things, Part %d},\n"
+					+ " booktitle = {Proceedings of the %dth Conference on Stuff},\n"
+					+ " series = {CoS '%02d},\n"
+					+ " year = {%d},\n"
+					+ " pages = {%d--%d},\n"
+					+ " publisher = %s,\n"
+					+ " keywords = {scraping, bibtex, pdf, benchmarks},\n"
+					+ " doi = {10.1145/%d},\n"
+					+ " url = {%s%s%d},\n"
+					+ "}\n\n",
+					i, (i % 3 == 0) ? "sub/key+1" : "key",
+					i,
+					i % 50,
+					i % 100,
+					1990 + (i % 30),
+					i, i + 11,
+					(i % 2 == 0) ? "acm" : "ieee",
+					100000 + i,
+					url, url.contains("?") ? "&x=" : "#", i
+			));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses BibTeX entries.
+	 *
+	 * @param bibtex the BibTeX file contents.
+	 * @return the BibTeX entries.
+	 * @throws IOException
+	 */
+	public static List<BibTeXEntry> parseEntries(String bibtex) throws IOException {
+		final List<BibTeXEntry> entries = new ArrayList<>();
+		try (BibTeXEntrySource source = new BibTeXEntrySource(new StringReader(bibtex))) {
+			BibTeXEntry e;
+			while ((e = source.next()) != null) {
+				entries.add(e);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads an HTML fixture (a stored web page of a database).
+	 *
+	 * @param db the database.
+	 * @return the HTML fixture.
+	 * @throws IOException
+	 */
+	public static String readFixture(PDFDatabase db) throws IOException {
+		final String name = "/fixtures/" + db.name().toLowerCase() + ".html";
+		try (InputStream is = BenchmarkData.class.getResourceAsStream(name)) {
+			if (is == null) {
+				throw new IOException("no such fixture: " + name);
+			}
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Returns the URL of an HTML fixture (i.e. where it would have been
+	 * fetched from).
+	 *
+	 * @param db the database.
+	 * @return the URL of the HTML fixture.
+	 */
+	public static String getFixtureURL(PDFDatabase db) {
+		switch (db) {
+			case ACM:
+				return "http://dl.acm.org/citation.cfm?id=3001234";
+			case IEEE:
+				return "http://ieeexplore.ieee.org/document/7000000/";
+			case SCIENCEDIRECT:
+				return "http://www.sciencedirect.com/science/article/pii/S0000000000000000";
+			default:
+				return "http://www.example.org/";
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.StringReader;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Streaming BibTeX entry source tests.
+ */
+public class BibTeXEntrySourceTest {
+
+	public final static String BIBTEX = ""
+			+ "% some comment with no at-sign\n"
+			+ "@string{acm = \"ACM Press\"}\n"
+			+ "@comment{jabref-meta: whatever}\n"
+			+ "@article{a1, title={A {(nested)} title}, publisher = acm, url={http://dl.acm.org/a1}}\n"
+			+ "@inproceedings{a2, title=\"B (y)\", crossref={conf}}\n"
+			+ "@preamble{\"\\newcommand{\\x}{x}\"}\n"
+			+ "@article{a3, title={C}, url={http://ieeexplore.ieee.org/document/3/}}\n";
+
+	@Test
+	public void streamEntries() throws Exception {
+		try (BibTeXEntrySource source = new BibTeXEntrySource(new StringReader(BIBTEX))) {
+			final BibTeXEntry a1 = source.next();
+			assertEquals("a1", a1.getKey().toString());
+			assertEquals("ACM Press", a1.getField(BibTeXEntry.KEY_PUBLISHER).toUserString());
+			assertEquals("http://dl.acm.org/a1", EntryScraper.getURL(a1));
+			assertEquals(1, source.getNumEntries());
+
+			final BibTeXEntry a2 = source.next();
+			assertEquals("a2", a2.getKey().toString());
+			assertEquals("B (y)", a2.getField(new Key("title")).toUserString());
+			assertEquals(2, source.getNumEntries());
+
+			final BibTeXEntry a3 = source.next();
+			assertEquals("a3", a3.getKey().toString());
+			assertEquals(3, source.getNumEntries());
+
+			assertNull(source.next());
+			assertEquals(3, source.getNumEntries());
+		}
+	}
+
+	@Test
+	public void skipEntries() throws Exception {
+		try (BibTeXEntrySource source = new BibTeXEntrySource(new StringReader(BIBTEX))) {
+			assertTrue(source.skip());
+			assertTrue(source.skip());
+			assertEquals(2, source.getNumEntries());
+			assertEquals("a3", source.next().getKey().toString());
+			assertFalse(source.skip());
+		}
+	}
+
+}
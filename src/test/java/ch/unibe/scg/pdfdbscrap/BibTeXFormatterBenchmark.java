@@ -0,0 +1,108 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXDatabase;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.BibTeXFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * BibTeX output benchmark. Formats BibTeX entries the way
+ * {@code Main.writeBibTeXEntries} does: into a discarding writer (CPU only),
+ * and into an actual file. And entry by entry, the way the streaming
+ * {@code ScrapResults} does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class BibTeXFormatterBenchmark {
+
+	@Param({"1000"})
+	public int numEntries;
+
+	private List<BibTeXEntry> entries;
+	private File file;
+	private File directory;
+
+	@Setup
+	public void setUp() throws IOException {
+		entries = BenchmarkData.parseEntries(BenchmarkData.newBibTeX(numEntries));
+		file = File.createTempFile("pdfdbscrap-benchmark-", ".bib");
+		directory = file.getParentFile();
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long format() throws IOException {
+		final BibTeXDatabase database = new BibTeXDatabase();
+		for (BibTeXEntry entry : entries) {
+			database.addObject(entry);
+		}
+		final CountingWriter writer = new CountingWriter();
+		new BibTeXFormatter().format(database, writer);
+		return writer.count;
+	}
+
+	@Benchmark
+	public long writeBibTeXEntries() {
+		Main.writeBibTeXEntries(entries, file);
+		return file.length();
+	}
+
+	@Benchmark
+	public long streamResults() {
+		final ScrapResults results = new ScrapResults(file, directory);
+		for (BibTeXEntry entry : entries) {
+			results.put(ScrapStatus.SUCCESS, entry);
+		}
+		results.close();
+		final File dbfile = results.getFile(ScrapStatus.SUCCESS);
+		final long n = dbfile.length();
+		dbfile.delete();
+		return n;
+	}
+
+	/**
+	 * Writer that just counts the number of characters written.
+	 */
+	private static class CountingWriter extends Writer {
+
+		private long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
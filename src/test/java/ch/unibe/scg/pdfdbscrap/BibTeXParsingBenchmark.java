@@ -0,0 +1,70 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXDatabase;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.BibTeXParser;
+import org.jbibtex.Key;
+import org.jbibtex.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * BibTeX parsing benchmark. Parses large synthetic BibTeX files, either as a
+ * whole database, or streamed one entry at a time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class BibTeXParsingBenchmark {
+
+	@Param({"1000", "10000"})
+	public int numEntries;
+
+	private String bibtex;
+
+	@Setup
+	public void setUp() {
+		bibtex = BenchmarkData.newBibTeX(numEntries);
+	}
+
+	@Benchmark
+	public BibTeXDatabase parseDatabase() throws ParseException {
+		final BibTeXParser parser = new BibTeXParser() {
+			@Override
+			public void checkCrossReferenceResolution(Key key, BibTeXEntry entry) {
+			}
+		};
+		return parser.parse(new StringReader(bibtex));
+	}
+
+	@Benchmark
+	public int streamEntries(Blackhole bh) throws IOException {
+		try (BibTeXEntrySource source = new BibTeXEntrySource(new StringReader(bibtex))) {
+			BibTeXEntry e;
+			while ((e = source.next()) != null) {
+				bh.consume(e);
+			}
+			return source.getNumEntries();
+		}
+	}
+
+	@Benchmark
+	public int skipEntries() throws IOException {
+		try (BibTeXEntrySource source = new BibTeXEntrySource(new StringReader(bibtex))) {
+			while (source.skip()) {
+			}
+			return source.getNumEntries();
+		}
+	}
+
+}
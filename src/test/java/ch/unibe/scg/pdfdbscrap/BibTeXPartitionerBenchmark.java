@@ -0,0 +1,85 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXDatabase;
+import org.jbibtex.BibTeXEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * BibTeX partitioning benchmark. Partitions a large synthetic (merged) BibTeX
+ * file by database: parsed, collected in memory, and formatted again (the way
+ * the {@code --partition} option used to), or streamed raw by the
+ * {@code BibTeXPartitioner} with a given number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class BibTeXPartitionerBenchmark {
+
+	@Param({"10000"})
+	public int numEntries;
+
+	@Param({"1", "4"})
+	public int numThreads;
+
+	private File directory;
+	private File input;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("pdfdbscrap-benchmark-").toFile();
+		input = new File(directory, "merged.bib");
+		Files.write(input.toPath(), BenchmarkData.newBibTeX(numEntries).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public int parseAndFormat() throws IOException {
+		final BibTeXDatabase[] partitions = new BibTeXDatabase[PDFDatabase.values().length];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new BibTeXDatabase();
+		}
+		try (BibTeXEntrySource source = new BibTeXEntrySource(input)) {
+			BibTeXEntry e;
+			while ((e = source.next()) != null) {
+				final String url = EntryScraper.getURL(e);
+				final PDFDatabase db = url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
+				partitions[db.ordinal()].addObject(e);
+			}
+		}
+		for (PDFDatabase db : PDFDatabase.values()) {
+			Main.writeBibTeXDatabase(
+					partitions[db.ordinal()],
+					new File(directory, Main.getBibTeXFilename(input, db))
+			);
+		}
+		return partitions[0].getEntries().size();
+	}
+
+	@Benchmark
+	public int stream() throws IOException {
+		final BibTeXPartitioner partitioner = new BibTeXPartitioner(input, directory, numThreads);
+		partitioner.partition();
+		return partitioner.getNumEntries();
+	}
+
+}
@@ -0,0 +1,97 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.jbibtex.BibTeXEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Streaming BibTeX partitioner tests.
+ */
+public class BibTeXPartitionerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void rawURL() {
+		assertEquals("http://dl.acm.org/a1", BibTeXPartitioner.getURL(
+				"@article{a1, title={A {(nested)}, title}, URL = {http://dl.acm.org/a1}}"
+		));
+		assertEquals("http://x.org/{y}", BibTeXPartitioner.getURL(
+				"@article(a2,\n year = 2001,\n url = \"http://x.org/{y}\"\n)"
+		));
+		assertEquals("", BibTeXPartitioner.getURL("@article{a3, title={No URL}, urls={x},}"));
+		// @string reference, and concatenation: needs to be parsed
+		assertNull(BibTeXPartitioner.getURL("@article{a4, url = acmdl}"));
+		assertNull(BibTeXPartitioner.getURL("@article{a5, url = {http://} # host}"));
+		assertNull(BibTeXPartitioner.getURL("@article{a6, url = {http://unbalanced"));
+	}
+
+	@Test
+	public void partition() throws Exception {
+		final String bibtex = BenchmarkData.newBibTeX(1000)
+				+ "@string{acmdl = \"http://dl.acm.org/\"}\n"
+				+ "@article{late, url = acmdl # \"late\"}\n"
+				+ "@comment{not copied}\n";
+		final File input = folder.newFile("merged.bib");
+		Files.write(input.toPath(), bibtex.getBytes(StandardCharsets.UTF_8));
+
+		// expected: parsed and classified one by one
+		final int[] expected = new int[PDFDatabase.values().length];
+		final List<List<String>> keys = new ArrayList<>();
+		for (PDFDatabase db : PDFDatabase.values()) {
+			keys.add(new ArrayList<>());
+		}
+		for (BibTeXEntry e : BenchmarkData.parseEntries(bibtex)) {
+			final String url = EntryScraper.getURL(e);
+			final PDFDatabase db = url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url);
+			expected[db.ordinal()]++;
+			keys.get(db.ordinal()).add(e.getKey().toString());
+		}
+		assertEquals("late", keys.get(PDFDatabase.ACM.ordinal()).get(expected[PDFDatabase.ACM.ordinal()] - 1));
+
+		final BibTeXPartitioner sequential = new BibTeXPartitioner(input, folder.newFolder("sequential"), 1);
+		sequential.partition();
+		final BibTeXPartitioner parallel = new BibTeXPartitioner(input, folder.newFolder("parallel"), 4);
+		parallel.partition();
+		assertEquals(1001, sequential.getNumEntries());
+		assertEquals(1001, parallel.getNumEntries());
+
+		for (PDFDatabase db : PDFDatabase.values()) {
+			final int n = expected[db.ordinal()];
+			assertEquals(db.name(), n, sequential.getNumEntries(db));
+			assertEquals(db.name(), n, parallel.getNumEntries(db));
+			final File file = sequential.getFile(db);
+			if (n == 0) {
+				assertFalse(file.exists());
+				continue;
+			}
+			assertEquals(read(file), read(parallel.getFile(db)));
+			assertFalse(read(file).contains("not copied"));
+
+			// same entries, in the same order, and @string references resolve
+			final List<BibTeXEntry> entries = BenchmarkData.parseEntries(read(file));
+			assertEquals(n, entries.size());
+			for (int i = 0; i < n; i++) {
+				final BibTeXEntry e = entries.get(i);
+				assertEquals(keys.get(db.ordinal()).get(i), e.getKey().toString());
+				final String url = EntryScraper.getURL(e);
+				assertEquals(db, url.isEmpty() ? PDFDatabase.UNKNOWN : PDFDatabase.getPDFDatabase(url));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.StringValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Concurrent scrap(ing) scheduler tests.
+ */
+public class ConcurrentSchedulerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static BibTeXEntry newEntry(PDFDatabase db, int id) {
+		final BibTeXEntry e = new BibTeXEntry(BibTeXEntry.TYPE_ARTICLE, new Key(db.name() + id));
+		e.addField(BibTeXEntry.KEY_URL, new StringValue(MockPublisherServer.getURL(db, id), StringValue.Style.BRACED));
+		return e;
+	}
+
+	@Test
+	public void submitBlocksOnMaxInFlight() throws Exception {
+		final File out = folder.newFolder("out");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger numScraped = new AtomicInteger();
+		final AtomicInteger numScrapedIEEE = new AtomicInteger();
+		try (ScrapResults results = new ScrapResults(new File(folder.getRoot(), "input.bib"), out);
+				WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 2)) {
+			final EntryScraper scraper = new EntryScraper(
+					ScrapMode.AUTO,
+					Collections.EMPTY_LIST,
+					IDCreator.ENTRY_NUMBER,
+					out,
+					results,
+					new PDFDownloader(null, new DirectBufferPool()),
+					1,
+					0
+			) {
+				@Override
+				public ScrapStatus scrap(BibTeXEntry e, int num, WebClient client, WebClient jsclient) {
+					if (PDFDatabase.ACM.equals(PDFDatabase.getPDFDatabase(EntryScraper.getURL(e)))) {
+						// a slow database
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					} else {
+						numScrapedIEEE.incrementAndGet();
+					}
+					numScraped.incrementAndGet();
+					return ScrapStatus.FAILURE_NO_BIBTEX_URL;
+				}
+			};
+
+			// a single worker per database, and up to three entries in flight
+			final ConcurrentScheduler scheduler = new ConcurrentScheduler(scraper, pool, 1, 3);
+			final AtomicInteger numSubmitted = new AtomicInteger();
+			final Thread reader = new Thread(() -> {
+				for (int i = 1; i <= 2; i++) {
+					scheduler.submit(newEntry(PDFDatabase.ACM, i), i);
+					numSubmitted.incrementAndGet();
+				}
+				// the slow database doesn't block the entries of others
+				for (int i = 3; i <= 10; i++) {
+					scheduler.submit(newEntry(PDFDatabase.IEEE, i), i);
+					numSubmitted.incrementAndGet();
+				}
+				for (int i = 11; i <= 12; i++) {
+					scheduler.submit(newEntry(PDFDatabase.ACM, i), i);
+					numSubmitted.incrementAndGet();
+				}
+			});
+			reader.start();
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (numSubmitted.get() < 11 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			reader.join(500);
+			assertTrue(reader.isAlive());
+			assertEquals(11, numSubmitted.get());
+			assertEquals(8, numScrapedIEEE.get());
+
+			release.countDown();
+			reader.join(10000);
+			assertFalse(reader.isAlive());
+			scheduler.awaitCompletion();
+			assertEquals(12, numScraped.get());
+		}
+	}
+
+	@Test
+	public void failedEntryIsJournalled() throws Exception {
+		final File out = folder.newFolder("out");
+		final File file = new File(out, "input-journal.tsv");
+		try (ScrapResults results = new ScrapResults(new File(folder.getRoot(), "input.bib"), out);
+				WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 1);
+				JobJournal journal = new JobJournal(file)) {
+			final EntryScraper scraper = new EntryScraper(
+					ScrapMode.AUTO,
+					Collections.EMPTY_LIST,
+					IDCreator.ENTRY_NUMBER,
+					out,
+					results,
+					new PDFDownloader(null, new DirectBufferPool()),
+					1,
+					0
+			) {
+				@Override
+				public ScrapStatus scrap(BibTeXEntry e, int num, WebClient client, WebClient jsclient) {
+					throw new IllegalStateException("unexpected failure");
+				}
+			};
+			scraper.setJournal(journal);
+
+			final ConcurrentScheduler scheduler = new ConcurrentScheduler(scraper, pool, 1);
+			scheduler.submit(new BibTeXEntry(BibTeXEntry.TYPE_ARTICLE, new Key("k1")), 1);
+			scheduler.awaitCompletion();
+		}
+
+		final JobJournal.Record record = JobJournal.read(file).get(1);
+		assertEquals(ScrapStatus.FAILURE_IO_INPUTSTREAM, record.status);
+		assertTrue(record.status.isRetryable());
+		assertTrue(new File(ScrapStatus.FAILURE_IO_INPUTSTREAM.getStatusDirectory(out), "1.bib").exists());
+	}
+
+}
@@ -0,0 +1,107 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * DOI resolver tests.
+ */
+public class DOIResolverTest {
+
+	private MockPublisherServer server;
+	private WebClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockPublisherServer();
+		client = new WebClientFactory(Browser.CHROME, null, "127.0.0.1", server.getPort())
+				.newWebClient(false);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void parseDOI() {
+		assertEquals("10.1145/42", DOIResolver.getDOI("http://dx.doi.org/10.1145/42"));
+		assertEquals("10.1109/ICSE.2019.00012", DOIResolver.getDOI("https://doi.org/10.1109/ICSE.2019.00012"));
+		assertEquals("10.1145", DOIResolver.getPrefix("10.1145/3338906.3338940"));
+		assertNull(DOIResolver.getDOI("http://dx.doi.org/10.1145/"));
+		assertNull(DOIResolver.getDOI("http://dx.doi.org/"));
+	}
+
+	@Test
+	public void resolve() throws Exception {
+		final DOIResolver resolver = new DOIResolver(null);
+
+		// headers only, and never the web page of the publisher
+		assertEquals(
+				MockPublisherServer.getURL(PDFDatabase.ACM, 2),
+				resolver.resolve(client, MockPublisherServer.getURL(PDFDatabase.DOI, 2))
+		);
+		assertEquals(
+				MockPublisherServer.getURL(PDFDatabase.IEEE, 3),
+				resolver.resolve(client, MockPublisherServer.getURL(PDFDatabase.DOI, 3))
+		);
+		assertEquals(2, server.getNumRequests(MockPublisherServer.DOI_HOST));
+		assertEquals(0, server.getNumRequests(MockPublisherServer.ACM_HOST));
+		assertEquals(0, server.getNumRequests(MockPublisherServer.IEEE_HOST));
+		assertEquals(PDFDatabase.ACM, resolver.getPrefixes().get("10.1145"));
+		assertEquals(PDFDatabase.IEEE, resolver.getPrefixes().get("10.1109"));
+
+		// the URL template is confirmed by the next DOI of the same prefix...
+		assertEquals(
+				MockPublisherServer.getURL(PDFDatabase.ACM, 4),
+				resolver.resolve(client, MockPublisherServer.getURL(PDFDatabase.DOI, 4))
+		);
+		assertEquals(3, server.getNumRequests(MockPublisherServer.DOI_HOST));
+
+		// ...and then used without any request
+		for (int id = 6; id < 16; id += 2) {
+			assertEquals(
+					MockPublisherServer.getURL(PDFDatabase.ACM, id),
+					resolver.resolve(client, MockPublisherServer.getURL(PDFDatabase.DOI, id))
+			);
+		}
+		assertEquals(3, server.getNumRequests(MockPublisherServer.DOI_HOST));
+		assertEquals(3, resolver.getNumRequests());
+		assertEquals(5, resolver.getNumRewrites());
+	}
+
+	@Test
+	public void resolveUnknown() throws Exception {
+		final DOIResolver resolver = new DOIResolver(null);
+		final String url = "http://" + MockPublisherServer.DOI_HOST + "/10.9999/42";
+		assertEquals(url, resolver.resolve(client, url));
+		final String other = MockPublisherServer.getURL(PDFDatabase.UNKNOWN, 42);
+		assertEquals(other, resolver.resolve(client, other));
+		assertEquals(1, server.getNumRequests());
+	}
+
+	@Test
+	public void resolveMixedPrefix() throws Exception {
+		final DOIResolver resolver = new DOIResolver(null);
+		final String prefix = "http://" + MockPublisherServer.DOI_HOST + "/10.5555/";
+
+		// a DOI redirected to an unknown host doesn't give up on the prefix...
+		assertEquals(prefix + 1, resolver.resolve(client, prefix + 1));
+		assertEquals(MockPublisherServer.getURL(PDFDatabase.ACM, 2), resolver.resolve(client, prefix + 2));
+		assertEquals(2, server.getNumRequests(MockPublisherServer.DOI_HOST));
+
+		// ...unless a few DOIs in a row are
+		for (int id = 3; id < 3 + 2 * DOIResolver.MAX_MISSES; id += 2) {
+			assertEquals(prefix + id, resolver.resolve(client, prefix + id));
+		}
+		assertEquals(2 + DOIResolver.MAX_MISSES, server.getNumRequests(MockPublisherServer.DOI_HOST));
+		assertEquals(prefix + 4, resolver.resolve(client, prefix + 4));
+		assertEquals(2 + DOIResolver.MAX_MISSES, server.getNumRequests(MockPublisherServer.DOI_HOST));
+	}
+
+}
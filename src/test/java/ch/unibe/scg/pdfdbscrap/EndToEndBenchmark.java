@@ -0,0 +1,122 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * End-to-end benchmark. Runs the scraper (in a separate JVM) against the mock
+ * publisher server, and reports the throughput in BibTeX entries per minute
+ * for each scrap(ing) mode. The rate limiter is disabled, and the resolution
+ * cache starts out empty for each run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+	private final static int NUM_ENTRIES = 40;
+
+	@Param({"AUTO", "XPATH_ANCHOR", "FRAME_SRC"})
+	public ScrapMode mode;
+
+	@Param({"0", "4"})
+	public int numWorkers;
+
+	@Param({"0", "50"})
+	public long latencyMillis;
+
+	private MockPublisherServer server;
+	private File directory;
+	private File bib;
+	private File out;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new MockPublisherServer();
+		server.setLatency(latencyMillis);
+		directory = Files.createTempDirectory("pdfdbscrap-benchmark-").toFile();
+		bib = new File(directory, "mock.bib");
+		Files.write(bib.toPath(), MockPublisherServer.newBibTeX(NUM_ENTRIES, mode).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		server.close();
+		delete(directory);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpRun() {
+		out = new File(directory, "out");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownRun() throws IOException {
+		delete(out);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ENTRIES)
+	public int scrap() throws IOException, InterruptedException {
+		final List<String> args = new ArrayList<>(Arrays.asList(
+				"--file", bib.getAbsolutePath(),
+				"--out", out.getAbsolutePath(),
+				"--mode", mode.name(),
+				"--proxy", server.getProxy(),
+				"--rate", "0"
+		));
+		if (mode.requiresXPathExpression()) {
+			args.add("--xpath");
+			args.add(MockPublisherServer.getXPath(mode));
+		}
+		if (numWorkers > 0) {
+			args.add("--workers");
+			args.add(Integer.toString(numWorkers));
+		}
+		return MockPublisherServer.runMain(
+				new File(directory, "pdfdbscrap.log"),
+				args.toArray(new String[args.size()])
+		);
+	}
+
+	private static void delete(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+				Files.delete(p);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path p, IOException ex) throws IOException {
+				Files.delete(p);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
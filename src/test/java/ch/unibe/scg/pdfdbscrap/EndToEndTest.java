@@ -0,0 +1,205 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * End-to-end tests. Runs the scraper offline against the mock publisher
+ * server.
+ */
+public class EndToEndTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MockPublisherServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new MockPublisherServer();
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private File run(int numEntries, ScrapMode mode, String... extraArgs) throws Exception {
+		return run(newBibTeXFile(numEntries, mode), "out", mode, extraArgs);
+	}
+
+	private File newBibTeXFile(int numEntries, ScrapMode mode) throws IOException {
+		final File bib = folder.newFile("mock.bib");
+		Files.write(bib.toPath(), MockPublisherServer.newBibTeX(numEntries, mode).getBytes(StandardCharsets.UTF_8));
+		return bib;
+	}
+
+	private File run(File bib, String outName, ScrapMode mode, String... extraArgs) throws Exception {
+		final File out = new File(folder.getRoot(), outName);
+		final File log = File.createTempFile(outName, ".log", folder.getRoot());
+		final List<String> args = new ArrayList<>(Arrays.asList(
+				"--file", bib.getAbsolutePath(),
+				"--out", out.getAbsolutePath(),
+				"--mode", mode.name(),
+				"--proxy", server.getProxy(),
+				"--rate", "0"
+		));
+		if (mode.requiresXPathExpression()) {
+			args.add("--xpath");
+			args.add(MockPublisherServer.getXPath(mode));
+		}
+		args.addAll(Arrays.asList(extraArgs));
+		final int code = MockPublisherServer.runMain(log, args.toArray(new String[args.size()]));
+		assertEquals(0, code);
+		return out;
+	}
+
+	private static int count(File out, ScrapStatus status, String suffix) {
+		final String[] files = status.getStatusDirectory(out).list();
+		int n = 0;
+		if (files != null) {
+			for (String f : files) {
+				if (f.endsWith(suffix)) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	@Test
+	public void scrapAllDatabases() throws Exception {
+		final File out = run(8, ScrapMode.AUTO);
+		assertEquals(8, count(out, ScrapStatus.SUCCESS, ".bib"));
+		assertEquals(8, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		// HtmlUnit loads the PDF files in (IEEE) frames as well
+		assertTrue(server.getNumPDFs() >= 8);
+		assertTrue(server.getNumRequests(MockPublisherServer.DOI_HOST) > 0);
+		assertTrue(server.getNumRequests(MockPublisherServer.IEEE_HOST) > 0);
+
+		final String metrics = new String(
+				Files.readAllBytes(new File(out, ScrapMetrics.DEFAULT_JSON_FILENAME).toPath()),
+				StandardCharsets.UTF_8
+		);
+		assertTrue(metrics.contains("\"entries\": 8,"));
+		assertTrue(new File(out, ScrapMetrics.DEFAULT_PROMETHEUS_FILENAME).exists());
+		assertTrue(new File(out, StrategyStats.DEFAULT_FILENAME).exists());
+	}
+
+	@Test
+	public void pipelined() throws Exception {
+		server.setLatency(20);
+		final File out = run(12, ScrapMode.AUTO, "--pipeline", "2:3");
+		assertEquals(12, count(out, ScrapStatus.SUCCESS, ".bib"));
+		assertEquals(12, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		final File journal = new File(out, JobJournal.getJournalFilename(new File(folder.getRoot(), "mock.bib")));
+		assertEquals(12, JobJournal.read(journal).size());
+	}
+
+	@Test
+	public void shardedAndMerged() throws Exception {
+		final File bib = newBibTeXFile(8, ScrapMode.AUTO);
+		final File out1 = run(bib, "out1", ScrapMode.AUTO, "--shard", "1/2");
+		final File out2 = run(bib, "out2", ScrapMode.AUTO, "--shard", "2/2");
+		final List<String> files = new ArrayList<>(Arrays.asList(ScrapStatus.SUCCESS.getStatusDirectory(out1).list()));
+		final List<String> files2 = Arrays.asList(ScrapStatus.SUCCESS.getStatusDirectory(out2).list());
+		assertTrue(files.size() > 0 && files2.size() > 0);
+		for (String f : files2) {
+			// disjoint, and numbered within the whole BibTeX file
+			assertTrue(f, !files.contains(f));
+		}
+		files.addAll(files2);
+		assertEquals(16, files.size());
+
+		final File merged = new File(folder.getRoot(), "merged");
+		Main.mergeOutputDirectories(bib, Arrays.asList(out1, out2), merged, OutputLayout.FLAT);
+		assertEquals(8, count(merged, ScrapStatus.SUCCESS, ".bib"));
+		assertEquals(8, count(merged, ScrapStatus.SUCCESS, ".pdf"));
+		assertEquals(8, JobJournal.read(new File(merged, JobJournal.getJournalFilename(bib))).size());
+		try (PDFStore store = new PDFStore(new File(merged, PDFStore.DEFAULT_DIRECTORY_NAME))) {
+			assertEquals(8, store.getNumFiles());
+		}
+	}
+
+	@Test
+	public void resumeDuplicateKeys() throws Exception {
+		// duplicate BibTeX keys (e.g. from a merged export); the second one
+		// fails with a (retryable) failing HTTP status code
+		final File bib = folder.newFile("dup.bib");
+		Files.write(bib.toPath(), (
+				"@article{Dup,\n url = {" + MockPublisherServer.getURL(PDFDatabase.ACM, 1) + "},\n}\n\n"
+				+ "@article{Dup,\n url = {" + MockPublisherServer.getURL(PDFDatabase.UNKNOWN, 2) + "},\n}\n"
+		).getBytes(StandardCharsets.UTF_8));
+		final File out = run(bib, "out", ScrapMode.AUTO);
+		assertEquals(1, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		assertEquals(1, count(out, ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE, ".bib"));
+
+		// the first entry is skipped, and keeps its files; the second one is
+		// retried
+		final int numACMRequests = server.getNumRequests(MockPublisherServer.ACM_HOST);
+		final int numRequests = server.getNumRequests();
+		run(bib, "out", ScrapMode.AUTO, "--resume");
+		assertEquals(numACMRequests, server.getNumRequests(MockPublisherServer.ACM_HOST));
+		assertTrue(server.getNumRequests() > numRequests);
+		assertTrue(new File(ScrapStatus.SUCCESS.getStatusDirectory(out), "1_Dup.pdf").exists());
+		assertTrue(new File(ScrapStatus.SUCCESS.getStatusDirectory(out), "1_Dup.bib").exists());
+		assertTrue(new File(ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE.getStatusDirectory(out), "2_Dup.bib").exists());
+		assertEquals(2, JobJournal.read(new File(out, JobJournal.getJournalFilename(bib))).size());
+	}
+
+	@Test
+	public void hashedLayout() throws Exception {
+		final File out = run(8, ScrapMode.AUTO, "--layout", "HASHED");
+		assertEquals(0, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		final File bib = new File(folder.getRoot(), "mock.bib");
+		final File index = new File(out, OutputIndex.getIndexFilename(bib));
+		int n = 0;
+		for (JobJournal.Record record : JobJournal.read(new File(out, JobJournal.getJournalFilename(bib))).values()) {
+			final List<String> paths = OutputIndex.lookup(index, record.key);
+			assertEquals(1, paths.size());
+			assertTrue(paths.get(0).startsWith("SUCCESS/"));
+			assertTrue(new File(out, paths.get(0) + ".pdf").exists());
+			assertTrue(new File(out, paths.get(0) + ".bib").exists());
+			n++;
+		}
+		assertEquals(8, n);
+	}
+
+	@Test
+	public void scrapFrames() throws Exception {
+		// every other frame is injected by JavaScript, half of them by a
+		// timer next to an endless background job
+		final File out = run(4, ScrapMode.FRAME_SRC);
+		assertEquals(4, count(out, ScrapStatus.SUCCESS, ".pdf"));
+	}
+
+	@Test
+	public void bannedAfterRequests() throws Exception {
+		// ACM and ScienceDirect: a landing page and a PDF file per entry
+		server.setBanAfter(2);
+		final File out = run(4, ScrapMode.XPATH_ANCHOR);
+		assertEquals(2, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		assertEquals(2, count(out, ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE, ".bib"));
+	}
+
+	@Test
+	public void truncatedPDFs() throws Exception {
+		server.setTruncateEvery(2);
+		final File out = run(4, ScrapMode.XPATH_ANCHOR);
+		assertEquals(2, count(out, ScrapStatus.SUCCESS, ".pdf"));
+		assertEquals(2, count(out, ScrapStatus.FAILURE_IO_INPUTSTREAM, ".bib"));
+	}
+
+}
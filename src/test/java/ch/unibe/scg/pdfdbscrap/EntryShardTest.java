@@ -0,0 +1,74 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.util.List;
+import org.jbibtex.BibTeXEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * BibTeX entry shard tests.
+ */
+public class EntryShardTest {
+
+	@Test
+	public void parse() {
+		final EntryShard shard = EntryShard.parse(" 2 / 4");
+		assertEquals(2, shard.index);
+		assertEquals(4, shard.count);
+		assertEquals("2/4", shard.toString());
+		assertTrue(new EntryShard().isAll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseOutOfBounds() {
+		EntryShard.parse("0/4");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseMalformed() {
+		EntryShard.parse("2-4");
+	}
+
+	@Test
+	public void stableHash() {
+		// FNV-1a (64-bit) test vectors
+		assertEquals(0xcbf29ce484222325L, EntryShard.hash(""));
+		assertEquals(0xaf63dc4c8601ec8cL, EntryShard.hash("a"));
+		assertEquals(0x85944171f73967e8L, EntryShard.hash("foobar"));
+	}
+
+	@Test
+	public void disjointAndBalanced() throws Exception {
+		final int numShards = 4;
+		final int numEntries = 10000;
+		final List<BibTeXEntry> entries = BenchmarkData.parseEntries(BenchmarkData.newBibTeX(numEntries));
+		final int[] counts = new int[numShards];
+		for (int i = 0; i < entries.size(); i++) {
+			final String key = entries.get(i).getKey().toString();
+			int n = 0;
+			for (int j = 1; j <= numShards; j++) {
+				if (new EntryShard(j, numShards).contains(key, i + 1)) {
+					counts[j - 1]++;
+					n++;
+				}
+			}
+			assertEquals(key, 1, n);
+		}
+		for (int count : counts) {
+			assertTrue(Math.abs(count - numEntries / numShards) < numEntries / numShards / 10);
+		}
+
+		// entries without a key: by number
+		assertTrue(new EntryShard(1, 2).contains("", 1));
+		assertTrue(new EntryShard(2, 2).contains("", 2));
+	}
+
+	@Test
+	public void rawKey() {
+		assertEquals("Doe:1:key", BibTeXEntrySource.getKey("@article{ Doe:1:key ,\n title={x}}"));
+		assertEquals("a2", BibTeXEntrySource.getKey("@article(a2, title={x})"));
+		assertEquals("", BibTeXEntrySource.getKey("@article{"));
+	}
+
+}
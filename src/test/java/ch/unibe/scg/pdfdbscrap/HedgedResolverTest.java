@@ -0,0 +1,76 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Hedged resolution tests.
+ */
+public class HedgedResolverTest {
+
+	// DOI redirecting to ACM: FRAME_SRC (tried first) fails, and retries with
+	// JavaScript enabled; XPATH_ANCHOR succeeds
+	private final static String URL = MockPublisherServer.getURL(PDFDatabase.DOI, 42);
+	private final static List<ScrapMode> MODES = Arrays.asList(ScrapMode.FRAME_SRC, ScrapMode.XPATH_ANCHOR);
+	private final static long LATENCY_MILLIS = 300;
+
+	private MockPublisherServer server;
+	private WebClientPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockPublisherServer();
+		server.setLatency(LATENCY_MILLIS);
+		pool = new WebClientPool(
+				new WebClientFactory(Browser.CHROME, null, "127.0.0.1", server.getPort(), JavaScriptProfile.DEFAULT),
+				2
+		);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		server.close();
+	}
+
+	private long resolve(long delayMillis) throws Exception {
+		final WebClientPool.ClientPair pair = pool.acquire();
+		try (HedgedResolver resolver = new HedgedResolver(pool, delayMillis)) {
+			final long start = System.currentTimeMillis();
+			final Resolution resolution = resolver.resolve(URL, MODES, pair.client);
+			final long millis = System.currentTimeMillis() - start;
+			assertFalse(resolution.isEmpty());
+			assertEquals(ScrapMode.XPATH_ANCHOR, resolution.mode);
+			return millis;
+		} finally {
+			pool.release(pair);
+		}
+	}
+
+	@Test
+	public void hedged() throws Exception {
+		final ScrapMetrics metrics = ScrapMetrics.getInstance();
+		final long hedges = metrics.getRetries(ScrapMetrics.Retry.HEDGE, PDFDatabase.DOI);
+
+		// sequential: FRAME_SRC (2x redirect, and page), then XPATH_ANCHOR
+		final long sequential = resolve(60000);
+		assertTrue(sequential >= 6 * LATENCY_MILLIS);
+		assertEquals(hedges, metrics.getRetries(ScrapMetrics.Retry.HEDGE, PDFDatabase.DOI));
+
+		// hedged: XPATH_ANCHOR starts while FRAME_SRC is still loading
+		final long hedged = resolve(100);
+		assertTrue(hedged + " vs. " + sequential, hedged < sequential - 2 * LATENCY_MILLIS);
+		assertEquals(hedges + 1, metrics.getRetries(ScrapMetrics.Retry.HEDGE, PDFDatabase.DOI));
+
+		// the cancelled attempt returned its pair of web clients
+		Thread.sleep(4 * LATENCY_MILLIS);
+		assertEquals(0, pool.getNumActive());
+	}
+
+}
@@ -0,0 +1,52 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.net.URL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Per-host rate limiter tests.
+ */
+public class HostRateLimiterTest {
+
+	@Test
+	public void parseConfiguration() {
+		final HostRateLimiter limiter = new HostRateLimiter("3, ACM=0.5:2; IEEE=0");
+		assertEquals(0.5, limiter.getRate(PDFDatabase.ACM), 1e-9);
+		assertEquals(2, limiter.getBurst(PDFDatabase.ACM));
+		assertEquals(0.0, limiter.getRate(PDFDatabase.IEEE), 1e-9);
+		assertEquals(3.0, limiter.getRate(PDFDatabase.SCIENCEDIRECT), 1e-9);
+		assertEquals(PDFDatabase.SCIENCEDIRECT.getRequestBurst(), limiter.getBurst(PDFDatabase.SCIENCEDIRECT));
+	}
+
+	@Test
+	public void slowDownAndRecover() throws Exception {
+		final HostRateLimiter limiter = new HostRateLimiter("ACM=4:1");
+		final URL url = new URL("http://dl.acm.org/citation.cfm?id=1");
+		assertEquals(4.0, limiter.getCurrentRate(url), 1e-9);
+
+		limiter.update(url, 429, -1);
+		assertEquals(2.0, limiter.getCurrentRate(url), 1e-9);
+		limiter.update(url, 403, -1);
+		assertEquals(1.0, limiter.getCurrentRate(url), 1e-9);
+
+		for (int i = 0; i < 100; i++) {
+			limiter.update(url, 200, -1);
+		}
+		assertEquals(4.0, limiter.getCurrentRate(url), 1e-9);
+	}
+
+	@Test
+	public void unlimitedHost() throws Exception {
+		final HostRateLimiter limiter = new HostRateLimiter("0");
+		final URL url = new URL("http://ieeexplore.ieee.org/document/1/");
+		final long start = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire(url);
+		}
+		assertTrue((System.nanoTime() - start) < 1_000_000_000L);
+		assertEquals(0.0, limiter.getCurrentRate(url), 1e-9);
+	}
+
+}
@@ -0,0 +1,52 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ID method benchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class IDCreatorBenchmark {
+
+	private final static int NUM_ENTRIES = 64;
+
+	@Param({"ENTRY_NUMBER", "NUMBER_AND_KEY", "URLENCODED_KEY"})
+	public IDCreator idCreator;
+
+	private BibTeXEntry[] entries;
+	private String[] keys;
+
+	@Setup
+	public void setUp() throws IOException {
+		final List<BibTeXEntry> list = BenchmarkData.parseEntries(BenchmarkData.newBibTeX(NUM_ENTRIES));
+		entries = list.toArray(new BibTeXEntry[list.size()]);
+		keys = new String[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			keys[i] = entries[i].getKey().toString();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ENTRIES)
+	public void getID(Blackhole bh) {
+		for (int i = 0; i < entries.length; i++) {
+			bh.consume(idCreator.getID(i + 1, keys[i], entries[i]));
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JavaScript execution profile tests.
+ */
+public class JavaScriptProfileTest {
+
+	private MockPublisherServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockPublisherServer();
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private WebClient newWebClient(JavaScriptProfile profile) {
+		return new WebClientFactory(Browser.CHROME, null, "127.0.0.1", server.getPort(), profile).newWebClient(true);
+	}
+
+	private static boolean hasFrame(HtmlPage page) {
+		return !page.getFrames().isEmpty();
+	}
+
+	@Test
+	public void parse() {
+		final JavaScriptProfile profile = JavaScriptProfile.parse("timeout=1000, wait=250,stop=false");
+		assertEquals(1000, profile.getScriptTimeoutMillis());
+		assertEquals(250, profile.getBackgroundWaitMillis());
+		assertFalse(profile.isEarlyStop());
+		final JavaScriptProfile defaults = JavaScriptProfile.parse("");
+		assertEquals(JavaScriptProfile.DEFAULT_SCRIPT_TIMEOUT_MILLIS, defaults.getScriptTimeoutMillis());
+		assertTrue(defaults.isEarlyStop());
+		assertEquals(profile.toString(), JavaScriptProfile.parse(profile.toString()).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseUnknownKey() {
+		JavaScriptProfile.parse("timeout=1000,frames=2");
+	}
+
+	@Test
+	public void earlyStop() throws Exception {
+		final JavaScriptProfile profile = new JavaScriptProfile(1000, 10000, true);
+		try (WebClient client = newWebClient(profile)) {
+			assertSame(profile, JavaScriptProfile.get(client));
+			assertEquals(1000, client.getJavaScriptTimeout());
+
+			// frame injected by a timer, next to an endless background job
+			final HtmlPage page = client.getPage(MockPublisherServer.getFrameURL(3));
+			final long start = System.currentTimeMillis();
+			assertTrue(profile.await(page, JavaScriptProfileTest::hasFrame));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+
+			// the endless job is gone (once the currently running one is done)
+			JavaScriptProfile.stopJobs(client);
+			assertEquals(0, client.waitForBackgroundJavaScript(1000));
+		}
+	}
+
+	@Test
+	public void waitCap() throws Exception {
+		// no early stop: the endless background job keeps us waiting, but only
+		// up to the cap
+		final JavaScriptProfile profile = new JavaScriptProfile(1000, 1000, false);
+		try (WebClient client = newWebClient(profile)) {
+			final HtmlPage page = client.getPage(MockPublisherServer.getFrameURL(3));
+			final long start = System.currentTimeMillis();
+			assertTrue(profile.await(page, JavaScriptProfileTest::hasFrame));
+			final long millis = System.currentTimeMillis() - start;
+			assertTrue(millis >= 900);
+			assertTrue(millis < 10000);
+			JavaScriptProfile.stopJobs(client);
+		}
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		final JavaScriptProfile profile = new JavaScriptProfile(1000, 10000, true);
+		try (WebClient client = new WebClientFactory(Browser.CHROME, null, "127.0.0.1", server.getPort(), profile).newWebClient(false)) {
+			final HtmlPage page = client.getPage(MockPublisherServer.getURL(PDFDatabase.ACM, 2));
+			final AtomicInteger numTests = new AtomicInteger();
+			assertFalse(profile.await(page, (HtmlPage p) -> numTests.incrementAndGet() > 0));
+			assertEquals(0, numTests.get());
+		}
+	}
+
+}
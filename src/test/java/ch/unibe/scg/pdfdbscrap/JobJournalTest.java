@@ -0,0 +1,75 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Job journal tests.
+ */
+public class JobJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void lastRecordWins() throws Exception {
+		final File file = new File(folder.getRoot(), "test-journal.tsv");
+		try (JobJournal journal = new JobJournal(file, 2, 60000)) {
+			journal.append(new JobJournal.Record("a", 1, "1_a", ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE, "http://dl.acm.org/a", "", 10, 0, 1));
+			journal.append(new JobJournal.Record("b", 2, "2_b", ScrapStatus.SUCCESS, "http://dl.acm.org/b", "http://dl.acm.org/b.pdf", 10, 20, 2));
+		}
+		try (JobJournal journal = new JobJournal(file)) {
+			journal.append(new JobJournal.Record("a", 1, "1_a", ScrapStatus.SUCCESS, "http://dl.acm.org/a", "http://dl.acm.org/a.pdf", 5, 7, 3));
+		}
+
+		final Map<Integer, JobJournal.Record> records = JobJournal.read(file);
+		assertEquals(2, records.size());
+		assertEquals(ScrapStatus.SUCCESS, records.get(1).status);
+		assertEquals("http://dl.acm.org/a.pdf", records.get(1).urlToPDF);
+		assertEquals(7, records.get(1).downloadMillis);
+		assertEquals("2_b", records.get(2).identifier);
+	}
+
+	@Test
+	public void skipTruncatedRecord() throws Exception {
+		final File file = new File(folder.getRoot(), "test-journal.tsv");
+		try (JobJournal journal = new JobJournal(file)) {
+			journal.append(new JobJournal.Record("a", 1, "1_a", ScrapStatus.SUCCESS, "u", "v", 1, 2, 3));
+		}
+		try (OutputStream os = new FileOutputStream(file, true)) {
+			os.write("b\t2\t2_b\tSUCC".getBytes(StandardCharsets.UTF_8));
+		}
+
+		final Map<Integer, JobJournal.Record> records = JobJournal.read(file);
+		assertEquals(1, records.size());
+		assertTrue(records.containsKey(1));
+	}
+
+	@Test
+	public void appendAfterTruncatedRecord() throws Exception {
+		final File file = new File(folder.getRoot(), "test-journal.tsv");
+		try (JobJournal journal = new JobJournal(file)) {
+			journal.append(new JobJournal.Record("a", 1, "1_a", ScrapStatus.SUCCESS, "u", "v", 1, 2, 3));
+		}
+		try (OutputStream os = new FileOutputStream(file, true)) {
+			os.write("b\t2\t2_b\tSUCC".getBytes(StandardCharsets.UTF_8));
+		}
+		try (JobJournal journal = new JobJournal(file)) {
+			journal.append(new JobJournal.Record("b", 2, "2_b", ScrapStatus.SUCCESS, "u", "v", 4, 5, 6));
+		}
+
+		final Map<Integer, JobJournal.Record> records = JobJournal.read(file);
+		assertEquals(2, records.size());
+		assertEquals(ScrapStatus.SUCCESS, records.get(2).status);
+		assertEquals(6, records.get(2).timestamp);
+	}
+
+}
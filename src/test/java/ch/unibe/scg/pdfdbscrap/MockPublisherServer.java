@@ -0,0 +1,527 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mock publisher server. An embedded HTTP server (and proxy) that imitates the
+ * web pages of the known databases, and serves synthetic PDF files, s.t. the
+ * scraper can be run end-to-end offline. Run the scraper with
+ * {@code --proxy} pointing to this server, and the URLs of the real databases
+ * (e.g. {@code http://dl.acm.org/citation.cfm?id=1}) end up here:
+ *
+ * <ul>
+ * <li>ACM: landing page with an anchor to the PDF file
+ * ({@code XPATH_ANCHOR}).</li>
+ * <li>IEEE: landing page with an anchor to a frame page, whose frame points to
+ * the PDF file ({@code FRAME_SRC}). The frame of every other frame page is
+ * injected by JavaScript; half of them only after a while (by a timer), next
+ * to an endless background job (polling analytics, or what not), and scripts
+ * of a first-party, a third-party, and an analytics host.</li>
+ * <li>ScienceDirect: landing page with an anchor to the PDF file
+ * ({@code XPATH_ANCHOR}).</li>
+ * <li>DOI: redirects to ACM ({@code 10.1145/<id>}), or IEEE
+ * ({@code 10.1109/<id>}). DOIs of a mixed prefix ({@code 10.5555/<id>})
+ * redirect to an unknown host if the ID is odd, and to ACM otherwise.</li>
+ * </ul>
+ *
+ * Faults can be injected: latency, HTTP status code 403 (banned) after a
+ * number of requests per host, and truncated PDF files.
+ */
+public class MockPublisherServer implements AutoCloseable {
+
+	public final static String ACM_HOST = "dl.acm.org";
+	public final static String ACM_DOI_HOST = "doi.acm.org";
+	public final static String DOI_HOST = "dx.doi.org";
+	public final static String IEEE_HOST = "ieeexplore.ieee.org";
+	public final static String SCIENCEDIRECT_HOST = "www.sciencedirect.com";
+	public final static String ANALYTICS_HOST = "www.google-analytics.com";
+	public final static String THIRD_PARTY_HOST = "cdn.widgets.example.net";
+
+	/**
+	 * The delay of frames injected by a timer in milliseconds.
+	 */
+	public final static int JS_DELAY_MILLIS = 300;
+
+	private final static Pattern ID = Pattern.compile("(\\d+)");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, AtomicInteger> numRequests;
+	private final AtomicInteger numPDFs;
+	private volatile long latencyMillis;
+	private volatile int banAfter;
+	private volatile int truncateEvery;
+
+	/**
+	 * Creates and starts a new mock publisher server on some free port of the
+	 * loopback interface.
+	 *
+	 * @throws IOException
+	 */
+	public MockPublisherServer() throws IOException {
+		this.numRequests = new ConcurrentHashMap<>();
+		this.numPDFs = new AtomicInteger();
+		this.latencyMillis = 0;
+		this.banAfter = 0;
+		this.truncateEvery = 0;
+		this.executor = Executors.newCachedThreadPool();
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/", (HttpExchange ex) -> {
+			// exceptions (e.g. due to a truncated body) make the server close
+			// the connection, instead of leaving the client hanging
+			try {
+				handle(ex);
+			} finally {
+				ex.close();
+			}
+		});
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * Returns the port of the server.
+	 *
+	 * @return the port of the server.
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the server as HTTP proxy, as expected by the {@code --proxy}
+	 * option.
+	 *
+	 * @return the server as HTTP proxy ({@code <host>:<port>}).
+	 */
+	public String getProxy() {
+		return "127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * Sets the latency of each response.
+	 *
+	 * @param millis the latency in milliseconds.
+	 */
+	public void setLatency(long millis) {
+		this.latencyMillis = millis;
+	}
+
+	/**
+	 * Bans clients after a number of requests per host, i.e. all further
+	 * requests to that host are answered with HTTP status code 403.
+	 *
+	 * @param numRequests the number of requests per host, or 0 to never ban.
+	 */
+	public void setBanAfter(int numRequests) {
+		this.banAfter = numRequests;
+	}
+
+	/**
+	 * Truncates every n-th PDF file. The full content length is announced, but
+	 * the connection is closed halfway through the body.
+	 *
+	 * @param n truncates every n-th PDF file, or 0 to never truncate.
+	 */
+	public void setTruncateEvery(int n) {
+		this.truncateEvery = n;
+	}
+
+	/**
+	 * Returns the total number of requests.
+	 *
+	 * @return the total number of requests.
+	 */
+	public int getNumRequests() {
+		int n = 0;
+		for (AtomicInteger i : this.numRequests.values()) {
+			n += i.get();
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of requests to a host.
+	 *
+	 * @param host the host.
+	 * @return the number of requests to the host.
+	 */
+	public int getNumRequests(String host) {
+		final AtomicInteger i = this.numRequests.get(host);
+		return (i == null) ? 0 : i.get();
+	}
+
+	/**
+	 * Returns the number of served (possibly truncated) PDF files.
+	 *
+	 * @return the number of served PDF files.
+	 */
+	public int getNumPDFs() {
+		return this.numPDFs.get();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the URL of the landing page of an article.
+	 *
+	 * @param db the database.
+	 * @param id the ID of the article.
+	 * @return the URL of the landing page.
+	 */
+	public static String getURL(PDFDatabase db, int id) {
+		switch (db) {
+			case ACM:
+				return "http://" + ACM_HOST + "/citation.cfm?id=" + id;
+			case DOI:
+				// alternate between ACM and IEEE
+				return "http://" + DOI_HOST + ((id % 2 == 0) ? "/10.1145/" : "/10.1109/") + id;
+			case IEEE:
+				return "http://" + IEEE_HOST + "/document/" + id + "/";
+			case SCIENCEDIRECT:
+				return "http://" + SCIENCEDIRECT_HOST + "/science/article/pii/S" + id;
+			default:
+				return "http://www.example.org/" + id;
+		}
+	}
+
+	/**
+	 * Returns the URL of the frame page of an (IEEE) article.
+	 *
+	 * @param id the ID of the article.
+	 * @return the URL of the frame page.
+	 */
+	public static String getFrameURL(int id) {
+		return "http://" + IEEE_HOST + "/stamp/stamp.jsp?tp=&arnumber=" + id;
+	}
+
+	/**
+	 * Returns the XPath expressions to use with a scrap(ing) mode.
+	 *
+	 * @param mode the scrap(ing) mode.
+	 * @return the XPath expressions ({@code ;} separated), or an empty string.
+	 */
+	public static String getXPath(ScrapMode mode) {
+		if (!mode.requiresXPathExpression()) {
+			return "";
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (PDFDatabase db : new PDFDatabase[]{PDFDatabase.ACM, PDFDatabase.SCIENCEDIRECT}) {
+			for (String xpath : db.getScrapConfigurations().get(ScrapMode.XPATH_ANCHOR)) {
+				if (sb.length() > 0) {
+					sb.append(';');
+				}
+				sb.append(xpath);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a BibTeX file with articles that can be scraped with a
+	 * scrap(ing) mode: all databases in {@code AUTO} mode, ACM and
+	 * ScienceDirect in {@code XPATH_ANCHOR} mode, and IEEE frame pages in
+	 * {@code FRAME_SRC} mode.
+	 *
+	 * @param numEntries the number of BibTeX entries.
+	 * @param mode the scrap(ing) mode.
+	 * @return the BibTeX file contents.
+	 */
+	public static String newBibTeX(int numEntries, ScrapMode mode) {
+		final PDFDatabase[] dbs;
+		switch (mode) {
+			case XPATH_ANCHOR:
+				dbs = new PDFDatabase[]{PDFDatabase.ACM, PDFDatabase.SCIENCEDIRECT};
+				break;
+			case FRAME_SRC:
+				dbs = new PDFDatabase[]{PDFDatabase.IEEE};
+				break;
+			default:
+				dbs = new PDFDatabase[]{
+					PDFDatabase.ACM,
+					PDFDatabase.DOI,
+					PDFDatabase.IEEE,
+					PDFDatabase.SCIENCEDIRECT
+				};
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= numEntries; i++) {
+			final PDFDatabase db = dbs[i % dbs.length];
+			final String url = ScrapMode.FRAME_SRC.equals(mode) ? getFrameURL(i) : getURL(db, i);
+			sb.append(String.format(
+					"@article{Mock:%d:%s,\n"
+					+ " author = {Doe, Jane},\n"
+					+ " title = {Mock Article %d},\n"
+					+ " year = {2017},\n"
+					+ " url = {%s},\n"
+					+ "}\n\n",
+					i, db.name().toLowerCase(Locale.ROOT), i, url
+			));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a synthetic PDF file. Each article gets a PDF file with different
+	 * contents (and hash).
+	 *
+	 * @param id the ID of the article.
+	 * @return the PDF file.
+	 */
+	public static byte[] newPDF(int id) {
+		final byte[] head = String.format("%%PDF-1.4\n%% mock article %d\n", id)
+				.getBytes(StandardCharsets.US_ASCII);
+		final byte[] pdf = new byte[32 * 1024];
+		for (int i = 0; i < pdf.length; i++) {
+			pdf[i] = (byte) ('a' + ((i * 31 + id) % 26));
+		}
+		System.arraycopy(head, 0, pdf, 0, head.length);
+		return pdf;
+	}
+
+	/**
+	 * Runs the scraper in a separate JVM (since {@code Main} exits the JVM),
+	 * with the same class path as this JVM.
+	 *
+	 * @param log the file to redirect the output of the scraper to.
+	 * @param args the command line arguments.
+	 * @return the exit code.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static int runMain(File log, String... args) throws IOException, InterruptedException {
+		final List<String> command = new ArrayList<>();
+		command.add(new File(
+				new File(System.getProperty("java.home"), "bin"),
+				"java"
+		).getAbsolutePath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		for (String arg : args) {
+			command.add(arg);
+		}
+		final Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(log)
+				.start();
+		if (!process.waitFor(10, TimeUnit.MINUTES)) {
+			process.destroyForcibly();
+			throw new IOException("scraper timed out, see: " + log);
+		}
+		return process.exitValue();
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		final URI uri = ex.getRequestURI();
+		// absolute URI if used as proxy, Host header otherwise
+		String host = uri.getHost();
+		if (host == null) {
+			host = String.valueOf(ex.getRequestHeaders().getFirst("Host"));
+			final int n = host.indexOf(':');
+			if (n >= 0) {
+				host = host.substring(0, n);
+			}
+		}
+		host = host.toLowerCase(Locale.ROOT);
+		final String path = uri.getRawPath();
+		final String query = (uri.getRawQuery() == null) ? "" : uri.getRawQuery();
+
+		AtomicInteger counter = this.numRequests.get(host);
+		if (counter == null) {
+			this.numRequests.putIfAbsent(host, new AtomicInteger());
+			counter = this.numRequests.get(host);
+		}
+		final int num = counter.incrementAndGet();
+
+		final long latency = this.latencyMillis;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException ex2) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		final int ban = this.banAfter;
+		if (ban > 0 && num > ban) {
+			sendHtml(ex, 403, "<html><body>Access denied.</body></html>");
+			return;
+		}
+
+		if (path.endsWith(".js")) {
+			// any script, on any host
+			send(ex, 200, "application/javascript", "var loaded = true;\n".getBytes(StandardCharsets.UTF_8), false);
+			return;
+		}
+
+		final int id = getID(path, query);
+		switch (host) {
+			case ACM_HOST:
+				if (path.startsWith("/citation.cfm")) {
+					sendHtml(ex, 200, page(
+							"<a href=\"/citation.cfm?id=" + id + "&amp;preflayout=flat\">Flat view</a>\n"
+							+ "<a name=\"FullTextPDF\" title=\"FullText PDF\" href=\"ft_gateway.cfm?id=" + id + "&amp;ftid=1&amp;type=pdf\">PDF</a>"
+					));
+					return;
+				}
+				if (path.startsWith("/ft_gateway.cfm")) {
+					sendPDF(ex, id);
+					return;
+				}
+				break;
+			case ACM_DOI_HOST:
+				if (path.startsWith("/10.1145/")) {
+					redirect(ex, getURL(PDFDatabase.ACM, id));
+					return;
+				}
+				break;
+			case DOI_HOST:
+				if (path.startsWith("/10.1145/")) {
+					redirect(ex, getURL(PDFDatabase.ACM, id));
+					return;
+				}
+				if (path.startsWith("/10.1109/")) {
+					redirect(ex, getURL(PDFDatabase.IEEE, id));
+					return;
+				}
+				if (path.startsWith("/10.5555/")) {
+					redirect(ex, getURL((id % 2 == 0) ? PDFDatabase.ACM : PDFDatabase.UNKNOWN, id));
+					return;
+				}
+				break;
+			case IEEE_HOST:
+				if (path.startsWith("/document/")) {
+					sendHtml(ex, 200, page(
+							"<a class=\"doc-action stats-document-lh-action-downloadPdf_2\" href=\"/stamp/stamp.jsp?tp=&amp;arnumber=" + id + "\">Download PDF</a>"
+					));
+					return;
+				}
+				if (path.startsWith("/stamp/stamp.jsp")) {
+					final String src = "http://" + IEEE_HOST + "/ielx7/" + id + "/" + id + ".pdf?arnumber=" + id;
+					if (id % 2 == 0) {
+						sendHtml(ex, 200, page(
+								"<iframe src=\"" + src + "\" frameborder=\"0\"></iframe>"
+						));
+					} else if (id % 4 == 1) {
+						sendHtml(ex, 200, page(
+								"<div id=\"pdf\"></div>\n"
+								+ "<script type=\"text/javascript\">\n"
+								+ "var f = document.createElement('iframe');\n"
+								+ "f.setAttribute('src', '" + src + "');\n"
+								+ "document.getElementById('pdf').appendChild(f);\n"
+								+ "</script>"
+						));
+					} else {
+						sendHtml(ex, 200, page(
+								"<div id=\"pdf\"></div>\n"
+								+ "<script type=\"text/javascript\" src=\"/assets/stamp.js\"></script>\n"
+								+ "<script type=\"text/javascript\" src=\"http://" + THIRD_PARTY_HOST + "/widget.js\"></script>\n"
+								+ "<script type=\"text/javascript\" src=\"http://" + ANALYTICS_HOST + "/analytics.js\"></script>\n"
+								+ "<script type=\"text/javascript\">\n"
+								+ "setInterval(function() { var t = new Date().getTime(); }, 50);\n"
+								+ "setTimeout(function() {\n"
+								+ "  var f = document.createElement('iframe');\n"
+								+ "  f.setAttribute('src', '" + src + "');\n"
+								+ "  document.getElementById('pdf').appendChild(f);\n"
+								+ "}, " + JS_DELAY_MILLIS + ");\n"
+								+ "</script>"
+						));
+					}
+					return;
+				}
+				if (path.startsWith("/ielx7/")) {
+					sendPDF(ex, id);
+					return;
+				}
+				break;
+			case SCIENCEDIRECT_HOST:
+				if (path.startsWith("/science/article/pii/")) {
+					if (path.endsWith("/pdfft")) {
+						sendPDF(ex, id);
+						return;
+					}
+					sendHtml(ex, 200, page(
+							"<a id=\"pdfLink\" href=\"" + path + "/pdfft?md5=0&amp;pid=1-s2.0-S" + id + "-main.pdf\">PDF</a>"
+					));
+					return;
+				}
+				break;
+		}
+		sendHtml(ex, 404, "<html><body>Not found.</body></html>");
+	}
+
+	private static int getID(String path, String query) {
+		// the last number in the path (e.g. "/10.1145/42"), or else the first
+		// one in the query (e.g. "?id=42&ftid=1")
+		Matcher m = ID.matcher(path);
+		int id = -1;
+		while (m.find()) {
+			id = Integer.parseInt(m.group(1));
+		}
+		if (id < 0) {
+			m = ID.matcher(query);
+			id = m.find() ? Integer.parseInt(m.group(1)) : 0;
+		}
+		return id;
+	}
+
+	private static String page(String body) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Mock Publisher</title>\n</head>\n<body>\n");
+		// some filler, s.t. pages aren't too trivial to parse
+		for (int i = 0; i < 50; i++) {
+			sb.append("<p><a href=\"/ref/").append(i).append("\">Reference ").append(i).append("</a></p>\n");
+		}
+		sb.append(body);
+		sb.append("\n</body>\n</html>\n");
+		return sb.toString();
+	}
+
+	private static void redirect(HttpExchange ex, String location) throws IOException {
+		ex.getResponseHeaders().add("Location", location);
+		ex.sendResponseHeaders(302, -1);
+	}
+
+	private static void sendHtml(HttpExchange ex, int code, String html) throws IOException {
+		send(ex, code, "text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8), false);
+	}
+
+	private void sendPDF(HttpExchange ex, int id) throws IOException {
+		final int n = this.numPDFs.incrementAndGet();
+		final int t = this.truncateEvery;
+		send(ex, 200, "application/pdf", newPDF(id), t > 0 && n % t == 0);
+	}
+
+	private static void send(HttpExchange ex, int code, String contentType, byte[] body, boolean truncate) throws IOException {
+		ex.getResponseHeaders().add("Content-Type", contentType);
+		ex.sendResponseHeaders(code, body.length);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(body, 0, truncate ? body.length / 2 : body.length);
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Output layout, and index tests.
+ */
+public class OutputIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static JobJournal.Record newRecord(String key, int num, ScrapStatus status) {
+		return new JobJournal.Record(key, num, IDCreator.NUMBER_AND_KEY.getID(num, key, null), status, "", "", 1, 2, 3);
+	}
+
+	@Test
+	public void layout() throws Exception {
+		assertEquals("SUCCESS/12_a", OutputLayout.FLAT.getRelativePath(ScrapStatus.SUCCESS, "12_a"));
+		final String path = OutputLayout.HASHED.getRelativePath(ScrapStatus.SUCCESS, "12_a");
+		assertTrue(path, path.matches("SUCCESS/[0-9a-f]{2}/12_a"));
+
+		final File out = folder.getRoot();
+		final File file = OutputLayout.HASHED.getFile(out, ScrapStatus.SUCCESS, "12_a", ".pdf");
+		assertEquals(new File(out, path + ".pdf").getAbsoluteFile(), file);
+		assertTrue(file.getParentFile().isDirectory());
+
+		// balanced over all subdirectories
+		final int[] counts = new int[256];
+		for (int i = 1; i <= 25600; i++) {
+			counts[Integer.parseInt(OutputLayout.HASHED.getSubdirectory(i + "_Doe:" + i), 16)]++;
+		}
+		for (int count : counts) {
+			assertTrue(count > 50 && count < 150);
+		}
+	}
+
+	@Test
+	public void lookup() throws Exception {
+		final List<JobJournal.Record> records = new ArrayList<>();
+		for (int i = 1; i <= 1000; i++) {
+			records.add(newRecord("Doe:" + i + ":ä", i, (i % 3 == 0) ? ScrapStatus.FAILURE_NO_BIBTEX_URL : ScrapStatus.SUCCESS));
+		}
+		Collections.shuffle(records);
+		final File file = folder.newFile("input-index.tsv");
+		assertEquals(1000, OutputIndex.write(file, records, OutputLayout.HASHED));
+
+		for (JobJournal.Record record : records) {
+			final List<String> expected = Arrays.asList(OutputLayout.HASHED.getRelativePath(record.status, record.identifier));
+			assertEquals(expected, OutputIndex.lookup(file, record.key));
+			assertEquals(expected, OutputIndex.lookup(file, record.identifier));
+		}
+		assertEquals(Collections.EMPTY_LIST, OutputIndex.lookup(file, "Doe:1001:ä"));
+		assertEquals(Collections.EMPTY_LIST, OutputIndex.lookup(file, ""));
+		assertEquals(Collections.EMPTY_LIST, OutputIndex.lookup(file, "￿"));
+	}
+
+	@Test
+	public void lookupEmptyIndex() throws Exception {
+		final File file = folder.newFile("input-index.tsv");
+		OutputIndex.write(file, Collections.EMPTY_LIST, OutputLayout.FLAT);
+		assertEquals(Collections.EMPTY_LIST, OutputIndex.lookup(file, "a"));
+	}
+
+}
@@ -0,0 +1,92 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Output directory merge benchmark. Merges two synthetic output directories
+ * (the shards of a BibTeX file; half of the BibTeX entries with a PDF file)
+ * into a new output directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class OutputMergerBenchmark {
+
+	@Param({"10000"})
+	public int numEntries;
+
+	private File directory;
+	private File input;
+	private File[] shards;
+	private File merged;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("pdfdbscrap-benchmark-").toFile();
+		input = new File(directory, "input.bib");
+		shards = new File[]{new File(directory, "out1"), new File(directory, "out2")};
+		final byte[] pdf = new byte[64 * 1024];
+		for (int i = 1; i <= numEntries; i++) {
+			final String identifier = i + "_Doe:" + i;
+			final ScrapStatus status = (i % 2 == 0) ? ScrapStatus.SUCCESS : ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND;
+			final File dir = status.getStatusDirectory(shards[i % 3 == 0 ? 1 : 0]);
+			Files.write(
+					new File(dir, identifier + ".bib").toPath(),
+					("@article{Doe:" + i + ",\n  url = {http://dl.acm.org/" + i + "}\n}").getBytes(StandardCharsets.UTF_8)
+			);
+			if (ScrapStatus.SUCCESS.equals(status)) {
+				Files.write(new File(dir, identifier + ".pdf").toPath(), pdf);
+			}
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() {
+		merged = new File(directory, "merged");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() throws IOException {
+		delete(merged.toPath());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		delete(directory.toPath());
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(path)) {
+			paths.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public int merge() throws IOException {
+		final OutputMerger merger = new OutputMerger(input, Arrays.asList(shards), merged);
+		merger.merge();
+		return merger.getNumEntries();
+	}
+
+}
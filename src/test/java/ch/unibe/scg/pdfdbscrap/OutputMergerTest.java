@@ -0,0 +1,184 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Output directory merger tests.
+ */
+public class OutputMergerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static void put(File out, ScrapStatus status, int num, String key, JobJournal journal) throws Exception {
+		final String identifier = num + "_" + key;
+		final File dir = status.getStatusDirectory(out);
+		Files.write(
+				new File(dir, identifier + ".bib").toPath(),
+				("@article{" + key + ",\n  url = {http://dl.acm.org/" + key + "}\n}").getBytes(StandardCharsets.UTF_8)
+		);
+		if (ScrapStatus.SUCCESS.equals(status)) {
+			Files.write(new File(dir, identifier + ".pdf").toPath(), ("%PDF-" + key).getBytes(StandardCharsets.UTF_8));
+		}
+		journal.append(new JobJournal.Record(key, num, identifier, status, "http://dl.acm.org/" + key, "", 1, 2, 3));
+	}
+
+	private static String store(File out, PDFStore store, int num, String key, String content) throws Exception {
+		final Path partial = store.newPartialFile();
+		final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		Files.write(partial, bytes);
+		final String hash = PDFStore.toHex(PDFStore.newDigest().digest(bytes));
+		store.put(partial, hash, "http://dl.acm.org/" + key + ".pdf", new File(ScrapStatus.SUCCESS.getStatusDirectory(out), num + "_" + key + ".pdf"));
+		return hash;
+	}
+
+	@Test
+	public void merge() throws Exception {
+		final File input = new File(folder.getRoot(), "input.bib");
+		final File out1 = folder.newFolder("out1");
+		final File out2 = folder.newFolder("out2");
+		try (JobJournal journal = new JobJournal(new File(out1, JobJournal.getJournalFilename(input)))) {
+			put(out1, ScrapStatus.SUCCESS, 1, "a", journal);
+			put(out1, ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE, 10, "b", journal);
+			put(out1, ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND, 3, "c", journal);
+		}
+		try (JobJournal journal = new JobJournal(new File(out2, JobJournal.getJournalFilename(input)))) {
+			// a re-run: b succeeded, c still not found, a failed this time
+			put(out2, ScrapStatus.SUCCESS, 10, "b", journal);
+			put(out2, ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND, 3, "c", journal);
+			put(out2, ScrapStatus.FAILURE_IO_INPUTSTREAM, 1, "a", journal);
+			put(out2, ScrapStatus.SUCCESS, 2, "d", journal);
+		}
+
+		final File merged = new File(folder.getRoot(), "merged");
+		final OutputMerger merger = new OutputMerger(input, Arrays.asList(out1, out2), merged);
+		merger.merge();
+		assertEquals(4, merger.getNumEntries());
+		assertEquals(3, merger.getNumDuplicates());
+		assertEquals(3, merger.getNumEntries(ScrapStatus.SUCCESS));
+		assertEquals(1, merger.getNumEntries(ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND));
+		assertEquals(0, merger.getNumEntries(ScrapStatus.FAILURE_IO_INPUTSTREAM));
+
+		// linked, not copied
+		final File success = ScrapStatus.SUCCESS.getStatusDirectory(merged);
+		assertEquals(7, merger.getNumLinks() + merger.getNumCopies());
+		assertTrue(Files.isSameFile(
+				new File(ScrapStatus.SUCCESS.getStatusDirectory(out2), "10_b.pdf").toPath(),
+				new File(success, "10_b.pdf").toPath())
+				|| merger.getNumCopies() > 0
+		);
+		assertTrue(new File(success, "1_a.pdf").exists());
+		assertFalse(new File(ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE.getStatusDirectory(merged), "10_b.bib").exists());
+		assertFalse(new File(ScrapStatus.FAILURE_IO_INPUTSTREAM.getStatusDirectory(merged), "1_a.bib").exists());
+		assertEquals("%PDF-a", read(new File(success, "1_a.pdf")));
+
+		// databases ordered by number, journal with the picked records only
+		final String database = read(new File(merged, Main.getBibTeXFilename(input, ScrapStatus.SUCCESS)));
+		assertTrue(database.indexOf("{a,") < database.indexOf("{d,"));
+		assertTrue(database.indexOf("{d,") < database.indexOf("{b,"));
+		assertEquals(3, BenchmarkData.parseEntries(database).size());
+		final Map<Integer, JobJournal.Record> records = JobJournal.read(new File(merged, JobJournal.getJournalFilename(input)));
+		assertEquals(4, records.size());
+		assertEquals(ScrapStatus.SUCCESS, records.get(1).status);
+		assertEquals(ScrapStatus.SUCCESS, records.get(10).status);
+
+		// the merged output directories are left intact
+		assertTrue(new File(ScrapStatus.FAILURE_IO_INPUTSTREAM.getStatusDirectory(out2), "1_a.bib").exists());
+	}
+
+	@Test
+	public void mergeLayouts() throws Exception {
+		final File input = new File(folder.getRoot(), "input.bib");
+		final File flat = folder.newFolder("flat");
+		try (JobJournal journal = new JobJournal(new File(flat, JobJournal.getJournalFilename(input)))) {
+			for (int i = 1; i <= 100; i++) {
+				put(flat, (i % 2 == 0) ? ScrapStatus.SUCCESS : ScrapStatus.FAILURE_NO_BIBTEX_URL, i, "k" + i, journal);
+			}
+		}
+		final File hashed = new File(folder.getRoot(), "hashed");
+		new OutputMerger(input, Arrays.asList(flat), hashed, OutputLayout.HASHED).merge();
+		final File flatAgain = new File(folder.getRoot(), "flat-again");
+		final OutputMerger merger = new OutputMerger(input, Arrays.asList(hashed), flatAgain);
+		merger.merge();
+		assertEquals(50, merger.getNumEntries(ScrapStatus.SUCCESS));
+		assertEquals(50, merger.getNumEntries(ScrapStatus.FAILURE_NO_BIBTEX_URL));
+		assertEquals(150, ScrapStatus.SUCCESS.getStatusDirectory(flatAgain).list().length + ScrapStatus.FAILURE_NO_BIBTEX_URL.getStatusDirectory(flatAgain).list().length);
+
+		final File index = new File(hashed, OutputIndex.getIndexFilename(input));
+		final String path = OutputIndex.lookup(index, "k42").get(0);
+		assertEquals(OutputLayout.HASHED.getRelativePath(ScrapStatus.SUCCESS, "42_k42"), path);
+		assertTrue(new File(hashed, path + ".pdf").exists());
+		assertEquals(Arrays.asList("SUCCESS/42_k42"), OutputIndex.lookup(new File(flatAgain, OutputIndex.getIndexFilename(input)), "42_k42"));
+	}
+
+	@Test
+	public void mergeStores() throws Exception {
+		final File input = new File(folder.getRoot(), "input.bib");
+		final File out1 = folder.newFolder("out1");
+		final File out2 = folder.newFolder("out2");
+		final String hashA;
+		final String hashE1;
+		final String hashE2;
+		try (JobJournal journal = new JobJournal(new File(out1, JobJournal.getJournalFilename(input)));
+				PDFStore store = new PDFStore(new File(out1, PDFStore.DEFAULT_DIRECTORY_NAME))) {
+			put(out1, ScrapStatus.SUCCESS, 1, "a", journal);
+			hashA = store(out1, store, 1, "a", "%PDF-same");
+			put(out1, ScrapStatus.SUCCESS, 5, "e", journal);
+			hashE1 = store(out1, store, 5, "e", "%PDF-e1");
+		}
+		try (JobJournal journal = new JobJournal(new File(out2, JobJournal.getJournalFilename(input)));
+				PDFStore store = new PDFStore(new File(out2, PDFStore.DEFAULT_DIRECTORY_NAME))) {
+			// b shares the blob of a; the later e wins
+			put(out2, ScrapStatus.SUCCESS, 2, "b", journal);
+			assertEquals(hashA, store(out2, store, 2, "b", "%PDF-same"));
+			put(out2, ScrapStatus.SUCCESS, 5, "e", journal);
+			hashE2 = store(out2, store, 5, "e", "%PDF-e2");
+		}
+
+		final File merged = new File(folder.getRoot(), "merged");
+		final OutputMerger merger = new OutputMerger(input, Arrays.asList(out1, out2), merged);
+		merger.merge();
+		assertEquals(2, merger.getNumBlobs());
+		try (PDFStore store = new PDFStore(new File(merged, PDFStore.DEFAULT_DIRECTORY_NAME))) {
+			assertEquals(2, store.getNumBlobs());
+			assertEquals(3, store.getNumFiles());
+			assertEquals(new HashSet<>(Arrays.asList("1_a", "2_b")), store.getIdentifiers(hashA));
+			assertEquals(hashA, store.getHash("http://dl.acm.org/b.pdf"));
+			assertEquals(hashE2, store.getHash("http://dl.acm.org/e.pdf"));
+			assertFalse(store.getBlob(hashE1).exists());
+			assertEquals("%PDF-e2", read(store.getBlob(hashE2)));
+		}
+		assertEquals("%PDF-e2", read(new File(ScrapStatus.SUCCESS.getStatusDirectory(merged), "5_e.pdf")));
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void mergeIntoNonEmpty() throws Exception {
+		final File out = folder.newFolder("out");
+		final File merged = folder.newFolder("merged");
+		Files.write(new File(merged, "stale.txt").toPath(), new byte[]{42});
+		new OutputMerger(new File("input.bib"), Arrays.asList(out), merged).merge();
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void mergeIntoItself() throws Exception {
+		final File out = folder.newFolder("out");
+		new OutputMerger(new File("input.bib"), Arrays.asList(out), out).merge();
+	}
+
+}
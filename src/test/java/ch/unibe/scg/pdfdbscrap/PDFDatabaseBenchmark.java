@@ -0,0 +1,120 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Database detection benchmark. Compares the host-indexed URL classifier to a
+ * linear scan of substring rules (the way databases used to be detected), with
+ * a growing number of (synthetic) publishers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PDFDatabaseBenchmark {
+
+	private final static int NUM_URLS = 16;
+
+	private final static String[] SCAN_PATTERNS = {
+		"doi.acm.org", "dl.acm.org", "dx.doi.org", "ieeexplore.ieee.org", "www.sciencedirect.com"
+	};
+
+	private final static PDFDatabase[] SCAN_DATABASES = {
+		PDFDatabase.ACM, PDFDatabase.ACM, PDFDatabase.DOI, PDFDatabase.IEEE, PDFDatabase.SCIENCEDIRECT
+	};
+
+	/**
+	 * The number of additional (synthetic) publishers.
+	 */
+	@Param({"0", "50"})
+	public int numPublishers;
+
+	private String[] urls;
+	private String[] patterns;
+	private PDFDatabase[] databases;
+	private URLClassifier classifier;
+
+	@Setup
+	public void setup() throws IOException {
+		final int n = SCAN_PATTERNS.length + numPublishers;
+		this.patterns = new String[n];
+		this.databases = new PDFDatabase[n];
+		final StringBuilder rules = new StringBuilder();
+		for (int i = 0; i < SCAN_PATTERNS.length; i++) {
+			this.patterns[i] = SCAN_PATTERNS[i];
+			this.databases[i] = SCAN_DATABASES[i];
+			rules.append(String.format("suffix\t%s\t%s\n", SCAN_PATTERNS[i], SCAN_DATABASES[i]));
+		}
+		for (int i = SCAN_PATTERNS.length; i < n; i++) {
+			this.patterns[i] = getPublisherHost(i);
+			this.databases[i] = PDFDatabase.UNKNOWN;
+			rules.append(String.format("suffix\t%s\tUNKNOWN\n", this.patterns[i]));
+		}
+		this.classifier = new URLClassifier(new StringReader(rules.toString()));
+
+		// known databases, synthetic publishers (late in the scan), and misses
+		final List<String> list = new ArrayList<>();
+		for (String url : BenchmarkData.URLS) {
+			list.add(url);
+		}
+		for (int i = 0; list.size() < NUM_URLS; i++) {
+			list.add(String.format(
+					"http://%s/papers/%d.pdf",
+					(numPublishers > 0) ? getPublisherHost(n - 1 - (i % numPublishers)) : "www.example.org",
+					i
+			));
+		}
+		this.urls = list.toArray(new String[list.size()]);
+	}
+
+	private static String getPublisherHost(int i) {
+		return String.format("www.publisher%d.example.org", i);
+	}
+
+	private PDFDatabase scan(String url) {
+		for (int i = 0; i < patterns.length; i++) {
+			if (url.contains(patterns[i])) {
+				return databases[i];
+			}
+		}
+		return PDFDatabase.UNKNOWN;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_URLS)
+	public void scan(Blackhole bh) {
+		for (String url : urls) {
+			bh.consume(scan(url));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_URLS)
+	public void classify(Blackhole bh) {
+		for (String url : urls) {
+			bh.consume(classifier.classify(url));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_URLS)
+	public void getPDFDatabase(Blackhole bh) {
+		for (String url : urls) {
+			bh.consume(PDFDatabase.getPDFDatabase(url));
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Streaming PDF file downloader tests.
+ */
+public class PDFDownloaderTest {
+
+	public final static byte[] PDF = new byte[200 * 1024];
+
+	static {
+		Arrays.fill(PDF, (byte) 'x');
+		System.arraycopy("%PDF-1.4".getBytes(StandardCharsets.US_ASCII), 0, PDF, 0, 8);
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+	private String base;
+	private WebClient client;
+	private PDFDownloader downloader;
+	private final AtomicInteger numAliasRequests = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/paper.pdf", (HttpExchange ex) -> {
+			if (!String.valueOf(ex.getRequestHeaders().getFirst("Cookie")).contains("session=42")) {
+				send(ex, 403, "text/plain", "forbidden".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			send(ex, 200, "application/pdf", PDF);
+		});
+		server.createContext("/login", (HttpExchange ex) -> {
+			ex.getResponseHeaders().add("Set-Cookie", "session=42; Path=/");
+			ex.getResponseHeaders().add("Location", "/paper.pdf");
+			ex.sendResponseHeaders(302, -1);
+			ex.close();
+		});
+		server.createContext("/signin.html", (HttpExchange ex) -> {
+			send(ex, 200, "text/html; charset=utf-8", "<html></html>".getBytes(StandardCharsets.UTF_8));
+		});
+		server.createContext("/alias.pdf", (HttpExchange ex) -> {
+			numAliasRequests.incrementAndGet();
+			send(ex, 200, "application/pdf", PDF);
+		});
+		server.createContext("/truncated.pdf", (HttpExchange ex) -> {
+			ex.getResponseHeaders().add("Content-Type", "application/pdf");
+			ex.sendResponseHeaders(200, PDF.length);
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(PDF, 0, PDF.length / 2);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		client = Main.newWebClient(Browser.CHROME, false);
+		downloader = new PDFDownloader(null, new DirectBufferPool(2, 4096));
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.stop(0);
+	}
+
+	private static void send(HttpExchange ex, int code, String contentType, byte[] body) throws IOException {
+		ex.getResponseHeaders().add("Content-Type", contentType);
+		ex.sendResponseHeaders(code, body.length);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	@Test
+	public void downloadWithRedirectAndCookie() throws Exception {
+		final File out = new File(folder.getRoot(), "1_a.pdf");
+		assertEquals(ScrapStatus.SUCCESS, downloader.download(client, base + "/login", out));
+		assertArrayEquals(PDF, Files.readAllBytes(out.toPath()));
+		assertFalse(new File(folder.getRoot(), "1_a.pdf" + PDFDownloader.PARTIAL_SUFFIX).exists());
+	}
+
+	@Test
+	public void failingStatusCode() throws Exception {
+		final File out = new File(folder.getRoot(), "2_b.pdf");
+		assertEquals(ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE, downloader.download(client, base + "/paper.pdf", out));
+		assertFalse(out.exists());
+	}
+
+	@Test
+	public void invalidURLToPDF() throws Exception {
+		final File out = new File(folder.getRoot(), "3_c.pdf");
+		assertEquals(ScrapStatus.FAILURE_INVALID_URL_TO_PDF, downloader.download(client, base + "/signin.html", out));
+		assertFalse(out.exists());
+	}
+
+	@Test
+	public void noPartialFiles() throws Exception {
+		final File out = new File(folder.getRoot(), "4_d.pdf");
+		assertEquals(ScrapStatus.FAILURE_IO_INPUTSTREAM, downloader.download(client, base + "/truncated.pdf", out));
+		assertFalse(out.exists());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void deduplicateWithStore() throws Exception {
+		final File success = folder.newFolder("SUCCESS");
+		try (PDFStore store = new PDFStore(folder.newFolder("blobs"))) {
+			final PDFDownloader d = new PDFDownloader(null, new DirectBufferPool(2, 4096), store);
+			final File a = new File(success, "1_a.pdf");
+			final File b = new File(success, "2_b.pdf");
+			final File c = new File(success, "3_c.pdf");
+			assertEquals(ScrapStatus.SUCCESS, d.download(client, base + "/login", a));
+			assertEquals(ScrapStatus.SUCCESS, d.download(client, base + "/alias.pdf", b));
+			assertEquals(ScrapStatus.SUCCESS, d.download(client, base + "/alias.pdf", c));
+			assertEquals(1, numAliasRequests.get());
+
+			assertEquals(1, store.getNumBlobs());
+			assertEquals(3, store.getNumFiles());
+			final String hash = store.getHash(base + "/alias.pdf");
+			assertEquals(hash, store.getHash(base + "/login"));
+			assertEquals(PDFStore.toHex(PDFStore.newDigest().digest(PDF)), hash);
+			assertTrue(store.getIdentifiers(hash).contains("2_b"));
+			assertArrayEquals(PDF, Files.readAllBytes(c.toPath()));
+			assertEquals(0, new File(store.getDirectory(), "tmp").list().length);
+		}
+
+		try (PDFStore store = new PDFStore(new File(folder.getRoot(), "blobs"))) {
+			assertEquals(1, store.getNumBlobs());
+			assertEquals(3, store.getNumFiles());
+		}
+	}
+
+}
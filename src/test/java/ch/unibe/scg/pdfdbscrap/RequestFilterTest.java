@@ -0,0 +1,133 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Request filter tests.
+ */
+public class RequestFilterTest {
+
+	private MockPublisherServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockPublisherServer();
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private WebClient newWebClient(RequestFilter.Rules rules) {
+		return new WebClientFactory(
+				Browser.CHROME,
+				null,
+				"127.0.0.1",
+				server.getPort(),
+				JavaScriptProfile.DEFAULT,
+				rules
+		).newWebClient(true);
+	}
+
+	private HtmlPage loadFramePage(WebClient client) throws Exception {
+		// frame injected by a timer, next to first-party, third-party, and
+		// analytics scripts
+		final HtmlPage page = client.getPage(MockPublisherServer.getFrameURL(3));
+		JavaScriptProfile.get(client).await(page, (HtmlPage p) -> !p.getFrames().isEmpty());
+		JavaScriptProfile.stopJobs(client);
+		return page;
+	}
+
+	@Test
+	public void defaultRules() {
+		final RequestFilter.Rules rules = RequestFilter.Rules.getDefault();
+		assertTrue(rules.getNumRules() > 0);
+
+		// analytics: always blocked, even frames
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "ssl.google-analytics.com", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "www.googletagmanager.com", "dl.acm.org", RequestFilter.Kind.DOCUMENT));
+		// images: blocked, even first-party ones
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "dl.acm.org", "dl.acm.org", RequestFilter.Kind.IMAGE));
+		// first-party, and same site
+		assertFalse(rules.isBlocked(PDFDatabase.ACM, "dl.acm.org", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+		assertFalse(rules.isBlocked(PDFDatabase.IEEE, "static.ieee.org", "ieeexplore.ieee.org", RequestFilter.Kind.SCRIPT));
+		// third-party: blocked, but frames and allowed hosts
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "cdn.widgets.example.net", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+		assertTrue(rules.isBlocked(PDFDatabase.UNKNOWN, "cdn.widgets.example.net", "www.example.org", RequestFilter.Kind.OTHER));
+		assertFalse(rules.isBlocked(PDFDatabase.IEEE, "pdf.example.net", "ieeexplore.ieee.org", RequestFilter.Kind.DOCUMENT));
+		assertFalse(rules.isBlocked(PDFDatabase.SCIENCEDIRECT, "sdfe.els-cdn.com", "www.sciencedirect.com", RequestFilter.Kind.SCRIPT));
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "sdfe.els-cdn.com", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+	}
+
+	@Test
+	public void customRules() throws IOException {
+		final RequestFilter.Rules rules = new RequestFilter.Rules(new StringReader(
+				"# comment\n"
+				+ "*\tdeny\tads.example.org\n"
+				+ "ACM\tallow\tads.example.org\n"
+				+ "IEEE\tblock\tscript\n"
+		));
+		assertEquals(3, rules.getNumRules());
+		// deny takes precedence over allow
+		assertTrue(rules.isBlocked(PDFDatabase.ACM, "x.ADS.example.org", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+		assertTrue(rules.isBlocked(PDFDatabase.IEEE, "ieeexplore.ieee.org", "ieeexplore.ieee.org", RequestFilter.Kind.SCRIPT));
+		assertFalse(rules.isBlocked(PDFDatabase.ACM, "dl.acm.org", "dl.acm.org", RequestFilter.Kind.SCRIPT));
+		// no third-party rule
+		assertFalse(rules.isBlocked(PDFDatabase.ACM, "cdn.example.net", "dl.acm.org", RequestFilter.Kind.IMAGE));
+	}
+
+	@Test(expected = IOException.class)
+	public void malformedRule() throws IOException {
+		new RequestFilter.Rules(new StringReader("*\tblock\tcookies\n"));
+	}
+
+	@Test
+	public void kindAndSite() throws Exception {
+		final BrowserVersion browser = Browser.CHROME.getVersion();
+		assertEquals(RequestFilter.Kind.IMAGE, RequestFilter.getKind(new URL("http://dl.acm.org/images/logo.PNG?v=2"), "*/*", browser));
+		assertEquals(RequestFilter.Kind.DOCUMENT, RequestFilter.getKind(new URL("http://ieeexplore.ieee.org/ielx7/1/1.pdf?arnumber=1"), "*/*", browser));
+		assertEquals(RequestFilter.Kind.DOCUMENT, RequestFilter.getKind(new URL("http://dl.acm.org/citation.cfm?id=1"), null, browser));
+		assertEquals(RequestFilter.Kind.IMAGE, RequestFilter.getKind(new URL("http://dl.acm.org/pixel"), browser.getImgAcceptHeader(), browser));
+		assertEquals("ieee.org", RequestFilter.getSite("ieeexplore.ieee.org"));
+		assertEquals("ieee.org", RequestFilter.getSite("ieee.org"));
+		assertEquals("127.0.0.1", RequestFilter.getSite("127.0.0.1"));
+	}
+
+	@Test
+	public void filter() throws Exception {
+		final long blocked = ScrapMetrics.getInstance().getBlocked(PDFDatabase.IEEE, RequestFilter.Kind.SCRIPT);
+		try (WebClient client = newWebClient(RequestFilter.Rules.getDefault())) {
+			final HtmlPage page = loadFramePage(client);
+			assertFalse(page.getFrames().isEmpty());
+			assertEquals(2, ((RequestFilter) client.getWebConnection()).getNumBlocked());
+		}
+		assertEquals(blocked + 2, ScrapMetrics.getInstance().getBlocked(PDFDatabase.IEEE, RequestFilter.Kind.SCRIPT));
+		assertEquals(0, server.getNumRequests(MockPublisherServer.ANALYTICS_HOST));
+		assertEquals(0, server.getNumRequests(MockPublisherServer.THIRD_PARTY_HOST));
+		// frame page, first-party script, and PDF file in the frame
+		assertEquals(3, server.getNumRequests(MockPublisherServer.IEEE_HOST));
+	}
+
+	@Test
+	public void unfiltered() throws Exception {
+		try (WebClient client = newWebClient(null)) {
+			final HtmlPage page = loadFramePage(client);
+			assertFalse(page.getFrames().isEmpty());
+		}
+		assertEquals(1, server.getNumRequests(MockPublisherServer.ANALYTICS_HOST));
+		assertEquals(1, server.getNumRequests(MockPublisherServer.THIRD_PARTY_HOST));
+	}
+
+}
@@ -0,0 +1,58 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resolution cache tests.
+ */
+public class ResolutionCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void persistAndInvalidate() throws Exception {
+		final File file = new File(folder.getRoot(), ResolutionCache.DEFAULT_FILENAME);
+		try (ResolutionCache cache = new ResolutionCache(file)) {
+			cache.put("http://dl.acm.org/a", new Resolution("http://dl.acm.org/a.pdf", ScrapMode.XPATH_ANCHOR, "//a[@name='FullTextPDF']"));
+			cache.put("http://dl.acm.org/b", new Resolution("http://dl.acm.org/b.pdf", ScrapMode.FRAME_SRC, ""));
+			cache.put("http://dl.acm.org/c", Resolution.NONE);
+			cache.invalidate("http://dl.acm.org/b");
+		}
+
+		try (ResolutionCache cache = new ResolutionCache(file)) {
+			assertEquals(1, cache.size());
+			final Resolution a = cache.get("http://dl.acm.org/a");
+			assertEquals("http://dl.acm.org/a.pdf", a.urlToPDF);
+			assertEquals(ScrapMode.XPATH_ANCHOR, a.mode);
+			assertEquals("//a[@name='FullTextPDF']", a.xpath);
+			assertNull(cache.get("http://dl.acm.org/b"));
+			assertNull(cache.get("http://dl.acm.org/c"));
+		}
+	}
+
+	@Test
+	public void evictAndExpire() throws Exception {
+		final File file = new File(folder.getRoot(), ResolutionCache.DEFAULT_FILENAME);
+		try (ResolutionCache cache = new ResolutionCache(file, 60000, 2)) {
+			cache.put("a", new Resolution("a.pdf", ScrapMode.XPATH_ANCHOR, ""));
+			cache.put("b", new Resolution("b.pdf", ScrapMode.XPATH_ANCHOR, ""));
+			cache.get("a");
+			cache.put("c", new Resolution("c.pdf", ScrapMode.XPATH_ANCHOR, ""));
+			assertEquals(2, cache.size());
+			assertNull(cache.get("b"));
+			assertEquals("a.pdf", cache.get("a").urlToPDF);
+		}
+
+		try (ResolutionCache cache = new ResolutionCache(file, -1, 2)) {
+			assertEquals(0, cache.size());
+			assertNull(cache.get("a"));
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Scrap(ing) metrics tests.
+ */
+public class ScrapMetricsTest {
+
+	private static long ago(long millis) {
+		return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	@Test
+	public void histogram() {
+		final ScrapMetrics metrics = new ScrapMetrics();
+		assertNull(metrics.getHistogram(ScrapMetrics.Stage.RESOLVE, PDFDatabase.ACM, ScrapMode.XPATH_ANCHOR));
+		for (int i = 0; i < 9; i++) {
+			metrics.record(ScrapMetrics.Stage.RESOLVE, PDFDatabase.ACM, ScrapMode.XPATH_ANCHOR, ago(200));
+		}
+		metrics.record(ScrapMetrics.Stage.RESOLVE, PDFDatabase.ACM, ScrapMode.XPATH_ANCHOR, ago(3000));
+
+		final ScrapMetrics.Histogram h = metrics.getHistogram(ScrapMetrics.Stage.RESOLVE, PDFDatabase.ACM, ScrapMode.XPATH_ANCHOR);
+		assertEquals(10, h.getCount());
+		assertEquals(0.25, h.getQuantile(0.5), 1e-9);
+		assertEquals(0.25, h.getQuantile(0.9), 1e-9);
+		// the upper bound of the bucket is 5s, but capped by the max.
+		assertEquals(h.getMax(), h.getQuantile(0.99), 1e-9);
+		assertTrue(h.getMax() >= 3.0 && h.getMax() < 5.0);
+		assertTrue(h.getSum() >= 4.8);
+		assertEquals(10, h.getCumulativeCount(ScrapMetrics.BUCKETS.length));
+		assertNull(metrics.getHistogram(ScrapMetrics.Stage.RESOLVE, PDFDatabase.ACM, null));
+	}
+
+	@Test
+	public void export() throws Exception {
+		final ScrapMetrics metrics = new ScrapMetrics();
+		metrics.record(ScrapMetrics.Stage.DOWNLOAD, PDFDatabase.IEEE, ScrapMode.FRAME_SRC, ago(20));
+		metrics.record(ScrapMetrics.Stage.WRITE, PDFDatabase.IEEE, null, ago(1));
+		metrics.addBytes(PDFDatabase.IEEE, 1234);
+		metrics.addRetry(ScrapMetrics.Retry.JAVASCRIPT, PDFDatabase.IEEE);
+		metrics.addStatus(PDFDatabase.IEEE, ScrapStatus.SUCCESS);
+		metrics.addStatus(PDFDatabase.ACM, ScrapStatus.FAILURE_FAILING_HTTP_STATUS_CODE);
+		assertEquals(2, metrics.getNumEntries());
+
+		final StringWriter prom = new StringWriter();
+		metrics.writePrometheus(prom);
+		final String p = prom.toString();
+		assertTrue(p.contains("pdfdbscrap_stage_seconds_bucket{stage=\"download\",database=\"IEEE\",mode=\"FRAME_SRC\",le=\"0.010000\"} 0\n"));
+		assertTrue(p.contains("pdfdbscrap_stage_seconds_bucket{stage=\"download\",database=\"IEEE\",mode=\"FRAME_SRC\",le=\"+Inf\"} 1\n"));
+		assertTrue(p.contains("pdfdbscrap_stage_seconds_count{stage=\"write\",database=\"IEEE\"} 1\n"));
+		assertTrue(p.contains("pdfdbscrap_bytes_total{database=\"IEEE\"} 1234\n"));
+		assertTrue(p.contains("pdfdbscrap_retries_total{database=\"IEEE\",kind=\"javascript\"} 1\n"));
+		assertTrue(p.contains("pdfdbscrap_entries_total{database=\"ACM\",status=\"FAILURE_FAILING_HTTP_STATUS_CODE\"} 1\n"));
+
+		final StringWriter json = new StringWriter();
+		metrics.writeJSON(json);
+		final String j = json.toString();
+		assertTrue(j.contains("\"entries\": 2,"));
+		assertTrue(j.contains("\"statuses\": {\"SUCCESS\": 1}"));
+		assertTrue(j.contains("{\"stage\": \"download\", \"mode\": \"FRAME_SRC\", \"count\": 1,"));
+		assertTrue(j.contains("{\"stage\": \"write\", \"mode\": null, \"count\": 1,"));
+	}
+
+}
@@ -0,0 +1,143 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.StringValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Scrap(ing) pipeline tests.
+ */
+public class ScrapPipelineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static BibTeXEntry newEntry(String key, String url) {
+		final BibTeXEntry e = new BibTeXEntry(BibTeXEntry.TYPE_ARTICLE, new Key(key));
+		if (url != null) {
+			e.addField(BibTeXEntry.KEY_URL, new StringValue(url, StringValue.Style.BRACED));
+		}
+		return e;
+	}
+
+	@Test
+	public void failedEntriesAreJournalled() throws Exception {
+		final File out = folder.newFolder("out");
+		final File file = new File(out, "input-journal.tsv");
+		final AtomicBoolean failFinish = new AtomicBoolean(true);
+		try (ScrapResults results = new ScrapResults(new File(folder.getRoot(), "input.bib"), out);
+				WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 2);
+				JobJournal journal = new JobJournal(file);
+				ResolutionCache cache = new ResolutionCache(new File(folder.getRoot(), "cache.tsv"))) {
+			final EntryScraper scraper = new EntryScraper(
+					ScrapMode.AUTO,
+					Collections.EMPTY_LIST,
+					IDCreator.ENTRY_NUMBER,
+					out,
+					results,
+					new PDFDownloader(null, new DirectBufferPool()),
+					1,
+					0
+			) {
+				@Override
+				public EntryScraper.Job resolve(BibTeXEntry e, int num, WebClient client, WebClient jsclient) {
+					if (num == 1) {
+						throw new IllegalStateException("unexpected resolve failure");
+					}
+					return super.resolve(e, num, client, jsclient);
+				}
+
+				@Override
+				public void download(EntryScraper.Job job, WebClient client, WebClient jsclient) {
+					throw new IllegalStateException("unexpected download failure");
+				}
+
+				@Override
+				public ScrapStatus finish(EntryScraper.Job job) {
+					if (job.getNum() == 3 && failFinish.getAndSet(false)) {
+						throw new IllegalStateException("unexpected finish failure");
+					}
+					return super.finish(job);
+				}
+			};
+			scraper.setJournal(journal);
+			cache.put("http://dl.acm.org/2", new Resolution("http://dl.acm.org/2.pdf", ScrapMode.AUTO, ""));
+			scraper.setResolutionCache(cache);
+
+			final ScrapPipeline pipeline = new ScrapPipeline(scraper, pool, 1, 1, 4);
+			pipeline.submit(newEntry("k1", "http://dl.acm.org/1"), 1);
+			pipeline.submit(newEntry("k2", "http://dl.acm.org/2"), 2);
+			pipeline.submit(newEntry("k3", null), 3);
+			pipeline.awaitCompletion();
+			assertEquals(0, pool.getNumActive());
+		}
+
+		// each stage finishes a failed entry with a retryable status
+		final Map<Integer, JobJournal.Record> records = JobJournal.read(file);
+		assertEquals(3, records.size());
+		for (JobJournal.Record record : records.values()) {
+			assertEquals(ScrapStatus.FAILURE_IO_INPUTSTREAM, record.status);
+			assertTrue(record.status.isRetryable());
+		}
+	}
+
+	@Test
+	public void cookiesFollowTheJob() throws Exception {
+		final File out = folder.newFolder("out");
+		final AtomicInteger numActive = new AtomicInteger(-1);
+		try (ScrapResults results = new ScrapResults(new File(folder.getRoot(), "input.bib"), out);
+				WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 2);
+				ResolutionCache cache = new ResolutionCache(new File(folder.getRoot(), "cache.tsv"))) {
+			final EntryScraper scraper = new EntryScraper(
+					ScrapMode.AUTO,
+					Collections.EMPTY_LIST,
+					IDCreator.ENTRY_NUMBER,
+					out,
+					results,
+					new PDFDownloader(null, new DirectBufferPool()),
+					1,
+					0
+			) {
+				@Override
+				public void download(EntryScraper.Job job, WebClient client, WebClient jsclient) {
+					numActive.set(pool.getNumActive());
+					super.download(job, client, jsclient);
+				}
+			};
+			cache.put("http://dl.acm.org/1", new Resolution("http://127.0.0.1:1/1.pdf", ScrapMode.AUTO, ""));
+			scraper.setResolutionCache(cache);
+
+			// the cookies of the pair that resolved the job go to another pair
+			final WebClientPool.ClientPair resolver = pool.acquire();
+			final WebClientPool.ClientPair downloader = pool.acquire();
+			resolver.jsclient.getCookieManager().addCookie(new Cookie("dl.acm.org", "session", "42"));
+			final EntryScraper.Job job = scraper.resolve(newEntry("k1", "http://dl.acm.org/1"), 1, resolver.client, resolver.jsclient);
+			job.keepCookies(resolver);
+			assertNull(downloader.client.getCookieManager().getCookie("session"));
+			job.restoreCookies(downloader);
+			assertEquals("42", downloader.client.getCookieManager().getCookie("session").getValue());
+			pool.release(resolver);
+			pool.release(downloader);
+
+			// the resolver returns its pair before the job is queued for download
+			final ScrapPipeline pipeline = new ScrapPipeline(scraper, pool, 1, 1, 4);
+			pipeline.submit(newEntry("k2", "http://dl.acm.org/1"), 2);
+			pipeline.awaitCompletion();
+		}
+		assertEquals(1, numActive.get());
+	}
+
+}
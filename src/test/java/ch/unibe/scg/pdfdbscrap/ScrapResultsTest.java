@@ -0,0 +1,61 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.jbibtex.BibTeXEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Streaming scrap(ing) results tests.
+ */
+public class ScrapResultsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static int countEntries(File file) throws Exception {
+		try (BibTeXEntrySource source = new BibTeXEntrySource(file)) {
+			while (source.skip()) {
+				// just count
+			}
+			return source.getNumEntries();
+		}
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void streamEntries() throws Exception {
+		final List<BibTeXEntry> entries = BenchmarkData.parseEntries(BenchmarkData.newBibTeX(5));
+		final File input = new File(folder.getRoot(), "input.bib");
+		final File out = folder.newFolder("out");
+		final File success;
+		try (ScrapResults results = new ScrapResults(input, out)) {
+			success = results.getFile(ScrapStatus.SUCCESS);
+			assertEquals(new File(out, "input-SUCCESS.bib").getAbsoluteFile(), success);
+			for (int i = 0; i < 4; i++) {
+				results.put(ScrapStatus.SUCCESS, entries.get(i));
+				// valid (and complete) while still open
+				assertEquals(i + 1, countEntries(success));
+			}
+			results.put(ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND, Main.formatBibTeXEntry(entries.get(4)));
+			assertEquals(4, results.size(ScrapStatus.SUCCESS));
+			assertEquals(1, results.size(ScrapStatus.FAILURE_URL_TO_PDF_NOTFOUND));
+			assertFalse(results.getFile(ScrapStatus.FAILURE_IO_INPUTSTREAM).exists());
+		}
+
+		// same as a BibTeX database written at once
+		final File expected = new File(folder.getRoot(), "expected.bib");
+		Main.writeBibTeXEntries(entries.subList(0, 4), expected);
+		assertEquals(read(expected), read(success));
+	}
+
+}
@@ -0,0 +1,107 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Static resolution engine tests.
+ */
+public class StaticResolverTest {
+
+	public final static String HTML = ""
+			+ "<!DOCTYPE html>\n"
+			+ "<html><head><base href='http://example.org/dl/'>\n"
+			+ "<script>var s = '<a name=\"FullTextPDF\" href=\"/fake.pdf\">';</script>\n"
+			+ "<!-- <a id=pdfLink href='/commented.pdf'> -->\n"
+			+ "</head><body>\n"
+			+ "<a class=\"download-pdf-link\" href=\"second.pdf\">PDF</a>\n"
+			+ "<A ID=pdfLink HREF=\"first.pdf?a=1&amp;b=2\">PDF</A>\n"
+			+ "<a class='btn stats-pdf' href=/third.pdf>PDF</a>\n"
+			+ "</body></html>\n";
+
+	private static List<AnchorExpression> parse(String... xpaths) {
+		final List<AnchorExpression> list = new ArrayList<>();
+		for (String xpath : xpaths) {
+			list.add(AnchorExpression.parse(xpath));
+		}
+		return list;
+	}
+
+	private static Resolution resolve(String html, String... xpaths) throws Exception {
+		return StaticResolver.resolve(
+				new HtmlTokenizer(new StringReader(html)),
+				new URL("http://example.org/page"),
+				parse(xpaths)
+		);
+	}
+
+	@Test
+	public void parseAnchorExpressions() {
+		final AnchorExpression e = AnchorExpression.parse("//a[contains(@class, 'stats-pdf')]");
+		assertEquals("class", e.attribute);
+		assertEquals(AnchorExpression.Operator.CONTAINS, e.operator);
+		assertEquals("stats-pdf", e.value);
+		assertEquals(AnchorExpression.Operator.EQUALS, AnchorExpression.parse("//a[@name=\"FullTextPDF\"]").operator);
+		assertNull(AnchorExpression.parse("//div[@id='x']/a"));
+		assertNull(AnchorExpression.parse("//a[@id='x' and @name='y']"));
+	}
+
+	@Test
+	public void firstExpressionWins() throws Exception {
+		final Resolution r = resolve(HTML, "//a[@id='pdfLink']", "//a[@class='download-pdf-link']");
+		assertEquals("http://example.org/dl/first.pdf?a=1&b=2", r.urlToPDF);
+		assertEquals(ScrapMode.XPATH_ANCHOR, r.mode);
+		assertEquals("//a[@id='pdfLink']", r.xpath);
+
+		assertEquals("http://example.org/dl/second.pdf", resolve(HTML, "//a[@name='x']", "//a[@class='download-pdf-link']").urlToPDF);
+		assertEquals("http://example.org/third.pdf", resolve(HTML, "//a[contains(@class, 'stats-pdf')]").urlToPDF);
+	}
+
+	@Test
+	public void skipScriptsAndComments() throws Exception {
+		assertTrue(resolve(HTML, "//a[@name='FullTextPDF']").isEmpty());
+		assertTrue(resolve("<a id='pdfLink'>no href</a>", "//a[@id='pdfLink']").isEmpty());
+	}
+
+	@Test
+	public void resolveOverHttp() throws Exception {
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/citation", (HttpExchange ex) -> {
+			ex.getResponseHeaders().add("Location", "/doc/1");
+			ex.sendResponseHeaders(301, -1);
+			ex.close();
+		});
+		server.createContext("/doc", (HttpExchange ex) -> {
+			final byte[] body = "<html><a name='FullTextPDF' href='1.pdf'>PDF</a></html>".getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+			ex.sendResponseHeaders(200, body.length);
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+		try (com.gargoylesoftware.htmlunit.WebClient client = Main.newWebClient(Browser.CHROME, false)) {
+			final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+			final StaticResolver resolver = new StaticResolver(null, EnumSet.of(PDFDatabase.ACM));
+			final Resolution r = resolver.resolve(client, base + "/citation", Arrays.asList("//a[@name='FullTextPDF']"));
+			assertEquals(base + "/doc/1.pdf", r.urlToPDF);
+			assertTrue(resolver.resolve(client, base + "/citation", Arrays.asList("//div/a")).isEmpty());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+}
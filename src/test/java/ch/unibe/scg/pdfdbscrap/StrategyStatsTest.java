@@ -0,0 +1,183 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.WebClient;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Strategy statistics tests.
+ */
+public class StrategyStatsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final static Resolution PDF = new Resolution("http://dx.doi.org/a.pdf", ScrapMode.XPATH_ANCHOR, "//a[@name='FullTextPDF']");
+
+	@Test
+	public void fastestSuccessfulFirst() {
+		final StrategyStats stats = new StrategyStats();
+		final PDFDatabase db = PDFDatabase.DOI;
+		final List<ScrapMode> configured = Arrays.asList(ScrapMode.FRAME_SRC, ScrapMode.XPATH_ANCHOR);
+
+		// untried modes keep the configured order
+		assertEquals(configured, stats.orderModes(db, configured));
+
+		// FRAME_SRC fails slowly, XPATH_ANCHOR succeeds fast
+		for (int i = 0; i < 4; i++) {
+			stats.record(db, ScrapMode.FRAME_SRC, Resolution.NONE, 3000);
+			stats.record(db, ScrapMode.XPATH_ANCHOR, PDF, 500);
+		}
+		assertEquals(
+				Arrays.asList(ScrapMode.XPATH_ANCHOR, ScrapMode.FRAME_SRC),
+				stats.orderModes(db, configured)
+		);
+		assertEquals(4, stats.getAttempts(db, ScrapMode.FRAME_SRC));
+		assertEquals(4, stats.getSuccesses(db, ScrapMode.XPATH_ANCHOR));
+
+		// other databases are not affected
+		assertEquals(configured, stats.orderModes(PDFDatabase.IEEE, configured));
+	}
+
+	@Test
+	public void untriedModesGetTried() {
+		final StrategyStats stats = new StrategyStats();
+		stats.record(PDFDatabase.ACM, ScrapMode.XPATH_ANCHOR, PDF, 100);
+		assertEquals(
+				Arrays.asList(ScrapMode.FRAME_SRC, ScrapMode.XPATH_ANCHOR),
+				stats.orderModes(PDFDatabase.ACM, Arrays.asList(ScrapMode.XPATH_ANCHOR, ScrapMode.FRAME_SRC))
+		);
+	}
+
+	@Test
+	public void skipJavaScriptRetry() {
+		final StrategyStats stats = new StrategyStats();
+		final PDFDatabase db = PDFDatabase.DOI;
+		for (int i = 0; i < StrategyStats.MIN_JAVASCRIPT_RETRIES - 1; i++) {
+			stats.recordJavaScriptRetry(db, ScrapMode.FRAME_SRC, false);
+		}
+		assertTrue(stats.isJavaScriptRetryWorthIt(db, ScrapMode.FRAME_SRC));
+		stats.recordJavaScriptRetry(db, ScrapMode.FRAME_SRC, false);
+		assertFalse(stats.isJavaScriptRetryWorthIt(db, ScrapMode.FRAME_SRC));
+		assertTrue(stats.isJavaScriptRetryWorthIt(PDFDatabase.IEEE, ScrapMode.FRAME_SRC));
+
+		// one success is enough to keep retrying
+		stats.recordJavaScriptRetry(PDFDatabase.IEEE, ScrapMode.FRAME_SRC, true);
+		for (int i = 0; i < 2 * StrategyStats.MIN_JAVASCRIPT_RETRIES; i++) {
+			stats.recordJavaScriptRetry(PDFDatabase.IEEE, ScrapMode.FRAME_SRC, false);
+		}
+		assertTrue(stats.isJavaScriptRetryWorthIt(PDFDatabase.IEEE, ScrapMode.FRAME_SRC));
+	}
+
+	@Test
+	public void probeSkippedJavaScriptRetry() {
+		final StrategyStats stats = new StrategyStats();
+		final PDFDatabase db = PDFDatabase.IEEE;
+		for (int i = 0; i < StrategyStats.MIN_JAVASCRIPT_RETRIES; i++) {
+			stats.recordJavaScriptRetry(db, ScrapMode.FRAME_SRC, false);
+		}
+
+		// skipped, but probed once in a while
+		int numProbes = 0;
+		for (int i = 0; i < 3 * StrategyStats.JAVASCRIPT_PROBE_INTERVAL; i++) {
+			if (stats.isJavaScriptRetryWorthIt(db, ScrapMode.FRAME_SRC)) {
+				numProbes++;
+				stats.recordJavaScriptRetry(db, ScrapMode.FRAME_SRC, false);
+			}
+		}
+		assertEquals(3, numProbes);
+
+		// a successful probe brings the retry back for good
+		while (!stats.isJavaScriptRetryWorthIt(db, ScrapMode.FRAME_SRC)) {
+			// skipped
+		}
+		stats.recordJavaScriptRetry(db, ScrapMode.FRAME_SRC, true);
+		for (int i = 0; i < StrategyStats.JAVASCRIPT_PROBE_INTERVAL; i++) {
+			assertTrue(stats.isJavaScriptRetryWorthIt(db, ScrapMode.FRAME_SRC));
+		}
+	}
+
+	@Test
+	public void matchingExpressionsFirst() {
+		final StrategyStats stats = new StrategyStats();
+		final List<String> configured = Arrays.asList("//a[@id='pdfLink']", "//a[@class='download-pdf-link']");
+		assertEquals(configured, stats.orderExpressions(PDFDatabase.SCIENCEDIRECT, ScrapMode.XPATH_ANCHOR, configured));
+		stats.record(
+				PDFDatabase.SCIENCEDIRECT,
+				ScrapMode.XPATH_ANCHOR,
+				new Resolution("http://www.sciencedirect.com/a.pdf", ScrapMode.XPATH_ANCHOR, configured.get(1)),
+				100
+		);
+		assertEquals(
+				Arrays.asList(configured.get(1), configured.get(0)),
+				stats.orderExpressions(PDFDatabase.SCIENCEDIRECT, ScrapMode.XPATH_ANCHOR, configured)
+		);
+		assertEquals(
+				Collections.singletonList(configured.get(0)),
+				stats.orderExpressions(PDFDatabase.SCIENCEDIRECT, ScrapMode.XPATH_ANCHOR, Collections.singletonList(configured.get(0)))
+		);
+	}
+
+	@Test
+	public void recordFailingMode() throws Exception {
+		// a page that fails with an HTTP status code (thrown by the mode)
+		final StrategyStats stats = StrategyStats.getInstance();
+		final String url = MockPublisherServer.getURL(PDFDatabase.UNKNOWN, 1);
+		final long attempts = stats.getAttempts(PDFDatabase.UNKNOWN, ScrapMode.XPATH_ANCHOR);
+		try (MockPublisherServer server = new MockPublisherServer();
+				WebClient client = new WebClientFactory(Browser.CHROME, null, "127.0.0.1", server.getPort()).newWebClient(false)) {
+			try {
+				ScrapMode.fetchURLToPDFWithRetry(ScrapMode.XPATH_ANCHOR, client, client, url, Collections.EMPTY_LIST);
+				fail();
+			} catch (FailingHttpStatusCodeException ex) {
+				assertEquals(404, ex.getStatusCode());
+			}
+		}
+		assertEquals(attempts + 1, stats.getAttempts(PDFDatabase.UNKNOWN, ScrapMode.XPATH_ANCHOR));
+	}
+
+	@Test
+	public void persist() throws Exception {
+		final File file = new File(folder.getRoot(), StrategyStats.DEFAULT_FILENAME);
+		final StrategyStats stats = new StrategyStats();
+		stats.record(PDFDatabase.DOI, ScrapMode.FRAME_SRC, Resolution.NONE, 3000);
+		stats.record(PDFDatabase.DOI, ScrapMode.XPATH_ANCHOR, PDF, 500);
+		stats.recordJavaScriptRetry(PDFDatabase.DOI, ScrapMode.FRAME_SRC, false);
+		stats.save(file);
+		Files.write(
+				file.toPath(),
+				"mode\tNOPE\tFRAME_SRC\t1\t1\t1\t0\t0\nmalformed\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND
+		);
+
+		final StrategyStats loaded = new StrategyStats();
+		loaded.load(file);
+		loaded.load(new File(folder.getRoot(), "missing.tsv"));
+		assertEquals(1, loaded.getAttempts(PDFDatabase.DOI, ScrapMode.FRAME_SRC));
+		assertEquals(0, loaded.getSuccesses(PDFDatabase.DOI, ScrapMode.FRAME_SRC));
+		assertEquals(1, loaded.getSuccesses(PDFDatabase.DOI, ScrapMode.XPATH_ANCHOR));
+		assertEquals(
+				stats.getExpectedMillis(PDFDatabase.DOI, ScrapMode.FRAME_SRC),
+				loaded.getExpectedMillis(PDFDatabase.DOI, ScrapMode.FRAME_SRC),
+				1e-9
+		);
+
+		// loading adds up
+		loaded.load(file);
+		assertEquals(2, loaded.getAttempts(PDFDatabase.DOI, ScrapMode.FRAME_SRC));
+	}
+
+}
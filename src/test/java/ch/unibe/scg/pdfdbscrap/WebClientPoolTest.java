@@ -0,0 +1,129 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Web client pool tests.
+ */
+public class WebClientPoolTest {
+
+	private HttpServer server;
+	private String base;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", (HttpExchange ex) -> {
+			final byte[] body = "<html><body><a href='/x.pdf'>PDF</a></body></html>".getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().add("Content-Type", "text/html");
+			ex.sendResponseHeaders(200, body.length);
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.createContext("/frames", (HttpExchange ex) -> {
+			final byte[] body = "<html><body><iframe src='/a'></iframe><iframe src='/b'></iframe></body></html>".getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().add("Content-Type", "text/html");
+			ex.sendResponseHeaders(200, body.length);
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void resetAndReuse() throws Exception {
+		try (WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 1, 0, 0)) {
+			assertEquals(1, pool.getNumIdle());
+			final WebClientPool.ClientPair pair = pool.acquire();
+			assertEquals(1, pool.getNumActive());
+			assertEquals(0, pool.getNumIdle());
+			final HtmlPage page = pair.client.getPage(base + "/a");
+			assertEquals(1, page.getAnchors().size());
+			pool.release(pair);
+
+			assertEquals(0, pool.getNumActive());
+			assertEquals(1, pool.getNumIdle());
+			assertEquals("about:blank", pair.client.getCurrentWindow().getEnclosedPage().getUrl().toString());
+			assertEquals(0, pair.client.getCurrentWindow().getHistory().getLength());
+			assertSame(pair, pool.acquire());
+			assertEquals(1, pool.getNumCreated());
+		}
+	}
+
+	@Test
+	public void recycleAfterMaxPages() throws Exception {
+		try (WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 0, 2, 0)) {
+			final WebClientPool.ClientPair pair = pool.acquire();
+			pair.client.getPage(base + "/a");
+			pair.client.getPage(base + "/b");
+			pool.release(pair);
+			assertEquals(1, pool.getNumRecycled());
+			assertEquals(0, pool.getNumIdle());
+			assertNotSame(pair, pool.acquire());
+			assertEquals(2, pool.getNumCreated());
+		}
+	}
+
+	@Test
+	public void countTopLevelPagesOnly() throws Exception {
+		try (WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 0, 3, 0)) {
+			final WebClientPool.ClientPair pair = pool.acquire();
+			pair.client.getPage(base + "/frames");
+			pair.jsclient.getPage(base + "/a");
+			assertEquals(2, pair.getNumPages());
+
+			// the blank pages of the reset don't count
+			pool.release(pair);
+			assertEquals(0, pool.getNumRecycled());
+			assertSame(pair, pool.acquire());
+			assertEquals(2, pair.getNumPages());
+			pair.client.getPage(base + "/b");
+			pool.release(pair);
+			assertEquals(1, pool.getNumRecycled());
+		}
+	}
+
+	@Test
+	public void recycleOncePerCollection() throws Exception {
+		try (WebClientPool pool = new WebClientPool(new WebClientFactory(Browser.CHROME, null), 0, 0, 1)) {
+			final List<WebClientPool.ClientPair> pairs = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				pairs.add(pool.acquire());
+			}
+			System.gc();
+			assertTrue(WebClientPool.getRetainedBytes() > 1);
+			final long n = WebClientPool.getNumCollections();
+			for (WebClientPool.ClientPair pair : pairs) {
+				pool.release(pair);
+			}
+			final long collections = WebClientPool.getNumCollections() - n;
+			assertTrue(pool.getNumRecycled() >= 1);
+			assertTrue(pool.getNumRecycled() <= 1 + collections);
+			assertEquals(pairs.size() - pool.getNumRecycled(), pool.getNumIdle());
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.StringWebResponse;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HTMLParser;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * XPath evaluation benchmark. Evaluates the XPath expressions of the
+ * scrap(ing) configuration of a database over a stored web page of that
+ * database: on an already parsed page, including the construction of the
+ * {@code HtmlPage}, with cached (compiled) XPath expressions, and with the
+ * static resolution engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class XPathBenchmark {
+
+	@Param({"ACM", "IEEE", "SCIENCEDIRECT"})
+	public PDFDatabase db;
+
+	private WebClient client;
+	private String html;
+	private URL url;
+	private List<String> xpathExpressions;
+	private List<AnchorExpression> anchorExpressions;
+	private HtmlPage page;
+
+	@Setup
+	public void setUp() throws IOException {
+		client = Main.newWebClient(Browser.CHROME, false);
+		html = BenchmarkData.readFixture(db);
+		url = new URL(BenchmarkData.getFixtureURL(db));
+		xpathExpressions = new ArrayList<>();
+		for (Map.Entry<ScrapMode, List<String>> e : db.getScrapConfigurations().entrySet()) {
+			xpathExpressions.addAll(e.getValue());
+		}
+		anchorExpressions = new ArrayList<>();
+		for (String xpath : xpathExpressions) {
+			final AnchorExpression expression = AnchorExpression.parse(xpath);
+			if (expression != null) {
+				anchorExpressions.add(expression);
+			}
+		}
+		page = parse();
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+	}
+
+	private HtmlPage parse() throws IOException {
+		return HTMLParser.parseHtml(
+				new StringWebResponse(html, url),
+				client.getCurrentWindow()
+		);
+	}
+
+	@Benchmark
+	public void evaluate(Blackhole bh) {
+		for (String xpath : xpathExpressions) {
+			bh.consume(page.getFirstByXPath(xpath));
+		}
+	}
+
+	@Benchmark
+	public void cachedEvaluate(Blackhole bh) {
+		for (String xpath : xpathExpressions) {
+			bh.consume(XPathCache.getFirstByXPath(page, xpath));
+		}
+	}
+
+	@Benchmark
+	public void parseAndEvaluate(Blackhole bh) throws IOException {
+		final HtmlPage p = parse();
+		for (String xpath : xpathExpressions) {
+			bh.consume(p.getFirstByXPath(xpath));
+		}
+	}
+
+	@Benchmark
+	public Resolution staticResolve() throws IOException {
+		return StaticResolver.resolve(
+				new HtmlTokenizer(new StringReader(html)),
+				url,
+				anchorExpressions
+		);
+	}
+
+}
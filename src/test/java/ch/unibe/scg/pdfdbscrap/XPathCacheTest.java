@@ -0,0 +1,80 @@
+package ch.unibe.scg.pdfdbscrap;
+
+import com.gargoylesoftware.htmlunit.StringWebResponse;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HTMLParser;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import java.net.URL;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * XPath cache tests.
+ */
+public class XPathCacheTest {
+
+	private static HtmlPage parse(WebClient client, String html, String url) throws Exception {
+		return HTMLParser.parseHtml(
+				new StringWebResponse(html, new URL(url)),
+				client.getCurrentWindow()
+		);
+	}
+
+	@Test
+	public void compileOnce() {
+		final String xpath = "//a[@id='compileOnce']";
+		final XPathCache.CompiledXPath compiled = XPathCache.compile(xpath);
+		assertSame(compiled, XPathCache.compile(xpath));
+		assertNotNull(compiled.getAnchorExpression());
+		assertNull(XPathCache.compile("//div[@id='main']//a[1]").getAnchorExpression());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidExpression() {
+		XPathCache.compile("//a[@id='unbalanced'");
+	}
+
+	@Test
+	public void sameAsHtmlUnit() throws Exception {
+		try (WebClient client = Main.newWebClient(Browser.CHROME, false)) {
+			for (PDFDatabase db : new PDFDatabase[]{PDFDatabase.ACM, PDFDatabase.IEEE, PDFDatabase.SCIENCEDIRECT}) {
+				final HtmlPage page = parse(client, BenchmarkData.readFixture(db), BenchmarkData.getFixtureURL(db));
+				for (List<String> expressions : db.getScrapConfigurations().values()) {
+					for (String xpath : expressions) {
+						final Object expected = page.getFirstByXPath(xpath);
+						assertSame(xpath, expected, XPathCache.getFirstByXPath(page, xpath));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void anchorsAndFallback() throws Exception {
+		try (WebClient client = Main.newWebClient(Browser.CHROME, false)) {
+			final HtmlPage page = parse(
+					client,
+					"<html><body>"
+					+ "<a href='/first.html' class='x'>first</a>"
+					+ "<div id='main'><a href='/paper.pdf' class='btn download-pdf'>PDF</a></div>"
+					+ "<a name='FullTextPDF' href='/ft.pdf'>full text</a>"
+					+ "</body></html>",
+					"http://www.example.org/"
+			);
+			final HtmlAnchor a = XPathCache.getFirstByXPath(page, "//a[contains(@class, 'download-pdf')]");
+			assertEquals("/paper.pdf", a.getHrefAttribute());
+			final HtmlAnchor b = XPathCache.getFirstByXPath(page, "//a[@name='FullTextPDF']");
+			assertEquals("/ft.pdf", b.getHrefAttribute());
+			final HtmlAnchor c = XPathCache.getFirstByXPath(page, "//div[@id='main']/a");
+			assertSame(a, c);
+			assertNull(XPathCache.getFirstByXPath(page, "//a[@id='pdfLink']"));
+			assertNull(XPathCache.getFirstByXPath(page, "//a[starts-with(@title, '')]"));
+		}
+	}
+
+}